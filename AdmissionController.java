@@ -0,0 +1,258 @@
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for requests. Every route has a concurrency limit and a
+ * bounded queue of requests waiting for a slot; a request that finds the
+ * queue full, or waits longer than the maximum wait, is turned away so the
+ * servlet can answer 429 instead of tying up a container thread.
+ *
+ * Routes are interactive or batch. Waiting interactive requests are always
+ * admitted before waiting batch requests, and the batch routes together are
+ * held to an adaptive limit: when the p99 latency of interactive requests
+ * over the last second exceeds the target, the limit is halved, and while
+ * it stays under the target the limit grows back by one per second.
+ */
+public class AdmissionController {
+    /** Routes that read the whole corpus or write large files; every other route is interactive */
+    public static final Set<Metrics.Route> BATCH_ROUTES = Collections.unmodifiableSet(EnumSet.of(
+        Metrics.Route.LIST, Metrics.Route.SORTED, Metrics.Route.UPLOAD, Metrics.Route.BULK));
+    /** Concurrent requests per route unless configured otherwise */
+    public static final String DEFAULT_LIMITS = "search=32,suggest=32,document=32,status=32,delete=16,other=16,"
+        + "stats=8,metrics=4,list=4,sorted=2,upload=16,bulk=2";
+    /** Waiting requests per route unless configured otherwise */
+    public static final String DEFAULT_QUEUES = "search=64,suggest=64,document=64,status=64,delete=32,other=32,"
+        + "stats=8,metrics=4,list=4,sorted=2,upload=16,bulk=2";
+    
+    private static final Metrics.Route[] ROUTES = Metrics.Route.values();
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MIN_SAMPLES = 20;      // Interactive requests needed in an interval to judge its p99
+    
+    private final int[] limits;
+    private final int[] queueLimits;
+    private final int maxBatchLimit;
+    private final long maxWaitNanos;
+    private final long latencyTargetMicros;
+    private final LogHistogram interactiveMicros = new LogHistogram();  // Current interval only
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition interactiveTurn = lock.newCondition();
+    private final Condition batchTurn = lock.newCondition();
+    private final int[] running = new int[ROUTES.length];
+    private final int[] waiting = new int[ROUTES.length];
+    private int batchRunning;
+    private int interactiveWaiting;
+    private int batchLimit;
+    private long intervalStart = System.nanoTime();
+    private long interactiveP99Micros;              // Of the last complete interval
+    private long admitted;
+    private long rejected;
+    
+    /**
+     * @param limits Overrides of DEFAULT_LIMITS as route=count pairs, e.g. "search=64,sorted=1"
+     * @param queues Overrides of DEFAULT_QUEUES in the same form
+     * @param maxBatchConcurrency Most batch requests running at once, however low interactive latency is
+     * @param maxWaitMs Longest a request waits in its queue before it is turned away
+     * @param latencyTargetMs p99 latency of interactive requests above which batch work is cut back
+     */
+    public AdmissionController(String limits, String queues, int maxBatchConcurrency,
+                               long maxWaitMs, long latencyTargetMs) {
+        this.limits = parseCounts(DEFAULT_LIMITS, limits);
+        this.queueLimits = parseCounts(DEFAULT_QUEUES, queues);
+        this.maxBatchLimit = Math.max(1, maxBatchConcurrency);
+        this.batchLimit = maxBatchLimit;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        this.latencyTargetMicros = TimeUnit.MILLISECONDS.toMicros(latencyTargetMs);
+    }
+    
+    /**
+     * Admits a request, waiting in the route's queue if it is at its limit
+     * @param route Route of the request
+     * @return Permit to pass to release() when the request is done, or null if it must be turned away
+     */
+    public Permit tryAcquire(Metrics.Route route) throws InterruptedException {
+        long start = System.nanoTime();
+        int r = route.ordinal();
+        boolean batch = BATCH_ROUTES.contains(route);
+        lock.lock();
+        try {
+            if (!canRun(r, batch)) {
+                if (waiting[r] >= queueLimits[r]) {
+                    rejected++;
+                    return null;
+                }
+                waiting[r]++;
+                if (!batch) {
+                    interactiveWaiting++;
+                }
+                try {
+                    long remaining = maxWaitNanos;
+                    while (!canRun(r, batch)) {
+                        if (remaining <= 0) {
+                            rejected++;
+                            return null;
+                        }
+                        remaining = (batch ? batchTurn : interactiveTurn).awaitNanos(remaining);
+                    }
+                } finally {
+                    waiting[r]--;
+                    if (!batch && --interactiveWaiting == 0) {
+                        batchTurn.signalAll();  // Batch requests were held back for this one
+                    }
+                }
+            }
+            running[r]++;
+            if (batch) {
+                batchRunning++;
+            }
+            admitted++;
+        } finally {
+            lock.unlock();
+        }
+        return new Permit(route, start);
+    }
+    
+    /**
+     * Ends an admitted request, letting the next waiting one in
+     */
+    public void release(Permit permit) {
+        int r = permit.route.ordinal();
+        boolean batch = BATCH_ROUTES.contains(permit.route);
+        long now = System.nanoTime();
+        if (!batch) {
+            interactiveMicros.record((now - permit.startNanos) / 1000);  // Including the time it waited
+        }
+        lock.lock();
+        try {
+            running[r]--;
+            if (batch) {
+                batchRunning--;
+            }
+            if (now - intervalStart >= ADJUST_INTERVAL_NANOS) {
+                adjustBatchLimit(now);
+            }
+            // Waiters re-check their own route's limit; batch waiters also yield to interactive ones
+            interactiveTurn.signalAll();
+            batchTurn.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return Seconds a turned-away client should wait before retrying; batch work backs off longer
+     */
+    public int retryAfterSeconds(Metrics.Route route) {
+        return BATCH_ROUTES.contains(route) ? 5 : 1;
+    }
+    
+    /**
+     * @return Current limits, load and admission counts
+     */
+    public Stats getStats() {
+        lock.lock();
+        try {
+            int totalRunning = 0;
+            int totalWaiting = 0;
+            for (int i = 0; i < ROUTES.length; i++) {
+                totalRunning += running[i];
+                totalWaiting += waiting[i];
+            }
+            return new Stats(batchLimit, batchRunning, totalRunning, totalWaiting, interactiveP99Micros,
+                admitted, rejected);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private boolean canRun(int r, boolean batch) {
+        if (running[r] >= limits[r]) {
+            return false;
+        }
+        return !batch || (batchRunning < batchLimit && interactiveWaiting == 0);
+    }
+    
+    // Multiplicative decrease past the latency target, additive increase below it
+    private void adjustBatchLimit(long now) {
+        if (interactiveMicros.count() >= MIN_SAMPLES) {
+            interactiveP99Micros = interactiveMicros.percentile(99);
+            if (interactiveP99Micros > latencyTargetMicros) {
+                batchLimit = Math.max(1, batchLimit / 2);
+            } else if (batchLimit < maxBatchLimit) {
+                batchLimit++;
+            }
+        } else if (batchLimit < maxBatchLimit) {
+            batchLimit++;   // Too little interactive traffic to be hurt by batch work
+        }
+        interactiveMicros.reset();
+        intervalStart = now;
+    }
+    
+    // Per-route counts from "route=count" pairs, the overrides applied over the defaults
+    private static int[] parseCounts(String defaults, String overrides) {
+        int[] counts = new int[ROUTES.length];
+        for (String spec : new String[] {defaults, overrides}) {
+            if (spec == null || spec.trim().isEmpty()) {
+                continue;
+            }
+            for (String pair : spec.split(",")) {
+                String[] parts = pair.split("=");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Expected route=count, got " + pair);
+                }
+                Metrics.Route route = Metrics.Route.valueOf(parts[0].trim().toUpperCase());
+                counts[route.ordinal()] = Integer.parseInt(parts[1].trim());
+            }
+        }
+        return counts;
+    }
+    
+    /**
+     * An admitted request's slot
+     */
+    public static final class Permit {
+        private final Metrics.Route route;
+        private final long startNanos;
+        
+        private Permit(Metrics.Route route, long startNanos) {
+            this.route = route;
+            this.startNanos = startNanos;
+        }
+    }
+    
+    /**
+     * Admission counters
+     */
+    public static class Stats {
+        private final int batchLimit;
+        private final int batchRunning;
+        private final int running;
+        private final int waiting;
+        private final long interactiveP99Micros;
+        private final long admitted;
+        private final long rejected;
+        
+        Stats(int batchLimit, int batchRunning, int running, int waiting, long interactiveP99Micros,
+              long admitted, long rejected) {
+            this.batchLimit = batchLimit;
+            this.batchRunning = batchRunning;
+            this.running = running;
+            this.waiting = waiting;
+            this.interactiveP99Micros = interactiveP99Micros;
+            this.admitted = admitted;
+            this.rejected = rejected;
+        }
+        
+        public int getBatchLimit() { return batchLimit; }
+        public int getBatchRunning() { return batchRunning; }
+        public int getRunning() { return running; }
+        public int getWaiting() { return waiting; }
+        public long getInteractiveP99Micros() { return interactiveP99Micros; }
+        public long getAdmitted() { return admitted; }
+        public long getRejected() { return rejected; }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,220 @@
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the files of a zip or tar archive as it is streamed, without
+ * extracting it first. Directories and other non-file entries are skipped.
+ */
+public abstract class ArchiveBulkSource implements BulkSource {
+    protected final InputStream in;
+    protected String fileName;
+    
+    private ArchiveBulkSource(InputStream in) {
+        this.in = in;
+    }
+    
+    /**
+     * @param in Zip archive
+     * @return Source over the files in the archive
+     */
+    public static BulkSource zip(InputStream in) {
+        return new Zip(in);
+    }
+    
+    /**
+     * @param in Uncompressed ustar or GNU tar archive
+     * @return Source over the files in the archive
+     */
+    public static BulkSource tar(InputStream in) {
+        return new Tar(in);
+    }
+    
+    @Override
+    public String fileName() {
+        return fileName;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+    
+    private static final class Zip extends ArchiveBulkSource {
+        Zip(InputStream in) {
+            super(new ZipInputStream(in, StandardCharsets.UTF_8));
+        }
+        
+        @Override
+        public boolean next() throws IOException {
+            ZipInputStream zip = (ZipInputStream) in;
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    fileName = baseName(entry.getName());
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        @Override
+        public InputStream content() {
+            return new FilterInputStream(in) {
+                @Override
+                public void close() {}  // Closing an entry must not close the archive
+            };
+        }
+    }
+    
+    private static final class Tar extends ArchiveBulkSource {
+        private static final int BLOCK = 512;
+        
+        private final byte[] header = new byte[BLOCK];
+        private long remaining;     // Unread bytes of the current entry
+        private long padding;       // Bytes after the entry up to the next block boundary
+        
+        Tar(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public boolean next() throws IOException {
+            skipFully(remaining + padding);
+            String longName = null;
+            while (readHeader()) {
+                long size = parseOctal(header, 124, 12);
+                long blocks = (size + BLOCK - 1) / BLOCK * BLOCK;
+                byte type = header[156];
+                
+                if (type == 'L') {
+                    // GNU long name: the entry's data is the name of the next entry
+                    byte[] name = new byte[(int) size];
+                    readFully(name);
+                    skipFully(blocks - size);
+                    longName = cString(name, 0, name.length);
+                    continue;
+                }
+                if (type != '0' && type != 0) {
+                    skipFully(blocks);   // Directories, links and pax headers
+                    longName = null;
+                    continue;
+                }
+                
+                String name = longName != null ? longName : cString(header, 0, 100);
+                String prefix = cString(header, 345, 155);
+                if (longName == null && !prefix.isEmpty()) {
+                    name = prefix + "/" + name;
+                }
+                fileName = baseName(name);
+                remaining = size;
+                padding = blocks - size;
+                return true;
+            }
+            return false;
+        }
+        
+        @Override
+        public InputStream content() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    int b = in.read();
+                    if (b < 0) {
+                        throw new EOFException("Truncated tar entry " + fileName);
+                    }
+                    remaining--;
+                    return b;
+                }
+                
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    int read = in.read(b, off, (int) Math.min(len, remaining));
+                    if (read < 0) {
+                        throw new EOFException("Truncated tar entry " + fileName);
+                    }
+                    remaining -= read;
+                    return read;
+                }
+            };
+        }
+        
+        // False at the all-zero end-of-archive block or end of stream
+        private boolean readHeader() throws IOException {
+            int filled = 0;
+            int read;
+            while (filled < BLOCK && (read = in.read(header, filled, BLOCK - filled)) != -1) {
+                filled += read;
+            }
+            if (filled < BLOCK) {
+                return false;
+            }
+            for (byte b : header) {
+                if (b != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private void readFully(byte[] buffer) throws IOException {
+            int filled = 0;
+            while (filled < buffer.length) {
+                int read = in.read(buffer, filled, buffer.length - filled);
+                if (read < 0) {
+                    throw new EOFException("Truncated tar archive");
+                }
+                filled += read;
+            }
+        }
+        
+        private void skipFully(long n) throws IOException {
+            while (n > 0) {
+                long skipped = in.skip(n);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException("Truncated tar archive");
+                    }
+                    skipped = 1;
+                }
+                n -= skipped;
+            }
+        }
+        
+        private static long parseOctal(byte[] buffer, int offset, int length) {
+            long value = 0;
+            for (int i = offset; i < offset + length; i++) {
+                byte b = buffer[i];
+                if (b >= '0' && b <= '7') {
+                    value = value * 8 + (b - '0');
+                } else if (b != ' ' || value > 0) {
+                    break;  // Leading spaces are padding; NUL or space ends the number
+                }
+            }
+            return value;
+        }
+        
+        private static String cString(byte[] buffer, int offset, int length) {
+            int end = offset;
+            while (end < offset + length && buffer[end] != 0) {
+                end++;
+            }
+            return new String(buffer, offset, end - offset, StandardCharsets.UTF_8);
+        }
+    }
+    
+    // Archives keep directory paths; documents are named by their file name only
+    private static String baseName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
\ No newline at end of file
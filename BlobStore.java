@@ -0,0 +1,29 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Persistence for document files. Implemented on top of Cloud Storage in
+ * production and in memory for running offline.
+ */
+public interface BlobStore {
+    
+    /**
+     * Writes a file, replacing any existing file with the same name
+     * @param name Blob name
+     * @param content Stream to copy; read to the end but not closed
+     * @return Number of bytes written
+     */
+    long write(String name, InputStream content) throws IOException;
+    
+    /**
+     * @param name Blob name
+     * @return Stream over the file's bytes
+     */
+    InputStream open(String name) throws IOException;
+    
+    /**
+     * @param name Blob name
+     * @return false if there was no file with this name
+     */
+    boolean delete(String name);
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Outcome of a bulk ingest, batch by batch. Files that could not be stored
+ * are listed with their error; the rest of their batch is unaffected. Files
+ * whose content was already stored are listed with the existing document.
+ */
+public class BulkReport {
+    private final List<Batch> batches = new ArrayList<>();
+    private long elapsedMs;
+    
+    void addBatch(Batch batch) { batches.add(batch); }
+    void setElapsedMs(long elapsedMs) { this.elapsedMs = elapsedMs; }
+    
+    public List<Batch> getBatches() { return batches; }
+    public long getElapsedMs() { return elapsedMs; }
+    
+    public int getStored() {
+        int stored = 0;
+        for (Batch batch : batches) {
+            stored += batch.getStored();
+        }
+        return stored;
+    }
+    
+    public int getDuplicates() {
+        int duplicates = 0;
+        for (Batch batch : batches) {
+            duplicates += batch.getDuplicates().size();
+        }
+        return duplicates;
+    }
+    
+    public int getFailed() {
+        int failed = 0;
+        for (Batch batch : batches) {
+            failed += batch.getFailures().size();
+        }
+        return failed;
+    }
+    
+    /**
+     * @return Stored documents per second over the whole ingest
+     */
+    public double getDocumentsPerSecond() {
+        return elapsedMs == 0 ? 0 : getStored() * 1000.0 / elapsedMs;
+    }
+    
+    /**
+     * One batch of files stored together with a single metadata write
+     */
+    public static class Batch {
+        private final int index;
+        private final List<String> documentIds = new ArrayList<>();
+        private final List<Failure> failures = new ArrayList<>();
+        private final List<Duplicate> duplicates = new ArrayList<>();
+        private int retries;        // Repeated blob and metadata writes
+        private long bytes;
+        private long elapsedMs;
+        
+        Batch(int index) {
+            this.index = index;
+        }
+        
+        void addDocument(Document doc) {
+            documentIds.add(doc.getId());
+            bytes += doc.getSize();
+        }
+        
+        void addFailure(String fileName, Throwable error) {
+            failures.add(new Failure(fileName, String.valueOf(error.getMessage())));
+        }
+        
+        void addDuplicate(String fileName, String documentId) {
+            duplicates.add(new Duplicate(fileName, documentId));
+        }
+        
+        // Turns duplicates of documents that failed to store into failures
+        void dropDuplicatesOf(Predicate<String> failedId) {
+            duplicates.removeIf(d -> {
+                if (failedId.test(d.getDocumentId())) {
+                    failures.add(new Failure(d.getFileName(), "Identical file in the same batch was not stored"));
+                    return true;
+                }
+                return false;
+            });
+        }
+        
+        void addRetries(int count) { retries += count; }
+        void setElapsedMs(long elapsedMs) { this.elapsedMs = elapsedMs; }
+        
+        public int getIndex() { return index; }
+        public int getStored() { return documentIds.size(); }
+        public List<String> getDocumentIds() { return documentIds; }
+        public List<Failure> getFailures() { return failures; }
+        public List<Duplicate> getDuplicates() { return duplicates; }
+        public int getRetries() { return retries; }
+        public long getBytes() { return bytes; }
+        public long getElapsedMs() { return elapsedMs; }
+        
+        public double getDocumentsPerSecond() {
+            return elapsedMs == 0 ? 0 : documentIds.size() * 1000.0 / elapsedMs;
+        }
+        
+        public double getBytesPerSecond() {
+            return elapsedMs == 0 ? 0 : bytes * 1000.0 / elapsedMs;
+        }
+    }
+    
+    /**
+     * A file that was not stored
+     */
+    public static class Failure {
+        private final String fileName;
+        private final String error;
+        
+        Failure(String fileName, String error) {
+            this.fileName = fileName;
+            this.error = error;
+        }
+        
+        public String getFileName() { return fileName; }
+        public String getError() { return error; }
+    }
+    
+    /**
+     * A file that was not stored because its content already was
+     */
+    public static class Duplicate {
+        private final String fileName;
+        private final String documentId;
+        
+        Duplicate(String fileName, String documentId) {
+            this.fileName = fileName;
+            this.documentId = documentId;
+        }
+        
+        public String getFileName() { return fileName; }
+        public String getDocumentId() { return documentId; }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,26 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Sequence of files read one after the other, such as the entries of an
+ * archive or the parts of a multipart request, for DocumentManager.uploadBatch()
+ */
+public interface BulkSource extends Closeable {
+    
+    /**
+     * Moves to the next file
+     * @return false when there are no more files
+     */
+    boolean next() throws IOException;
+    
+    /**
+     * @return Name of the current file
+     */
+    String fileName();
+    
+    /**
+     * @return Stream over the current file, only valid until next() is called
+     */
+    InputStream content() throws IOException;
+}
\ No newline at end of file
@@ -0,0 +1,65 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Process-wide dictionary encoding of category names. Each distinct name
+ * gets a small int code the first time it is seen; codes are never reused,
+ * so documents and snapshots can store the code instead of the string.
+ *
+ * There are only a handful of categories, so the dictionary stays tiny.
+ */
+public final class CategoryDictionary {
+    /** Code of a missing (null) category */
+    public static final int NONE = -1;
+    
+    private static final ConcurrentHashMap<String, Integer> CODES = new ConcurrentHashMap<>();
+    private static volatile AtomicReferenceArray<String> names = new AtomicReferenceArray<>(16);
+    private static int size;    // Guarded by the class lock
+    
+    private CategoryDictionary() {}
+    
+    /**
+     * @param name Category name, may be null
+     * @return Code for the name, assigning a new one if needed
+     */
+    public static int code(String name) {
+        if (name == null) {
+            return NONE;
+        }
+        Integer code = CODES.get(name);
+        return code != null ? code : assign(name);
+    }
+    
+    /**
+     * @param code Code returned by code()
+     * @return Category name, or null for NONE
+     */
+    public static String name(int code) {
+        return code == NONE ? null : names.get(code);
+    }
+    
+    /**
+     * @return Number of codes assigned so far; codes are 0 to size() - 1
+     */
+    public static synchronized int size() {
+        return size;
+    }
+    
+    private static synchronized int assign(String name) {
+        Integer code = CODES.get(name);
+        if (code != null) {
+            return code;
+        }
+        if (size == names.length()) {
+            AtomicReferenceArray<String> grown = new AtomicReferenceArray<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                grown.set(i, names.get(i));
+            }
+            names = grown;
+        }
+        // Publish the name before the code, so whoever sees the code can read the name
+        names.set(size, name);
+        CODES.put(name, size);
+        return size++;
+    }
+}
\ No newline at end of file
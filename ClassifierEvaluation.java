@@ -0,0 +1,77 @@
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Offline harness that measures the classifier's feature pipeline on a
+ * labelled corpus. The corpus is shuffled with a fixed seed and split into a
+ * training and a held-out set; the report covers training time, feature
+ * extraction throughput, classification latency and held-out accuracy.
+ *
+ * Usage: java ClassifierEvaluation corpus.jsonl [testFraction] [featureCap] [seed]
+ *
+ * The corpus format is the one read by ClassifierTrainer.
+ */
+public class ClassifierEvaluation {
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("Usage: java ClassifierEvaluation <corpus.jsonl> [testFraction] [featureCap] [seed]");
+            System.exit(2);
+        }
+        double testFraction = args.length > 1 ? Double.parseDouble(args[1]) : 0.2;
+        int featureCap = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42L;
+        
+        Map<String, String> contents = new HashMap<>();
+        List<Document> corpus = ClassifierTrainer.readCorpus(Paths.get(args[0]), contents);
+        Collections.shuffle(corpus, new Random(seed));
+        int testSize = (int) Math.round(corpus.size() * testFraction);
+        List<Document> training = corpus.subList(testSize, corpus.size());
+        List<Document> heldOut = corpus.subList(0, testSize);
+        if (training.isEmpty() || heldOut.isEmpty()) {
+            System.err.println("Corpus of " + corpus.size() + " documents is too small to split");
+            System.exit(1);
+        }
+        System.out.println("Training on " + training.size() + " documents, testing on " + heldOut.size());
+        
+        // Feature extraction on its own, fitted to the training set
+        long start = System.nanoTime();
+        FeatureExtractor features = FeatureExtractor.fit(training, doc -> contents.get(doc.getId()), featureCap);
+        System.out.printf("Fitted %d features in %d ms%n", features.numFeatures(), (System.nanoTime() - start) / 1000000);
+        
+        long chars = 0;
+        long nonZero = 0;
+        start = System.nanoTime();
+        for (Document doc : corpus) {
+            String text = contents.get(doc.getId());
+            chars += doc.getTitle().length() + (text == null ? 0 : text.length());
+            nonZero += features.extract(doc, text == null ? null : new StringReader(text)).getIndices().length;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Extraction: %.0f docs/s, %.0f chars/s, %.1f non-zero features per document%n",
+            corpus.size() / seconds, chars / seconds, (double) nonZero / corpus.size());
+        
+        // Memo disabled so every prediction is actually scored
+        DocumentClassifier classifier = new DocumentClassifier(0, featureCap);
+        start = System.nanoTime();
+        classifier.train(training, doc -> contents.get(doc.getId()));
+        System.out.printf("Trained in %d ms%n", (System.nanoTime() - start) / 1000000);
+        
+        LogHistogram latency = new LogHistogram();
+        int correct = 0;
+        for (Document doc : heldOut) {
+            String text = contents.get(doc.getId());
+            long t0 = System.nanoTime();
+            String predicted = classifier.classify(doc, text == null ? null : new StringReader(text));
+            latency.record(System.nanoTime() - t0);
+            if (predicted.equals(doc.getCategory())) {
+                correct++;
+            }
+        }
+        System.out.printf("Classification latency: p50 %d us, p99 %d us%n",
+            latency.percentile(50) / 1000, latency.percentile(99) / 1000);
+        System.out.printf("Held-out accuracy: %.2f%% (%d/%d)%n",
+            100.0 * correct / heldOut.size(), correct, heldOut.size());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,102 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Stores trained classifier models as versioned files in a local directory.
+ * File names carry the feature pipeline version, so a model trained with a
+ * different set of features is never loaded. Only trusted, locally written
+ * files belong in this directory because loading deserializes them.
+ */
+public class ClassifierModelStore {
+    private static final Pattern FILE_NAME = Pattern.compile("classifier-f(\\d+)-v(\\d+)\\.model");
+    private static final int MODELS_KEPT = 5;   // Older versions are pruned after each save
+    
+    private final Path directory;
+    
+    public ClassifierModelStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+    
+    /**
+     * Writes a trained model as the newest version
+     * @param featureVersion Version of the feature pipeline the model was trained with
+     * @param model Trained model, including whatever it needs to compute its features
+     * @return Version number of the stored model
+     */
+    public synchronized long save(int featureVersion, Serializable model) throws IOException {
+        long version = Math.max(System.currentTimeMillis(), latestVersion(featureVersion) + 1);
+        Path target = directory.resolve(fileName(featureVersion, version));
+        Path tmp = directory.resolve(target.getFileName() + ".tmp");
+        
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(featureVersion);
+            out.writeLong(version);
+            out.writeObject(model);
+        }
+        // Readers never see a partially written model
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        
+        prune(featureVersion);
+        return version;
+    }
+    
+    /**
+     * @param featureVersion Feature pipeline version to look for
+     * @return Newest stored version, or -1 if there is none
+     */
+    public long latestVersion(int featureVersion) throws IOException {
+        long latest = -1;
+        for (long version : versions(featureVersion)) {
+            latest = Math.max(latest, version);
+        }
+        return latest;
+    }
+    
+    /**
+     * Reads a stored model
+     * @param featureVersion Feature pipeline version of the model
+     * @param version Model version from latestVersion() or save()
+     * @return Trained model, as passed to save()
+     */
+    public Object load(int featureVersion, long version) throws IOException {
+        Path file = directory.resolve(fileName(featureVersion, version));
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != featureVersion || in.readLong() != version) {
+                throw new IOException("Model file " + file + " does not match its name");
+            }
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Model file " + file + " is not a compatible model", e);
+        }
+    }
+    
+    private List<Long> versions(int featureVersion) throws IOException {
+        List<Long> versions = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher m = FILE_NAME.matcher(file.getFileName().toString());
+                if (m.matches() && Integer.parseInt(m.group(1)) == featureVersion) {
+                    versions.add(Long.parseLong(m.group(2)));
+                }
+            });
+        }
+        return versions;
+    }
+    
+    private void prune(int featureVersion) throws IOException {
+        List<Long> versions = versions(featureVersion);
+        versions.sort(null);
+        for (int i = 0; i < versions.size() - MODELS_KEPT; i++) {
+            Files.deleteIfExists(directory.resolve(fileName(featureVersion, versions.get(i))));
+        }
+    }
+    
+    private static String fileName(int featureVersion, long version) {
+        return "classifier-f" + featureVersion + "-v" + version + ".model";
+    }
+}
\ No newline at end of file
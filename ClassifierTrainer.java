@@ -0,0 +1,84 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline entry point that trains a classifier from an exported corpus and
+ * stores it as a new model version. Running servlets pick the new version up
+ * on their next reload check.
+ *
+ * Usage: java ClassifierTrainer corpus.jsonl modelDir
+ *
+ * The corpus has one JSON object per line, with the same fields as the
+ * documents returned by GET /api/; "category" is required. An optional
+ * "content" field holds the document's extracted text.
+ */
+public class ClassifierTrainer {
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: java ClassifierTrainer <corpus.jsonl> <modelDir>");
+            System.exit(2);
+        }
+        
+        Map<String, String> contents = new HashMap<>();
+        List<Document> corpus = readCorpus(Paths.get(args[0]), contents);
+        System.out.println("Training on " + corpus.size() + " documents");
+        
+        long start = System.currentTimeMillis();
+        DocumentClassifier classifier = new DocumentClassifier();
+        classifier.train(corpus, doc -> contents.get(doc.getId()));
+        long version = classifier.save(new ClassifierModelStore(Paths.get(args[1])));
+        
+        System.out.println("Stored model version " + version + " in "
+            + (System.currentTimeMillis() - start) + " ms");
+    }
+    
+    /**
+     * Reads a JSON-lines corpus, skipping blank lines
+     * @param file Corpus file
+     * @param contents Receives the extracted text of documents that have one, by id
+     * @return Labelled documents
+     */
+    static List<Document> readCorpus(Path file, Map<String, String> contents) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        List<Document> corpus = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                JsonNode node = mapper.readTree(line);
+                if (!node.hasNonNull("category")) {
+                    throw new IOException("Line " + lineNumber + " has no category");
+                }
+                String id = node.path("id").asText("line-" + lineNumber);
+                if (node.hasNonNull("content")) {
+                    contents.put(id, node.get("content").asText());
+                }
+                corpus.add(new Document(
+                    id,
+                    node.path("title").asText(""),
+                    node.path("filePath").asText(""),
+                    node.path("size").asLong(),
+                    node.path("fileType").asText("UNKNOWN"),
+                    node.get("category").asText(),
+                    new Date(node.path("uploadDate").asLong(System.currentTimeMillis()))));
+            }
+        }
+        return corpus;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+/**
+ * Stores document files in a Cloud Storage bucket.
+ *
+ * Files are written through a resumable upload session in fixed-size chunks,
+ * copied through a buffer that each thread allocates once and reuses, so an
+ * upload never holds more than one chunk in memory. The channel state is
+ * captured before each chunk; if sending a chunk fails the session is
+ * restored from that state and the chunk is sent again instead of starting
+ * the whole upload over. A failed upload is abandoned rather than closed,
+ * so no truncated file is stored.
+ */
+public class CloudStorageBlobStore implements BlobStore {
+    /** Chunk size used unless configured otherwise; must be a multiple of 256 KiB */
+    public static final int DEFAULT_CHUNK_SIZE = 2 * 1024 * 1024;
+    
+    private static final int CHUNK_GRANULARITY = 256 * 1024;
+    private static final int MAX_CHUNK_ATTEMPTS = 3;    // Tries per chunk before the upload fails
+    
+    private final Storage storage;
+    private final String bucketName;
+    private final int chunkSize;
+    private final ThreadLocal<ByteBuffer> buffers;  // One chunk per uploading thread
+    
+    public CloudStorageBlobStore(Storage storage, String bucketName) {
+        this(storage, bucketName, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * @param storage Cloud Storage client
+     * @param bucketName Bucket holding the files
+     * @param chunkSize Bytes sent per upload request; rounded up to a multiple of 256 KiB
+     */
+    public CloudStorageBlobStore(Storage storage, String bucketName, int chunkSize) {
+        this.storage = storage;
+        this.bucketName = bucketName;
+        this.chunkSize = Math.max(1, (chunkSize + CHUNK_GRANULARITY - 1) / CHUNK_GRANULARITY) * CHUNK_GRANULARITY;
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(this.chunkSize));
+    }
+    
+    @Override
+    public long write(String name, InputStream content) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        WriteChannel channel = storage.writer(BlobInfo.newBuilder(BlobId.of(bucketName, name)).build());
+        channel.setChunkSize(chunkSize);
+        long written = 0;
+        // Only a finished upload is closed: closing finalizes the object, so on failure the session
+        // is abandoned instead, which stores nothing and expires on its own
+        int read;
+        while ((read = fill(buffer.array(), content)) > 0) {
+            buffer.clear().limit(read);
+            channel = writeChunk(channel, buffer);
+            written += read;
+        }
+        finish(channel);
+        return written;
+    }
+    
+    @Override
+    public InputStream open(String name) {
+        return Channels.newInputStream(storage.reader(BlobId.of(bucketName, name)));
+    }
+    
+    @Override
+    public boolean delete(String name) {
+        return storage.delete(BlobId.of(bucketName, name));
+    }
+    
+    // Sends one chunk, resuming the session from its last good state on failure
+    private WriteChannel writeChunk(WriteChannel channel, ByteBuffer chunk) throws IOException {
+        RestorableState<WriteChannel> checkpoint = channel.capture();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+                return channel;
+            } catch (IOException | StorageException e) {
+                if (attempt >= MAX_CHUNK_ATTEMPTS) {
+                    throw e instanceof IOException ? (IOException) e : new IOException("Chunk upload failed", e);
+                }
+                channel = checkpoint.restore();
+                chunk.rewind();
+            }
+        }
+    }
+    
+    // Flushes the last partial chunk and finalizes the upload
+    private void finish(WriteChannel channel) throws IOException {
+        RestorableState<WriteChannel> checkpoint = channel.capture();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                channel.close();
+                return;
+            } catch (IOException | StorageException e) {
+                if (attempt >= MAX_CHUNK_ATTEMPTS) {
+                    throw e instanceof IOException ? (IOException) e : new IOException("Upload finalization failed", e);
+                }
+                channel = checkpoint.restore();
+            }
+        }
+    }
+    
+    // Reads until the buffer is full or the stream ends, so every chunk but the last is whole
+    private static int fill(byte[] buffer, InputStream in) throws IOException {
+        int filled = 0;
+        int read;
+        while (filled < buffer.length && (read = in.read(buffer, filled, buffer.length - filled)) != -1) {
+            filled += read;
+        }
+        return filled;
+    }
+}
\ No newline at end of file
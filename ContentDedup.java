@@ -0,0 +1,123 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Finds documents that already hold a file's content, by SHA-256. Recent
+ * hashes are cached on-heap in front of the document store, so repeated
+ * uploads of the same file cost one metadata read. A cached entry is checked
+ * against the stored document before use, so deletes made elsewhere are
+ * noticed.
+ */
+public class ContentDedup {
+    /** Hashes cached unless configured otherwise, about 25 MB */
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+    
+    private final DocumentStore store;
+    private final Function<String, Document> documents;    // Reads a document by ID, e.g. through a cache
+    private final Map<String, String> cache;    // Content hash -> document ID, least recently used evicted
+    
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+    
+    /**
+     * @param store Store holding the content hash lookup
+     * @param documents Reads a document by ID
+     * @param cacheSize Maximum number of hashes cached
+     */
+    public ContentDedup(DocumentStore store, Function<String, Document> documents, int cacheSize) {
+        this.store = store;
+        this.documents = documents;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+    
+    /**
+     * Looks up an upload's content; every call counts towards the hit rate
+     * @param contentHash Hex SHA-256 of the uploaded file
+     * @return Document already holding this content, or null if it is new
+     */
+    public Document find(String contentHash) {
+        lookups.increment();
+        String id = cache.get(contentHash);
+        if (id != null) {
+            Document doc = documents.apply(id);
+            if (doc != null) {
+                cacheHits.increment();
+                return duplicate(doc);
+            }
+            cache.remove(contentHash);  // Deleted by another instance
+        }
+        
+        id = store.findIdByContentHash(contentHash);
+        Document doc = id == null ? null : documents.apply(id);
+        if (doc == null) {
+            return null;
+        }
+        cache.put(contentHash, id);
+        return duplicate(doc);
+    }
+    
+    /**
+     * Caches the hash of a newly stored document
+     */
+    public void remember(String contentHash, String id) {
+        cache.put(contentHash, id);
+    }
+    
+    /**
+     * Drops the hash of a deleted document
+     */
+    public void forget(String contentHash) {
+        cache.remove(contentHash);
+    }
+    
+    /**
+     * @return Counts since startup
+     */
+    public Stats getStats() {
+        return new Stats(lookups.sum(), duplicates.sum(), cacheHits.sum(), bytesSaved.sum());
+    }
+    
+    private Document duplicate(Document doc) {
+        duplicates.increment();
+        bytesSaved.add(doc.getSize());
+        return doc;
+    }
+    
+    /**
+     * Deduplication counters
+     */
+    public static class Stats {
+        private final long lookups;
+        private final long duplicates;
+        private final long cacheHits;
+        private final long bytesSaved;
+        
+        Stats(long lookups, long duplicates, long cacheHits, long bytesSaved) {
+            this.lookups = lookups;
+            this.duplicates = duplicates;
+            this.cacheHits = cacheHits;
+            this.bytesSaved = bytesSaved;
+        }
+        
+        public long getLookups() { return lookups; }
+        public long getDuplicates() { return duplicates; }
+        public long getCacheHits() { return cacheHits; }
+        public long getBytesSaved() { return bytesSaved; }
+        
+        /** @return Share of uploads that were duplicates */
+        public double getHitRate() { return lookups == 0 ? 0 : (double) duplicates / lookups; }
+        
+        /** @return Share of duplicates found without reading the store's hash lookup */
+        public double getCacheHitRate() { return duplicates == 0 ? 0 : (double) cacheHits / duplicates; }
+    }
+}
\ No newline at end of file
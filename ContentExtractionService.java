@@ -0,0 +1,206 @@
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the processing pipeline for stored documents on a bounded worker pool:
+ * content extraction, then classification using the extracted text, then
+ * indexing of the text. The stage each document has reached can be polled
+ * with getStage() while it is processed and for a while afterwards.
+ *
+ * Callers reserve a slot before uploading. When every worker is busy and the
+ * queue is full, tryReserve() fails and the upload should be rejected, so
+ * servlet threads are never tied up by a backlog of large files.
+ */
+public class ContentExtractionService implements Closeable {
+    private static final Logger LOG = Logger.getLogger(ContentExtractionService.class.getName());
+    private static final int STAGES_KEPT = 10000;   // Documents whose stage stays queryable
+    
+    private final DocumentManager docManager;
+    private final DocumentSearchEngine searchEngine;
+    private final DocumentClassifier classifier;
+    private final Metrics metrics;
+    private final ContentExtractor extractor = new ContentExtractor();
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;  // Running plus queued extractions
+    private final Map<String, Stage> stages;    // Recently submitted documents, oldest evicted first
+    
+    /** Pipeline progress of a document */
+    public enum Stage {
+        QUEUED, EXTRACTING, CLASSIFYING, INDEXING,
+        /** Every stage ran */
+        COMPLETE,
+        /** Content could not be extracted; the document is classified and indexed by its metadata only */
+        FAILED,
+        /** The document was deleted before processing finished; the remaining stages were skipped */
+        DELETED
+    }
+    
+    /**
+     * @param docManager Source of document content and target for extracted metadata
+     * @param searchEngine Index that receives the extracted text
+     * @param classifier Classifier that re-categorizes documents from their text
+     * @param workers Number of extraction threads
+     * @param queueCapacity Number of extractions allowed to wait for a worker
+     * @param metrics Records the EXTRACT, CLASSIFY and INDEX stages
+     */
+    public ContentExtractionService(DocumentManager docManager, DocumentSearchEngine searchEngine,
+                                    DocumentClassifier classifier, int workers, int queueCapacity,
+                                    Metrics metrics) {
+        this.docManager = docManager;
+        this.searchEngine = searchEngine;
+        this.classifier = classifier;
+        this.metrics = metrics;
+        this.slots = new Semaphore(workers + queueCapacity);
+        // The slots are the bound: a finished task frees its slot before its worker takes the next task
+        // off the queue, so the queue has room for every slot to never reject a reserved submission
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(workers + queueCapacity), r -> {
+                Thread t = new Thread(r, "content-extraction");
+                t.setDaemon(true);
+                return t;
+            });
+        this.stages = Collections.synchronizedMap(new LinkedHashMap<String, Stage>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stage> eldest) {
+                return size() > STAGES_KEPT;
+            }
+        });
+    }
+    
+    /**
+     * Reserves room for one extraction, waiting up to the given time
+     * @param timeoutMs Maximum time to wait for a free slot
+     * @return false if the pipeline is saturated
+     */
+    public boolean tryReserve(long timeoutMs) throws InterruptedException {
+        return slots.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Reserves room for one extraction, waiting as long as it takes. Used by
+     * bulk ingest, which should slow down rather than be rejected.
+     */
+    public void reserve() throws InterruptedException {
+        slots.acquire();
+    }
+    
+    /**
+     * Gives back a reserved slot that will not be used by submit()
+     */
+    public void release() {
+        slots.release();
+    }
+    
+    /**
+     * Queues processing for a stored document using a slot taken with tryReserve()
+     * @param doc Document whose content should be extracted, classified and indexed
+     */
+    public void submit(Document doc) {
+        stages.put(doc.getId(), Stage.QUEUED);
+        try {
+            executor.execute(() -> {
+                try {
+                    process(doc);
+                } catch (Exception e) {
+                    stages.put(doc.getId(), Stage.FAILED);
+                    LOG.log(Level.WARNING, "Processing failed for " + doc.getId(), e);
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Only after close(); the document is stored and indexed by its metadata, just not processed
+            slots.release();
+            stages.put(doc.getId(), Stage.FAILED);
+            LOG.log(Level.WARNING, "Processing rejected for " + doc.getId(), e);
+        }
+    }
+    
+    /**
+     * @param docId Document ID
+     * @return Stage the document has reached, or null if it wasn't submitted recently
+     */
+    public Stage getStage(String docId) {
+        return stages.get(docId);
+    }
+    
+    private void process(Document doc) throws Exception {
+        String id = doc.getId();
+        if (docManager.isDeleted(id)) {
+            stages.put(id, Stage.DELETED);  // Deleted while queued; its file is already gone
+            return;
+        }
+        ContentExtractor.ExtractedContent content = null;
+        stages.put(id, Stage.EXTRACTING);
+        long start = System.nanoTime();
+        try (InputStream in = docManager.openContent(doc)) {
+            content = extractor.extract(in, doc.getFileType().name());
+            metrics.record(Metrics.Stage.EXTRACT, start);
+            doc = docManager.updateExtractedMetadata(doc, content.getTitle(), content.getAuthor());
+        } catch (Exception e) {
+            // Still classified by metadata; the title-only index entry from upload stays in place
+            LOG.log(Level.WARNING, "Content extraction failed for " + id, e);
+        }
+        
+        try {
+            if (doc == null || docManager.isDeleted(id)) {
+                stages.put(id, Stage.DELETED);
+                return;
+            }
+            stages.put(id, Stage.CLASSIFYING);
+            start = System.nanoTime();
+            String category;
+            if (content != null) {
+                try (Reader text = content.openText()) {
+                    category = classifier.classify(doc, text);
+                }
+            } else {
+                category = classifier.classify(doc);
+            }
+            metrics.record(Metrics.Stage.CLASSIFY, start);
+            if (!DocumentClassifier.UNCLASSIFIED.equals(category)) {
+                doc = docManager.updateCategory(doc, category);
+                if (doc == null) {
+                    stages.put(id, Stage.DELETED);
+                    return;
+                }
+            }
+            
+            if (content != null && !docManager.isDeleted(id)) {
+                stages.put(id, Stage.INDEXING);
+                start = System.nanoTime();
+                try (Reader text = content.openText()) {
+                    searchEngine.indexDocument(doc, text);
+                }
+                metrics.record(Metrics.Stage.INDEX, start);
+            }
+            // The delete is marked before it removes the index entry, so one that raced the indexing is seen here
+            if (docManager.isDeleted(id)) {
+                searchEngine.onDocumentDeleted(doc);
+                stages.put(id, Stage.DELETED);
+                return;
+            }
+        } finally {
+            if (content != null) {
+                content.close();
+            }
+        }
+        stages.put(id, content != null ? Stage.COMPLETE : Stage.FAILED);
+    }
+    
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
\ No newline at end of file
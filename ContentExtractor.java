@@ -0,0 +1,165 @@
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.text.PDFTextStripper;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts body text and metadata from PDF and DOCX files. Files are read as
+ * streams and the text is spooled to a temporary file, so neither the file
+ * nor its text has to fit on the heap.
+ */
+public class ContentExtractor {
+    private static final String WORD_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+    
+    private final XMLInputFactory xmlFactory;
+    
+    public ContentExtractor() {
+        this.xmlFactory = XMLInputFactory.newInstance();
+        // Uploaded files are untrusted - never resolve DTDs or external entities
+        xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+    
+    /**
+     * Extracts text and metadata from a document stream
+     * @param in Document content; read to the end but not closed
+     * @param fileType PDF or DOCX - other types produce empty text
+     * @return Extracted content; the caller must close it to delete the spooled text
+     */
+    public ExtractedContent extract(InputStream in, String fileType) throws IOException {
+        ExtractedContent content = new ExtractedContent(Files.createTempFile("document-text-", ".txt"));
+        try (Writer out = Files.newBufferedWriter(content.textFile, StandardCharsets.UTF_8)) {
+            if ("PDF".equals(fileType)) {
+                extractPdf(in, out, content);
+            } else if ("DOCX".equals(fileType)) {
+                extractDocx(in, out, content);
+            }
+        } catch (IOException | RuntimeException e) {
+            content.close();
+            throw e;
+        }
+        return content;
+    }
+    
+    private void extractPdf(InputStream in, Writer out, ExtractedContent content) throws IOException {
+        // PDF needs random access; keep the parser's buffers in a scratch file instead of the heap
+        try (PDDocument pdf = PDDocument.load(in, MemoryUsageSetting.setupTempFileOnly())) {
+            PDDocumentInformation info = pdf.getDocumentInformation();
+            content.title = info.getTitle();
+            content.author = info.getAuthor();
+            
+            // Writes page by page as it goes
+            new PDFTextStripper().writeText(pdf, out);
+        }
+    }
+    
+    private void extractDocx(InputStream in, Writer out, ExtractedContent content) throws IOException {
+        // DOCX is a zip; only the body and core properties parts are of interest
+        ZipInputStream zip = new ZipInputStream(in);
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.getName().equals("word/document.xml")) {
+                    writeDocxBody(new EntryStream(zip), out);
+                } else if (entry.getName().equals("docProps/core.xml")) {
+                    readDocxProperties(new EntryStream(zip), content);
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed DOCX content", e);
+        }
+    }
+    
+    // Streams the text runs of word/document.xml, one line per paragraph
+    private void writeDocxBody(InputStream part, Writer out) throws XMLStreamException, IOException {
+        XMLStreamReader xml = xmlFactory.createXMLStreamReader(part);
+        try {
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT && WORD_NS.equals(xml.getNamespaceURI())) {
+                    String name = xml.getLocalName();
+                    if (name.equals("t")) {
+                        out.write(xml.getElementText());
+                    } else if (name.equals("tab")) {
+                        out.write('\t');
+                    } else if (name.equals("br")) {
+                        out.write('\n');
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT
+                        && WORD_NS.equals(xml.getNamespaceURI()) && xml.getLocalName().equals("p")) {
+                    out.write('\n');
+                }
+            }
+        } finally {
+            xml.close();
+        }
+    }
+    
+    private void readDocxProperties(InputStream part, ExtractedContent content) throws XMLStreamException {
+        XMLStreamReader xml = xmlFactory.createXMLStreamReader(part);
+        try {
+            while (xml.hasNext()) {
+                if (xml.next() == XMLStreamConstants.START_ELEMENT && DC_NS.equals(xml.getNamespaceURI())) {
+                    if (xml.getLocalName().equals("title")) {
+                        content.title = xml.getElementText();
+                    } else if (xml.getLocalName().equals("creator")) {
+                        content.author = xml.getElementText();
+                    }
+                }
+            }
+        } finally {
+            xml.close();
+        }
+    }
+    
+    // One zip entry; the JDK's StAX parser closes its input at the end of the document, which would end the zip
+    private static final class EntryStream extends FilterInputStream {
+        EntryStream(ZipInputStream zip) {
+            super(zip);
+        }
+        
+        @Override
+        public void close() {
+            // Left open for the next entry
+        }
+    }
+    
+    /**
+     * Metadata found in a document plus its body text spooled to a temporary file
+     */
+    public static class ExtractedContent implements Closeable {
+        private final Path textFile;
+        private String title;   // Null if the document has no title metadata
+        private String author;  // Null if the document has no author metadata
+        
+        private ExtractedContent(Path textFile) {
+            this.textFile = textFile;
+        }
+        
+        public String getTitle() { return title; }
+        public String getAuthor() { return author; }
+        
+        /**
+         * @return Reader over the extracted body text
+         */
+        public Reader openText() throws IOException {
+            return Files.newBufferedReader(textFile, StandardCharsets.UTF_8);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            Files.deleteIfExists(textFile);
+        }
+    }
+}
\ No newline at end of file
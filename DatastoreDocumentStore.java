@@ -0,0 +1,162 @@
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Stores document metadata as "Document" entities in Google Cloud Datastore.
+ * Content hashes are looked up through "ContentHash" entities keyed by the
+ * hash, so the lookup is a strongly consistent key read rather than a query.
+ */
+public class DatastoreDocumentStore implements DocumentStore {
+    private static final String KIND = "Document";
+    private static final String HASH_KIND = "ContentHash";
+    private static final int MAX_LOOKUP_KEYS = 1000;    // Datastore's limit for one lookup
+    private static final int MAX_PUT_ENTITIES = 500;    // Datastore's limit for one commit
+    
+    private Datastore datastore;    // Google Cloud Datastore client
+    private KeyFactory keyFactory;
+    private KeyFactory hashKeyFactory;
+    
+    public DatastoreDocumentStore(Datastore datastore) {
+        this.datastore = datastore;
+        this.keyFactory = datastore.newKeyFactory().setKind(KIND);
+        this.hashKeyFactory = datastore.newKeyFactory().setKind(HASH_KIND);
+    }
+    
+    @Override
+    public void put(Document doc) {
+        if (doc.getContentHash() != null) {
+            datastore.put(documentToEntity(doc), hashEntity(doc));
+        } else {
+            datastore.put(documentToEntity(doc));
+        }
+    }
+    
+    @Override
+    public void putAll(List<Document> docs) {
+        // One multi-put per MAX_PUT_ENTITIES entities, counting each document's hash entity
+        List<Entity> entities = new ArrayList<>(Math.min(docs.size() * 2, MAX_PUT_ENTITIES));
+        for (Document doc : docs) {
+            int needed = doc.getContentHash() != null ? 2 : 1;
+            if (entities.size() + needed > MAX_PUT_ENTITIES) {
+                datastore.put(entities.toArray(new Entity[0]));
+                entities.clear();
+            }
+            entities.add(documentToEntity(doc));
+            if (doc.getContentHash() != null) {
+                entities.add(hashEntity(doc));
+            }
+        }
+        if (!entities.isEmpty()) {
+            datastore.put(entities.toArray(new Entity[0]));
+        }
+    }
+    
+    @Override
+    public Document get(String id) {
+        Entity entity = datastore.get(keyFactory.newKey(id));
+        return entity == null ? null : entityToDocument(entity);
+    }
+    
+    @Override
+    public List<Document> getAll(List<String> ids) {
+        List<Document> docs = new ArrayList<>(ids.size());
+        for (int from = 0; from < ids.size(); from += MAX_LOOKUP_KEYS) {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_LOOKUP_KEYS));
+            List<Key> keys = new ArrayList<>(chunk.size());
+            for (String id : chunk) {
+                keys.add(keyFactory.newKey(id));
+            }
+            Iterator<Entity> entities = datastore.get(keys);
+            while (entities.hasNext()) {
+                docs.add(entityToDocument(entities.next()));
+            }
+        }
+        return docs;
+    }
+    
+    @Override
+    public void delete(String id) {
+        Key key = keyFactory.newKey(id);
+        // The hash lookup goes too, unless it has since been claimed by another document with the same content
+        datastore.runInTransaction(txn -> {
+            Entity entity = txn.get(key);
+            txn.delete(key);
+            if (entity != null && entity.contains("contentHash")) {
+                Key hashKey = hashKeyFactory.newKey(entity.getString("contentHash"));
+                Entity hash = txn.get(hashKey);
+                if (hash != null && id.equals(hash.getString("documentId"))) {
+                    txn.delete(hashKey);
+                }
+            }
+            return null;
+        });
+    }
+    
+    @Override
+    public String findIdByContentHash(String contentHash) {
+        Entity entity = datastore.get(hashKeyFactory.newKey(contentHash));
+        return entity == null ? null : entity.getString("documentId");
+    }
+    
+    @Override
+    public DocumentPage fetchPage(int limit, String cursor) {
+        EntityQuery.Builder query = Query.newEntityQueryBuilder()
+            .setKind(KIND)
+            .setLimit(limit);
+        if (cursor != null) {
+            query.setStartCursor(Cursor.fromUrlSafe(cursor));
+        }
+        
+        QueryResults<Entity> results = datastore.run(query.build());
+        List<Document> documents = new ArrayList<>(limit);
+        while (results.hasNext()) {
+            documents.add(entityToDocument(results.next()));
+        }
+        
+        // A short page means the kind is exhausted
+        String nextCursor = documents.size() < limit ? null : results.getCursorAfter().toUrlSafe();
+        return new DocumentPage(documents, nextCursor);
+    }
+    
+    private Entity documentToEntity(Document doc) {
+        Entity.Builder builder = Entity.newBuilder(keyFactory.newKey(doc.getId()))
+            .set("title", doc.getTitle())
+            .set("filePath", doc.getFilePath())
+            .set("size", doc.getSize())
+            .set("fileType", doc.getFileType().name())
+            .set("category", doc.getCategory())
+            .set("uploadDate", Timestamp.ofTimeMicroseconds(doc.getUploadDate() * 1000));
+        if (doc.getAuthor() != null) {
+            builder.set("author", doc.getAuthor());
+        }
+        if (doc.getContentHash() != null) {
+            builder.set("contentHash", doc.getContentHash());
+        }
+        return builder.build();
+    }
+    
+    private Entity hashEntity(Document doc) {
+        return Entity.newBuilder(hashKeyFactory.newKey(doc.getContentHash()))
+            .set("documentId", StringValue.newBuilder(doc.getId()).setExcludeFromIndexes(true).build())
+            .build();
+    }
+    
+    private Document entityToDocument(Entity entity) {
+        Timestamp uploadDate = entity.getTimestamp("uploadDate");
+        return new Document(
+            entity.getKey().getName(),
+            entity.getString("title"),
+            entity.getString("filePath"),
+            entity.getLong("size"),
+            Document.FileType.parse(entity.getString("fileType")),
+            entity.getString("category"),
+            uploadDate.getSeconds() * 1000 + uploadDate.getNanos() / 1000000,
+            entity.contains("author") ? entity.getString("author") : null,
+            entity.contains("contentHash") ? entity.getString("contentHash") : null
+        );
+    }
+}
\ No newline at end of file
@@ -1,38 +1,117 @@
 import java.util.Date;
 
 /**
- * Represents a document stored in the system with all relevant metadata
+ * Represents a document stored in the system with all relevant metadata.
+ *
+ * Instances are immutable: updates produce a new Document through the with*
+ * methods, so a document can be shared between the cache, listeners and
+ * worker threads without copying. The file type is an enum, the category a
+ * code in the CategoryDictionary and the upload date epoch milliseconds, so
+ * a document carries no per-instance copies of these values.
  */
-public class Document {
-    private String id;          // Unique document identifier
-    private String title;      // Document title extracted from content/metadata
-    private String filePath;   // Cloud Storage path to the document
-    private long size;         // File size in bytes
-    private String fileType;   // PDF or DOCX
-    private String category;   // Classification category
-    private Date uploadDate;   // When document was uploaded
-    
-    // Constructor
-    public Document(String id, String title, String filePath, long size, 
+public final class Document {
+    
+    /**
+     * Supported file types, declared in name order so ordinals sort like names
+     */
+    public enum FileType {
+        DOCX, PDF, UNKNOWN;
+        
+        private static final FileType[] VALUES = values();
+        
+        /**
+         * @param name File type name as stored, may be null
+         * @return Matching type, or UNKNOWN for anything else
+         */
+        public static FileType parse(String name) {
+            for (FileType type : VALUES) {
+                if (type.name().equals(name)) {
+                    return type;
+                }
+            }
+            return UNKNOWN;
+        }
+        
+        /**
+         * @return Type for an ordinal() value
+         */
+        public static FileType ofOrdinal(int ordinal) {
+            return VALUES[ordinal];
+        }
+    }
+    
+    private final String id;          // Unique document identifier
+    private final String title;      // Document title extracted from content/metadata
+    private final String filePath;   // Cloud Storage path to the document
+    private final long size;         // File size in bytes
+    private final FileType fileType; // PDF or DOCX
+    private final int category;      // CategoryDictionary code of the classification category
+    private final long uploadDate;   // When document was uploaded, epoch milliseconds
+    private final String author;     // Author from document metadata, null if unknown
+    private final String contentHash; // Hex SHA-256 of the file, null for documents stored before hashing
+    
+    public Document(String id, String title, String filePath, long size,
                    String fileType, String category, Date uploadDate) {
+        this(id, title, filePath, size, FileType.parse(fileType), category,
+            uploadDate == null ? 0L : uploadDate.getTime(), null, null);
+    }
+    
+    public Document(String id, String title, String filePath, long size, FileType fileType,
+                    String category, long uploadDate, String author, String contentHash) {
+        this(id, title, filePath, size, fileType, CategoryDictionary.code(category), uploadDate, author, contentHash);
+    }
+    
+    private Document(String id, String title, String filePath, long size, FileType fileType,
+                     int category, long uploadDate, String author, String contentHash) {
         this.id = id;
         this.title = title;
         this.filePath = filePath;
         this.size = size;
-        this.fileType = fileType;
+        this.fileType = fileType == null ? FileType.UNKNOWN : fileType;
         this.category = category;
         this.uploadDate = uploadDate;
+        this.author = author;
+        this.contentHash = contentHash;
     }
-
-    // Getters and setters
+    
+    // Getters
     public String getId() { return id; }
     public String getTitle() { return title; }
     public String getFilePath() { return filePath; }
     public long getSize() { return size; }
-    public String getFileType() { return fileType; }
-    public String getCategory() { return category; }
-    public Date getUploadDate() { return uploadDate; }
+    public FileType getFileType() { return fileType; }
+    public String getCategory() { return CategoryDictionary.name(category); }
+    public long getUploadDate() { return uploadDate; }
+    public String getAuthor() { return author; }
+    public String getContentHash() { return contentHash; }
+    
+    /**
+     * @return CategoryDictionary code of the category, -1 if there is none
+     */
+    public int categoryCode() { return category; }
+    
+    /**
+     * @return Copy of this document in another category
+     */
+    public Document withCategory(String category) {
+        return new Document(id, title, filePath, size, fileType, CategoryDictionary.code(category),
+            uploadDate, author, contentHash);
+    }
+    
+    /**
+     * @param title New title, or null to keep the current one
+     * @param author New author, null if unknown
+     * @return Copy of this document with metadata found in its content
+     */
+    public Document withExtractedMetadata(String title, String author) {
+        return new Document(id, title == null ? this.title : title, filePath, size, fileType, category,
+            uploadDate, author, contentHash);
+    }
     
-    public void setCategory(String category) { this.category = category; }
-    // Other setters as needed...
+    /**
+     * @return Copy of this document with a content hash
+     */
+    public Document withContentHash(String contentHash) {
+        return new Document(id, title, filePath, size, fileType, category, uploadDate, author, contentHash);
+    }
 }
\ No newline at end of file
@@ -1,41 +1,198 @@
 import javax.servlet.*;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.*;
 import java.io.*;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import com.google.cloud.storage.*;
 import com.google.cloud.datastore.*;
 
 /**
- * Main servlet handling HTTP requests for the document analytics system
+ * Main servlet handling HTTP requests for the document analytics system.
+ * Uploads run asynchronously: the file is streamed to storage off the
+ * container thread, the response carries the new document ID, and the rest
+ * of the processing can be followed through GET /api/{id}/status.
+ *
+ * Every request first passes AdmissionController, which limits each route's
+ * concurrency, favours interactive routes such as search over batch ones
+ * such as listings and uploads, and answers 429 when a route is saturated.
+ * It can be switched off with the admissionControl init param.
  */
-@WebServlet("/api/*")
+@WebServlet(urlPatterns = "/api/*", asyncSupported = true)
+@MultipartConfig(fileSizeThreshold = 1024 * 1024)  // Larger uploads are spooled to disk, not memory
 public class DocumentAnalyticsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final String PERMIT_ATTRIBUTE = AdmissionController.Permit.class.getName();
+    
     private DocumentManager docManager;
     private DocumentSorter sorter;
     private DocumentSearchEngine searchEngine;
+    private TitleSuggester suggester;
     private DocumentClassifier classifier;
+    private ClassifierModelStore modelStore;
+    private ScheduledExecutorService classifierScheduler;  // Loads, trains and reloads models off the request path
+    private StatisticsCollector statsCollector;
+    private ContentExtractionService extractionService;
+    private long extractionWaitMs;  // How long an upload waits for room in the extraction queue
+    private ExecutorService uploadExecutor;     // Streams uploaded files to storage off the container threads
+    private long uploadTimeoutMs;
+    private int bulkWindow;         // Files uploading at once during a bulk ingest
+    private JsonResponseWriter json;    // Shared by every response
+    private Metrics metrics;            // Latency per route and stage, served at /api/metrics
+    private AdmissionController admission;  // Null when admissionControl is off
     
     @Override
     public void init() throws ServletException {
         try {
-            // Initialize Google Cloud services
-            Storage storage = StorageOptions.getDefaultInstance().getService();
-            Datastore datastore = DatastoreOptions.getDefaultInstance().getService();
-            String bucketName = getServletContext().getInitParameter("bucketName");
+            metrics = new Metrics(Long.parseLong(initParam("slowRequestMs", "0")));
+            BlobStore blobs;
+            DocumentStore store;
+            if ("memory".equals(initParam("storage", "cloud"))) {
+                // Offline, e.g. for load tests; nothing survives a restart
+                blobs = new InMemoryBlobStore();
+                store = new InMemoryDocumentStore();
+            } else {
+                // Initialize Google Cloud services
+                Storage storage = StorageOptions.getDefaultInstance().getService();
+                Datastore datastore = DatastoreOptions.getDefaultInstance().getService();
+                blobs = new CloudStorageBlobStore(storage, initParam("bucketName", null),
+                    Integer.parseInt(initParam("uploadChunkBytes", String.valueOf(CloudStorageBlobStore.DEFAULT_CHUNK_SIZE))));
+                store = new DatastoreDocumentStore(datastore);
+            }
             
             // Initialize components
-            docManager = new DocumentManager(storage, datastore, bucketName);
-            sorter = new DocumentSorter();
-            searchEngine = new DocumentSearchEngine(docManager);
-            classifier = new DocumentClassifier();
+            docManager = new DocumentManager(metrics.timed(blobs), metrics.timed(store),
+                Integer.parseInt(initParam("dedupCacheSize", String.valueOf(ContentDedup.DEFAULT_CACHE_SIZE))),
+                Integer.parseInt(initParam("metadataCacheSize", String.valueOf(DocumentCache.DEFAULT_MAX_ENTRIES))),
+                Long.parseLong(initParam("metadataCacheTtlMs", String.valueOf(DocumentCache.DEFAULT_TTL_MS))));
+            sorter = new DocumentSorter(Long.parseLong(initParam("sortMemoryBudgetBytes", String.valueOf(64L * 1024 * 1024))));
+            // Index shards run in ShardServer JVMs when searchShardUrls lists them, otherwise in this one
+            String shardUrls = initParam("searchShardUrls", "");
+            if (!shardUrls.trim().isEmpty()) {
+                List<SearchShard> shards = new ArrayList<>();
+                for (String url : shardUrls.split(",")) {
+                    shards.add(new RemoteShard(url.trim()));
+                }
+                searchEngine = new DocumentSearchEngine(docManager, shards,
+                    Long.parseLong(initParam("indexRefreshMs", "1000")),
+                    Integer.parseInt(initParam("searchCacheSize", "1000")),
+                    Integer.parseInt(initParam("snippetCount", String.valueOf(DocumentSearchEngine.DEFAULT_SNIPPET_COUNT))),
+                    Integer.parseInt(initParam("snippetLength", String.valueOf(DocumentSearchEngine.DEFAULT_SNIPPET_LENGTH))));
+            } else {
+                searchEngine = new DocumentSearchEngine(docManager,
+                    Paths.get(initParam("indexPath", System.getProperty("java.io.tmpdir") + "/document-index")),
+                    Long.parseLong(initParam("indexRefreshMs", "1000")),
+                    Long.parseLong(initParam("indexCommitMs", "60000")),
+                    Integer.parseInt(initParam("searchThreads", "0")),
+                    Integer.parseInt(initParam("searchCacheSize", "1000")),
+                    Integer.parseInt(initParam("snippetCount", String.valueOf(DocumentSearchEngine.DEFAULT_SNIPPET_COUNT))),
+                    Integer.parseInt(initParam("snippetLength", String.valueOf(DocumentSearchEngine.DEFAULT_SNIPPET_LENGTH))),
+                    Integer.parseInt(initParam("searchShards", "1")));
+            }
+            docManager.addListener(searchEngine); // Index uploads as they are stored
+            suggester = new TitleSuggester(docManager,
+                Long.parseLong(initParam("suggestRebuildMs", "300000")),
+                Integer.parseInt(initParam("suggestMaxEntries", String.valueOf(TitleSuggester.DEFAULT_MAX_ENTRIES))),
+                Integer.parseInt(initParam("suggestMaxPending", String.valueOf(TitleSuggester.DEFAULT_MAX_PENDING))));
+            docManager.addListener(suggester);
+            statsCollector = new StatisticsCollector(docManager,
+                Paths.get(initParam("statsCheckpointPath", System.getProperty("java.io.tmpdir") + "/document-stats.json")),
+                Long.parseLong(initParam("statsCheckpointMs", "60000")));
+            docManager.addListener(statsCollector);
+            docManager.addListener(metrics);
+            classifier = new DocumentClassifier(
+                Integer.parseInt(initParam("classifierMemoSize", "10000")),
+                Integer.parseInt(initParam("classifierFeatureCap", "2000")));
+            extractionService = new ContentExtractionService(docManager, searchEngine, classifier,
+                Integer.parseInt(initParam("extractionThreads", "2")),
+                Integer.parseInt(initParam("extractionQueueSize", "50")), metrics);
+            extractionWaitMs = Long.parseLong(initParam("extractionWaitMs", "2000"));
+            uploadExecutor = Executors.newFixedThreadPool(Integer.parseInt(initParam("uploadThreads", "8")), r -> {
+                Thread t = new Thread(r, "document-upload");
+                t.setDaemon(true);
+                return t;
+            });
+            uploadTimeoutMs = Long.parseLong(initParam("uploadTimeoutMs", "300000"));
+            bulkWindow = Integer.parseInt(initParam("bulkWindow", "16"));
+            json = new JsonResponseWriter(Boolean.parseBoolean(initParam("gzipResponses", "true")), metrics);
+            json.warmUp(DocumentSearchEngine.SearchResults.class, BulkReport.class, ContentDedup.Stats.class,
+                DocumentCache.Stats.class, TitleSuggester.Stats.class, AdmissionController.Stats.class,
+                ArrayList.class, HashMap.class, LinkedHashMap.class);
+            if (Boolean.parseBoolean(initParam("admissionControl", "true"))) {
+                admission = new AdmissionController(initParam("admissionLimits", ""), initParam("admissionQueues", ""),
+                    Integer.parseInt(initParam("batchConcurrency", "16")),
+                    Long.parseLong(initParam("admissionWaitMs", "1000")),
+                    Long.parseLong(initParam("latencyTargetMs", "200")));
+            }
+            registerMetrics();
+            modelStore = new ClassifierModelStore(
+                Paths.get(initParam("modelDir", System.getProperty("java.io.tmpdir") + "/document-models")));
             
-            // Load or train classifier (would load from file in production)
-            List<Document> trainingSet = loadTrainingData();
-            classifier.train(trainingSet);
+            // Load or train the classifier in the background; uploads stay "Unclassified" until it is ready
+            classifierScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "classifier-loader");
+                t.setDaemon(true);
+                return t;
+            });
+            classifierScheduler.execute(this::loadOrTrainClassifier);
+            long reloadMs = Long.parseLong(initParam("modelReloadMs", "300000"));
+            classifierScheduler.scheduleWithFixedDelay(this::reloadClassifier, reloadMs, reloadMs, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
             throw new ServletException("Failed to initialize application", e);
         }
     }
     
+    @Override
+    public void destroy() {
+        classifierScheduler.shutdownNow();
+        uploadExecutor.shutdown();
+        extractionService.close();
+        statsCollector.close();
+        suggester.close();
+        try {
+            searchEngine.close();
+        } catch (IOException e) {
+            log("Failed to close search index", e);
+        }
+    }
+    
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        Metrics.Route route = route(req.getMethod(), req.getPathInfo());
+        metrics.begin(route);
+        AdmissionController.Permit permit = null;
+        try {
+            if (admission != null) {
+                // Turn work away while its route is saturated rather than queue it on container threads
+                permit = admission.tryAcquire(route);
+                if (permit == null) {
+                    resp.setHeader("Retry-After", String.valueOf(admission.retryAfterSeconds(route)));
+                    resp.sendError(SC_TOO_MANY_REQUESTS, "Too many concurrent requests");
+                    return;
+                }
+                req.setAttribute(PERMIT_ATTRIBUTE, permit);
+            }
+            super.service(req, resp);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } finally {
+            // Neither is recorded here if an upload thread took the request over
+            if (permit != null && req.getAttribute(PERMIT_ATTRIBUTE) == permit) {
+                admission.release(permit);
+            }
+            metrics.end(resp.getStatus());
+        }
+    }
+    
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) 
             throws ServletException, IOException {
@@ -43,26 +200,121 @@ public class DocumentAnalyticsServlet extends HttpServlet {
             String path = req.getPathInfo();
             
             if (path == null || path.equals("/")) {
-                // List all documents
-                List<Document> docs = docManager.getAllDocuments();
-                sendJsonResponse(resp, docs);
+                // List documents, one page at a time when a limit is given, or look up ?ids=a,b,c;
+                // ?fields=id,title limits the fields returned per document
+                JsonResponseWriter.Fields fields = JsonResponseWriter.Fields.parse(req.getParameter("fields"));
+                String limit = req.getParameter("limit");
+                String ids = req.getParameter("ids");
+                if (ids != null) {
+                    List<String> idList = Arrays.asList(ids.split(","));
+                    if (idList.size() > MAX_PAGE_SIZE) {
+                        throw new IllegalArgumentException("At most " + MAX_PAGE_SIZE + " ids per request");
+                    }
+                    json.sendDocuments(req, resp, docManager.getDocuments(idList).iterator(), fields);
+                } else if (limit != null) {
+                    int pageSize = Math.min(Integer.parseInt(limit), MAX_PAGE_SIZE);
+                    json.sendPage(req, resp, docManager.fetchPage(pageSize, req.getParameter("cursor")), fields);
+                } else {
+                    json.sendDocuments(req, resp, docManager.iterateDocuments(DocumentManager.DEFAULT_BATCH_SIZE), fields);
+                }
             } else if (path.equals("/sorted")) {
-                // Get sorted documents
-                List<Document> docs = sorter.sortByTitle(docManager.getAllDocuments());
-                sendJsonResponse(resp, docs);
+                // Get sorted documents, e.g. ?sort=category,size&order=asc,desc
+                DocumentSorter.SortSpec spec = DocumentSorter.SortSpec.parse(
+                    req.getParameter("sort"), req.getParameter("order"));
+                JsonResponseWriter.Fields fields = JsonResponseWriter.Fields.parse(req.getParameter("fields"));
+                Iterator<Document> docs = docManager.iterateDocuments(DocumentManager.DEFAULT_BATCH_SIZE);
+                String limit = req.getParameter("limit");
+                if (limit != null) {
+                    // Top-N selection never sorts the whole listing
+                    List<Document> top = sorter.topN(docs, spec, Math.min(Integer.parseInt(limit), MAX_PAGE_SIZE));
+                    json.sendDocuments(req, resp, top.iterator(), fields);
+                } else {
+                    try (DocumentSorter.SortedDocuments sorted = sorter.sort(docs, spec)) {
+                        json.sendDocuments(req, resp, sorted, fields);
+                    }
+                }
+            } else if (path.equals("/stats")) {
+                // Incremental stats by default; mode=rescan or mode=reconcile for verification,
+                // mode=dedup, mode=cache, mode=suggest and mode=admission for duplicate uploads, the metadata cache,
+                // suggestions and admission control
+                String mode = req.getParameter("mode");
+                if ("admission".equals(mode)) {
+                    if (admission == null) {
+                        resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Admission control is off");
+                        return;
+                    }
+                    json.send(req, resp, admission.getStats());
+                } else if ("cache".equals(mode)) {
+                    json.send(req, resp, docManager.getCacheStats());
+                } else if ("suggest".equals(mode)) {
+                    json.send(req, resp, suggester.getStats());
+                } else if ("dedup".equals(mode)) {
+                    json.send(req, resp, docManager.getDedupStats());
+                } else if ("rescan".equals(mode)) {
+                    json.send(req, resp, statsCollector.rescanStatistics());
+                } else if ("reconcile".equals(mode)) {
+                    json.send(req, resp, statsCollector.reconcile());
+                } else {
+                    json.send(req, resp, statsCollector.generateStatistics());
+                }
+            } else if (path.equals("/metrics")) {
+                // Prometheus text format
+                resp.setContentType("text/plain; version=0.0.4");
+                resp.setCharacterEncoding("UTF-8");
+                metrics.write(resp.getWriter());
+            } else if (path.equals("/suggest")) {
+                // Titles starting with the prefix for type-ahead, newest first, e.g. ?prefix=quarterly re&limit=5
+                String prefix = req.getParameter("prefix");
+                if (prefix == null) {
+                    resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing prefix");
+                    return;
+                }
+                String limit = req.getParameter("limit");
+                json.send(req, resp, suggester.suggest(prefix, limit == null ? 10 : Integer.parseInt(limit)));
             } else if (path.startsWith("/search")) {
-                // Handle search
+                // Search with optional filters, e.g. ?q=report&category=Business&fileType=PDF&minSize=1024
+                // &from=...&to=... (epoch millis), sort=relevance|date|size, limit, and cursor for the next page;
+                // without q every document matching the filters is returned
                 String query = req.getParameter("q");
-                if (query == null || query.trim().isEmpty()) {
+                DocumentSearchEngine.SearchOptions options = DocumentSearchEngine.SearchOptions.parse(req::getParameter);
+                if ((query == null || query.trim().isEmpty()) && !options.hasFilters()) {
                     resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing search query");
                     return;
                 }
-                DocumentSearchEngine.SearchResults results = searchEngine.search(query);
-                sendJsonResponse(resp, results);
+                json.send(req, resp, searchEngine.search(query, options));
+            } else if (path.endsWith("/status") && path.indexOf('/', 1) == path.length() - "/status".length()) {
+                // GET /api/{id}/status
+                String id = path.substring(1, path.length() - "/status".length());
+                ContentExtractionService.Stage stage = extractionService.getStage(id);
+                if (stage == null) {
+                    resp.sendError(HttpServletResponse.SC_NOT_FOUND, "No recent processing for " + id);
+                    return;
+                }
+                Map<String, Object> status = new LinkedHashMap<>();
+                status.put("id", id);
+                status.put("stage", stage);
+                json.send(req, resp, status);
+            } else if (path.indexOf('/', 1) < 0) {
+                // GET /api/{id}
+                JsonResponseWriter.Fields fields = JsonResponseWriter.Fields.parse(req.getParameter("fields"));
+                Document doc = docManager.getDocument(path.substring(1));
+                if (doc == null) {
+                    resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    return;
+                }
+                json.sendDocument(req, resp, doc, fields);
             } else {
                 resp.sendError(HttpServletResponse.SC_NOT_FOUND);
             }
+        } catch (IllegalArgumentException e) {
+            // Malformed parameters such as an unknown sort key or a non-numeric limit
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
         } catch (Exception e) {
+            log("Request failed: " + req.getMethod() + " " + req.getRequestURI(), e);
+            if (resp.isCommitted()) {
+                // Part of a streamed listing is out; failing the request makes the container abort the connection
+                throw new ServletException(e);
+            }
             resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
         }
     }
@@ -81,29 +333,298 @@ public class DocumentAnalyticsServlet extends HttpServlet {
                     return;
                 }
                 
-                Document doc = docManager.uploadDocument(
-                    filePart.getInputStream(), 
-                    filePart.getSubmittedFileName()
-                );
+                // Shed load instead of queueing unbounded extraction work
+                if (!extractionService.tryReserve(extractionWaitMs)) {
+                    resp.setHeader("Retry-After", "5");
+                    resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Extraction queue is full");
+                    return;
+                }
                 
-                // Classify the new document
-                String category = classifier.classify(doc);
-                doc.setCategory(category);
+                // Free the container thread while the file is streamed to storage
+                AsyncContext async;
+                try {
+                    async = req.startAsync();
+                } catch (IllegalStateException e) {
+                    extractionService.release();
+                    throw e;
+                }
+                async.setTimeout(uploadTimeoutMs);
+                long started = metrics.detach();
+                AdmissionController.Permit permit = takePermit(req);
+                uploadExecutor.execute(() -> completeUpload(async, filePart, started, permit));
+            } else if (path.equals("/bulk")) {
+                // Bulk ingest of a zip or tar archive, or of every file in a multipart request
+                String contentType = req.getContentType() == null ? "" : req.getContentType().toLowerCase();
+                BulkSource source;
+                if (contentType.startsWith("multipart/")) {
+                    source = partsSource(req.getParts());
+                } else if (contentType.startsWith("application/zip")) {
+                    source = ArchiveBulkSource.zip(req.getInputStream());
+                } else if (contentType.startsWith("application/x-tar") || contentType.startsWith("application/tar")) {
+                    source = ArchiveBulkSource.tar(req.getInputStream());
+                } else {
+                    resp.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Expected multipart, zip or tar");
+                    return;
+                }
+                String batchSize = req.getParameter("batchSize");
+                int batch = batchSize != null ? Integer.parseInt(batchSize) : DocumentManager.MAX_BULK_BATCH_SIZE;
                 
-                sendJsonResponse(resp, doc);
+                AsyncContext async = req.startAsync();
+                async.setTimeout(0);    // Large archives take as long as they take
+                long started = metrics.detach();
+                AdmissionController.Permit permit = takePermit(req);
+                uploadExecutor.execute(() -> completeBulk(async, source, batch, started, permit));
             } else {
                 resp.sendError(HttpServletResponse.SC_NOT_FOUND);
             }
         } catch (Exception e) {
+            log("Request failed: " + req.getMethod() + " " + req.getRequestURI(), e);
             resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
         }
     }
     
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) 
+            throws ServletException, IOException {
+        try {
+            String path = req.getPathInfo();
+            if (path == null || path.length() <= 1 || path.indexOf('/', 1) >= 0) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            
+            // DELETE /api/{id}
+            Document doc = docManager.deleteDocument(path.substring(1));
+            if (doc == null) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        } catch (Exception e) {
+            log("Request failed: " + req.getMethod() + " " + req.getRequestURI(), e);
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+    }
+    
+    // Stores an upload and hands it to the processing pipeline; runs on an upload thread
+    private void completeUpload(AsyncContext async, Part filePart, long started, AdmissionController.Permit permit) {
+        HttpServletRequest req = (HttpServletRequest) async.getRequest();
+        HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+        metrics.resume(Metrics.Route.UPLOAD, started);
+        try {
+            DocumentManager.Upload upload;
+            try {
+                // The part is spooled by the container, so hashing it first costs no upload bandwidth
+                String contentHash;
+                try (InputStream in = filePart.getInputStream()) {
+                    contentHash = ContentHash.of(in);
+                }
+                try (InputStream in = filePart.getInputStream()) {
+                    upload = docManager.upload(in, filePart.getSubmittedFileName(), contentHash);
+                }
+            } catch (IOException | RuntimeException e) {
+                extractionService.release();
+                throw e;
+            }
+            Document doc = upload.getDocument();
+            if (upload.isDuplicate()) {
+                // Same content as an existing document, which has already been processed
+                extractionService.release();
+                json.sendDocument(req, resp, doc, JsonResponseWriter.Fields.ALL);
+                return;
+            }
+            extractionService.submit(doc); // Extraction, classification and indexing follow asynchronously
+            
+            resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+            resp.setHeader("Location", req.getContextPath() + req.getServletPath() + "/" + doc.getId() + "/status");
+            json.sendDocument(req, resp, doc, JsonResponseWriter.Fields.ALL);
+        } catch (Exception e) {
+            try {
+                resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+            } catch (IOException | IllegalStateException sendFailed) {
+                log("Failed to report upload error", sendFailed);
+            }
+        } finally {
+            releasePermit(permit);
+            metrics.end(resp.getStatus());
+            async.complete();
+        }
+    }
+    
+    // Runs a bulk ingest, classifying each stored batch in one pass; runs on an upload thread
+    private void completeBulk(AsyncContext async, BulkSource source, int batchSize, long started,
+                              AdmissionController.Permit permit) {
+        HttpServletRequest req = (HttpServletRequest) async.getRequest();
+        HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+        metrics.resume(Metrics.Route.BULK, started);
+        try (BulkSource files = source) {
+            BulkReport report = docManager.uploadBatch(files, bulkWindow, batchSize, docs -> {
+                try {
+                    long start = System.nanoTime();
+                    List<String> categories = classifier.classifyBatch(docs);
+                    metrics.record(Metrics.Stage.CLASSIFY, start);
+                    List<Document> classified = docManager.updateCategories(docs, categories);
+                    // Waits for room in the extraction queue, which paces the ingest
+                    for (Document doc : classified) {
+                        extractionService.reserve();
+                        extractionService.submit(doc);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Bulk ingest interrupted", e);
+                } catch (Exception e) {
+                    throw new RuntimeException("Bulk classification failed", e);
+                }
+            });
+            json.send(req, resp, report);
+        } catch (Exception e) {
+            try {
+                resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+            } catch (IOException | IllegalStateException sendFailed) {
+                log("Failed to report bulk ingest error", sendFailed);
+            }
+        } finally {
+            releasePermit(permit);
+            metrics.end(resp.getStatus());
+            async.complete();
+        }
+    }
+    
+    // Files of a multipart request; form fields without a file name are skipped
+    private static BulkSource partsSource(Collection<Part> parts) {
+        Iterator<Part> it = parts.iterator();
+        return new BulkSource() {
+            private Part current;
+            
+            @Override
+            public boolean next() {
+                while (it.hasNext()) {
+                    Part part = it.next();
+                    if (part.getSubmittedFileName() != null) {
+                        current = part;
+                        return true;
+                    }
+                }
+                return false;
+            }
+            
+            @Override
+            public String fileName() {
+                return current.getSubmittedFileName();
+            }
+            
+            @Override
+            public InputStream content() throws IOException {
+                return current.getInputStream();
+            }
+            
+            @Override
+            public void close() {}
+        };
+    }
+    
     // Helper methods
-    private void sendJsonResponse(HttpServletResponse resp, Object data) throws IOException {
-        resp.setContentType("application/json");
-        resp.setCharacterEncoding("UTF-8");
-        new ObjectMapper().writeValue(resp.getWriter(), data);
+    
+    // Servlet init params take precedence over context params
+    private String initParam(String name, String defaultValue) {
+        String value = getInitParameter(name);
+        if (value == null) {
+            value = getServletContext().getInitParameter(name);
+        }
+        return value != null ? value : defaultValue;
+    }
+    
+    // Hands the request's admission permit to the upload thread that finishes the request
+    private static AdmissionController.Permit takePermit(HttpServletRequest req) {
+        AdmissionController.Permit permit = (AdmissionController.Permit) req.getAttribute(PERMIT_ATTRIBUTE);
+        req.removeAttribute(PERMIT_ATTRIBUTE);
+        return permit;
+    }
+    
+    private void releasePermit(AdmissionController.Permit permit) {
+        if (permit != null) {
+            admission.release(permit);
+        }
+    }
+    
+    // Route a request is timed under, following the dispatch in doGet, doPost and doDelete
+    private static Metrics.Route route(String method, String path) {
+        if ("POST".equals(method)) {
+            if (path == null || path.equals("/upload")) {
+                return Metrics.Route.UPLOAD;
+            }
+            return path.equals("/bulk") ? Metrics.Route.BULK : Metrics.Route.OTHER;
+        } else if ("DELETE".equals(method)) {
+            return Metrics.Route.DELETE;
+        } else if (!"GET".equals(method)) {
+            return Metrics.Route.OTHER;
+        } else if (path == null || path.equals("/")) {
+            return Metrics.Route.LIST;
+        }
+        switch (path) {
+            case "/sorted": return Metrics.Route.SORTED;
+            case "/stats": return Metrics.Route.STATS;
+            case "/metrics": return Metrics.Route.METRICS;
+            case "/suggest": return Metrics.Route.SUGGEST;
+            default:
+                if (path.startsWith("/search")) {
+                    return Metrics.Route.SEARCH;
+                } else if (path.endsWith("/status")) {
+                    return Metrics.Route.STATUS;
+                }
+                return path.indexOf('/', 1) < 0 ? Metrics.Route.DOCUMENT : Metrics.Route.OTHER;
+        }
+    }
+    
+    // Counters kept by other components, read on each scrape of /api/metrics
+    private void registerMetrics() {
+        metrics.counter("metadata_cache_hits_total", "Metadata cache lookups answered from the cache",
+            () -> docManager.getCacheStats().getHits());
+        metrics.counter("metadata_cache_misses_total", "Metadata cache lookups read from the store",
+            () -> docManager.getCacheStats().getMisses());
+        metrics.gauge("metadata_cache_entries", "Documents in the metadata cache",
+            () -> docManager.getCacheStats().getSize());
+        metrics.counter("search_cache_hits_total", "Searches answered from the query result cache",
+            searchEngine::getCacheHits);
+        metrics.counter("search_cache_misses_total", "Searches that missed the query result cache",
+            searchEngine::getCacheMisses);
+        metrics.counter("dedup_duplicates_total", "Uploads whose content was already stored",
+            () -> docManager.getDedupStats().getDuplicates());
+        metrics.counter("dedup_bytes_saved_total", "Bytes not stored again thanks to deduplication",
+            () -> docManager.getDedupStats().getBytesSaved());
+        metrics.counter("suggest_lookups_total", "Title suggestion lookups",
+            () -> suggester.getStats().getLookups());
+        metrics.gauge("suggest_entries", "Titles in the suggestion index",
+            () -> suggester.getStats().getEntries());
+        if (admission != null) {
+            metrics.counter("admission_rejected_total", "Requests turned away with 429",
+                () -> admission.getStats().getRejected());
+            metrics.gauge("admission_batch_limit", "Batch requests allowed to run at once",
+                () -> admission.getStats().getBatchLimit());
+        }
+    }
+    
+    // Uses the newest stored model, training and storing one only if none exists yet
+    private void loadOrTrainClassifier() {
+        try {
+            if (!classifier.reload(modelStore)) {
+                classifier.train(loadTrainingData());
+                classifier.save(modelStore);
+            }
+        } catch (Exception e) {
+            log("Failed to prepare classifier model", e);
+        }
+    }
+    
+    // Swaps in models trained offline by ClassifierTrainer
+    private void reloadClassifier() {
+        try {
+            if (classifier.reload(modelStore)) {
+                log("Loaded new classifier model");
+            }
+        } catch (Exception e) {
+            log("Failed to reload classifier model", e);
+        }
     }
     
     private List<Document> loadTrainingData() {
@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-through cache of document metadata in front of a DocumentStore.
+ *
+ * Entries are evicted least recently used beyond a maximum size, and expire
+ * after a time to live so changes made by other instances are picked up.
+ * Writes made through DocumentManager update the cache directly. Concurrent
+ * misses on the same ID share one store read, and a read that overlapped the
+ * removal of its document is returned but not cached, so a delete can't be
+ * undone by a load that started before it. Documents are immutable, so
+ * entries hold them as they are and every caller shares the same instance.
+ */
+public class DocumentCache {
+    /** Entries kept unless configured otherwise */
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+    /** Time to live unless configured otherwise */
+    public static final long DEFAULT_TTL_MS = 5 * 60 * 1000L;
+    
+    private static final int REMOVAL_STRIPES = 64;
+    
+    private final DocumentStore store;
+    private final int maxEntries;
+    private final long ttlMs;
+    private final LinkedHashMap<String, Entry> entries;
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private final long[] removals = new long[REMOVAL_STRIPES];  // Removal count per stripe of IDs, guarded by this
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LogHistogram loadMicros = new LogHistogram();    // Store read latency per load
+    
+    /**
+     * @param store Store the cache reads through to
+     * @param maxEntries Maximum number of cached documents
+     * @param ttlMs How long an entry is used before it is read again
+     */
+    public DocumentCache(DocumentStore store, int maxEntries, long ttlMs) {
+        this.store = store;
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) { // Access order gives LRU
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DocumentCache.Entry> eldest) {
+                return size() > DocumentCache.this.maxEntries;
+            }
+        };
+    }
+    
+    /**
+     * @param id Document ID
+     * @return Document, or null if there is none with this ID
+     */
+    public Document get(String id) {
+        Entry cached = lookup(id);
+        if (cached != null) {
+            hits.increment();
+            return cached.doc;
+        }
+        misses.increment();
+        
+        // Single flight: the first caller loads, later callers wait for its result
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> inFlight = loading.putIfAbsent(id, mine);
+        if (inFlight != null) {
+            try {
+                Entry entry = inFlight.join();
+                return entry == null ? null : entry.doc;
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            long removalsBefore = removals(id);
+            long start = System.nanoTime();
+            Document doc = store.get(id);
+            loadMicros.record((System.nanoTime() - start) / 1000);
+            Entry entry = doc == null ? null : cacheIfAbsent(doc, removalsBefore);
+            mine.complete(entry);
+            return doc;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(id, mine);
+        }
+    }
+    
+    /**
+     * Looks up many documents, reading all misses from the store in one call
+     * @param ids Document IDs
+     * @return Documents found, in the order of ids; unknown IDs are left out
+     */
+    public List<Document> getAll(Collection<String> ids) {
+        Map<String, Document> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String id : ids) {
+            Entry cached = lookup(id);
+            if (cached != null) {
+                hits.increment();
+                found.put(id, cached.doc);
+            } else if (!found.containsKey(id)) {
+                misses.increment();
+                missing.add(id);
+            }
+        }
+        
+        if (!missing.isEmpty()) {
+            long[] removalsBefore;
+            synchronized (this) {
+                removalsBefore = removals.clone();
+            }
+            long start = System.nanoTime();
+            List<Document> loaded = store.getAll(missing);
+            loadMicros.record((System.nanoTime() - start) / 1000);
+            for (Document doc : loaded) {
+                cacheIfAbsent(doc, removalsBefore[stripe(doc.getId())]);
+                found.put(doc.getId(), doc);
+            }
+        }
+        
+        List<Document> docs = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Document doc = found.get(id);
+            if (doc != null) {
+                docs.add(doc);
+            }
+        }
+        return docs;
+    }
+    
+    /**
+     * Caches a document that was just written to the store
+     */
+    public void put(Document doc) {
+        Entry entry = new Entry(doc, System.currentTimeMillis());
+        synchronized (this) {
+            entries.put(doc.getId(), entry);
+        }
+    }
+    
+    /**
+     * Drops a document that was deleted
+     */
+    public synchronized void remove(String id) {
+        entries.remove(id);
+        removals[stripe(id)]++;
+    }
+    
+    /**
+     * @return Hit, miss and load latency counts since startup
+     */
+    public Stats getStats() {
+        int size;
+        synchronized (this) {
+            size = entries.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), loadMicros.count(),
+            loadMicros.percentile(50), loadMicros.percentile(99), size);
+    }
+    
+    // Fresh entry or null; expired entries are dropped
+    private synchronized Entry lookup(String id) {
+        Entry entry = entries.get(id);
+        if (entry != null && System.currentTimeMillis() - entry.cachedAt > ttlMs) {
+            entries.remove(id);
+            return null;
+        }
+        return entry;
+    }
+    
+    // A loaded document never replaces one written meanwhile, which may be newer, and isn't
+    // cached at all if an ID of its stripe was removed since the load began
+    private Entry cacheIfAbsent(Document doc, long removalsBefore) {
+        Entry entry = new Entry(doc, System.currentTimeMillis());
+        synchronized (this) {
+            if (removals[stripe(doc.getId())] != removalsBefore) {
+                return entry;
+            }
+            Entry current = entries.putIfAbsent(doc.getId(), entry);
+            return current != null ? current : entry;
+        }
+    }
+    
+    private synchronized long removals(String id) {
+        return removals[stripe(id)];
+    }
+    
+    private static int stripe(String id) {
+        return (id.hashCode() & 0x7fffffff) % REMOVAL_STRIPES;
+    }
+    
+    private static final class Entry {
+        final Document doc;
+        final long cachedAt;
+        
+        Entry(Document doc, long cachedAt) {
+            this.doc = doc;
+            this.cachedAt = cachedAt;
+        }
+    }
+    
+    /**
+     * Cache counters
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long loads;
+        private final long loadP50Micros;
+        private final long loadP99Micros;
+        private final int size;
+        
+        Stats(long hits, long misses, long loads, long loadP50Micros, long loadP99Micros, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.loads = loads;
+            this.loadP50Micros = loadP50Micros;
+            this.loadP99Micros = loadP99Micros;
+            this.size = size;
+        }
+        
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public double getHitRate() { return hits + misses == 0 ? 0 : (double) hits / (hits + misses); }
+        public long getLoads() { return loads; }
+        public long getLoadP50Micros() { return loadP50Micros; }
+        public long getLoadP99Micros() { return loadP99Micros; }
+        public int getSize() { return size; }
+    }
+}
\ No newline at end of file
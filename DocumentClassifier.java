@@ -1,90 +1,261 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.StringReader;
 import java.util.*;
+import java.util.function.Function;
+import weka.classifiers.Classifier;
 import weka.classifiers.trees.J48;
 import weka.core.*;
 
 /**
- * Implements document classification using WEKA's J48 decision tree algorithm
+ * Implements document classification using WEKA's J48 decision tree algorithm.
+ *
+ * Documents are turned into sparse TF-IDF vectors by a FeatureExtractor fitted
+ * to the training set, and fed to the tree as SparseInstances, so memory per
+ * instance is proportional to its non-zero features.
+ *
+ * Thread safety: a trained model is published as an immutable snapshot, so
+ * concurrent classify calls only read the tree, the extractor and the header.
+ * Until a model has been trained or loaded every document is "Unclassified".
  */
 public class DocumentClassifier {
-    private J48 classifier;
-    private boolean isTrained;
+    /** Category reported while no model is available */
+    public static final String UNCLASSIFIED = "Unclassified";
+    
+    /** Bump whenever the features change, so stored models trained on old features are ignored */
+    public static final int FEATURE_VERSION = 2;
+    
+    private static final List<String> CATEGORIES = Arrays.asList("Academic", "Business", "Technical", "Other");
+    private static final int DEFAULT_MEMO_SIZE = 10000;
+    private static final int DEFAULT_FEATURE_CAP = 2000;
+    
+    private volatile Model model;   // Null until trained or loaded
+    private final int memoSize;     // Maximum cached predictions per model
+    private final int featureCap;   // Maximum term features per model
     
     public DocumentClassifier() {
-        this.classifier = new J48();
-        this.isTrained = false;
+        this(DEFAULT_MEMO_SIZE, DEFAULT_FEATURE_CAP);
     }
     
     /**
-     * Trains the classifier with sample documents
+     * @param memoSize Maximum number of predictions remembered per trained model
+     * @param featureCap Maximum number of title and content terms used as features
+     */
+    public DocumentClassifier(int memoSize, int featureCap) {
+        this.memoSize = memoSize;
+        this.featureCap = featureCap;
+    }
+    
+    /**
+     * Trains the classifier with sample documents, using titles only
      * @param trainingSet List of pre-classified documents
      */
     public void train(List<Document> trainingSet) throws Exception {
-        // Convert documents to WEKA instances
-        ArrayList<Attribute> attributes = new ArrayList<>();
-        
-        // Define attributes (simplified - would use more features in real system)
-        attributes.add(new Attribute("title", (ArrayList<String>) null)); // Text attribute
-        attributes.add(new Attribute("size", true));                     // Numeric attribute
-        
-        // Define class values (categories)
-        ArrayList<String> classValues = new ArrayList<>();
-        classValues.add("Academic");
-        classValues.add("Business");
-        classValues.add("Technical");
-        classValues.add("Other");
-        attributes.add(new Attribute("category", classValues));
-        
-        // Create empty training set
-        Instances trainingInstances = new Instances("DocumentClassification", attributes, trainingSet.size());
-        trainingInstances.setClassIndex(attributes.size() - 1); // Last attribute is class
+        train(trainingSet, doc -> null);
+    }
+    
+    /**
+     * Trains the classifier with sample documents
+     * @param trainingSet List of pre-classified documents
+     * @param content Extracted body text per document, or null where there is none
+     */
+    public void train(List<Document> trainingSet, Function<Document, String> content) throws Exception {
+        FeatureExtractor features = FeatureExtractor.fit(trainingSet, content, featureCap);
         
-        // Add training data
+        // Convert documents to WEKA instances
+        Instances trainingInstances = buildHeader(features.numFeatures());
         for (Document doc : trainingSet) {
-            Instance instance = new DenseInstance(attributes.size());
-            instance.setValue(attributes.get(0), doc.getTitle()); // Title text
-            instance.setValue(attributes.get(1), doc.getSize());  // Document size
-            instance.setValue(attributes.get(2), doc.getCategory()); // Known category
-            trainingInstances.add(instance);
+            int category = trainingInstances.classAttribute().indexOfValue(doc.getCategory());
+            if (category < 0) {
+                throw new IllegalArgumentException("Unknown category " + doc.getCategory() + " for " + doc.getId());
+            }
+            String text = content.apply(doc);
+            FeatureExtractor.SparseVector vector = features.extract(doc, text == null ? null : new StringReader(text));
+            trainingInstances.add(toInstance(vector, trainingInstances, category));
         }
         
-        // Build classifier
+        // Build classifier, then publish it in one step; in-flight calls keep the old model
+        J48 classifier = new J48();
         classifier.buildClassifier(trainingInstances);
-        isTrained = true;
+        model = new Model(new TrainedModel(classifier, features), memoSize, 0);
+    }
+    
+    /**
+     * Stores the current model as a new version
+     * @param store Model store to write to
+     * @return Version number of the stored model
+     */
+    public long save(ClassifierModelStore store) throws IOException {
+        Model current = model;
+        if (current == null) {
+            throw new IllegalStateException("Classifier has not been trained");
+        }
+        long version = store.save(FEATURE_VERSION, current.trained);
+        model = current.withVersion(version);
+        return version;
+    }
+    
+    /**
+     * Loads the newest stored model if it is newer than the one in use
+     * @param store Model store to read from
+     * @return true if a model was loaded
+     */
+    public boolean reload(ClassifierModelStore store) throws IOException {
+        long latest = store.latestVersion(FEATURE_VERSION);
+        Model current = model;
+        if (latest < 0 || (current != null && current.version >= latest)) {
+            return false;
+        }
+        Object stored = store.load(FEATURE_VERSION, latest);
+        if (!(stored instanceof TrainedModel)) {
+            throw new IOException("Model version " + latest + " is not a document classifier");
+        }
+        model = new Model((TrainedModel) stored, memoSize, latest);
+        return true;
+    }
+    
+    /**
+     * @return true once a model has been trained or loaded
+     */
+    public boolean isTrained() {
+        return model != null;
+    }
+    
+    /**
+     * @return Number of predictions remembered by the current model
+     */
+    int memoizedPredictions() {
+        Model current = model;
+        return current == null ? 0 : current.memo.size();
     }
     
     /**
-     * Classifies a document using the trained model
+     * Classifies a document by its metadata using the current model
      * @param doc Document to classify
-     * @return Predicted category
+     * @return Predicted category, or UNCLASSIFIED if no model is ready yet
      */
     public String classify(Document doc) throws Exception {
-        if (!isTrained) {
-            throw new IllegalStateException("Classifier has not been trained");
+        return classify(doc, null);
+    }
+    
+    /**
+     * Classifies a document by its metadata and extracted text using the current model
+     * @param doc Document to classify
+     * @param content Body text, or null if it hasn't been extracted
+     * @return Predicted category, or UNCLASSIFIED if no model is ready yet
+     */
+    public String classify(Document doc, Reader content) throws Exception {
+        Model current = model;
+        if (current == null) {
+            return UNCLASSIFIED;
         }
+        return classify(current, doc, content);
+    }
+    
+    /**
+     * Classifies many documents by their metadata in one pass against the same model
+     * @param docs Documents to classify
+     * @return Predicted categories, in the same order as docs
+     */
+    public List<String> classifyBatch(List<Document> docs) throws Exception {
+        Model current = model;  // Whole batch sees one model even if retrained meanwhile
         
-        // Create attributes same as training
-        ArrayList<Attribute> attributes = new ArrayList<>();
-        attributes.add(new Attribute("title", (ArrayList<String>) null));
-        attributes.add(new Attribute("size", true));
+        List<String> categories = new ArrayList<>(docs.size());
+        for (Document doc : docs) {
+            categories.add(current == null ? UNCLASSIFIED : classify(current, doc, null));
+        }
+        return categories;
+    }
+    
+    private String classify(Model current, Document doc, Reader content) throws Exception {
+        FeatureExtractor.SparseVector vector = current.trained.features.extract(doc, content);
         
-        ArrayList<String> classValues = new ArrayList<>();
-        classValues.add("Academic");
-        classValues.add("Business");
-        classValues.add("Technical");
-        classValues.add("Other");
-        attributes.add(new Attribute("category", classValues));
+        // Identical features always get the same prediction, so skip re-scoring them
+        long key = vector.hash();
+        String cached = current.memo.get(key);
+        if (cached != null) {
+            return cached;
+        }
         
-        // Create single instance for classification
-        Instances data = new Instances("ClassificationInstance", attributes, 1);
-        data.setClassIndex(attributes.size() - 1);
+        Instance instance = toInstance(vector, current.header, -1);
+        double prediction = current.trained.classifier.classifyInstance(instance);
+        String category = current.header.classAttribute().value((int) prediction);
+        current.memo.put(key, category);
+        return category;
+    }
+    
+    // Dataset header: one numeric attribute per feature followed by the class attribute
+    private static Instances buildHeader(int numFeatures) {
+        ArrayList<Attribute> attributes = new ArrayList<>(numFeatures + 1);
+        for (int i = 0; i < numFeatures; i++) {
+            attributes.add(new Attribute("f" + i));
+        }
+        attributes.add(new Attribute("category", new ArrayList<>(CATEGORIES)));
         
-        Instance instance = new DenseInstance(attributes.size());
-        instance.setValue(attributes.get(0), doc.getTitle());
-        instance.setValue(attributes.get(1), doc.getSize());
-        data.add(instance);
+        Instances header = new Instances("DocumentClassification", attributes, 0);
+        header.setClassIndex(attributes.size() - 1); // Last attribute is class
+        return header;
+    }
+    
+    /**
+     * @param category Index of the known category, or -1 to leave the class missing
+     */
+    private static Instance toInstance(FeatureExtractor.SparseVector vector, Instances header, int category) {
+        int[] features = vector.getIndices();
+        int n = features.length;
+        
+        // Class attribute is last, so appending it keeps the indices ascending
+        int[] indices = Arrays.copyOf(features, n + 1);
+        double[] values = Arrays.copyOf(vector.getValues(), n + 1);
+        indices[n] = header.classIndex();
+        values[n] = category < 0 ? Utils.missingValue() : category;
+        
+        Instance instance = new SparseInstance(1.0, values, indices, header.numAttributes());
+        instance.setDataset(header);
+        return instance;
+    }
+    
+    // What gets stored: the tree together with the vocabulary it was trained on
+    private static final class TrainedModel implements Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        final Classifier classifier;
+        final FeatureExtractor features;
         
-        // Classify
-        double prediction = classifier.classifyInstance(data.firstInstance());
-        return data.classAttribute().value((int) prediction);
+        TrainedModel(Classifier classifier, FeatureExtractor features) {
+            this.classifier = classifier;
+            this.features = features;
+        }
+    }
+    
+    // A trained model plus the predictions made with it; replaced as a whole on retraining
+    private static final class Model {
+        final TrainedModel trained;
+        final Instances header;     // Shared read-only by every classify call
+        final Map<Long, String> memo;
+        final long version;         // Stored version, 0 if not saved yet
+        
+        Model(TrainedModel trained, int memoSize, long version) {
+            this(trained, buildHeader(trained.features.numFeatures()),
+                Collections.synchronizedMap(new LinkedHashMap<Long, String>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                        return size() > memoSize;
+                    }
+                }), version);
+        }
+        
+        private Model(TrainedModel trained, Instances header, Map<Long, String> memo, long version) {
+            this.trained = trained;
+            this.header = header;
+            this.memo = memo;
+            this.version = version;
+        }
+        
+        // Same model and memo, now known under its stored version
+        Model withVersion(long version) {
+            return new Model(trained, header, memo, version);
+        }
     }
 }
\ No newline at end of file
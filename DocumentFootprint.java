@@ -0,0 +1,82 @@
+import java.util.*;
+
+/**
+ * Offline harness that compares the heap held by a list of Document objects
+ * with a DocumentSnapshot of the same documents, and times statistics and
+ * sorting over the snapshot.
+ *
+ * Usage: java DocumentFootprint [documents] [seed]
+ *
+ * Documents are synthetic but shaped like ones read back from the datastore:
+ * every string is a separate copy, titles are mostly distinct and every
+ * document has a content hash. Run with a heap big enough for both copies,
+ * e.g. -Xmx4g for the default of 1,000,000 documents.
+ */
+public class DocumentFootprint {
+    private static final String[] CATEGORIES = {"Academic", "Business", "Technical", "Other"};
+    private static final String[] TITLE_WORDS = {"Quarterly", "Report", "Research", "Paper", "Manual",
+        "Notes", "Invoice", "Proposal", "Analysis", "Review", "Summary", "Draft"};
+    
+    public static void main(String[] args) {
+        if (args.length > 2) {
+            System.err.println("Usage: java DocumentFootprint [documents] [seed]");
+            System.exit(2);
+        }
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42L;
+        
+        long baseline = usedHeap();
+        List<Document> docs = new ArrayList<>(count);
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            docs.add(generate(random, i));
+        }
+        long listBytes = usedHeap() - baseline;
+        
+        DocumentSnapshot snapshot = DocumentSnapshot.of(docs.iterator());
+        long bothBytes = usedHeap() - baseline;
+        docs = null;    // Only the snapshot stays reachable
+        long snapshotBytes = usedHeap() - baseline;
+        
+        System.out.printf("List<Document>:   %8.1f MB, %5.0f bytes per document%n",
+            listBytes / 1e6, (double) listBytes / count);
+        System.out.printf("DocumentSnapshot: %8.1f MB, %5.0f bytes per document (estimated %.1f MB)%n",
+            snapshotBytes / 1e6, (double) snapshotBytes / count, snapshot.estimatedBytes() / 1e6);
+        System.out.printf("Peak while copying: %.1f MB%n", bothBytes / 1e6);
+        
+        long start = System.nanoTime();
+        Map<String, Object> stats = StatisticsCollector.snapshotStatistics(snapshot);
+        System.out.printf("Statistics over snapshot: %d ms, %s documents%n",
+            (System.nanoTime() - start) / 1000000, stats.get("totalDocuments"));
+        
+        DocumentSorter sorter = new DocumentSorter();
+        for (String key : new String[] {"size", "category,uploadDate", "title"}) {
+            start = System.nanoTime();
+            int[] order = sorter.sort(snapshot, DocumentSorter.SortSpec.parse(key, null));
+            System.out.printf("Sort by %s: %d ms, first %s%n",
+                key, (System.nanoTime() - start) / 1000000, snapshot.id(order[0]));
+        }
+    }
+    
+    // Every string is a fresh copy, as when decoded from a datastore entity
+    private static Document generate(Random random, int i) {
+        String id = "doc-" + new UUID(random.nextLong(), random.nextLong());
+        String title = TITLE_WORDS[random.nextInt(TITLE_WORDS.length)] + " "
+            + TITLE_WORDS[random.nextInt(TITLE_WORDS.length)] + " " + random.nextInt(100000);
+        String hash = String.format("%016x%016x%016x%016x",
+            random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong());
+        return new Document(id, title, new String(id), random.nextInt(1 << 24),
+            Document.FileType.parse(new String(i % 3 == 0 ? "PDF" : "DOCX")),
+            new String(CATEGORIES[i % CATEGORIES.length]),
+            1600000000000L + random.nextInt(Integer.MAX_VALUE) * 10L,
+            i % 5 == 0 ? "Author " + random.nextInt(1000) : null, hash);
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
\ No newline at end of file
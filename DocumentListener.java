@@ -0,0 +1,54 @@
+import java.util.List;
+
+/**
+ * Receives notifications when the document collection changes
+ */
+public interface DocumentListener {
+    
+    /**
+     * Called after a document's file and metadata have been stored
+     * @param doc Newly stored document
+     */
+    void onDocumentStored(Document doc);
+    
+    /**
+     * Called after a batch of documents has been stored by a bulk ingest
+     * @param docs Newly stored documents
+     */
+    default void onDocumentsStored(List<Document> docs) {
+        for (Document doc : docs) {
+            onDocumentStored(doc);
+        }
+    }
+    
+    /**
+     * Called after a document has been assigned a new category
+     * @param doc Document with its new category
+     * @param oldCategory Category before the change
+     */
+    default void onCategoryChanged(Document doc, String oldCategory) {}
+    
+    /**
+     * Called after a batch of documents has been assigned new categories in one write
+     * @param docs Documents with their new categories
+     * @param oldCategories Category of each document before the change, in the same order
+     */
+    default void onCategoriesChanged(List<Document> docs, List<String> oldCategories) {
+        for (int i = 0; i < docs.size(); i++) {
+            onCategoryChanged(docs.get(i), oldCategories.get(i));
+        }
+    }
+    
+    /**
+     * Called after a document's title has been replaced by one extracted from its content
+     * @param doc Document with its new title
+     * @param oldTitle Title before the change
+     */
+    default void onTitleChanged(Document doc, String oldTitle) {}
+    
+    /**
+     * Called after a document's file and metadata have been deleted
+     * @param doc Document that was removed
+     */
+    default void onDocumentDeleted(Document doc) {}
+}
\ No newline at end of file
@@ -1,92 +1,640 @@
-import com.google.cloud.storage.*;
-import com.google.cloud.datastore.*;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.datastore.Datastore;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Handles all document storage and retrieval operations with Google Cloud services
+ * Handles all document storage and retrieval operations with Google Cloud services.
+ * Files are identified by their SHA-256, and uploading a file that is already
+ * stored returns the existing document instead of storing it again.
  */
 public class DocumentManager {
-    private Storage storage;        // Google Cloud Storage client
-    private Datastore datastore;    // Google Cloud Datastore client
-    private String bucketName;      // Cloud Storage bucket name
+    /** Batch size used when iterating over the whole collection */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    
+    /** Most documents stored per bulk batch, Datastore's limit for one multi-put */
+    public static final int MAX_BULK_BATCH_SIZE = 500;
+    
+    private static final int MAX_WRITE_ATTEMPTS = 3;        // Per blob and per batch metadata write
+    private static final int SPOOL_IN_MEMORY_BYTES = 1 << 20;   // Larger bulk files are spooled to disk
+    private static final int ID_LOCK_STRIPES = 64;
+    private static final int DELETED_IDS_KEPT = 10000;      // IDs are never reused, so only recent deletions matter
+    
+    private BlobStore blobs;        // Document file persistence
+    private DocumentStore store;    // Document metadata persistence
+    private DocumentCache cache;    // Read-through metadata cache, written through on every change
+    private ContentDedup dedup;     // Content hash -> existing document
+    private final List<DocumentListener> listeners = new CopyOnWriteArrayList<>();
+    // Metadata updates and deletes of the same document run one at a time, so an update never revives a deleted one
+    private final ReentrantLock[] idLocks = new ReentrantLock[ID_LOCK_STRIPES];
+    private final Set<String> deletedIds = Collections.synchronizedSet(Collections.newSetFromMap(
+        new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > DELETED_IDS_KEPT;
+            }
+        }));
 
     public DocumentManager(Storage storage, Datastore datastore, String bucketName) {
-        this.storage = storage;
-        this.datastore = datastore;
-        this.bucketName = bucketName;
+        this(new CloudStorageBlobStore(storage, bucketName), new DatastoreDocumentStore(datastore));
+    }
+    
+    public DocumentManager(Storage storage, DocumentStore store, String bucketName) {
+        this(new CloudStorageBlobStore(storage, bucketName), store);
+    }
+    
+    public DocumentManager(BlobStore blobs, DocumentStore store) {
+        this(blobs, store, ContentDedup.DEFAULT_CACHE_SIZE,
+            DocumentCache.DEFAULT_MAX_ENTRIES, DocumentCache.DEFAULT_TTL_MS);
+    }
+    
+    /**
+     * @param blobs File storage
+     * @param store Metadata storage
+     * @param dedupCacheSize Number of content hashes cached for duplicate detection
+     * @param metadataCacheSize Number of documents cached for lookups by ID
+     * @param metadataCacheTtlMs How long a cached document is used before it is read again
+     */
+    public DocumentManager(BlobStore blobs, DocumentStore store, int dedupCacheSize,
+                           int metadataCacheSize, long metadataCacheTtlMs) {
+        this.blobs = blobs;
+        this.store = store;
+        this.cache = new DocumentCache(store, metadataCacheSize, metadataCacheTtlMs);
+        this.dedup = new ContentDedup(store, cache::get, dedupCacheSize);
+        for (int i = 0; i < idLocks.length; i++) {
+            idLocks[i] = new ReentrantLock();
+        }
+    }
+    
+    /**
+     * Registers a listener that is notified as documents are stored
+     * @param listener Listener to add
+     */
+    public void addListener(DocumentListener listener) {
+        listeners.add(listener);
     }
 
     /**
-     * Uploads a document to Cloud Storage and stores metadata in Datastore
+     * Uploads a document to Cloud Storage and stores metadata in Datastore.
+     * The file is streamed in chunks, so it is never held in memory whole.
      * @param fileStream Input stream of the document file
      * @param fileName Original file name
-     * @return Document object with metadata
+     * @return Document object with metadata; the existing one if the content was already stored
      */
     public Document uploadDocument(InputStream fileStream, String fileName) {
+        return upload(fileStream, fileName, null).getDocument();
+    }
+    
+    /**
+     * Uploads a document unless a document with the same content exists.
+     * Knowing the hash up front avoids sending a duplicate's bytes at all;
+     * otherwise it is computed while streaming and a duplicate's blob is
+     * removed again afterwards.
+     * @param fileStream Input stream of the document file
+     * @param fileName Original file name
+     * @param contentHash Hex SHA-256 of the file if already known, else null
+     * @return The stored or existing document, and which of the two it is
+     */
+    public Upload upload(InputStream fileStream, String fileName, String contentHash) {
         try {
+            if (contentHash != null) {
+                Document existing = dedup.find(contentHash);
+                if (existing != null) {
+                    return new Upload(existing, true);
+                }
+            }
+            
             // Generate unique ID for the document
             String docId = generateDocumentId();
             
-            // Upload to Cloud Storage
-            BlobId blobId = BlobId.of(bucketName, docId);
-            BlobInfo blobInfo = BlobInfo.newBuilder(blobId).build();
-            Blob blob = storage.create(blobInfo, fileStream);
-            
-            // Extract basic metadata
-            String fileType = getFileType(fileName);
-            String title = extractTitleFromFileName(fileName); // Simplified - would parse content in real impl
-            
-            // Store metadata in Datastore
-            Key docKey = datastore.newKeyFactory().setKind("Document").newKey(docId);
-            Entity docEntity = Entity.newBuilder(docKey)
-                .set("title", title)
-                .set("filePath", blob.getBlobId().getName())
-                .set("size", blob.getSize())
-                .set("fileType", fileType)
-                .set("category", "Unclassified") // Default before classification
-                .set("uploadDate", DateTime.now())
-                .build();
-            datastore.put(docEntity);
+            Document doc;
+            try {
+                // Upload to Cloud Storage, hashing on the way
+                MessageDigest digest = ContentHash.newDigest();
+                long size = blobs.write(docId, new DigestInputStream(fileStream, digest));
+                String hash = ContentHash.toHex(digest.digest());
+                if (contentHash == null) {
+                    Document existing = dedup.find(hash);
+                    if (existing != null) {
+                        blobs.delete(docId);
+                        return new Upload(existing, true);
+                    }
+                } else if (!contentHash.equals(hash)) {
+                    throw new IOException("Content of " + fileName + " does not match its hash");
+                }
+                
+                // Extract basic metadata
+                Document.FileType fileType = getFileType(fileName);
+                String title = extractTitleFromFileName(fileName); // Simplified - would parse content in real impl
+                
+                // Store metadata, unclassified until the classifier has run
+                doc = new Document(docId, title, docId, size, fileType,
+                    DocumentClassifier.UNCLASSIFIED, System.currentTimeMillis(), null, hash);
+                store.put(doc);
+            } catch (IOException | RuntimeException e) {
+                // No file may outlive a failed upload, whether partly written or without metadata
+                discardBlob(docId, e);
+                throw e;
+            }
+            cache.put(doc);
+            dedup.remember(doc.getContentHash(), docId);
             
-            return new Document(docId, title, blob.getBlobId().getName(), 
-                              blob.getSize(), fileType, "Unclassified", new Date());
+            for (DocumentListener listener : listeners) {
+                listener.onDocumentStored(doc);
+            }
+            return new Upload(doc, false);
         } catch (Exception e) {
             throw new RuntimeException("Document upload failed", e);
         }
     }
+    
+    /**
+     * @return Duplicate upload counts and hit rates
+     */
+    public ContentDedup.Stats getDedupStats() {
+        return dedup.getStats();
+    }
+    
+    /**
+     * Uploads many documents, e.g. the files of an archive. Files are read in
+     * order and uploaded concurrently, with at most window files read but not
+     * yet uploaded. Each batch of files is then stored with one metadata
+     * write, and listeners receive it through onDocumentsStored(). A file
+     * that can't be stored is reported and doesn't fail the rest of its batch.
+     * Files whose content is already stored, including repeats within the
+     * batch, are reported as duplicates of the existing document.
+     * @param source Files to upload; not closed
+     * @param window Maximum number of files uploading at once
+     * @param batchSize Files per batch, at most MAX_BULK_BATCH_SIZE
+     * @param onBatchStored Called with each batch's stored documents, e.g. to classify them
+     * @return Per-batch counts, failures, retries and throughput
+     */
+    public BulkReport uploadBatch(BulkSource source, int window, int batchSize,
+                                  Consumer<List<Document>> onBatchStored) {
+        int limit = Math.max(1, Math.min(batchSize, MAX_BULK_BATCH_SIZE));
+        ExecutorService uploads = Executors.newFixedThreadPool(Math.max(1, window), r -> {
+            Thread t = new Thread(r, "bulk-upload");
+            t.setDaemon(true);
+            return t;
+        });
+        Semaphore inFlight = new Semaphore(Math.max(1, window));   // Bounds spooled files as well as uploads
+        BulkReport report = new BulkReport();
+        long start = System.nanoTime();
+        try {
+            boolean more = true;
+            for (int index = 0; more; index++) {
+                long batchStart = System.nanoTime();
+                BulkReport.Batch batch = new BulkReport.Batch(index);
+                AtomicInteger retries = new AtomicInteger();
+                List<String> fileNames = new ArrayList<>(limit);
+                List<Future<Document>> pending = new ArrayList<>(limit);
+                Map<String, String> claimed = new HashMap<>();     // Content hash -> ID, for files of this batch
+                int read = 0;
+                
+                while (read < limit) {
+                    try {
+                        more = source.next();
+                    } catch (IOException e) {
+                        batch.addFailure("(archive)", e);   // Unreadable source; keep what was read so far
+                        more = false;
+                    }
+                    if (!more) {
+                        break;
+                    }
+                    read++;
+                    String fileName = source.fileName();
+                    inFlight.acquireUninterruptibly();
+                    Spool spool;
+                    try {
+                        spool = Spool.of(source.content());
+                    } catch (IOException e) {
+                        inFlight.release();
+                        batch.addFailure(fileName, e);
+                        continue;
+                    }
+                    
+                    // Duplicates are linked before any bytes are uploaded
+                    String docId = claimed.get(spool.hash);
+                    if (docId == null) {
+                        Document existing = dedup.find(spool.hash);
+                        docId = existing != null ? existing.getId() : null;
+                    }
+                    if (docId != null) {
+                        batch.addDuplicate(fileName, docId);
+                        spool.discard();
+                        inFlight.release();
+                        continue;
+                    }
+                    String newId = generateDocumentId();
+                    claimed.put(spool.hash, newId);
+                    fileNames.add(fileName);
+                    pending.add(uploads.submit(() -> {
+                        try {
+                            return storeBlob(spool, newId, fileName, retries);
+                        } finally {
+                            spool.discard();
+                            inFlight.release();
+                        }
+                    }));
+                }
+                
+                List<Document> docs = new ArrayList<>(pending.size());
+                for (int i = 0; i < pending.size(); i++) {
+                    try {
+                        docs.add(pending.get(i).get());
+                    } catch (ExecutionException e) {
+                        batch.addFailure(fileNames.get(i), e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        batch.addFailure(fileNames.get(i), e);
+                    }
+                }
+                
+                boolean stored = !docs.isEmpty() && storeBatch(docs, batch, retries);
+                Set<String> storedIds = new HashSet<>();
+                if (stored) {
+                    for (Document doc : docs) {
+                        storedIds.add(doc.getId());
+                        dedup.remember(doc.getContentHash(), doc.getId());
+                    }
+                }
+                // Repeats of a file from this batch that wasn't stored after all
+                batch.dropDuplicatesOf(id -> claimed.containsValue(id) && !storedIds.contains(id));
+                
+                if (stored) {
+                    for (DocumentListener listener : listeners) {
+                        listener.onDocumentsStored(docs);
+                    }
+                    onBatchStored.accept(docs);
+                }
+                batch.addRetries(retries.get());
+                batch.setElapsedMs((System.nanoTime() - batchStart) / 1000000);
+                if (read > 0 || !batch.getFailures().isEmpty()) {
+                    report.addBatch(batch);
+                }
+            }
+        } finally {
+            uploads.shutdownNow();
+            report.setElapsedMs((System.nanoTime() - start) / 1000000);
+        }
+        return report;
+    }
+    
+    // Uploads one bulk file, retrying from the spooled copy
+    private Document storeBlob(Spool spool, String docId, String fileName, AtomicInteger retries) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try (InputStream in = spool.open()) {
+                long size = blobs.write(docId, in);
+                return new Document(docId, extractTitleFromFileName(fileName), docId, size,
+                    getFileType(fileName), DocumentClassifier.UNCLASSIFIED, System.currentTimeMillis(), null, spool.hash);
+            } catch (IOException | RuntimeException e) {
+                if (attempt >= MAX_WRITE_ATTEMPTS) {
+                    discardBlob(docId, e);
+                    throw e;
+                }
+                retries.incrementAndGet();
+                backOff(attempt);
+            }
+        }
+    }
+    
+    // Writes a batch's metadata in one call; on failure the batch's blobs are removed again
+    private boolean storeBatch(List<Document> docs, BulkReport.Batch batch, AtomicInteger retries) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                store.putAll(docs);
+                for (Document doc : docs) {
+                    cache.put(doc);
+                    batch.addDocument(doc);
+                }
+                return true;
+            } catch (RuntimeException e) {
+                if (attempt < MAX_WRITE_ATTEMPTS) {
+                    retries.incrementAndGet();
+                    backOff(attempt);
+                    continue;
+                }
+                for (Document doc : docs) {
+                    blobs.delete(doc.getFilePath());
+                    batch.addFailure(doc.getTitle(), e);
+                }
+                return false;
+            }
+        }
+    }
+    
+    // Removes the file of a failed upload, keeping the original failure if that fails too
+    private void discardBlob(String docId, Exception cause) {
+        try {
+            blobs.delete(docId);
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+    
+    private static void backOff(int attempt) {
+        try {
+            Thread.sleep(100L << attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Looks up one document, usually without a Datastore read
+     * @param id Document ID
+     * @return Document, or null if there is none with this ID
+     */
+    public Document getDocument(String id) {
+        return cache.get(id);
+    }
+    
+    /**
+     * Looks up many documents, reading the ones not cached in one round trip
+     * @param ids Document IDs
+     * @return Documents found, in the order of ids; unknown IDs are left out
+     */
+    public List<Document> getDocuments(List<String> ids) {
+        return cache.getAll(ids);
+    }
+    
+    /**
+     * @return Metadata cache hit rate and load latency
+     */
+    public DocumentCache.Stats getCacheStats() {
+        return cache.getStats();
+    }
 
     /**
-     * Retrieves all documents from Datastore
+     * Retrieves all documents. Prefer fetchPage() or streamDocuments(), which
+     * don't hold the whole collection in memory.
      * @return List of Document objects
      */
     public List<Document> getAllDocuments() {
-        List<Document> documents = new ArrayList<>();
-        
-        Query<Entity> query = Query.newEntityQueryBuilder()
-            .setKind("Document")
-            .build();
-        
-        QueryResults<Entity> results = datastore.run(query);
-        
-        while (results.hasNext()) {
-            Entity entity = results.next();
-            documents.add(entityToDocument(entity));
+        return streamDocuments().collect(Collectors.toList());
+    }
+    
+    /**
+     * Fetches one page of documents
+     * @param limit Maximum number of documents to return
+     * @param cursor Cursor from the previous page, or null for the first page
+     * @return Page of documents with the cursor for the next page
+     */
+    public DocumentPage fetchPage(int limit, String cursor) {
+        return store.fetchPage(Math.max(1, limit), cursor);
+    }
+    
+    /**
+     * Iterates over all documents, fetching them lazily in batches
+     * @param batchSize Number of documents fetched per round trip
+     * @return Iterator that only holds the current batch in memory
+     */
+    public Iterator<Document> iterateDocuments(int batchSize) {
+        return new Iterator<Document>() {
+            private DocumentPage page = fetchPage(batchSize, null);
+            private Iterator<Document> current = page.getDocuments().iterator();
+            
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && page.hasMore()) {
+                    page = fetchPage(batchSize, page.getNextCursor());
+                    current = page.getDocuments().iterator();
+                }
+                return current.hasNext();
+            }
+            
+            @Override
+            public Document next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+    
+    /**
+     * Streams all documents, fetching them lazily in batches
+     * @return Sequential stream over the whole collection
+     */
+    public Stream<Document> streamDocuments() {
+        Spliterator<Document> spliterator = Spliterators.spliteratorUnknownSize(
+            iterateDocuments(DEFAULT_BATCH_SIZE), Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
+    }
+    
+    /**
+     * Opens a stream over a stored document's file
+     * @param doc Document to read
+     * @return Stream reading the file from Cloud Storage in chunks
+     */
+    public InputStream openContent(Document doc) throws IOException {
+        return blobs.open(doc.getFilePath());
+    }
+    
+    /**
+     * Stores metadata extracted from a document's content
+     * @param doc Document to update
+     * @param title Title found in the document, or null to keep the current title
+     * @param author Author found in the document, or null if unknown
+     * @return Updated document, or null if the document has been deleted
+     */
+    public Document updateExtractedMetadata(Document doc, String title, String author) {
+        ReentrantLock lock = lockFor(doc.getId());
+        lock.lock();
+        try {
+            if (deletedIds.contains(doc.getId())) {
+                return null;
+            }
+            boolean hasTitle = title != null && !title.trim().isEmpty();
+            Document updated = doc.withExtractedMetadata(hasTitle ? title.trim() : null, author);
+            store.put(updated);
+            cache.put(updated);
+            if (!updated.getTitle().equals(doc.getTitle())) {
+                for (DocumentListener listener : listeners) {
+                    listener.onTitleChanged(updated, doc.getTitle());
+                }
+            }
+            return updated;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Assigns a document to a category and persists the change
+     * @param doc Document to update
+     * @param category New category
+     * @return Updated document, doc itself if it was already in the category, or null if it has been deleted
+     */
+    public Document updateCategory(Document doc, String category) {
+        ReentrantLock lock = lockFor(doc.getId());
+        lock.lock();
+        try {
+            if (deletedIds.contains(doc.getId())) {
+                return null;
+            }
+            String oldCategory = doc.getCategory();
+            if (category.equals(oldCategory)) {
+                return doc;
+            }
+            Document updated = doc.withCategory(category);
+            store.put(updated);
+            cache.put(updated);
+            for (DocumentListener listener : listeners) {
+                listener.onCategoryChanged(updated, oldCategory);
+            }
+            return updated;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Assigns categories to many documents, persisting the changes in one write
+     * @param docs Documents to update
+     * @param categories New category per document, in the same order as docs
+     * @return Updated documents, in the same order as docs, leaving out any that have been deleted
+     */
+    public List<Document> updateCategories(List<Document> docs, List<String> categories) {
+        List<ReentrantLock> locks = lockAll(docs);
+        try {
+            List<Document> updated = new ArrayList<>(docs.size());
+            List<Document> changed = new ArrayList<>();
+            List<String> oldCategories = new ArrayList<>();
+            for (int i = 0; i < docs.size(); i++) {
+                Document doc = docs.get(i);
+                if (deletedIds.contains(doc.getId())) {
+                    continue;
+                }
+                String oldCategory = doc.getCategory();
+                if (!categories.get(i).equals(oldCategory)) {
+                    doc = doc.withCategory(categories.get(i));
+                    changed.add(doc);
+                    oldCategories.add(oldCategory);
+                }
+                updated.add(doc);
+            }
+            if (changed.isEmpty()) {
+                return updated;
+            }
+            store.putAll(changed);
+            for (Document doc : changed) {
+                cache.put(doc);
+            }
+            for (DocumentListener listener : listeners) {
+                listener.onCategoriesChanged(changed, oldCategories);
+            }
+            return updated;
+        } finally {
+            for (ReentrantLock lock : locks) {
+                lock.unlock();
+            }
         }
-        
-        return documents;
+    }
+    
+    /**
+     * Deletes a document's file and metadata
+     * @param id Document ID
+     * @return Deleted document, or null if there was none with this ID
+     */
+    public Document deleteDocument(String id) {
+        ReentrantLock lock = lockFor(id);
+        lock.lock();
+        try {
+            Document doc = cache.get(id);
+            if (doc == null) {
+                return null;
+            }
+            // Marked first, so processing still under way stops short of storing or indexing it again
+            deletedIds.add(id);
+            blobs.delete(doc.getFilePath());
+            store.delete(id);
+            cache.remove(id);
+            if (doc.getContentHash() != null) {
+                dedup.forget(doc.getContentHash());
+            }
+            for (DocumentListener listener : listeners) {
+                listener.onDocumentDeleted(doc);
+            }
+            return doc;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @param id Document ID
+     * @return True if the document was deleted recently, e.g. while it was still being processed
+     */
+    public boolean isDeleted(String id) {
+        return deletedIds.contains(id);
     }
     
     // Helper methods
+    private ReentrantLock lockFor(String id) {
+        return idLocks[Math.floorMod(id.hashCode(), idLocks.length)];
+    }
+    
+    // Locks every stripe the documents fall in, in stripe order so batches can't deadlock each other
+    private List<ReentrantLock> lockAll(List<Document> docs) {
+        boolean[] needed = new boolean[idLocks.length];
+        for (Document doc : docs) {
+            needed[Math.floorMod(doc.getId().hashCode(), idLocks.length)] = true;
+        }
+        List<ReentrantLock> locked = new ArrayList<>();
+        for (int i = 0; i < idLocks.length; i++) {
+            if (needed[i]) {
+                idLocks[i].lock();
+                locked.add(idLocks[i]);
+            }
+        }
+        return locked;
+    }
+    
     private String generateDocumentId() {
-        return "doc-" + UUID.randomUUID().toString();
+        // Random like UUID.randomUUID(), without contending on a shared SecureRandom during bulk ingest
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return "doc-" + new UUID(random.nextLong(), random.nextLong()).toString();
     }
     
-    private String getFileType(String fileName) {
-        if (fileName.toLowerCase().endsWith(".pdf")) return "PDF";
-        if (fileName.toLowerCase().endsWith(".docx")) return "DOCX";
-        return "UNKNOWN";
+    private Document.FileType getFileType(String fileName) {
+        if (fileName.toLowerCase().endsWith(".pdf")) return Document.FileType.PDF;
+        if (fileName.toLowerCase().endsWith(".docx")) return Document.FileType.DOCX;
+        return Document.FileType.UNKNOWN;
     }
     
     private String extractTitleFromFileName(String fileName) {
@@ -94,15 +642,69 @@ public class DocumentManager {
         return fileName.replaceFirst("[.][^.]+$", ""); // Remove extension
     }
     
-    private Document entityToDocument(Entity entity) {
-        return new Document(
-            entity.getKey().getName(),
-            entity.getString("title"),
-            entity.getString("filePath"),
-            entity.getLong("size"),
-            entity.getString("fileType"),
-            entity.getString("category"),
-            new Date(entity.getTimestamp("uploadDate").getSeconds() * 1000)
-        );
+    /**
+     * Result of upload(): the document and whether it already existed
+     */
+    public static class Upload {
+        private final Document document;
+        private final boolean duplicate;
+        
+        Upload(Document document, boolean duplicate) {
+            this.document = document;
+            this.duplicate = duplicate;
+        }
+        
+        public Document getDocument() { return document; }
+        
+        /** @return true if the content was already stored and nothing new was written */
+        public boolean isDuplicate() { return duplicate; }
+    }
+    
+    // A bulk file copied out of its source and hashed, so it can be uploaded concurrently and retried
+    private static final class Spool {
+        private final byte[] bytes;     // Small files
+        private final Path file;        // Large files
+        private final String hash;      // Hex SHA-256
+        
+        private Spool(byte[] bytes, Path file, String hash) {
+            this.bytes = bytes;
+            this.file = file;
+            this.hash = hash;
+        }
+        
+        static Spool of(InputStream content) throws IOException {
+            MessageDigest digest = ContentHash.newDigest();
+            InputStream in = new DigestInputStream(content, digest);
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                head.write(buffer, 0, read);
+                if (head.size() > SPOOL_IN_MEMORY_BYTES) {
+                    Path file = Files.createTempFile("bulk-", ".spool");
+                    try (OutputStream out = Files.newOutputStream(file)) {
+                        head.writeTo(out);
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                        }
+                    } catch (IOException e) {
+                        Files.deleteIfExists(file);
+                        throw e;
+                    }
+                    return new Spool(null, file, ContentHash.toHex(digest.digest()));
+                }
+            }
+            return new Spool(head.toByteArray(), null, ContentHash.toHex(digest.digest()));
+        }
+        
+        InputStream open() throws IOException {
+            return file != null ? Files.newInputStream(file) : new ByteArrayInputStream(bytes);
+        }
+        
+        void discard() {
+            if (file != null) {
+                file.toFile().delete();
+            }
+        }
     }
 }
\ No newline at end of file
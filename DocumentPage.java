@@ -0,0 +1,18 @@
+import java.util.List;
+
+/**
+ * One page of a document listing plus the cursor to continue from
+ */
+public class DocumentPage {
+    private final List<Document> documents;
+    private final String nextCursor;    // Null when there are no more pages
+    
+    public DocumentPage(List<Document> documents, String nextCursor) {
+        this.documents = documents;
+        this.nextCursor = nextCursor;
+    }
+    
+    public List<Document> getDocuments() { return documents; }
+    public String getNextCursor() { return nextCursor; }
+    public boolean hasMore() { return nextCursor != null; }
+}
\ No newline at end of file
@@ -0,0 +1,692 @@
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.BytesRef;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Implements full-text search with highlighting using Apache Lucene.
+ * The index is updated incrementally as documents are stored.
+ *
+ * The index is split into shards by document ID hash, each with its own
+ * searcher, either in this JVM (IndexShard) or in other JVMs running
+ * ShardServer (RemoteShard). Queries fan out to every shard in parallel:
+ * term statistics are summed first so every shard scores as a single index
+ * would, then each shard's best hits and facet counts are merged with
+ * TopDocs.merge, and only the hits on the merged page are highlighted.
+ */
+public class DocumentSearchEngine implements DocumentListener, Closeable {
+    private DocumentManager docManager;
+    private List<SearchShard> shards;           // Documents live in shards.get(hash(id) mod size)
+    private StandardAnalyzer analyzer;          // Parses queries for validation and cache keys
+    private ExecutorService shardExecutor;      // Queries shards in parallel (null = one shard)
+    private ExecutorService searchExecutor;     // Searches segments of local shards in parallel (null = caller thread)
+    private ScheduledExecutorService scheduler; // Expires cached results of shards that can't report refreshes
+    private QueryResultCache<SearchResults> resultCache;
+    private int snippetCount;                   // Content snippets per result
+    private int snippetLength;                  // Target snippet length in characters
+    
+    /** Snippets per result unless configured otherwise */
+    public static final int DEFAULT_SNIPPET_COUNT = 3;
+    /** Target snippet length in characters unless configured otherwise */
+    public static final int DEFAULT_SNIPPET_LENGTH = 160;
+    
+    private static final int BUILD_BATCH_SIZE = 1000;   // Documents per shard call during the initial build
+    
+    /**
+     * Opens (or creates) the on-disk index and starts background refresh and commit tasks
+     * @param docManager Source of documents for the initial build of an empty index
+     * @param indexPath Directory holding the index files
+     * @param refreshIntervalMs How often new documents become visible to searches
+     * @param commitIntervalMs How often pending changes are made durable
+     * @param searchThreads Threads for intra-query segment parallelism, 0 to search on the caller thread
+     * @param resultCacheSize Maximum number of cached query results, 0 to disable caching
+     */
+    public DocumentSearchEngine(DocumentManager docManager, Path indexPath,
+                                long refreshIntervalMs, long commitIntervalMs,
+                                int searchThreads, int resultCacheSize) throws IOException {
+        this(docManager, indexPath, refreshIntervalMs, commitIntervalMs, searchThreads, resultCacheSize,
+            DEFAULT_SNIPPET_COUNT, DEFAULT_SNIPPET_LENGTH);
+    }
+    
+    /**
+     * @param snippetCount Maximum number of content snippets per result
+     * @param snippetLength Target length of each snippet in characters
+     */
+    public DocumentSearchEngine(DocumentManager docManager, Path indexPath,
+                                long refreshIntervalMs, long commitIntervalMs,
+                                int searchThreads, int resultCacheSize,
+                                int snippetCount, int snippetLength) throws IOException {
+        this(docManager, indexPath, refreshIntervalMs, commitIntervalMs, searchThreads, resultCacheSize,
+            snippetCount, snippetLength, 1);
+    }
+    
+    /**
+     * Splits the index into shards held in this JVM
+     * @param shardCount Number of shards; one keeps the index directly in indexPath, more use
+     *                   indexPath/shard-N, and changing the count requires rebuilding the index
+     */
+    public DocumentSearchEngine(DocumentManager docManager, Path indexPath,
+                                long refreshIntervalMs, long commitIntervalMs,
+                                int searchThreads, int resultCacheSize,
+                                int snippetCount, int snippetLength, int shardCount) throws IOException {
+        if (searchThreads > 0) {
+            this.searchExecutor = Executors.newFixedThreadPool(searchThreads, r -> {
+                Thread t = new Thread(r, "search-segment-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        List<SearchShard> local = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            Path shardPath = shardCount == 1 ? indexPath : indexPath.resolve("shard-" + i);
+            Files.createDirectories(shardPath);
+            local.add(new IndexShard(shardPath, refreshIntervalMs, commitIntervalMs, searchExecutor));
+        }
+        init(docManager, local, refreshIntervalMs, resultCacheSize, snippetCount, snippetLength);
+    }
+    
+    /**
+     * Searches shards that are already open, such as RemoteShards of ShardServers in other JVMs
+     * @param shards Shards in routing order; every client of the same index must list them in the same order
+     * @param refreshIntervalMs How long results of shards that can't report refreshes stay cached
+     */
+    public DocumentSearchEngine(DocumentManager docManager, List<SearchShard> shards,
+                                long refreshIntervalMs, int resultCacheSize,
+                                int snippetCount, int snippetLength) throws IOException {
+        init(docManager, shards, refreshIntervalMs, resultCacheSize, snippetCount, snippetLength);
+    }
+    
+    private void init(DocumentManager docManager, List<SearchShard> shards, long refreshIntervalMs,
+                      int resultCacheSize, int snippetCount, int snippetLength) throws IOException {
+        this.docManager = docManager;
+        this.shards = new ArrayList<>(shards);
+        this.analyzer = new StandardAnalyzer();
+        this.snippetCount = snippetCount;
+        this.snippetLength = snippetLength;
+        if (shards.size() > 1) {
+            this.shardExecutor = Executors.newFixedThreadPool(shards.size(), r -> {
+                Thread t = new Thread(r, "search-shard-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        
+        // Only a brand new index needs the full scan; afterwards updates arrive incrementally
+        boolean empty = true;
+        for (SearchShard shard : shards) {
+            empty &= shard.isEmpty();
+        }
+        if (empty) {
+            buildIndex();
+        }
+        
+        // Cached results belong to the readers that produced them
+        this.resultCache = new QueryResultCache<>(resultCacheSize);
+        boolean reportsRefreshes = true;
+        for (SearchShard shard : shards) {
+            reportsRefreshes &= shard.addRefreshListener(resultCache::invalidate);
+        }
+        if (!reportsRefreshes) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "search-cache-expiry");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(resultCache::invalidate, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Builds search index from all documents
+     */
+    private void buildIndex() throws IOException {
+        List<List<Document>> batches = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            batches.add(new ArrayList<>());
+        }
+        Iterator<Document> docs = docManager.iterateDocuments(DocumentManager.DEFAULT_BATCH_SIZE);
+        while (docs.hasNext()) {
+            Document doc = docs.next();
+            List<Document> batch = batches.get(shardIndex(doc.getId()));
+            batch.add(doc);
+            if (batch.size() == BUILD_BATCH_SIZE) {
+                shardFor(doc.getId()).add(batch);
+                batch.clear();
+            }
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            if (!batches.get(i).isEmpty()) {
+                shards.get(i).add(batches.get(i));
+            }
+            shards.get(i).commit();
+        }
+    }
+    
+    /**
+     * Adds or replaces a document in the index. The change becomes searchable
+     * after the next refresh.
+     * @param doc Document to index
+     */
+    public void indexDocument(Document doc) throws IOException {
+        shardFor(doc.getId()).index(doc, null);
+    }
+    
+    /**
+     * Adds or replaces a document together with its extracted body text
+     * @param doc Document to index
+     * @param content Body text; only the prefix stored for snippets is buffered, the rest streams into the index
+     */
+    public void indexDocument(Document doc, Reader content) throws IOException {
+        shardFor(doc.getId()).index(doc, content);
+    }
+    
+    @Override
+    public void onDocumentStored(Document doc) {
+        try {
+            indexDocument(doc);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to index document " + doc.getId(), e);
+        }
+    }
+    
+    @Override
+    public void onDocumentsStored(List<Document> docs) {
+        // Bulk documents have fresh IDs, so each shard adds its part in one call without replacing anything
+        List<List<Document>> parts = partition(docs);
+        try {
+            for (int i = 0; i < shards.size(); i++) {
+                if (!parts.get(i).isEmpty()) {
+                    shards.get(i).add(parts.get(i));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to index " + docs.size() + " documents", e);
+        }
+    }
+    
+    @Override
+    public void onCategoryChanged(Document doc, String oldCategory) {
+        onCategoriesChanged(Collections.singletonList(doc), Collections.singletonList(oldCategory));
+    }
+    
+    @Override
+    public void onCategoriesChanged(List<Document> docs, List<String> oldCategories) {
+        // Shards re-index each entry with the content it already has, so it stays searchable by its text
+        List<Document> changed = new ArrayList<>(docs.size());
+        for (int i = 0; i < docs.size(); i++) {
+            if (!Objects.equals(docs.get(i).getCategory(), oldCategories.get(i))) {
+                changed.add(docs.get(i));
+            }
+        }
+        List<List<Document>> parts = partition(changed);
+        try {
+            for (int i = 0; i < shards.size(); i++) {
+                if (!parts.get(i).isEmpty()) {
+                    shards.get(i).update(parts.get(i));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to re-index " + changed.size() + " documents", e);
+        }
+    }
+    
+    @Override
+    public void onDocumentDeleted(Document doc) {
+        try {
+            shardFor(doc.getId()).delete(doc.getId());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to remove document " + doc.getId() + " from index", e);
+        }
+    }
+    
+    /**
+     * Makes every indexed change searchable now instead of at the next periodic refresh
+     */
+    public void refresh() throws Exception {
+        fanOut(shard -> {
+            shard.refresh();
+            return null;
+        });
+    }
+    
+    /**
+     * Searches documents for the given query, returning the first page by relevance
+     * @param queryText Search query
+     * @return Search results with highlighted titles and content snippets
+     */
+    public SearchResults search(String queryText) throws Exception {
+        return search(queryText, new SearchOptions());
+    }
+    
+    /**
+     * Searches documents for the given query. Searchers are shared across
+     * concurrent requests and results are cached until the next refresh.
+     * @param queryText Search query, or null to match every document
+     * @param options Filters, sort order and page
+     * @return One page of results with highlighted titles and content snippets,
+     *         facet counts over all hits and the cursor of the next page
+     */
+    public SearchResults search(String queryText, SearchOptions options) throws Exception {
+        // The parsed query is already analyzed, so equivalent inputs share an entry
+        Query query = IndexShard.parseQuery(queryText, analyzer);
+        String cacheKey = options.filter(query) + "|" + options.cacheKey();
+        SearchResults cached = resultCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = resultCache.generation();
+        
+        // Each shard scores with term statistics of the whole index, so merged scores are comparable
+        SearchShard.ShardStatistics global = null;
+        if (shards.size() > 1 && !(query instanceof MatchAllDocsQuery)) {
+            global = SearchShard.ShardStatistics.sum(fanOut(shard -> shard.statistics(queryText)));
+        }
+        SearchShard.ShardStatistics statistics = global;
+        
+        // One extra hit tells whether another page follows
+        int pageSize = options.getPageSize();
+        List<SearchShard.ShardHits> shardHits = fanOut(shard -> shard.search(queryText, options, pageSize + 1, statistics));
+        
+        Sort sort = options.sort();
+        TopFieldDocs[] topDocs = new TopFieldDocs[shardHits.size()];
+        Map<String, Map<String, Long>> facets = new LinkedHashMap<>();
+        long totalHits = 0;
+        for (int i = 0; i < topDocs.length; i++) {
+            SearchShard.ShardHits part = shardHits.get(i);
+            totalHits += part.getTotalHits();
+            part.getFacets().forEach((field, counts) -> {
+                Map<String, Long> merged = facets.computeIfAbsent(field, k -> new TreeMap<>());
+                counts.forEach((value, count) -> merged.merge(value, count, Long::sum));
+            });
+            FieldDoc[] hits = new FieldDoc[part.getHits().size()];
+            for (int j = 0; j < hits.length; j++) {
+                SearchShard.Hit hit = part.getHits().get(j);
+                Object value = options.getSortBy() == SortBy.RELEVANCE
+                    ? (Object) Float.intBitsToFloat((int) hit.getSortValue())
+                    : (Object) hit.getSortValue();
+                hits[j] = new FieldDoc(j, hit.getScore(), new Object[] {value, new BytesRef(hit.getId())});
+            }
+            topDocs[i] = new TopFieldDocs(new TotalHits(part.getTotalHits(), TotalHits.Relation.EQUAL_TO),
+                hits, sort.getSort());
+        }
+        ScoreDoc[] page = TopDocs.merge(sort, pageSize + 1, topDocs).scoreDocs;
+        
+        SearchResults results = new SearchResults();
+        results.setTotalHits(totalHits);
+        results.setFacets(facets);
+        if (page.length > pageSize) {
+            results.setNextCursor(options.cursorAfter((FieldDoc) page[pageSize - 1]));
+            page = Arrays.copyOf(page, pageSize);
+        }
+        
+        // Only the hits on the merged page are highlighted, each by the shard holding it
+        List<List<String>> ids = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            ids.add(new ArrayList<>());
+        }
+        for (ScoreDoc hit : page) {
+            ids.get(hit.shardIndex).add(((BytesRef) ((FieldDoc) hit).fields[1]).utf8ToString());
+        }
+        List<List<SearchResult>> fetched = fanOut(shard -> {
+            List<String> shardIds = ids.get(shards.indexOf(shard));
+            return shardIds.isEmpty()
+                ? Collections.<SearchResult>emptyList()
+                : shard.fetch(queryText, shardIds, snippetCount, snippetLength);
+        });
+        int[] next = new int[shards.size()];
+        for (ScoreDoc hit : page) {
+            SearchResult result = fetched.get(hit.shardIndex).get(next[hit.shardIndex]++);
+            if (result != null) {   // Null if deleted since the search
+                result.setScore(hit.score);
+                results.addResult(result);
+            }
+        }
+        resultCache.put(cacheKey, results, generation);
+        return results;
+    }
+    
+    /**
+     * @return Searches answered from the query result cache since startup
+     */
+    public long getCacheHits() {
+        return resultCache.hits();
+    }
+    
+    /**
+     * @return Searches that missed the query result cache since startup
+     */
+    public long getCacheMisses() {
+        return resultCache.misses();
+    }
+    
+    /**
+     * Stops background maintenance and commits any pending changes
+     */
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        if (shardExecutor != null) {
+            shardExecutor.shutdown();
+        }
+        for (SearchShard shard : shards) {
+            shard.close();  // Local shards commit on close
+        }
+        if (searchExecutor != null) {
+            searchExecutor.shutdown();
+        }
+    }
+    
+    // Java's String.hashCode is specified, so every JVM routes an ID to the same shard
+    private int shardIndex(String id) {
+        return Math.floorMod(id.hashCode(), shards.size());
+    }
+    
+    private SearchShard shardFor(String id) {
+        return shards.get(shardIndex(id));
+    }
+    
+    // Documents grouped by the shard they belong to, in shard order
+    private List<List<Document>> partition(List<Document> docs) {
+        List<List<Document>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Document doc : docs) {
+            parts.get(shardIndex(doc.getId())).add(doc);
+        }
+        return parts;
+    }
+    
+    // Runs the call on every shard in parallel, returning results in shard order
+    private <T> List<T> fanOut(ShardCall<T> call) throws Exception {
+        if (shardExecutor == null) {
+            return Collections.singletonList(call.apply(shards.get(0)));
+        }
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (SearchShard shard : shards) {
+            futures.add(shardExecutor.submit(() -> call.apply(shard)));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        return results;
+    }
+    
+    @FunctionalInterface
+    private interface ShardCall<T> {
+        T apply(SearchShard shard) throws Exception;
+    }
+    
+    /**
+     * Orders for search results; ties are broken by document ID
+     */
+    public enum SortBy {
+        RELEVANCE(null), DATE("uploadDate"), SIZE("size");
+        
+        private final String field;     // Numeric doc values field, null for the score
+        
+        SortBy(String field) {
+            this.field = field;
+        }
+    }
+    
+    /**
+     * Filters, sort order and page of a search, parsed from request parameters
+     */
+    public static class SearchOptions {
+        /** Results per page unless a limit is given */
+        public static final int DEFAULT_PAGE_SIZE = 10;
+        /** Largest page; every result on a page is highlighted */
+        public static final int MAX_PAGE_SIZE = 100;
+        
+        private final List<String> categories = new ArrayList<>();
+        private final List<String> fileTypes = new ArrayList<>();
+        private long minSize = Long.MIN_VALUE, maxSize = Long.MAX_VALUE;
+        private long minDate = Long.MIN_VALUE, maxDate = Long.MAX_VALUE;   // Upload date in epoch millis
+        private SortBy sortBy = SortBy.RELEVANCE;
+        private boolean descending = true;
+        private int pageSize = DEFAULT_PAGE_SIZE;
+        private String cursor;      // Where the previous page ended, null for the first page
+        
+        /**
+         * Parses request parameters such as category=Academic,Business, fileType=PDF,
+         * minSize/maxSize in bytes, from/to as epoch millis (inclusive),
+         * sort=relevance|date|size, order=asc|desc, limit and cursor
+         * @param params Parameter lookup, returning null for missing parameters
+         * @return Parsed options
+         * @throws IllegalArgumentException for malformed values
+         */
+        public static SearchOptions parse(Function<String, String> params) {
+            SearchOptions options = new SearchOptions();
+            options.categories.addAll(list(params.apply("category")));
+            for (String fileType : list(params.apply("fileType"))) {
+                options.fileTypes.add(Document.FileType.valueOf(fileType.toUpperCase()).name());
+            }
+            options.minSize = number(params.apply("minSize"), Long.MIN_VALUE);
+            options.maxSize = number(params.apply("maxSize"), Long.MAX_VALUE);
+            options.minDate = number(params.apply("from"), Long.MIN_VALUE);
+            options.maxDate = number(params.apply("to"), Long.MAX_VALUE);
+            
+            String sort = params.apply("sort");
+            if (sort != null && !sort.trim().isEmpty()) {
+                options.sortBy = SortBy.valueOf(sort.trim().toUpperCase());
+            }
+            String order = params.apply("order");
+            if (order != null && !order.trim().isEmpty()) {
+                if (!order.equalsIgnoreCase("asc") && !order.equalsIgnoreCase("desc")) {
+                    throw new IllegalArgumentException("Unknown sort order: " + order);
+                }
+                options.descending = order.equalsIgnoreCase("desc");
+                if (!options.descending && options.sortBy == SortBy.RELEVANCE) {
+                    throw new IllegalArgumentException("Relevance can only be sorted descending");
+                }
+            }
+            String limit = params.apply("limit");
+            if (limit != null) {
+                options.pageSize = Math.max(1, Math.min(Integer.parseInt(limit), MAX_PAGE_SIZE));
+            }
+            options.cursor = params.apply("cursor");
+            options.after();    // Rejects malformed cursors up front
+            return options;
+        }
+        
+        public SortBy getSortBy() { return sortBy; }
+        public int getPageSize() { return pageSize; }
+        
+        /**
+         * @return True if any category, file type, size or date filter is set
+         */
+        public boolean hasFilters() {
+            return !categories.isEmpty() || !fileTypes.isEmpty()
+                || minSize != Long.MIN_VALUE || maxSize != Long.MAX_VALUE
+                || minDate != Long.MIN_VALUE || maxDate != Long.MAX_VALUE;
+        }
+        
+        /**
+         * @return Request parameters that parse() turns back into these options
+         */
+        public Map<String, String> toParams() {
+            Map<String, String> params = new LinkedHashMap<>();
+            if (!categories.isEmpty()) {
+                params.put("category", String.join(",", categories));
+            }
+            if (!fileTypes.isEmpty()) {
+                params.put("fileType", String.join(",", fileTypes));
+            }
+            if (minSize != Long.MIN_VALUE) {
+                params.put("minSize", String.valueOf(minSize));
+            }
+            if (maxSize != Long.MAX_VALUE) {
+                params.put("maxSize", String.valueOf(maxSize));
+            }
+            if (minDate != Long.MIN_VALUE) {
+                params.put("from", String.valueOf(minDate));
+            }
+            if (maxDate != Long.MAX_VALUE) {
+                params.put("to", String.valueOf(maxDate));
+            }
+            params.put("sort", sortBy.name().toLowerCase());
+            params.put("order", descending ? "desc" : "asc");
+            params.put("limit", String.valueOf(pageSize));
+            if (cursor != null) {
+                params.put("cursor", cursor);
+            }
+            return params;
+        }
+        
+        // The query restricted by every filter given; filters don't affect scores
+        Query filter(Query query) {
+            if (!hasFilters()) {
+                return query;
+            }
+            BooleanQuery.Builder builder = new BooleanQuery.Builder().add(query, BooleanClause.Occur.MUST);
+            if (!categories.isEmpty()) {
+                builder.add(anyTerm("category", categories), BooleanClause.Occur.FILTER);
+            }
+            if (!fileTypes.isEmpty()) {
+                builder.add(anyTerm("fileType", fileTypes), BooleanClause.Occur.FILTER);
+            }
+            if (minSize != Long.MIN_VALUE || maxSize != Long.MAX_VALUE) {
+                builder.add(range("size", minSize, maxSize), BooleanClause.Occur.FILTER);
+            }
+            if (minDate != Long.MIN_VALUE || maxDate != Long.MAX_VALUE) {
+                builder.add(range("uploadDate", minDate, maxDate), BooleanClause.Occur.FILTER);
+            }
+            return builder.build();
+        }
+        
+        Sort sort() {
+            SortField byId = new SortField("id", SortField.Type.STRING);
+            if (sortBy == SortBy.RELEVANCE) {
+                return new Sort(SortField.FIELD_SCORE, byId);
+            }
+            return new Sort(new SortField(sortBy.field, SortField.Type.LONG, descending), byId);
+        }
+        
+        String cacheKey() {
+            return sortBy + "|" + descending + "|" + pageSize + "|" + cursor;
+        }
+        
+        // Cursors hold the sort values of the last hit, so they stay valid when segments merge
+        String cursorAfter(FieldDoc last) {
+            String value = sortBy == SortBy.RELEVANCE
+                ? String.valueOf(Float.floatToIntBits((Float) last.fields[0]))
+                : String.valueOf(last.fields[0]);
+            BytesRef id = (BytesRef) last.fields[1];
+            String cursor = sortBy + ":" + descending + ":" + value + ":" + (id == null ? "" : id.utf8ToString());
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        FieldDoc after() {
+            if (cursor == null || cursor.isEmpty()) {
+                return null;
+            }
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 4);
+            if (parts.length != 4 || !parts[0].equals(sortBy.name()) || !parts[1].equals(String.valueOf(descending))) {
+                throw new IllegalArgumentException("Cursor does not match the sort order");
+            }
+            Object value = sortBy == SortBy.RELEVANCE
+                ? (Object) Float.intBitsToFloat(Integer.parseInt(parts[2]))
+                : (Object) Long.parseLong(parts[2]);
+            BytesRef id = parts[3].isEmpty() ? null : new BytesRef(parts[3]);
+            // IDs are unique, so the doc number is never needed to break a tie
+            return new FieldDoc(Integer.MAX_VALUE, Float.NaN, new Object[] {value, id});
+        }
+        
+        private static List<String> list(String values) {
+            List<String> list = new ArrayList<>();
+            if (values != null) {
+                for (String value : values.split(",")) {
+                    if (!value.trim().isEmpty()) {
+                        list.add(value.trim());
+                    }
+                }
+            }
+            return list;
+        }
+        
+        private static long number(String value, long defaultValue) {
+            return value == null || value.trim().isEmpty() ? defaultValue : Long.parseLong(value.trim());
+        }
+        
+        // Any of the values; each term is cached as its own bitset
+        private static Query anyTerm(String field, List<String> values) {
+            if (values.size() == 1) {
+                return new TermQuery(new Term(field, values.get(0)));
+            }
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for (String value : values) {
+                builder.add(new TermQuery(new Term(field, value)), BooleanClause.Occur.SHOULD);
+            }
+            return builder.build();
+        }
+        
+        // Points lead selective ranges; doc values check ranges when another clause leads
+        private static Query range(String field, long min, long max) {
+            return new IndexOrDocValuesQuery(LongPoint.newRangeQuery(field, min, max),
+                NumericDocValuesField.newSlowRangeQuery(field, min, max));
+        }
+    }
+    
+    // Nested classes for search results
+    public static class SearchResults {
+        private long totalHits;
+        private List<SearchResult> results = new ArrayList<>();
+        private Map<String, Map<String, Long>> facets = new LinkedHashMap<>();   // Field -> value -> hits
+        private String nextCursor;      // Null when there are no more pages
+        
+        // Getters and setters
+        public void addResult(SearchResult result) { results.add(result); }
+        public List<SearchResult> getResults() { return results; }
+        public long getTotalHits() { return totalHits; }
+        public void setTotalHits(long totalHits) { this.totalHits = totalHits; }
+        public Map<String, Map<String, Long>> getFacets() { return facets; }
+        public void setFacets(Map<String, Map<String, Long>> facets) { this.facets = facets; }
+        public String getNextCursor() { return nextCursor; }
+        public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+    }
+    
+    public static class SearchResult {
+        private String documentId;
+        private String title;
+        private String highlightedTitle;
+        private float score;                // Relevance score of the hit
+        private List<String> snippets = new ArrayList<>();     // Highlighted content passages, best first
+        
+        // Getters and setters
+        public String getDocumentId() { return documentId; }
+        public void setDocumentId(String documentId) { this.documentId = documentId; }
+        public String getTitle() { return title; }
+        public void setTitle(String title) { this.title = title; }
+        public String getHighlightedTitle() { return highlightedTitle; }
+        public void setHighlightedTitle(String highlightedTitle) { this.highlightedTitle = highlightedTitle; }
+        public float getScore() { return score; }
+        public void setScore(float score) { this.score = score; }
+        public List<String> getSnippets() { return snippets; }
+        public void setSnippets(List<String> snippets) { this.snippets = snippets; }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,303 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Immutable columnar copy of many documents' metadata, for analytics that
+ * touch every document. Each field is a primitive array indexed by row:
+ * sizes and upload dates are long[], file types byte[] ordinals, categories
+ * int[] CategoryDictionary codes, and titles and authors int[] indices into
+ * pools holding each distinct string once. Content hashes are packed into
+ * four longs per row. File paths are only stored where they differ from
+ * the ID, which they normally don't.
+ *
+ * Scanning a column allocates nothing; document(row) builds a Document
+ * only when one is actually needed.
+ */
+public final class DocumentSnapshot {
+    private static final int HASH_LONGS = 4;    // SHA-256 is 32 bytes
+    
+    private final int size;
+    private final String[] ids;
+    private final int[] titles;             // Index into titlePool, -1 if none
+    private final String[] titlePool;
+    private final String[] filePaths;       // Null where the path equals the ID
+    private final long[] sizes;
+    private final byte[] fileTypes;         // Document.FileType ordinals
+    private final int[] categories;         // CategoryDictionary codes
+    private final long[] uploadDates;       // Epoch milliseconds
+    private final int[] authors;            // Index into authorPool, -1 if unknown
+    private final String[] authorPool;
+    private final long[] hashes;            // HASH_LONGS per row, all zero where there is no hash
+    private final Map<Integer, String> otherHashes;   // Hashes that aren't 64 hex digits, by row
+    
+    private DocumentSnapshot(Builder b) {
+        this.size = b.size;
+        this.ids = Arrays.copyOf(b.ids, size);
+        this.titles = Arrays.copyOf(b.titles, size);
+        this.titlePool = b.titlePool.toArray();
+        this.filePaths = Arrays.copyOf(b.filePaths, size);
+        this.sizes = Arrays.copyOf(b.sizes, size);
+        this.fileTypes = Arrays.copyOf(b.fileTypes, size);
+        this.categories = Arrays.copyOf(b.categories, size);
+        this.uploadDates = Arrays.copyOf(b.uploadDates, size);
+        this.authors = Arrays.copyOf(b.authors, size);
+        this.authorPool = b.authorPool.toArray();
+        this.hashes = Arrays.copyOf(b.hashes, size * HASH_LONGS);
+        this.otherHashes = b.otherHashes.isEmpty() ? Collections.<Integer, String>emptyMap() : new HashMap<>(b.otherHashes);
+    }
+    
+    /**
+     * Copies every remaining document into a snapshot
+     * @param documents Documents to copy, consumed once
+     * @return Snapshot holding the documents in iteration order
+     */
+    public static DocumentSnapshot of(Iterator<Document> documents) {
+        Builder builder = new Builder();
+        while (documents.hasNext()) {
+            builder.add(documents.next());
+        }
+        return builder.build();
+    }
+    
+    /**
+     * @return Number of rows
+     */
+    public int size() {
+        return size;
+    }
+    
+    // Row accessors
+    public String id(int row) { return ids[row]; }
+    public String title(int row) { return titles[row] < 0 ? null : titlePool[titles[row]]; }
+    public String filePath(int row) { return filePaths[row] == null ? ids[row] : filePaths[row]; }
+    public long fileSize(int row) { return sizes[row]; }
+    public Document.FileType fileType(int row) { return Document.FileType.ofOrdinal(fileTypes[row]); }
+    public int categoryCode(int row) { return categories[row]; }
+    public String category(int row) { return CategoryDictionary.name(categories[row]); }
+    public long uploadDate(int row) { return uploadDates[row]; }
+    public String author(int row) { return authors[row] < 0 ? null : authorPool[authors[row]]; }
+    
+    /**
+     * @return Index of the row's title in the title pool, -1 if it has none
+     */
+    public int titleCode(int row) {
+        return titles[row];
+    }
+    
+    /**
+     * @return Distinct titles, indexed by titleCode(); callers must not modify it
+     */
+    String[] titlePool() {
+        return titlePool;
+    }
+    
+    /**
+     * @return Hex content hash of the row, or null if it has none
+     */
+    public String contentHash(int row) {
+        String other = otherHashes.get(row);
+        if (other != null) {
+            return other;
+        }
+        int base = row * HASH_LONGS;
+        if (hashes[base] == 0 && hashes[base + 1] == 0 && hashes[base + 2] == 0 && hashes[base + 3] == 0) {
+            return null;
+        }
+        StringBuilder hex = new StringBuilder(HASH_LONGS * 16);
+        for (int i = 0; i < HASH_LONGS; i++) {
+            String part = Long.toHexString(hashes[base + i]);
+            for (int pad = part.length(); pad < 16; pad++) {
+                hex.append('0');
+            }
+            hex.append(part);
+        }
+        return hex.toString();
+    }
+    
+    /**
+     * Materializes one row
+     * @param row Row index
+     * @return New Document with the row's fields
+     */
+    public Document document(int row) {
+        return new Document(id(row), title(row), filePath(row), sizes[row], fileType(row),
+            category(row), uploadDates[row], author(row), contentHash(row));
+    }
+    
+    /**
+     * @return Rough heap footprint of the columns and pooled strings in bytes
+     */
+    public long estimatedBytes() {
+        long bytes = 16L * 12 + (long) size * (4 + 4 + 4 + 8 + 1 + 4 + 8 + 4 + 8 * HASH_LONGS);
+        for (String id : ids) {
+            bytes += stringBytes(id);
+        }
+        for (String path : filePaths) {
+            bytes += path == null ? 0 : stringBytes(path);
+        }
+        for (String title : titlePool) {
+            bytes += 4 + stringBytes(title);
+        }
+        for (String author : authorPool) {
+            bytes += 4 + stringBytes(author);
+        }
+        return bytes;
+    }
+    
+    // String header plus its backing array, assuming one byte per char
+    static long stringBytes(String s) {
+        return 24 + 16 + ((s.length() + 7) & ~7);
+    }
+    
+    /**
+     * Collects rows for a snapshot. Not thread-safe.
+     */
+    public static final class Builder {
+        private int size;
+        private String[] ids = new String[16];
+        private int[] titles = new int[16];
+        private String[] filePaths = new String[16];
+        private long[] sizes = new long[16];
+        private byte[] fileTypes = new byte[16];
+        private int[] categories = new int[16];
+        private long[] uploadDates = new long[16];
+        private int[] authors = new int[16];
+        private long[] hashes = new long[16 * HASH_LONGS];
+        private final Map<Integer, String> otherHashes = new HashMap<>();
+        private final StringPool titlePool = new StringPool();
+        private final StringPool authorPool = new StringPool();
+        private long estimatedBytes;
+        
+        /**
+         * Appends a document as the next row
+         */
+        public Builder add(Document doc) {
+            if (size == ids.length) {
+                grow();
+            }
+            int row = size++;
+            ids[row] = doc.getId();
+            titles[row] = titlePool.code(doc.getTitle());
+            filePaths[row] = doc.getId().equals(doc.getFilePath()) ? null : doc.getFilePath();
+            sizes[row] = doc.getSize();
+            fileTypes[row] = (byte) doc.getFileType().ordinal();
+            categories[row] = doc.categoryCode();
+            uploadDates[row] = doc.getUploadDate();
+            authors[row] = authorPool.code(doc.getAuthor());
+            if (doc.getContentHash() != null && !packHash(doc.getContentHash(), row * HASH_LONGS)) {
+                otherHashes.put(row, doc.getContentHash());
+            }
+            
+            estimatedBytes += 4 + 4 + 4 + 8 + 1 + 4 + 8 + 4 + 8 * HASH_LONGS + stringBytes(doc.getId())
+                + (filePaths[row] == null ? 0 : stringBytes(filePaths[row]));
+            return this;
+        }
+        
+        /**
+         * @return Number of rows added so far
+         */
+        public int size() {
+            return size;
+        }
+        
+        /**
+         * @return Rough heap footprint of the rows added so far, used against memory budgets
+         */
+        public long estimatedBytes() {
+            return estimatedBytes + titlePool.bytes + authorPool.bytes;
+        }
+        
+        /**
+         * @return Snapshot of the rows added so far; the builder can be reused after reset()
+         */
+        public DocumentSnapshot build() {
+            return new DocumentSnapshot(this);
+        }
+        
+        /**
+         * Drops every row, keeping the allocated capacity
+         */
+        public void reset() {
+            Arrays.fill(ids, 0, size, null);
+            Arrays.fill(filePaths, 0, size, null);
+            Arrays.fill(hashes, 0, size * HASH_LONGS, 0L);
+            otherHashes.clear();
+            titlePool.clear();
+            authorPool.clear();
+            size = 0;
+            estimatedBytes = 0;
+        }
+        
+        private void grow() {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+            filePaths = Arrays.copyOf(filePaths, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            fileTypes = Arrays.copyOf(fileTypes, capacity);
+            categories = Arrays.copyOf(categories, capacity);
+            uploadDates = Arrays.copyOf(uploadDates, capacity);
+            authors = Arrays.copyOf(authors, capacity);
+            hashes = Arrays.copyOf(hashes, capacity * HASH_LONGS);
+        }
+        
+        // Stores 64 lower-case hex digits as four longs; false if the hash has any other form
+        private boolean packHash(String hex, int base) {
+            if (hex.length() != HASH_LONGS * 16) {
+                return false;
+            }
+            for (int i = 0; i < HASH_LONGS; i++) {
+                long value = 0;
+                for (int j = i * 16; j < i * 16 + 16; j++) {
+                    int digit = Character.digit(hex.charAt(j), 16);
+                    if (digit < 0 || Character.isUpperCase(hex.charAt(j))) {
+                        Arrays.fill(hashes, base, base + HASH_LONGS, 0L);
+                        return false;
+                    }
+                    value = (value << 4) | digit;
+                }
+                hashes[base + i] = value;
+            }
+            // An all-zero hash would read back as missing
+            return hashes[base] != 0 || hashes[base + 1] != 0 || hashes[base + 2] != 0 || hashes[base + 3] != 0;
+        }
+    }
+    
+    // Each distinct string once, in first-seen order
+    private static final class StringPool {
+        private final HashMap<String, Integer> codes = new HashMap<>();
+        private String[] strings = new String[16];
+        long bytes;
+        
+        int code(String s) {
+            if (s == null) {
+                return -1;
+            }
+            Integer code = codes.get(s);
+            if (code != null) {
+                return code;
+            }
+            int next = codes.size();
+            if (next == strings.length) {
+                strings = Arrays.copyOf(strings, next * 2);
+            }
+            strings[next] = s;
+            codes.put(s, next);
+            bytes += 4 + stringBytes(s);
+            return next;
+        }
+        
+        String[] toArray() {
+            return Arrays.copyOf(strings, codes.size());
+        }
+        
+        void clear() {
+            Arrays.fill(strings, 0, codes.size(), null);
+            codes.clear();
+            bytes = 0;
+        }
+    }
+}
\ No newline at end of file
@@ -1,68 +1,651 @@
-import java.util.List;
-import java.util.ArrayList;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
 
 /**
- * Implements merge sort algorithm for sorting documents by title
+ * Sorts documents by one or more keys. In-memory sorts copy the documents
+ * into a DocumentSnapshot and run a parallel merge sort over row indices,
+ * comparing primitive columns and title ranks precomputed once per distinct
+ * title, so comparisons allocate nothing. Listings larger than the memory budget are sorted
+ * externally by merging sorted runs spilled to disk.
  */
 public class DocumentSorter {
+    private static final int INSERTION_SORT_THRESHOLD = 32;    // Below this, insertion sort beats merging
+    private static final int PARALLEL_THRESHOLD = 8192;        // Below this, forking costs more than it saves
+    private static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    
+    /** Fields documents can be sorted by */
+    public enum SortKey { TITLE, SIZE, UPLOAD_DATE, FILE_TYPE, CATEGORY }
+    
+    private final long memoryBudgetBytes;   // Estimated heap allowed for one in-memory run
+    private final ForkJoinPool pool;
+    
+    // Collators are not thread-safe, so each sorting thread gets its own
+    private final ThreadLocal<Collator> collator = ThreadLocal.withInitial(() -> {
+        Collator c = Collator.getInstance(Locale.ROOT);
+        c.setStrength(Collator.SECONDARY); // Ignore case, like compareToIgnoreCase
+        return c;
+    });
+    
+    public DocumentSorter() {
+        this(DEFAULT_MEMORY_BUDGET);
+    }
     
     /**
-     * Sorts documents by title using merge sort algorithm
+     * @param memoryBudgetBytes Estimated heap a sort may use before spilling runs to disk
+     */
+    public DocumentSorter(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.pool = ForkJoinPool.commonPool();
+    }
+    
+    /**
+     * Sorts documents by title
      * @param documents List of documents to sort
      * @return New sorted list of documents
      */
     public List<Document> sortByTitle(List<Document> documents) {
-        if (documents == null || documents.size() <= 1) {
-            return new ArrayList<>(documents);
+        return sort(documents, SortSpec.parse(null, null));
+    }
+    
+    /**
+     * Sorts documents in memory using all available cores
+     * @param documents List of documents to sort
+     * @param spec Sort keys and directions
+     * @return New sorted list of documents
+     */
+    public List<Document> sort(List<Document> documents, SortSpec spec) {
+        if (documents == null) {
+            return new ArrayList<>();
+        }
+        Document[] docs = documents.toArray(new Document[0]);
+        DocumentSnapshot.Builder builder = new DocumentSnapshot.Builder();
+        for (Document doc : docs) {
+            builder.add(doc);
         }
         
-        // Convert to array for merge sort
-        Document[] docArray = documents.toArray(new Document[0]);
-        mergeSort(docArray, 0, docArray.length - 1);
-        
-        // Convert back to list
-        List<Document> sorted = new ArrayList<>();
-        for (Document doc : docArray) {
-            sorted.add(doc);
+        List<Document> sorted = new ArrayList<>(docs.length);
+        for (int row : sort(builder.build(), spec)) {
+            sorted.add(docs[row]);
         }
         return sorted;
     }
     
-    // Recursive merge sort implementation
-    private void mergeSort(Document[] array, int left, int right) {
-        if (left < right) {
-            int mid = (left + right) / 2;
-            mergeSort(array, left, mid);
-            mergeSort(array, mid + 1, right);
-            merge(array, left, mid, right);
+    /**
+     * Sorts a snapshot's rows in memory using all available cores, without
+     * materializing any documents
+     * @param snapshot Documents to sort
+     * @param spec Sort keys and directions
+     * @return Row indices in sort order
+     */
+    public int[] sort(DocumentSnapshot snapshot, SortSpec spec) {
+        int[] rows = new int[snapshot.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        int[] titleRanks = spec.sortsByTitle() ? titleRanks(snapshot) : null;
+        sortRows(rows, spec.rowComparator(snapshot, titleRanks, categoryRanks()));
+        return rows;
+    }
+    
+    /**
+     * Sorts a stream of documents. Sorts in memory while the documents fit the
+     * memory budget, otherwise spills sorted runs to disk and merges them.
+     * @param documents Documents to sort, consumed once
+     * @param spec Sort keys and directions
+     * @return Sorted documents; close it to delete any spill files
+     */
+    public SortedDocuments sort(Iterator<Document> documents, SortSpec spec) throws IOException {
+        Comparator<SortEntry> comparator = spec.comparator();
+        List<Path> runs = new ArrayList<>();
+        DocumentSnapshot.Builder buffer = new DocumentSnapshot.Builder();
+        
+        try {
+            while (documents.hasNext()) {
+                buffer.add(documents.next());
+                if (buffer.estimatedBytes() >= memoryBudgetBytes) {
+                    runs.add(spillRun(buffer.build(), spec));
+                    buffer.reset();
+                }
+            }
+            
+            // Everything fit in memory - no disk involved
+            if (runs.isEmpty()) {
+                DocumentSnapshot snapshot = buffer.build();
+                return new SortedDocuments(new RowIterator(snapshot, sort(snapshot, spec)), runs);
+            }
+            if (buffer.size() > 0) {
+                runs.add(spillRun(buffer.build(), spec));
+                buffer.reset();
+            }
+            return new SortedDocuments(new RunMerger(runs, spec, comparator), runs);
+        } catch (IOException | RuntimeException e) {
+            deleteRuns(runs);
+            throw e;
+        }
+    }
+    
+    /**
+     * Returns the first n documents in sort order without sorting the whole
+     * listing. Keeps at most n documents in memory.
+     * @param documents Documents to select from, consumed once
+     * @param spec Sort keys and directions
+     * @param n Number of documents to return
+     * @return Up to n documents in sort order
+     */
+    public List<Document> topN(Iterator<Document> documents, SortSpec spec, int n) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+        Comparator<SortEntry> comparator = spec.comparator();
+        
+        // Max-heap of the best n seen so far; the root is the first to be evicted
+        PriorityQueue<SortEntry> heap = new PriorityQueue<>(n + 1, comparator.reversed());
+        while (documents.hasNext()) {
+            SortEntry entry = new SortEntry(documents.next(), spec);
+            if (heap.size() < n) {
+                heap.add(entry);
+            } else if (comparator.compare(entry, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        
+        SortEntry[] entries = heap.toArray(new SortEntry[0]);
+        Arrays.sort(entries, comparator);
+        List<Document> top = new ArrayList<>(entries.length);
+        for (SortEntry entry : entries) {
+            top.add(entry.doc);
+        }
+        return top;
+    }
+    
+    private void sortRows(int[] rows, RowComparator comparator) {
+        if (rows.length > 1) {
+            // One scratch buffer shared by every merge step
+            int[] scratch = new int[rows.length];
+            pool.invoke(new MergeSortTask(rows, scratch, 0, rows.length, comparator));
+        }
+    }
+    
+    // Rank of every pooled title in collation order, indexed by title code + 1 (0 is a missing title);
+    // collation keys are computed once per distinct title rather than per comparison
+    private int[] titleRanks(DocumentSnapshot snapshot) {
+        String[] pool = snapshot.titlePool();
+        CollationKey[] keys = new CollationKey[pool.length + 1];
+        IntStream.range(0, keys.length).parallel()
+            .forEach(i -> keys[i] = collator.get().getCollationKey(i == 0 ? "" : pool[i - 1]));
+        
+        int[] order = new int[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        sortRows(order, (a, b) -> keys[a].compareTo(keys[b]));
+        return ranks(order, (a, b) -> keys[a].compareTo(keys[b]));
+    }
+    
+    // Rank of every category name, indexed by CategoryDictionary code + 1 (0 is a missing category)
+    private static int[] categoryRanks() {
+        String[] names = new String[CategoryDictionary.size() + 1];
+        for (int code = 0; code < names.length - 1; code++) {
+            names[code + 1] = CategoryDictionary.name(code);
+        }
+        int[] order = new int[names.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // Only a handful of categories, so insertion sort
+        RowComparator byName = (a, b) -> SortSpec.compareNullable(names[a], names[b]);
+        for (int i = 1; i < order.length; i++) {
+            int current = order[i];
+            int j = i - 1;
+            while (j >= 0 && byName.compare(order[j], current) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = current;
+        }
+        return ranks(order, byName);
+    }
+    
+    // Dense ranks from a sorted order; equal values share a rank
+    private static int[] ranks(int[] order, RowComparator comparator) {
+        int[] ranks = new int[order.length];
+        int rank = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (i > 0 && comparator.compare(order[i - 1], order[i]) != 0) {
+                rank++;
+            }
+            ranks[order[i]] = rank;
+        }
+        return ranks;
+    }
+    
+    private Path spillRun(DocumentSnapshot snapshot, SortSpec spec) throws IOException {
+        int[] rows = sort(snapshot, spec);
+        
+        Path run = Files.createTempFile("document-sort-", ".run");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            out.writeInt(rows.length);
+            for (int row : rows) {
+                writeRow(out, snapshot, row);
+            }
+        }
+        return run;
+    }
+    
+    private static void deleteRuns(List<Path> runs) {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                // Temp files are left for the OS to clean up
+            }
+        }
+    }
+    
+    // Spill file format, written straight from the snapshot columns
+    private static void writeRow(DataOutputStream out, DocumentSnapshot snapshot, int row) throws IOException {
+        writeString(out, snapshot.id(row));
+        writeString(out, snapshot.title(row));
+        writeString(out, snapshot.filePath(row));
+        out.writeLong(snapshot.fileSize(row));
+        out.writeByte(snapshot.fileType(row).ordinal());
+        writeString(out, snapshot.category(row));
+        out.writeLong(snapshot.uploadDate(row));
+        writeString(out, snapshot.author(row));
+        writeString(out, snapshot.contentHash(row));
+    }
+    
+    private static Document readDocument(DataInputStream in) throws IOException {
+        String id = readString(in);
+        String title = readString(in);
+        String filePath = readString(in);
+        long size = in.readLong();
+        Document.FileType fileType = Document.FileType.ofOrdinal(in.readByte());
+        String category = readString(in);
+        long uploadDate = in.readLong();
+        String author = readString(in);
+        String contentHash = readString(in);
+        return new Document(id, title, filePath, size, fileType, category, uploadDate, author, contentHash);
+    }
+    
+    // Length-prefixed UTF-8, -1 for null; writeUTF would fail on strings over 64 KB encoded
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Ordered list of sort keys, each ascending or descending. Ties on every
+     * key are broken by document ID so the order is deterministic.
+     */
+    public static class SortSpec {
+        private final List<SortKey> keys;
+        private final List<Boolean> descending;
+        
+        public SortSpec(List<SortKey> keys, List<Boolean> descending) {
+            this.keys = keys;
+            this.descending = descending;
+        }
+        
+        /**
+         * Parses request parameters such as sort=category,size and order=asc,desc
+         * @param sort Comma-separated keys, defaults to title
+         * @param order Comma-separated asc/desc per key, missing entries default to asc
+         * @return Parsed spec
+         */
+        public static SortSpec parse(String sort, String order) {
+            String[] sortParts = sort == null || sort.trim().isEmpty() ? new String[] {"title"} : sort.split(",");
+            String[] orderParts = order == null || order.trim().isEmpty() ? new String[0] : order.split(",");
+            
+            List<SortKey> keys = new ArrayList<>();
+            List<Boolean> descending = new ArrayList<>();
+            for (int i = 0; i < sortParts.length; i++) {
+                keys.add(parseKey(sortParts[i].trim()));
+                String direction = i < orderParts.length ? orderParts[i].trim() : "asc";
+                if (!direction.equalsIgnoreCase("asc") && !direction.equalsIgnoreCase("desc")) {
+                    throw new IllegalArgumentException("Unknown sort order: " + direction);
+                }
+                descending.add(direction.equalsIgnoreCase("desc"));
+            }
+            return new SortSpec(keys, descending);
+        }
+        
+        private static SortKey parseKey(String name) {
+            switch (name.toLowerCase()) {
+                case "title": return SortKey.TITLE;
+                case "size": return SortKey.SIZE;
+                case "uploaddate": return SortKey.UPLOAD_DATE;
+                case "filetype": return SortKey.FILE_TYPE;
+                case "category": return SortKey.CATEGORY;
+                default: throw new IllegalArgumentException("Unknown sort key: " + name);
+            }
+        }
+        
+        boolean sortsByTitle() {
+            return keys.contains(SortKey.TITLE);
+        }
+        
+        Comparator<SortEntry> comparator() {
+            Comparator<SortEntry> comparator = null;
+            for (int i = 0; i < keys.size(); i++) {
+                Comparator<SortEntry> next = keyComparator(keys.get(i));
+                if (descending.get(i)) {
+                    next = next.reversed();
+                }
+                comparator = comparator == null ? next : comparator.thenComparing(next);
+            }
+            Comparator<SortEntry> byId = (a, b) -> a.doc.getId().compareTo(b.doc.getId());
+            return comparator == null ? byId : comparator.thenComparing(byId);
+        }
+        
+        // Same order as comparator(), over snapshot rows
+        RowComparator rowComparator(DocumentSnapshot snapshot, int[] titleRanks, int[] categoryRanks) {
+            RowComparator[] parts = new RowComparator[keys.size()];
+            for (int i = 0; i < parts.length; i++) {
+                RowComparator part = rowKeyComparator(keys.get(i), snapshot, titleRanks, categoryRanks);
+                parts[i] = descending.get(i) ? (a, b) -> part.compare(b, a) : part;
+            }
+            return (a, b) -> {
+                for (RowComparator part : parts) {
+                    int result = part.compare(a, b);
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return snapshot.id(a).compareTo(snapshot.id(b));
+            };
+        }
+        
+        private static Comparator<SortEntry> keyComparator(SortKey key) {
+            switch (key) {
+                case TITLE:
+                    return (a, b) -> a.titleKey.compareTo(b.titleKey);
+                case SIZE:
+                    return (a, b) -> Long.compare(a.doc.getSize(), b.doc.getSize());
+                case UPLOAD_DATE:
+                    return (a, b) -> Long.compare(a.doc.getUploadDate(), b.doc.getUploadDate());
+                case FILE_TYPE:
+                    return (a, b) -> a.doc.getFileType().compareTo(b.doc.getFileType());
+                case CATEGORY:
+                    return (a, b) -> compareNullable(a.doc.getCategory(), b.doc.getCategory());
+                default:
+                    throw new IllegalArgumentException("Unknown sort key: " + key);
+            }
+        }
+        
+        // Columns and precomputed ranks stand in for the per-document comparisons above
+        private static RowComparator rowKeyComparator(SortKey key, DocumentSnapshot snapshot,
+                                                      int[] titleRanks, int[] categoryRanks) {
+            switch (key) {
+                case TITLE:
+                    return (a, b) -> Integer.compare(titleRanks[snapshot.titleCode(a) + 1],
+                        titleRanks[snapshot.titleCode(b) + 1]);
+                case SIZE:
+                    return (a, b) -> Long.compare(snapshot.fileSize(a), snapshot.fileSize(b));
+                case UPLOAD_DATE:
+                    return (a, b) -> Long.compare(snapshot.uploadDate(a), snapshot.uploadDate(b));
+                case FILE_TYPE:
+                    return (a, b) -> snapshot.fileType(a).compareTo(snapshot.fileType(b));
+                case CATEGORY:
+                    return (a, b) -> Integer.compare(categoryRanks[snapshot.categoryCode(a) + 1],
+                        categoryRanks[snapshot.categoryCode(b) + 1]);
+                default:
+                    throw new IllegalArgumentException("Unknown sort key: " + key);
+            }
+        }
+        
+        static int compareNullable(String a, String b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : -1) : 1;
+            }
+            return a.compareTo(b);
+        }
+    }
+    
+    // A document plus its precomputed sort key
+    private final class SortEntry {
+        final Document doc;
+        final CollationKey titleKey;    // Only computed when sorting by title
+        
+        SortEntry(Document doc, SortSpec spec) {
+            this.doc = doc;
+            this.titleKey = spec.sortsByTitle()
+                ? collator.get().getCollationKey(doc.getTitle() == null ? "" : doc.getTitle())
+                : null;
         }
     }
     
-    // Merge two sorted subarrays
-    private void merge(Document[] array, int left, int mid, int right) {
-        // Create temp arrays
-        Document[] leftArray = new Document[mid - left + 1];
-        Document[] rightArray = new Document[right - mid];
+    // Compares two snapshot rows without boxing them
+    private interface RowComparator {
+        int compare(int a, int b);
+    }
+    
+    // Parallel merge sort over [lo, hi), merging through the shared scratch buffer
+    private static final class MergeSortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
         
-        System.arraycopy(array, left, leftArray, 0, leftArray.length);
-        System.arraycopy(array, mid + 1, rightArray, 0, rightArray.length);
+        private final int[] array;
+        private final int[] scratch;
+        private final int lo;
+        private final int hi;
+        private final RowComparator comparator;
         
-        // Merge the temp arrays
-        int i = 0, j = 0, k = left;
-        while (i < leftArray.length && j < rightArray.length) {
-            if (leftArray[i].getTitle().compareToIgnoreCase(rightArray[j].getTitle()) <= 0) {
-                array[k++] = leftArray[i++];
+        MergeSortTask(int[] array, int[] scratch, int lo, int hi, RowComparator comparator) {
+            this.array = array;
+            this.scratch = scratch;
+            this.lo = lo;
+            this.hi = hi;
+            this.comparator = comparator;
+        }
+        
+        @Override
+        protected void compute() {
+            if (hi - lo <= INSERTION_SORT_THRESHOLD) {
+                insertionSort();
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            MergeSortTask left = new MergeSortTask(array, scratch, lo, mid, comparator);
+            MergeSortTask right = new MergeSortTask(array, scratch, mid, hi, comparator);
+            if (hi - lo > PARALLEL_THRESHOLD) {
+                invokeAll(left, right);
             } else {
-                array[k++] = rightArray[j++];
+                left.compute();
+                right.compute();
+            }
+            // Halves already in order need no merge
+            if (comparator.compare(array[mid - 1], array[mid]) > 0) {
+                merge(mid);
+            }
+        }
+        
+        private void insertionSort() {
+            for (int i = lo + 1; i < hi; i++) {
+                int current = array[i];
+                int j = i - 1;
+                while (j >= lo && comparator.compare(array[j], current) > 0) {
+                    array[j + 1] = array[j];
+                    j--;
+                }
+                array[j + 1] = current;
+            }
+        }
+        
+        private void merge(int mid) {
+            System.arraycopy(array, lo, scratch, lo, hi - lo);
+            int i = lo, j = mid, k = lo;
+            while (i < mid && j < hi) {
+                array[k++] = comparator.compare(scratch[i], scratch[j]) <= 0 ? scratch[i++] : scratch[j++];
+            }
+            // Whatever is left of the right half is already in place
+            while (i < mid) {
+                array[k++] = scratch[i++];
             }
         }
+    }
+    
+    // Materializes a snapshot's rows in sort order, one document at a time
+    private static final class RowIterator implements Iterator<Document> {
+        private final DocumentSnapshot snapshot;
+        private final int[] rows;
+        private int next;
         
-        // Copy remaining elements
-        while (i < leftArray.length) {
-            array[k++] = leftArray[i++];
+        RowIterator(DocumentSnapshot snapshot, int[] rows) {
+            this.snapshot = snapshot;
+            this.rows = rows;
         }
-        while (j < rightArray.length) {
-            array[k++] = rightArray[j++];
+        
+        @Override
+        public boolean hasNext() {
+            return next < rows.length;
+        }
+        
+        @Override
+        public Document next() {
+            if (next >= rows.length) {
+                throw new NoSuchElementException();
+            }
+            return snapshot.document(rows[next++]);
+        }
+    }
+    
+    // k-way merge over sorted spill files
+    private final class RunMerger implements Iterator<Document> {
+        private final PriorityQueue<RunCursor> heads;
+        
+        RunMerger(List<Path> runs, SortSpec spec, Comparator<SortEntry> comparator) throws IOException {
+            this.heads = new PriorityQueue<>(runs.size(), (a, b) -> comparator.compare(a.head, b.head));
+            try {
+                for (Path run : runs) {
+                    RunCursor cursor = new RunCursor(run, spec);
+                    try {
+                        if (cursor.advance()) {
+                            heads.add(cursor);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        cursor.close();
+                        throw e;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                close();    // The runs opened so far
+                throw e;
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+        
+        @Override
+        public Document next() {
+            RunCursor cursor = heads.poll();
+            if (cursor == null) {
+                throw new NoSuchElementException();
+            }
+            Document doc = cursor.head.doc;
+            try {
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read sort run", e);
+            }
+            return doc;
+        }
+        
+        void close() {
+            for (RunCursor cursor : heads) {
+                cursor.close();
+            }
+        }
+    }
+    
+    private final class RunCursor {
+        private final DataInputStream in;
+        private final SortSpec spec;
+        private int remaining;
+        SortEntry head;
+        
+        RunCursor(Path run, SortSpec spec) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+            this.spec = spec;
+            try {
+                this.remaining = in.readInt();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+        
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                close();
+                return false;
+            }
+            remaining--;
+            head = new SortEntry(readDocument(in), spec);
+            return true;
+        }
+        
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing left to read
+            }
+        }
+    }
+    
+    /**
+     * Result of a sort, consumed once. Closing it releases any spill files.
+     */
+    public static class SortedDocuments implements Iterator<Document>, Closeable {
+        private final Iterator<Document> it;
+        private final List<Path> runs;
+        
+        private SortedDocuments(Iterator<Document> it, List<Path> runs) {
+            this.it = it;
+            this.runs = runs;
+        }
+        
+        @Override
+        public boolean hasNext() { return it.hasNext(); }
+        
+        @Override
+        public Document next() { return it.next(); }
+        
+        @Override
+        public void close() {
+            if (it instanceof DocumentSorter.RunMerger) {
+                ((DocumentSorter.RunMerger) it).close();
+            }
+            deleteRuns(runs);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persistence for document metadata. Implemented on top of Datastore in
+ * production and in memory for running offline.
+ */
+public interface DocumentStore {
+    
+    /**
+     * Inserts or replaces a document's metadata, including the lookup from its
+     * content hash when it has one
+     * @param doc Document to store
+     */
+    void put(Document doc);
+    
+    /**
+     * Inserts or replaces many documents' metadata, in as few round trips as
+     * the backend allows
+     * @param docs Documents to store
+     */
+    default void putAll(List<Document> docs) {
+        for (Document doc : docs) {
+            put(doc);
+        }
+    }
+    
+    /**
+     * @param id Document ID
+     * @return Stored document, or null if there is none with this ID
+     */
+    Document get(String id);
+    
+    /**
+     * Reads many documents, in as few round trips as the backend allows
+     * @param ids Document IDs
+     * @return Stored documents, in no particular order; unknown IDs are left out
+     */
+    default List<Document> getAll(List<String> ids) {
+        List<Document> docs = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Document doc = get(id);
+            if (doc != null) {
+                docs.add(doc);
+            }
+        }
+        return docs;
+    }
+    
+    /**
+     * Removes a document's metadata and its content hash lookup
+     * @param id Document ID
+     */
+    void delete(String id);
+    
+    /**
+     * @param contentHash Hex SHA-256 of a file
+     * @return ID of the document stored with this content, or null if there is none
+     */
+    String findIdByContentHash(String contentHash);
+    
+    /**
+     * Fetches one page of documents in key order
+     * @param limit Maximum number of documents to return
+     * @param cursor Cursor returned with the previous page, or null to start at the beginning
+     * @return Page of documents with the cursor for the next page
+     */
+    DocumentPage fetchPage(int limit, String cursor);
+}
\ No newline at end of file
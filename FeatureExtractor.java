@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Turns documents into sparse TF-IDF feature vectors for classification.
+ *
+ * Title and body text are tokenized into hashed unigrams and bigrams, with
+ * title terms kept apart from body terms. The vocabulary is the featureCap
+ * terms found in the most training documents, held in a LongIntHashMap from
+ * term hash to feature index. File type and a size bucket are appended as
+ * one-hot features. Tokenizing hashes characters as it reads them, so no
+ * strings are built per token.
+ */
+public class FeatureExtractor implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long TITLE_SEED = 0x7469746c65L;     // Keeps title terms apart from body terms
+    private static final long CONTENT_SEED = 0x626f6479L;
+    private static final int MAX_CONTENT_CHARS = 1 << 20;       // Bounds the cost of very large documents
+    
+    private static final Document.FileType[] FILE_TYPES = {Document.FileType.PDF, Document.FileType.DOCX};   // Anything else is "other"
+    private static final long[] SIZE_BUCKET_LIMITS = {10L << 10, 100L << 10, 1L << 20, 10L << 20, 100L << 20};
+    
+    private final LongIntHashMap vocabulary;    // Term hash -> feature index
+    private final double[] idf;                 // By feature index
+    
+    private FeatureExtractor(LongIntHashMap vocabulary, double[] idf) {
+        this.vocabulary = vocabulary;
+        this.idf = idf;
+    }
+    
+    /**
+     * Builds the vocabulary and IDF weights from a training set
+     * @param docs Training documents
+     * @param content Body text per document, or null where there is none
+     * @param featureCap Maximum number of term features to keep
+     * @return Extractor fitted to the training set
+     */
+    public static FeatureExtractor fit(List<Document> docs, Function<Document, String> content, int featureCap)
+            throws IOException {
+        // Document frequency of every term
+        LongIntHashMap documentFrequency = new LongIntHashMap(1024);
+        LongIntHashMap counts = new LongIntHashMap();
+        for (Document doc : docs) {
+            counts.clear();
+            countTerms(doc, reader(content.apply(doc)), counts);
+            counts.forEach((term, count) -> documentFrequency.addTo(term, 1));
+        }
+        
+        // Keep the most frequent terms; pack (frequency, slot) into longs to sort without boxing
+        long[] terms = new long[documentFrequency.size()];
+        long[] ranked = new long[documentFrequency.size()];
+        int[] next = {0};
+        documentFrequency.forEach((term, df) -> {
+            terms[next[0]] = term;
+            ranked[next[0]] = ((long) df << 32) | next[0];
+            next[0]++;
+        });
+        Arrays.sort(ranked);
+        
+        int kept = Math.min(featureCap, ranked.length);
+        LongIntHashMap vocabulary = new LongIntHashMap(kept);
+        double[] idf = new double[kept];
+        for (int feature = 0; feature < kept; feature++) {
+            long packed = ranked[ranked.length - 1 - feature];
+            int df = (int) (packed >>> 32);
+            vocabulary.put(terms[(int) packed], feature);
+            idf[feature] = Math.log((docs.size() + 1.0) / (df + 1.0)) + 1.0;
+        }
+        return new FeatureExtractor(vocabulary, idf);
+    }
+    
+    /**
+     * @return Total number of features, excluding the class
+     */
+    public int numFeatures() {
+        return idf.length + FILE_TYPES.length + 1 + SIZE_BUCKET_LIMITS.length + 1;
+    }
+    
+    /**
+     * Computes a document's feature vector
+     * @param doc Document to describe
+     * @param content Body text, or null if it hasn't been extracted
+     * @return Sparse vector with indices in ascending order
+     */
+    public SparseVector extract(Document doc, Reader content) throws IOException {
+        LongIntHashMap counts = new LongIntHashMap();
+        countTerms(doc, content, counts);
+        
+        // Pack (feature, term count) to sort by feature index without boxing
+        long[] packed = new long[counts.size()];
+        int[] n = {0};
+        counts.forEach((term, count) -> {
+            int feature = vocabulary.get(term);
+            if (feature != LongIntHashMap.MISSING) {
+                packed[n[0]++] = ((long) feature << 32) | count;
+            }
+        });
+        Arrays.sort(packed, 0, n[0]);
+        
+        int[] indices = new int[n[0] + 2];
+        double[] values = new double[n[0] + 2];
+        double norm = 0;
+        for (int i = 0; i < n[0]; i++) {
+            int feature = (int) (packed[i] >>> 32);
+            int count = (int) packed[i];
+            indices[i] = feature;
+            values[i] = (1.0 + Math.log(count)) * idf[feature];    // Sublinear TF
+            norm += values[i] * values[i];
+        }
+        // L2-normalize so long documents don't outweigh short ones
+        if (norm > 0) {
+            norm = Math.sqrt(norm);
+            for (int i = 0; i < n[0]; i++) {
+                values[i] /= norm;
+            }
+        }
+        
+        // One-hot file type and size bucket follow the term features
+        indices[n[0]] = idf.length + fileTypeIndex(doc.getFileType());
+        values[n[0]] = 1.0;
+        indices[n[0] + 1] = idf.length + FILE_TYPES.length + 1 + sizeBucket(doc.getSize());
+        values[n[0] + 1] = 1.0;
+        return new SparseVector(indices, values);
+    }
+    
+    private static void countTerms(Document doc, Reader content, LongIntHashMap counts) throws IOException {
+        TermCounter title = new TermCounter(TITLE_SEED, counts);
+        String text = doc.getTitle() == null ? "" : doc.getTitle();
+        for (int i = 0; i < text.length(); i++) {
+            title.accept(text.charAt(i));
+        }
+        title.finish();
+        
+        if (content != null) {
+            TermCounter body = new TermCounter(CONTENT_SEED, counts);
+            char[] buffer = new char[4096];
+            int remaining = MAX_CONTENT_CHARS;
+            int read;
+            while (remaining > 0 && (read = content.read(buffer, 0, Math.min(buffer.length, remaining))) != -1) {
+                for (int i = 0; i < read; i++) {
+                    body.accept(buffer[i]);
+                }
+                remaining -= read;
+            }
+            body.finish();
+        }
+    }
+    
+    private static Reader reader(String text) {
+        return text == null ? null : new StringReader(text);
+    }
+    
+    private static int fileTypeIndex(Document.FileType fileType) {
+        for (int i = 0; i < FILE_TYPES.length; i++) {
+            if (FILE_TYPES[i] == fileType) {
+                return i;
+            }
+        }
+        return FILE_TYPES.length;
+    }
+    
+    private static int sizeBucket(long size) {
+        for (int i = 0; i < SIZE_BUCKET_LIMITS.length; i++) {
+            if (size < SIZE_BUCKET_LIMITS[i]) {
+                return i;
+            }
+        }
+        return SIZE_BUCKET_LIMITS.length;
+    }
+    
+    // Hashes lower-cased letter/digit runs into unigram and bigram counts
+    private static final class TermCounter {
+        private final long seed;
+        private final LongIntHashMap counts;
+        private long token;
+        private int tokenLength;
+        private long previous;
+        private boolean hasPrevious;
+        
+        TermCounter(long seed, LongIntHashMap counts) {
+            this.seed = seed;
+            this.counts = counts;
+            this.token = seed ^ FNV_OFFSET;
+        }
+        
+        void accept(char c) {
+            if (Character.isLetterOrDigit(c)) {
+                token = (token ^ Character.toLowerCase(c)) * FNV_PRIME;
+                tokenLength++;
+            } else {
+                finish();
+            }
+        }
+        
+        void finish() {
+            if (tokenLength > 1) {  // Single characters carry no signal
+                counts.addTo(token, 1);
+                if (hasPrevious) {
+                    counts.addTo((previous * 31 + token) * FNV_PRIME, 1);
+                }
+                previous = token;
+                hasPrevious = true;
+            }
+            token = seed ^ FNV_OFFSET;
+            tokenLength = 0;
+        }
+    }
+    
+    /**
+     * Non-zero features of one document
+     */
+    public static final class SparseVector {
+        private final int[] indices;    // Ascending
+        private final double[] values;
+        
+        SparseVector(int[] indices, double[] values) {
+            this.indices = indices;
+            this.values = values;
+        }
+        
+        public int[] getIndices() { return indices; }
+        public double[] getValues() { return values; }
+        
+        /**
+         * @return 64-bit FNV-1a hash of the vector, used to memoize predictions
+         */
+        public long hash() {
+            long hash = FNV_OFFSET;
+            for (int i = 0; i < indices.length; i++) {
+                hash = (hash ^ indices[i]) * FNV_PRIME;
+                hash = (hash ^ Double.doubleToLongBits(values[i])) * FNV_PRIME;
+            }
+            return hash;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,40 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps document files in memory. Stands in for Cloud Storage when running
+ * offline, together with InMemoryDocumentStore.
+ */
+public class InMemoryBlobStore implements BlobStore {
+    private final ConcurrentHashMap<String, byte[]> blobs = new ConcurrentHashMap<>();
+    
+    @Override
+    public long write(String name, InputStream content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        blobs.put(name, out.toByteArray());
+        return out.size();
+    }
+    
+    @Override
+    public InputStream open(String name) throws IOException {
+        byte[] blob = blobs.get(name);
+        if (blob == null) {
+            throw new FileNotFoundException(name);
+        }
+        return new ByteArrayInputStream(blob);
+    }
+    
+    @Override
+    public boolean delete(String name) {
+        return blobs.remove(name) != null;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps document metadata in memory. Stands in for Datastore when running
+ * offline; cursors are simply the last document ID of the previous page.
+ */
+public class InMemoryDocumentStore implements DocumentStore {
+    private final ConcurrentSkipListMap<String, Document> documents = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, String> idsByContentHash = new ConcurrentHashMap<>();
+    
+    @Override
+    public void put(Document doc) {
+        documents.put(doc.getId(), doc);
+        if (doc.getContentHash() != null) {
+            idsByContentHash.put(doc.getContentHash(), doc.getId());
+        }
+    }
+    
+    @Override
+    public Document get(String id) {
+        return documents.get(id);
+    }
+    
+    @Override
+    public void delete(String id) {
+        Document doc = documents.remove(id);
+        if (doc != null && doc.getContentHash() != null) {
+            idsByContentHash.remove(doc.getContentHash(), id);
+        }
+    }
+    
+    @Override
+    public String findIdByContentHash(String contentHash) {
+        return idsByContentHash.get(contentHash);
+    }
+    
+    @Override
+    public DocumentPage fetchPage(int limit, String cursor) {
+        NavigableMap<String, Document> remaining = cursor == null ? documents : documents.tailMap(cursor, false);
+        
+        List<Document> page = new ArrayList<>(limit);
+        Iterator<Document> it = remaining.values().iterator();
+        while (page.size() < limit && it.hasNext()) {
+            page.add(it.next());
+        }
+        
+        String nextCursor = it.hasNext() ? page.get(page.size() - 1).getId() : null;
+        return new DocumentPage(page, nextCursor);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,691 @@
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.*;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.LengthGoalBreakIterator;
+import org.apache.lucene.search.uhighlight.Passage;
+import org.apache.lucene.search.uhighlight.PassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.search.uhighlight.WholeBreakIterator;
+import org.apache.lucene.util.BytesRef;
+import java.io.*;
+import java.nio.file.Path;
+import java.text.BreakIterator;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Search index partition held in this JVM, in its own on-disk directory
+ * with a long-lived writer and near-real-time searchers, refreshed and
+ * committed in the background.
+ *
+ * Title and content are indexed with offsets in their postings, so hits are
+ * highlighted by a UnifiedHighlighter from the parsed query without
+ * re-analyzing the text. Only a bounded prefix of the content is stored for
+ * snippets; the full text is still indexed and searchable.
+ *
+ * Category and file type are indexed as terms with sorted doc values, size
+ * and upload date as points with numeric doc values. Filters on them are
+ * cached as bitsets, and facet counts are taken from the doc values of
+ * every hit in the same pass that collects the best hits.
+ */
+public class IndexShard implements SearchShard {
+    private static final Logger LOG = Logger.getLogger(IndexShard.class.getName());
+    
+    private Directory indexDirectory;
+    private StandardAnalyzer analyzer;
+    private IndexWriter writer;                 // Long-lived writer shared by all updates
+    private SearcherManager searcherManager;    // Hands out ref-counted, near-real-time searchers
+    private ScheduledExecutorService scheduler; // Runs periodic refreshes and commits
+    private ExecutorService searchExecutor;     // Searches segments in parallel (null = caller thread)
+    private final QueryCache filterCache = new LRUQueryCache(FILTER_CACHE_QUERIES, FILTER_CACHE_BYTES);
+    private final Set<String> unrefreshed = ConcurrentHashMap.newKeySet();   // IDs indexed or deleted since the last refresh
+    private List<String> refreshing = Collections.emptyList();  // Of those, the ones the running refresh will show
+    
+    private static final int MAX_STORED_CONTENT_CHARS = 100000;    // Bounds snippet cost on very large documents
+    private static final Set<String> RESULT_FIELDS = new HashSet<>(Arrays.asList("id", "title"));
+    private static final Set<String> ID_FIELD = Collections.singleton("id");
+    private static final Set<String> CONTENT_FIELD = Collections.singleton("content");
+    private static final String[] FACET_FIELDS = {"category", "fileType"};
+    private static final int FILTER_CACHE_QUERIES = 256;
+    private static final long FILTER_CACHE_BYTES = 32L * 1024 * 1024;
+    
+    // Offsets in the postings let the highlighter skip re-analysis
+    private static final FieldType TITLE_TYPE = new FieldType(TextField.TYPE_STORED);
+    private static final FieldType CONTENT_TYPE = new FieldType(TextField.TYPE_NOT_STORED);
+    static {
+        TITLE_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        TITLE_TYPE.freeze();
+        CONTENT_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        CONTENT_TYPE.freeze();
+    }
+    
+    private static final String[] SEARCH_FIELDS = {"title", "content"};
+    private static final Map<String, Float> FIELD_BOOSTS = new HashMap<>();
+    static {
+        FIELD_BOOSTS.put("title", 2.0f); // Title matches outrank body matches
+        FIELD_BOOSTS.put("content", 1.0f);
+    }
+    
+    /**
+     * Opens (or creates) the on-disk index and starts background refresh and commit tasks
+     * @param indexPath Directory holding the index files
+     * @param refreshIntervalMs How often new documents become visible to searches
+     * @param commitIntervalMs How often pending changes are made durable
+     * @param searchExecutor Searches segments in parallel, null to search on the caller thread; not shut down by the shard
+     */
+    public IndexShard(Path indexPath, long refreshIntervalMs, long commitIntervalMs,
+                      ExecutorService searchExecutor) throws IOException {
+        this.searchExecutor = searchExecutor;
+        this.indexDirectory = new MMapDirectory(indexPath); // Memory-mapped, so restarts don't reload into heap
+        this.analyzer = new StandardAnalyzer();
+        
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        this.writer = new IndexWriter(indexDirectory, config);
+        this.searcherManager = new SearcherManager(writer, new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+                return newIndexSearcher(reader);
+            }
+        });
+        // Refreshes run one at a time, so the snapshot taken before one is cleared after the same one
+        searcherManager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+                refreshing = new ArrayList<>(unrefreshed);
+            }
+            
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                unrefreshed.removeAll(refreshing);
+                refreshing = Collections.emptyList();
+            }
+        });
+        
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "search-index-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::backgroundRefresh, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::backgroundCommit, commitIntervalMs, commitIntervalMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Parses a query the way every shard does
+     * @param queryText Search query, or null or blank to match every document
+     */
+    static Query parseQuery(String queryText, Analyzer analyzer) throws ParseException {
+        if (queryText == null || queryText.trim().isEmpty()) {
+            return new MatchAllDocsQuery();
+        }
+        return new MultiFieldQueryParser(SEARCH_FIELDS, analyzer, FIELD_BOOSTS).parse(queryText);
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return writer.getDocStats().numDocs == 0;
+    }
+    
+    /**
+     * @param content Body text; only the prefix stored for snippets is buffered, the rest streams into the index
+     */
+    @Override
+    public void index(Document doc, Reader content) throws IOException {
+        org.apache.lucene.document.Document luceneDoc = toLuceneDocument(doc);
+        if (content != null) {
+            StringBuilder prefix = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while (prefix.length() < MAX_STORED_CONTENT_CHARS
+                    && (read = content.read(buffer, 0, Math.min(buffer.length, MAX_STORED_CONTENT_CHARS - prefix.length()))) != -1) {
+                prefix.append(buffer, 0, read);
+            }
+            String stored = prefix.toString();
+            luceneDoc.add(new StoredField("content", stored));
+            luceneDoc.add(new Field("content", new PrefixedReader(stored, content), CONTENT_TYPE));
+        }
+        writer.updateDocument(new Term("id", doc.getId()), luceneDoc);
+        unrefreshed.add(doc.getId());
+    }
+    
+    @Override
+    public void add(List<Document> docs) throws IOException {
+        List<org.apache.lucene.document.Document> luceneDocs = new ArrayList<>(docs.size());
+        for (Document doc : docs) {
+            luceneDocs.add(toLuceneDocument(doc));
+        }
+        writer.addDocuments(luceneDocs);
+        for (Document doc : docs) {
+            unrefreshed.add(doc.getId());
+        }
+    }
+    
+    /**
+     * Content is indexed again from its stored prefix, so text past MAX_STORED_CONTENT_CHARS
+     * of a very large document stops matching until the document is indexed with its content again.
+     * Documents without an entry, such as ones deleted meanwhile, are left out.
+     */
+    @Override
+    public void update(List<Document> docs) throws IOException {
+        // Entries indexed or deleted since the last refresh aren't visible yet; refresh so none is
+        // re-added after a delete or replaced without its content
+        for (Document doc : docs) {
+            if (unrefreshed.contains(doc.getId())) {
+                searcherManager.maybeRefreshBlocking();
+                break;
+            }
+        }
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            for (Document doc : docs) {
+                TopDocs match = searcher.search(new TermQuery(new Term("id", doc.getId())), 1);
+                if (match.scoreDocs.length == 0) {
+                    continue;
+                }
+                String content = searcher.doc(match.scoreDocs[0].doc, CONTENT_FIELD).get("content");
+                if (content != null) {
+                    index(doc, new StringReader(content));
+                } else {
+                    writer.updateDocument(new Term("id", doc.getId()), toLuceneDocument(doc));
+                }
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+    
+    @Override
+    public void delete(String id) throws IOException {
+        writer.deleteDocuments(new Term("id", id));
+        unrefreshed.add(id);
+    }
+    
+    @Override
+    public void refresh() throws IOException {
+        searcherManager.maybeRefreshBlocking();
+    }
+    
+    @Override
+    public void commit() throws IOException {
+        if (writer.hasUncommittedChanges()) {
+            writer.commit();
+        }
+    }
+    
+    @Override
+    public boolean addRefreshListener(Runnable listener) {
+        searcherManager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {}
+            
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) {
+                    listener.run();
+                }
+            }
+        });
+        return true;
+    }
+    
+    @Override
+    public ShardStatistics statistics(String queryText) throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            Set<Term> terms = new HashSet<>();
+            searcher.rewrite(parse(queryText)).visit(QueryVisitor.termCollector(terms));
+            
+            ShardStatistics stats = new ShardStatistics();
+            Set<String> fields = new HashSet<>();
+            for (Term term : terms) {
+                fields.add(term.field());
+                TermStates states = TermStates.build(searcher.getTopReaderContext(), term, true);
+                if (states.docFreq() > 0) {
+                    stats.getTerms().add(new TermStat(term.field(), term.text(), states.docFreq(), states.totalTermFreq()));
+                }
+            }
+            for (String field : fields) {
+                CollectionStatistics collection = searcher.collectionStatistics(field);
+                if (collection != null) {
+                    stats.getFields().add(new FieldStat(field, collection.maxDoc(), collection.docCount(),
+                        collection.sumTotalTermFreq(), collection.sumDocFreq()));
+                }
+            }
+            return stats;
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+    
+    @Override
+    public ShardHits search(String queryText, DocumentSearchEngine.SearchOptions options, int numHits,
+                            ShardStatistics global) throws IOException {
+        Query query = parse(queryText);
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            IndexSearcher scoring = global == null ? searcher : new GlobalStatisticsSearcher(searcher.getIndexReader(), global);
+            Sort sort = options.sort();
+            Page page = scoring.search(options.filter(query), new PageCollectorManager(sort, numHits, options.after()));
+            ScoreDoc[] hits = page.topDocs.scoreDocs;
+            if (options.getSortBy() != DocumentSearchEngine.SortBy.RELEVANCE) {
+                TopFieldCollector.populateScores(hits, scoring, query);
+            }
+            
+            ShardHits result = new ShardHits();
+            result.setTotalHits(page.topDocs.totalHits.value);
+            result.setFacets(page.facets);
+            for (ScoreDoc scoreDoc : hits) {
+                FieldDoc fieldDoc = (FieldDoc) scoreDoc;
+                BytesRef id = (BytesRef) fieldDoc.fields[1];
+                Hit hit = new Hit();
+                hit.setId(id != null ? id.utf8ToString() : searcher.doc(fieldDoc.doc, ID_FIELD).get("id"));
+                if (options.getSortBy() == DocumentSearchEngine.SortBy.RELEVANCE) {
+                    // Sorting by score keeps the score among the sort values only
+                    hit.setScore((Float) fieldDoc.fields[0]);
+                    hit.setSortValue(Float.floatToIntBits((Float) fieldDoc.fields[0]));
+                } else {
+                    hit.setScore(fieldDoc.score);
+                    hit.setSortValue((Long) fieldDoc.fields[0]);
+                }
+                result.getHits().add(hit);
+            }
+            return result;
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+    
+    @Override
+    public List<DocumentSearchEngine.SearchResult> fetch(String queryText, List<String> ids,
+                                                         int snippetCount, int snippetLength) throws IOException {
+        Query query = parse(queryText);
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            // Hits are looked up again by ID, since the searcher may have been refreshed since search()
+            int[] docIds = new int[ids.size()];
+            int[] positions = new int[ids.size()];  // Index in ids of each document found
+            int found = 0;
+            for (int i = 0; i < ids.size(); i++) {
+                TopDocs match = searcher.search(new TermQuery(new Term("id", ids.get(i))), 1);
+                if (match.scoreDocs.length > 0) {
+                    docIds[found] = match.scoreDocs[0].doc;
+                    positions[found++] = i;
+                }
+            }
+            docIds = Arrays.copyOf(docIds, found);
+            
+            // Highlight every hit in one pass per field, driven by the parsed query
+            Map<String, Object[]> highlights = new Highlighter(searcher, snippetCount, snippetLength).highlight(query, docIds);
+            Object[] titles = highlights.get("title");
+            Object[] snippets = highlights.get("content");
+            
+            // Stored content is only read by the highlighter
+            DocumentSearchEngine.SearchResult[] results = new DocumentSearchEngine.SearchResult[ids.size()];
+            for (int i = 0; i < found; i++) {
+                org.apache.lucene.document.Document hitDoc = searcher.doc(docIds[i], RESULT_FIELDS);
+                DocumentSearchEngine.SearchResult result = new DocumentSearchEngine.SearchResult();
+                result.setDocumentId(hitDoc.get("id"));
+                result.setTitle(hitDoc.get("title"));
+                List<String> title = passages(titles[i]);
+                result.setHighlightedTitle(title.isEmpty() ? hitDoc.get("title") : title.get(0));
+                result.setSnippets(passages(snippets[i]));
+                results[positions[i]] = result;
+            }
+            return Arrays.asList(results);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+    
+    /**
+     * Stops background maintenance and commits any pending changes
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        searcherManager.close();
+        writer.close(); // Commits on close
+        indexDirectory.close();
+    }
+    
+    // Background tasks - failures are retried on the next run; an exception escaping would cancel the task
+    private void backgroundRefresh() {
+        try {
+            searcherManager.maybeRefresh();
+        } catch (IOException | RuntimeException e) {
+            // Keep serving the previous searcher until the next refresh succeeds
+            LOG.log(Level.WARNING, "Failed to refresh search index", e);
+        }
+    }
+    
+    private void backgroundCommit() {
+        try {
+            commit();
+        } catch (IOException | RuntimeException e) {
+            // Changes stay buffered in the writer and are retried on the next commit
+            LOG.log(Level.WARNING, "Failed to commit search index", e);
+        }
+    }
+    
+    private IndexSearcher newIndexSearcher(IndexReader reader) {
+        IndexSearcher searcher = new IndexSearcher(reader, searchExecutor);
+        searcher.setQueryCache(filterCache);    // Shared, so filter bitsets survive refreshes for unchanged segments
+        searcher.setQueryCachingPolicy(new FilterCachingPolicy());
+        return searcher;
+    }
+    
+    private Query parse(String queryText) {
+        try {
+            return parseQuery(queryText, analyzer);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Invalid query: " + e.getMessage(), e);
+        }
+    }
+    
+    private static org.apache.lucene.document.Document toLuceneDocument(Document doc) {
+        org.apache.lucene.document.Document luceneDoc = new org.apache.lucene.document.Document();
+        luceneDoc.add(new StringField("id", doc.getId(), Field.Store.YES));
+        luceneDoc.add(new SortedDocValuesField("id", new BytesRef(doc.getId())));     // Tie-break for stable paging
+        luceneDoc.add(new Field("title", doc.getTitle(), TITLE_TYPE));
+        if (doc.getAuthor() != null) {
+            luceneDoc.add(new TextField("author", doc.getAuthor(), Field.Store.YES));
+        }
+        addKeyword(luceneDoc, "fileType", doc.getFileType().name());
+        if (doc.getCategory() != null) {
+            addKeyword(luceneDoc, "category", doc.getCategory());
+        }
+        addLong(luceneDoc, "size", doc.getSize());
+        addLong(luceneDoc, "uploadDate", doc.getUploadDate());
+        return luceneDoc;
+    }
+    
+    // Term for filters, sorted doc values for facets
+    private static void addKeyword(org.apache.lucene.document.Document luceneDoc, String field, String value) {
+        luceneDoc.add(new StringField(field, value, Field.Store.NO));
+        luceneDoc.add(new SortedDocValuesField(field, new BytesRef(value)));
+    }
+    
+    // Point for range filters, numeric doc values for sorting
+    private static void addLong(org.apache.lucene.document.Document luceneDoc, String field, long value) {
+        luceneDoc.add(new LongPoint(field, value));
+        luceneDoc.add(new NumericDocValuesField(field, value));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static List<String> passages(Object formatted) {
+        return formatted == null ? Collections.<String>emptyList() : (List<String>) formatted;
+    }
+    
+    // Scores with statistics summed over every shard, so scores match those of a single index
+    private final class GlobalStatisticsSearcher extends IndexSearcher {
+        private final Map<Term, TermStatistics> terms = new HashMap<>();
+        private final Map<String, CollectionStatistics> fields = new HashMap<>();
+        
+        GlobalStatisticsSearcher(IndexReader reader, ShardStatistics global) {
+            super(reader, searchExecutor);
+            setQueryCache(filterCache);
+            setQueryCachingPolicy(new FilterCachingPolicy());
+            for (TermStat term : global.getTerms()) {
+                BytesRef bytes = new BytesRef(term.getTerm());
+                terms.put(new Term(term.getField(), bytes), new TermStatistics(bytes, term.getDocFreq(), term.getTotalTermFreq()));
+            }
+            for (FieldStat field : global.getFields()) {
+                fields.put(field.getField(), new CollectionStatistics(field.getField(), field.getMaxDoc(),
+                    field.getDocCount(), field.getSumTotalTermFreq(), field.getSumDocFreq()));
+            }
+        }
+        
+        @Override
+        public TermStatistics termStatistics(Term term, int docFreq, long totalTermFreq) throws IOException {
+            TermStatistics stats = terms.get(term);
+            return stats != null ? stats : super.termStatistics(term, docFreq, totalTermFreq);
+        }
+        
+        @Override
+        public CollectionStatistics collectionStatistics(String field) throws IOException {
+            CollectionStatistics stats = fields.get(field);
+            return stats != null ? stats : super.collectionStatistics(field);
+        }
+    }
+    
+    // Whole titles, and content cut into snippets near the target length, at most snippetCount per hit
+    private final class Highlighter extends UnifiedHighlighter {
+        private final PassageFormatter formatter = new SnippetFormatter();
+        private final int snippetCount;
+        private final int snippetLength;
+        
+        Highlighter(IndexSearcher searcher, int snippetCount, int snippetLength) {
+            super(searcher, analyzer);
+            this.snippetCount = snippetCount;
+            this.snippetLength = snippetLength;
+            setMaxLength(MAX_STORED_CONTENT_CHARS);
+        }
+        
+        Map<String, Object[]> highlight(Query query, int[] docIds) throws IOException {
+            return highlightFieldsAsObjects(SEARCH_FIELDS, query, docIds, new int[] {1, snippetCount});
+        }
+        
+        @Override
+        protected BreakIterator getBreakIterator(String field) {
+            if (field.equals("title")) {
+                return new WholeBreakIterator();
+            }
+            // Sentences around the match, which sits near the middle of the snippet
+            return LengthGoalBreakIterator.createClosestToLength(BreakIterator.getSentenceInstance(Locale.ROOT),
+                snippetLength, 0.5f);
+        }
+        
+        @Override
+        protected PassageFormatter getFormatter(String field) {
+            return formatter;
+        }
+        
+        @Override
+        protected int getMaxNoHighlightPassages(String field) {
+            return 1;   // Unmatched fields still show their opening, like a summary
+        }
+    }
+    
+    // One escaped, <b>-highlighted string per passage, best scoring first
+    private static final class SnippetFormatter extends PassageFormatter {
+        private final DefaultPassageFormatter single = new DefaultPassageFormatter("<b>", "</b>", "", true);
+        
+        @Override
+        public Object format(Passage[] passages, String content) {
+            Passage[] byScore = passages.clone();
+            Arrays.sort(byScore, (a, b) -> Float.compare(b.getScore(), a.getScore()));
+            List<String> snippets = new ArrayList<>(byScore.length);
+            for (Passage passage : byScore) {
+                snippets.add(single.format(new Passage[] {passage}, content).trim());
+            }
+            return snippets;
+        }
+    }
+    
+    // Replays text already read from a reader, then continues with the reader itself
+    private static final class PrefixedReader extends Reader {
+        private final String prefix;
+        private final Reader rest;
+        private int position;
+        
+        PrefixedReader(String prefix, Reader rest) {
+            this.prefix = prefix;
+            this.rest = rest;
+        }
+        
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position < prefix.length()) {
+                int n = Math.min(len, prefix.length() - position);
+                prefix.getChars(position, position + n, cbuf, off);
+                position += n;
+                return n;
+            }
+            return rest.read(cbuf, off, len);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            rest.close();
+        }
+    }
+    
+    // Category and file type filters have few values and repeat constantly, so their bitsets are
+    // cached on first use; TermQuery is never cached by the default policy. Ranges vary per request
+    // and are only cached once they recur.
+    private static final class FilterCachingPolicy implements QueryCachingPolicy {
+        private final QueryCachingPolicy usage = new UsageTrackingQueryCachingPolicy();
+        
+        @Override
+        public void onUse(Query query) {
+            usage.onUse(query);
+        }
+        
+        @Override
+        public boolean shouldCache(Query query) throws IOException {
+            if (query instanceof TermQuery) {
+                String field = ((TermQuery) query).getTerm().field();
+                return field.equals("category") || field.equals("fileType");
+            }
+            return usage.shouldCache(query);
+        }
+    }
+    
+    // Top hits and facet counts from one pass; one collector per slice when segments are searched in parallel
+    private static final class PageCollectorManager implements CollectorManager<PageCollector, Page> {
+        private final Sort sort;
+        private final int numHits;
+        private final FieldDoc after;
+        
+        PageCollectorManager(Sort sort, int numHits, FieldDoc after) {
+            this.sort = sort;
+            this.numHits = numHits;
+            this.after = after;
+        }
+        
+        @Override
+        public PageCollector newCollector() {
+            // Facets visit every hit anyway, so the total is counted exactly
+            return new PageCollector(TopFieldCollector.create(sort, numHits, after, Integer.MAX_VALUE));
+        }
+        
+        @Override
+        public Page reduce(Collection<PageCollector> collectors) {
+            TopFieldDocs[] topDocs = new TopFieldDocs[collectors.size()];
+            Map<String, Map<String, Long>> facets = new LinkedHashMap<>();
+            for (String field : FACET_FIELDS) {
+                facets.put(field, new TreeMap<>());
+            }
+            int i = 0;
+            for (PageCollector collector : collectors) {
+                topDocs[i++] = collector.top.topDocs();
+                collector.facets.addTo(facets);
+            }
+            return new Page(TopDocs.merge(sort, numHits, topDocs), facets);
+        }
+    }
+    
+    private static final class PageCollector implements Collector {
+        final TopFieldCollector top;
+        final FacetCounter facets = new FacetCounter();
+        private final Collector both;
+        
+        PageCollector(TopFieldCollector top) {
+            this.top = top;
+            this.both = MultiCollector.wrap(top, facets);
+        }
+        
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+            return both.getLeafCollector(context);
+        }
+        
+        @Override
+        public ScoreMode scoreMode() {
+            return both.scoreMode();
+        }
+    }
+    
+    // Counts hits per doc values ordinal within a segment, then folds the counts into values
+    private static final class FacetCounter extends SimpleCollector {
+        private final Map<String, Map<String, Long>> counts = new HashMap<>();
+        private final SortedDocValues[] values = new SortedDocValues[FACET_FIELDS.length];
+        private final int[][] ordCounts = new int[FACET_FIELDS.length][];
+        
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            fold();
+            for (int f = 0; f < FACET_FIELDS.length; f++) {
+                values[f] = DocValues.getSorted(context.reader(), FACET_FIELDS[f]);
+                ordCounts[f] = new int[values[f].getValueCount()];
+            }
+        }
+        
+        @Override
+        public void collect(int doc) throws IOException {
+            for (int f = 0; f < FACET_FIELDS.length; f++) {
+                if (values[f].advanceExact(doc)) {
+                    ordCounts[f][values[f].ordValue()]++;
+                }
+            }
+        }
+        
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+        
+        void addTo(Map<String, Map<String, Long>> facets) {
+            try {
+                fold();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (Map.Entry<String, Map<String, Long>> field : counts.entrySet()) {
+                Map<String, Long> target = facets.get(field.getKey());
+                field.getValue().forEach((value, count) -> target.merge(value, count, Long::sum));
+            }
+        }
+        
+        private void fold() throws IOException {
+            for (int f = 0; f < FACET_FIELDS.length; f++) {
+                if (ordCounts[f] == null) {
+                    continue;
+                }
+                Map<String, Long> fieldCounts = counts.computeIfAbsent(FACET_FIELDS[f], k -> new HashMap<>());
+                for (int ord = 0; ord < ordCounts[f].length; ord++) {
+                    if (ordCounts[f][ord] > 0) {
+                        fieldCounts.merge(values[f].lookupOrd(ord).utf8ToString(), (long) ordCounts[f][ord], Long::sum);
+                    }
+                }
+                ordCounts[f] = null;
+            }
+        }
+    }
+    
+    private static final class Page {
+        final TopFieldDocs topDocs;
+        final Map<String, Map<String, Long>> facets;
+        
+        Page(TopFieldDocs topDocs, Map<String, Map<String, Long>> facets) {
+            this.topDocs = topDocs;
+            this.facets = facets;
+        }
+    }
+}
\ No newline at end of file
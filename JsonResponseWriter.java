@@ -0,0 +1,261 @@
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes JSON responses through one shared ObjectMapper, with an
+ * ObjectWriter per response type resolved once and reused.
+ *
+ * Documents are written field by field straight into the JsonGenerator,
+ * optionally limited to the fields named in ?fields=, and listings stream
+ * from their iterator so nothing is materialized per response. Responses
+ * are gzip-compressed when the client accepts it.
+ *
+ * Thread-safe; one instance serves every request.
+ */
+public class JsonResponseWriter {
+    private static final int GZIP_BUFFER_SIZE = 8192;
+    
+    private final ObjectMapper mapper;
+    private final ConcurrentHashMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+    private final boolean gzipEnabled;
+    private final Metrics metrics;
+    
+    /**
+     * @param gzipEnabled Whether to compress responses for clients sending Accept-Encoding: gzip
+     */
+    public JsonResponseWriter(boolean gzipEnabled) {
+        this(gzipEnabled, new Metrics(0));
+    }
+    
+    /**
+     * @param gzipEnabled Whether to compress responses for clients sending Accept-Encoding: gzip
+     * @param metrics Records the time spent writing each response as SERIALIZE
+     */
+    public JsonResponseWriter(boolean gzipEnabled, Metrics metrics) {
+        this.gzipEnabled = gzipEnabled;
+        this.metrics = metrics;
+        this.mapper = new ObjectMapper();
+        // A listing that fails partway must not be closed off into valid JSON that looks complete
+        mapper.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        
+        // Documents nested in other responses take the same path as streamed listings
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(Document.class, new StdSerializer<Document>(Document.class) {
+            @Override
+            public void serialize(Document doc, JsonGenerator gen, SerializerProvider provider) throws IOException {
+                writeDocument(gen, doc, Fields.ALL);
+            }
+        });
+        mapper.registerModule(module);
+    }
+    
+    /**
+     * Resolves the serializers for the given response types ahead of the first request
+     */
+    public void warmUp(Class<?>... types) {
+        for (Class<?> type : types) {
+            writerFor(type);
+        }
+    }
+    
+    /**
+     * Sends any value as the response body
+     */
+    public void send(HttpServletRequest req, HttpServletResponse resp, Object data) throws IOException {
+        long start = System.nanoTime();
+        try (JsonGenerator gen = open(req, resp)) {
+            if (data == null) {
+                gen.writeNull();
+            } else {
+                writerFor(data.getClass()).writeValue(gen, data);
+            }
+        } finally {
+            metrics.record(Metrics.Stage.SERIALIZE, start);
+        }
+    }
+    
+    /**
+     * Sends one document
+     * @param fields Fields to include
+     */
+    public void sendDocument(HttpServletRequest req, HttpServletResponse resp, Document doc, Fields fields)
+            throws IOException {
+        long start = System.nanoTime();
+        try (JsonGenerator gen = open(req, resp)) {
+            writeDocument(gen, doc, fields);
+        } finally {
+            metrics.record(Metrics.Stage.SERIALIZE, start);
+        }
+    }
+    
+    /**
+     * Sends documents as a JSON array while they are read, without materializing the listing
+     * @param fields Fields to include per document
+     */
+    public void sendDocuments(HttpServletRequest req, HttpServletResponse resp, Iterator<Document> docs,
+                              Fields fields) throws IOException {
+        long start = System.nanoTime();
+        try (JsonGenerator gen = open(req, resp)) {
+            gen.writeStartArray();
+            while (docs.hasNext()) {
+                writeDocument(gen, docs.next(), fields);
+            }
+            gen.writeEndArray();
+        } finally {
+            metrics.record(Metrics.Stage.SERIALIZE, start);
+        }
+    }
+    
+    /**
+     * Sends one page of a listing as {"documents": [...], "nextCursor": ...}
+     * @param fields Fields to include per document
+     */
+    public void sendPage(HttpServletRequest req, HttpServletResponse resp, DocumentPage page, Fields fields)
+            throws IOException {
+        long start = System.nanoTime();
+        try (JsonGenerator gen = open(req, resp)) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("documents");
+            for (Document doc : page.getDocuments()) {
+                writeDocument(gen, doc, fields);
+            }
+            gen.writeEndArray();
+            gen.writeStringField("nextCursor", page.getNextCursor());
+            gen.writeEndObject();
+        } finally {
+            metrics.record(Metrics.Stage.SERIALIZE, start);
+        }
+    }
+    
+    private ObjectWriter writerFor(Class<?> type) {
+        return writers.computeIfAbsent(type, mapper::writerFor);
+    }
+    
+    // UTF-8 generator over the response stream, gzipped if the client accepts it
+    private JsonGenerator open(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        OutputStream out = resp.getOutputStream();
+        if (gzipEnabled) {
+            resp.addHeader("Vary", "Accept-Encoding");
+            if (acceptsGzip(req.getHeader("Accept-Encoding"))) {
+                resp.setHeader("Content-Encoding", "gzip");
+                out = new GZIPOutputStream(out, GZIP_BUFFER_SIZE) {
+                    {
+                        def.setLevel(Deflater.BEST_SPEED);  // JSON compresses well even at the fastest level
+                    }
+                };
+            }
+        }
+        return mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+    }
+    
+    // True if gzip (or *) is listed without q=0
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equalsIgnoreCase("x-gzip") && !name.equals("*")) {
+                continue;
+            }
+            boolean refused = false;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(param.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (!refused) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Same field names and order as Jackson's bean serialization of Document
+    private static void writeDocument(JsonGenerator gen, Document doc, Fields fields) throws IOException {
+        gen.writeStartObject();
+        if (fields.has(Fields.ID)) gen.writeStringField("id", doc.getId());
+        if (fields.has(Fields.TITLE)) gen.writeStringField("title", doc.getTitle());
+        if (fields.has(Fields.FILE_PATH)) gen.writeStringField("filePath", doc.getFilePath());
+        if (fields.has(Fields.SIZE)) gen.writeNumberField("size", doc.getSize());
+        if (fields.has(Fields.FILE_TYPE)) gen.writeStringField("fileType", doc.getFileType().name());
+        if (fields.has(Fields.CATEGORY)) gen.writeStringField("category", doc.getCategory());
+        if (fields.has(Fields.UPLOAD_DATE)) gen.writeNumberField("uploadDate", doc.getUploadDate());
+        if (fields.has(Fields.AUTHOR)) gen.writeStringField("author", doc.getAuthor());
+        if (fields.has(Fields.CONTENT_HASH)) gen.writeStringField("contentHash", doc.getContentHash());
+        gen.writeEndObject();
+    }
+    
+    /**
+     * Set of document fields to include in a response, parsed from ?fields=id,title
+     */
+    public static final class Fields {
+        private static final String[] NAMES = {"id", "title", "filePath", "size", "fileType",
+            "category", "uploadDate", "author", "contentHash"};
+        static final int ID = 0, TITLE = 1, FILE_PATH = 2, SIZE = 3, FILE_TYPE = 4,
+            CATEGORY = 5, UPLOAD_DATE = 6, AUTHOR = 7, CONTENT_HASH = 8;
+        
+        /** Every field */
+        public static final Fields ALL = new Fields((1 << NAMES.length) - 1);
+        
+        private final int mask;
+        
+        private Fields(int mask) {
+            this.mask = mask;
+        }
+        
+        /**
+         * @param fields Comma-separated field names, or null for all fields
+         * @return Parsed set
+         * @throws IllegalArgumentException for unknown field names
+         */
+        public static Fields parse(String fields) {
+            if (fields == null || fields.trim().isEmpty()) {
+                return ALL;
+            }
+            int mask = 0;
+            for (String name : fields.split(",")) {
+                int field = indexOf(name.trim());
+                if (field < 0) {
+                    throw new IllegalArgumentException("Unknown field: " + name.trim());
+                }
+                mask |= 1 << field;
+            }
+            return new Fields(mask);
+        }
+        
+        private static int indexOf(String name) {
+            for (int i = 0; i < NAMES.length; i++) {
+                if (NAMES[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        boolean has(int field) {
+            return (mask & (1 << field)) != 0;
+        }
+    }
+}
\ No newline at end of file
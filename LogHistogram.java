@@ -0,0 +1,125 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size histogram of non-negative long values with logarithmic buckets.
+ * Each power of two is split into 8 linear sub-buckets, so percentiles are
+ * accurate to about 12% across the whole long range. Recording is lock-free
+ * and never allocates.
+ */
+public class LogHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    
+    /**
+     * @param value Value to record; negative values are recorded as 0
+     */
+    public void record(long value) {
+        counts.incrementAndGet(bucketIndex(value));
+    }
+    
+    /**
+     * Removes a previously recorded value
+     * @param value Value to remove
+     */
+    public void remove(long value) {
+        counts.decrementAndGet(bucketIndex(value));
+    }
+    
+    /**
+     * @return Number of recorded values
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+    
+    /**
+     * Estimates a percentile as the midpoint of the bucket that contains it
+     * @param percentile Percentile between 0 and 100
+     * @return Estimated value, 0 if nothing has been recorded
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                long lower = lowerBound(i);
+                long upper = i + 1 < BUCKET_COUNT ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                if (upper < lower) {
+                    upper = Long.MAX_VALUE; // Top bucket runs to the end of the long range
+                }
+                return lower + (upper - lower) / 2;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+    
+    /**
+     * @return Copy of the bucket counts, e.g. for checkpointing
+     */
+    public long[] snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+    
+    /**
+     * Replaces the bucket counts with ones taken from snapshot()
+     * @param snapshot Bucket counts to restore
+     */
+    public void restore(long[] snapshot) {
+        if (snapshot.length != BUCKET_COUNT) {
+            throw new IllegalArgumentException("Histogram snapshot has " + snapshot.length
+                + " buckets, expected " + BUCKET_COUNT);
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, snapshot[i]);
+        }
+    }
+    
+    /**
+     * Clears all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+    }
+    
+    // Values below SUB_BUCKETS get exact buckets; above that, the top bits pick the bucket
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + sub;
+    }
+    
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        int sub = index & (SUB_BUCKETS - 1);
+        return (1L << exponent) + ((long) sub << (exponent - SUB_BUCKET_BITS));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,128 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from long keys to int values. Keys and values
+ * live in two flat arrays, so there is no boxing and no per-entry object.
+ * Not thread-safe; share it only once it is no longer modified.
+ */
+public class LongIntHashMap implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    /** Returned by get() for absent keys */
+    public static final int MISSING = -1;
+    
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+    
+    public LongIntHashMap() {
+        this(16);
+    }
+    
+    /**
+     * @param expectedSize Number of entries to hold without resizing
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+    
+    /**
+     * @return Value for the key, or MISSING
+     */
+    public int get(long key) {
+        int slot = find(key);
+        return used[slot] ? values[slot] : MISSING;
+    }
+    
+    public void put(long key, int value) {
+        int slot = find(key);
+        if (!used[slot]) {
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        if (size * 4 > keys.length * 3) {
+            resize();
+        }
+    }
+    
+    /**
+     * Adds delta to the key's value, treating absent keys as 0
+     * @return New value
+     */
+    public int addTo(long key, int delta) {
+        int slot = find(key);
+        if (used[slot]) {
+            return values[slot] += delta;
+        }
+        put(key, delta);
+        return delta;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Removes all entries, keeping the allocated capacity
+     */
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+    
+    /**
+     * Visits every entry without allocating
+     */
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+    
+    /** Receives entries from forEach() */
+    public interface Visitor {
+        void visit(long key, int value);
+    }
+    
+    // Linear probing from the mixed hash; returns the key's slot or the free slot where it belongs
+    private int find(long key) {
+        int slot = mix(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+    
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+    
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(keys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
\ No newline at end of file
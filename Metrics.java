@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Latency and throughput of the service: a LogHistogram per route and per
+ * pipeline stage, response counts by status class, and the number of bytes
+ * uploaded. Other components' counters, e.g. cache hits, are registered
+ * with counter() and gauge() and read when the metrics are written out in
+ * the Prometheus text format.
+ *
+ * Each thread carries the request it is handling, so stages recorded while
+ * a request is timed also add up to its breakdown. Requests slower than a
+ * threshold are logged with that breakdown, at most one per second.
+ * Recording never allocates; only logging a slow request does.
+ */
+public class Metrics implements DocumentListener {
+    private static final Logger LOG = Logger.getLogger(Metrics.class.getName());
+    private static final String PREFIX = "document_analytics_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final long SLOW_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    private static final Route[] ROUTES = Route.values();
+    private static final Stage[] STAGES = Stage.values();
+    
+    private final long slowRequestNanos;
+    private final LogHistogram[] routeMicros = histograms(ROUTES.length);
+    private final AtomicLongArray routeMicrosSum = new AtomicLongArray(ROUTES.length);
+    private final AtomicLongArray responses = new AtomicLongArray(ROUTES.length * 5);   // Route x 1xx..5xx
+    private final LogHistogram[] stageMicros = histograms(STAGES.length);
+    private final AtomicLongArray stageMicrosSum = new AtomicLongArray(STAGES.length);
+    private final AtomicLong uploadedDocuments = new AtomicLong();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicLong slowRequests = new AtomicLong();
+    private final AtomicLong lastSlowLog = new AtomicLong(System.nanoTime() - SLOW_LOG_INTERVAL_NANOS);
+    private final List<Registered> registered = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Trace> traces = ThreadLocal.withInitial(Trace::new);
+    
+    /** Endpoints timed separately */
+    public enum Route {
+        LIST, SORTED, STATS, SUGGEST, SEARCH, STATUS, DOCUMENT, METRICS, UPLOAD, BULK, DELETE,
+        /** Unknown paths and methods */
+        OTHER
+    }
+    
+    /** Steps of storing and processing a document, and of answering a request */
+    public enum Stage {
+        STORAGE_WRITE, DATASTORE_PUT, EXTRACT, CLASSIFY, INDEX,
+        /** Writing a JSON response; includes reading a listing while it streams */
+        SERIALIZE
+    }
+    
+    /**
+     * @param slowRequestMs Requests taking longer are logged with their stage breakdown; 0 to log none
+     */
+    public Metrics(long slowRequestMs) {
+        this.slowRequestNanos = slowRequestMs > 0 ? TimeUnit.MILLISECONDS.toNanos(slowRequestMs) : Long.MAX_VALUE;
+    }
+    
+    /**
+     * Starts timing a request on the calling thread
+     * @return Start time in System.nanoTime() terms, for resume()
+     */
+    public long begin(Route route) {
+        long start = System.nanoTime();
+        traces.get().start(route, start);
+        return start;
+    }
+    
+    /**
+     * Stops timing the calling thread's request without recording it, because
+     * another thread finishes it
+     * @return Start time to pass to resume() on that thread
+     */
+    public long detach() {
+        Trace trace = traces.get();
+        trace.active = false;
+        return trace.startNanos;
+    }
+    
+    /**
+     * Continues timing a request on the thread that finishes it
+     * @param startNanos Start time returned by begin() or detach()
+     */
+    public void resume(Route route, long startNanos) {
+        traces.get().start(route, startNanos);
+    }
+    
+    /**
+     * Records the calling thread's request, if one is being timed
+     * @param status HTTP status of the response
+     */
+    public void end(int status) {
+        Trace trace = traces.get();
+        if (!trace.active) {
+            return;
+        }
+        trace.active = false;
+        long nanos = System.nanoTime() - trace.startNanos;
+        int route = trace.route.ordinal();
+        long micros = nanos / 1000;
+        routeMicros[route].record(micros);
+        routeMicrosSum.addAndGet(route, micros);
+        int statusClass = Math.min(Math.max(status / 100, 1), 5);
+        responses.incrementAndGet(route * 5 + statusClass - 1);
+        
+        if (nanos >= slowRequestNanos) {
+            slowRequests.incrementAndGet();
+            long now = System.nanoTime();
+            long last = lastSlowLog.get();
+            if (now - last >= SLOW_LOG_INTERVAL_NANOS && lastSlowLog.compareAndSet(last, now)) {
+                LOG.warning(describe(trace, status, micros));
+            }
+        }
+    }
+    
+    /**
+     * Records a stage that started at the given time and ends now
+     * @param startNanos System.nanoTime() when the stage started
+     */
+    public void record(Stage stage, long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        stageMicros[stage.ordinal()].record(micros);
+        stageMicrosSum.addAndGet(stage.ordinal(), micros);
+        Trace trace = traces.get();
+        if (trace.active) {
+            trace.stageMicros[stage.ordinal()] += micros;
+        }
+    }
+    
+    /**
+     * Exposes a monotonically increasing value, read when the metrics are written
+     * @param name Metric name without the service prefix, ending in _total
+     */
+    public void counter(String name, String help, LongSupplier value) {
+        registered.add(new Registered(PREFIX + name, help, "counter", value));
+    }
+    
+    /**
+     * Exposes a value that can go up and down, read when the metrics are written
+     * @param name Metric name without the service prefix
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        registered.add(new Registered(PREFIX + name, help, "gauge", value));
+    }
+    
+    /**
+     * @return Blob store recording each write as STORAGE_WRITE
+     */
+    public BlobStore timed(BlobStore blobs) {
+        return new BlobStore() {
+            @Override
+            public long write(String name, InputStream content) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    return blobs.write(name, content);
+                } finally {
+                    record(Stage.STORAGE_WRITE, start);
+                }
+            }
+            
+            @Override
+            public InputStream open(String name) throws IOException {
+                return blobs.open(name);
+            }
+            
+            @Override
+            public boolean delete(String name) {
+                return blobs.delete(name);
+            }
+        };
+    }
+    
+    /**
+     * @return Document store recording each put and batch put as DATASTORE_PUT
+     */
+    public DocumentStore timed(DocumentStore store) {
+        return new DocumentStore() {
+            @Override
+            public void put(Document doc) {
+                long start = System.nanoTime();
+                try {
+                    store.put(doc);
+                } finally {
+                    record(Stage.DATASTORE_PUT, start);
+                }
+            }
+            
+            @Override
+            public void putAll(List<Document> docs) {
+                long start = System.nanoTime();
+                try {
+                    store.putAll(docs);
+                } finally {
+                    record(Stage.DATASTORE_PUT, start);
+                }
+            }
+            
+            @Override
+            public Document get(String id) {
+                return store.get(id);
+            }
+            
+            @Override
+            public List<Document> getAll(List<String> ids) {
+                return store.getAll(ids);
+            }
+            
+            @Override
+            public void delete(String id) {
+                store.delete(id);
+            }
+            
+            @Override
+            public String findIdByContentHash(String contentHash) {
+                return store.findIdByContentHash(contentHash);
+            }
+            
+            @Override
+            public DocumentPage fetchPage(int limit, String cursor) {
+                return store.fetchPage(limit, cursor);
+            }
+        };
+    }
+    
+    @Override
+    public void onDocumentStored(Document doc) {
+        uploadedDocuments.incrementAndGet();
+        uploadedBytes.addAndGet(doc.getSize());
+    }
+    
+    /**
+     * Writes every metric in the Prometheus text exposition format, version 0.0.4
+     */
+    public void write(Writer out) throws IOException {
+        String name = PREFIX + "request_duration_seconds";
+        header(out, name, "Request latency by route", "summary");
+        for (Route route : ROUTES) {
+            summary(out, name, "route", label(route), routeMicros[route.ordinal()],
+                routeMicrosSum.get(route.ordinal()));
+        }
+        
+        name = PREFIX + "responses_total";
+        header(out, name, "Responses by route and status class", "counter");
+        for (Route route : ROUTES) {
+            for (int statusClass = 1; statusClass <= 5; statusClass++) {
+                long count = responses.get(route.ordinal() * 5 + statusClass - 1);
+                if (count > 0) {
+                    out.write(name + "{route=\"" + label(route) + "\",status=\"" + statusClass + "xx\"} "
+                        + count + "\n");
+                }
+            }
+        }
+        
+        name = PREFIX + "stage_duration_seconds";
+        header(out, name, "Latency of storage writes, metadata puts, extraction, classification, "
+            + "indexing and response serialization", "summary");
+        for (Stage stage : STAGES) {
+            summary(out, name, "stage", stage.name().toLowerCase(), stageMicros[stage.ordinal()],
+                stageMicrosSum.get(stage.ordinal()));
+        }
+        
+        sample(out, PREFIX + "slow_requests_total", "Requests over the slow request threshold", "counter",
+            slowRequests.get());
+        sample(out, PREFIX + "uploaded_documents_total", "Documents stored by uploads and bulk ingests",
+            "counter", uploadedDocuments.get());
+        sample(out, PREFIX + "uploaded_bytes_total", "Bytes of the documents stored by uploads and bulk ingests",
+            "counter", uploadedBytes.get());
+        for (Registered metric : registered) {
+            sample(out, metric.name, metric.help, metric.type, metric.value.getAsLong());
+        }
+    }
+    
+    private static void summary(Writer out, String name, String labelName, String labelValue,
+                                LogHistogram micros, long sumMicros) throws IOException {
+        String labels = labelName + "=\"" + labelValue + "\"";
+        for (double quantile : QUANTILES) {
+            out.write(name + "{" + labels + ",quantile=\"" + quantile + "\"} "
+                + seconds(micros.percentile(quantile * 100)) + "\n");
+        }
+        out.write(name + "_sum{" + labels + "} " + seconds(sumMicros) + "\n");
+        out.write(name + "_count{" + labels + "} " + micros.count() + "\n");
+    }
+    
+    private static void sample(Writer out, String name, String help, String type, long value) throws IOException {
+        header(out, name, help, type);
+        out.write(name + " " + value + "\n");
+    }
+    
+    private static void header(Writer out, String name, String help, String type) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+    
+    private static String label(Route route) {
+        return route.name().toLowerCase();
+    }
+    
+    private static double seconds(long micros) {
+        return micros / 1e6;
+    }
+    
+    // e.g. "Slow request: upload took 2350.1 ms, status 202; storage_write 2210.4 ms, datastore_put 31.0 ms, ..."
+    private static String describe(Trace trace, int status, long micros) {
+        StringBuilder message = new StringBuilder("Slow request: ").append(label(trace.route))
+            .append(String.format(" took %.1f ms, status %d", micros / 1000.0, status));
+        long staged = 0;
+        String separator = "; ";
+        for (Stage stage : STAGES) {
+            long stageMicros = trace.stageMicros[stage.ordinal()];
+            if (stageMicros > 0) {
+                message.append(separator).append(stage.name().toLowerCase())
+                    .append(String.format(" %.1f ms", stageMicros / 1000.0));
+                separator = ", ";
+                staged += stageMicros;
+            }
+        }
+        return message.append(separator).append(String.format("other %.1f ms", (micros - staged) / 1000.0))
+            .toString();
+    }
+    
+    private static LogHistogram[] histograms(int count) {
+        LogHistogram[] histograms = new LogHistogram[count];
+        for (int i = 0; i < count; i++) {
+            histograms[i] = new LogHistogram();
+        }
+        return histograms;
+    }
+    
+    // The request a thread is handling; reused across requests so timing never allocates
+    private static final class Trace {
+        final long[] stageMicros = new long[STAGES.length];
+        boolean active;
+        Route route;
+        long startNanos;
+        
+        void start(Route route, long startNanos) {
+            this.active = true;
+            this.route = route;
+            this.startNanos = startNanos;
+            Arrays.fill(stageMicros, 0);
+        }
+    }
+    
+    private static final class Registered {
+        final String name;
+        final String help;
+        final String type;
+        final LongSupplier value;
+        
+        Registered(String name, String help, String type, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,80 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of query results. Entries are only valid for one index
+ * reader, so the cache is invalidated whenever the reader is refreshed.
+ */
+public class QueryResultCache<V> {
+    private final int maxEntries;
+    private final LinkedHashMap<String, V> entries;
+    private long generation;    // Bumped on every invalidation
+    private long hits;
+    private long misses;
+    
+    public QueryResultCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, V>(16, 0.75f, true) { // Access order gives LRU
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > QueryResultCache.this.maxEntries;
+            }
+        };
+    }
+    
+    /**
+     * @param key Normalized query
+     * @return Cached value or null on a miss
+     */
+    public synchronized V get(String key) {
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+    
+    /**
+     * @return Lookups answered from the cache since startup
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+    
+    /**
+     * @return Lookups that found nothing since startup
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+    
+    /**
+     * Current generation; pass it to put() so results computed against an
+     * older reader are never cached after an invalidation
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+    
+    /**
+     * Caches a value if no invalidation happened since the given generation was read
+     * @param key Normalized query
+     * @param value Result to cache
+     * @param generation Generation read before the result was computed
+     */
+    public synchronized void put(String key, V value, long generation) {
+        if (maxEntries > 0 && generation == this.generation) {
+            entries.put(key, value);
+        }
+    }
+    
+    /**
+     * Drops all cached entries
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+        generation++;
+    }
+}
\ No newline at end of file
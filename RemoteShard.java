@@ -0,0 +1,203 @@
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Shard served by a ShardServer in another JVM, called over HTTP with JSON
+ * bodies. Every call is one blocking request. Arguments the server rejects
+ * surface as IllegalArgumentExceptions, any other failure as an IOException.
+ */
+public class RemoteShard implements SearchShard {
+    static final ObjectMapper MAPPER = new ObjectMapper();  // Shared with ShardServer
+    
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 60000;
+    private static final int CHUNK_SIZE = 64 * 1024;     // Body text streams to the server in chunks of this size
+    private static final JavaType RESULTS_TYPE =
+        MAPPER.getTypeFactory().constructType(new TypeReference<List<DocumentSearchEngine.SearchResult>>() {});
+    
+    private final String baseUrl;
+    
+    /**
+     * @param baseUrl Address of the ShardServer, e.g. http://10.0.0.5:9300
+     */
+    public RemoteShard(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+    
+    @Override
+    public boolean isEmpty() throws IOException {
+        return call("/empty", null, MAPPER.constructType(Boolean.class));
+    }
+    
+    /**
+     * Streams the document as one JSON line followed by the body text, so the
+     * text is never buffered whole on either side
+     */
+    @Override
+    public void index(Document doc, Reader content) throws IOException {
+        HttpURLConnection conn = open(content != null ? "/index?content=true" : "/index");
+        conn.setChunkedStreamingMode(CHUNK_SIZE);
+        try (Writer out = new OutputStreamWriter(conn.getOutputStream(), StandardCharsets.UTF_8)) {
+            out.write(MAPPER.writeValueAsString(toMap(doc)));
+            out.write('\n');
+            if (content != null) {
+                char[] buffer = new char[8192];
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+        read(conn, null);
+    }
+    
+    @Override
+    public void add(List<Document> docs) throws IOException {
+        List<Map<String, Object>> maps = new ArrayList<>(docs.size());
+        for (Document doc : docs) {
+            maps.add(toMap(doc));
+        }
+        call("/add", maps, null);
+    }
+    
+    @Override
+    public void update(List<Document> docs) throws IOException {
+        List<Map<String, Object>> maps = new ArrayList<>(docs.size());
+        for (Document doc : docs) {
+            maps.add(toMap(doc));
+        }
+        call("/update", maps, null);
+    }
+    
+    @Override
+    public void delete(String id) throws IOException {
+        call("/delete", Collections.singletonMap("id", id), null);
+    }
+    
+    @Override
+    public void refresh() throws IOException {
+        call("/refresh", null, null);
+    }
+    
+    @Override
+    public void commit() throws IOException {
+        call("/commit", null, null);
+    }
+    
+    @Override
+    public ShardStatistics statistics(String queryText) throws IOException {
+        return call("/statistics", Collections.singletonMap("query", queryText),
+            MAPPER.constructType(ShardStatistics.class));
+    }
+    
+    @Override
+    public ShardHits search(String queryText, DocumentSearchEngine.SearchOptions options, int numHits,
+                            ShardStatistics global) throws IOException {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("query", queryText);
+        request.put("options", options.toParams());
+        request.put("numHits", numHits);
+        request.put("statistics", global);
+        return call("/search", request, MAPPER.constructType(ShardHits.class));
+    }
+    
+    @Override
+    public List<DocumentSearchEngine.SearchResult> fetch(String queryText, List<String> ids,
+                                                         int snippetCount, int snippetLength) throws IOException {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("query", queryText);
+        request.put("ids", ids);
+        request.put("snippetCount", snippetCount);
+        request.put("snippetLength", snippetLength);
+        return call("/fetch", request, RESULTS_TYPE);
+    }
+    
+    /**
+     * Nothing is held open between calls; the server keeps running
+     */
+    @Override
+    public void close() {}
+    
+    @Override
+    public String toString() {
+        return baseUrl;
+    }
+    
+    // Field names match the JSON of documents in API responses
+    static Map<String, Object> toMap(Document doc) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", doc.getId());
+        map.put("title", doc.getTitle());
+        map.put("filePath", doc.getFilePath());
+        map.put("size", doc.getSize());
+        map.put("fileType", doc.getFileType().name());
+        map.put("category", doc.getCategory());
+        map.put("uploadDate", doc.getUploadDate());
+        map.put("author", doc.getAuthor());
+        map.put("contentHash", doc.getContentHash());
+        return map;
+    }
+    
+    static Document fromMap(Map<String, Object> map) {
+        return new Document((String) map.get("id"), (String) map.get("title"), (String) map.get("filePath"),
+            ((Number) map.get("size")).longValue(), Document.FileType.parse((String) map.get("fileType")),
+            (String) map.get("category"), ((Number) map.get("uploadDate")).longValue(),
+            (String) map.get("author"), (String) map.get("contentHash"));
+    }
+    
+    // POSTs the body as JSON and decodes the response as the given type, or ignores it for a null type
+    private <T> T call(String path, Object body, JavaType type) throws IOException {
+        HttpURLConnection conn = open(path);
+        try (OutputStream out = conn.getOutputStream()) {
+            MAPPER.writeValue(out, body);
+        }
+        return read(conn, type);
+    }
+    
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        conn.setReadTimeout(READ_TIMEOUT_MS);
+        conn.setRequestProperty("Content-Type", "application/json");
+        return conn;
+    }
+    
+    private <T> T read(HttpURLConnection conn, JavaType type) throws IOException {
+        int status = conn.getResponseCode();
+        if (status >= 300) {
+            String message;
+            try (InputStream err = conn.getErrorStream()) {
+                message = err == null ? "" : new String(readAll(err), StandardCharsets.UTF_8);
+            }
+            if (status == HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new IllegalArgumentException(message);
+            }
+            throw new IOException("Shard " + baseUrl + " failed with " + status + ": " + message);
+        }
+        try (InputStream in = conn.getInputStream()) {
+            if (type == null) {
+                readAll(in);    // Drained so the connection can be reused
+                return null;
+            }
+            return MAPPER.readValue(in, type);
+        }
+    }
+    
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
\ No newline at end of file
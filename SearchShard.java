@@ -0,0 +1,219 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * One partition of the search index. DocumentSearchEngine routes every
+ * document to one shard by ID hash and answers a query in three rounds:
+ * term statistics from every shard, so relevance is scored as if the index
+ * were one piece; the best hits of every shard, merged into one page; and
+ * highlighted results for just the hits that made the page.
+ *
+ * IndexShard holds a partition in this JVM, RemoteShard one served by a
+ * ShardServer in another.
+ */
+public interface SearchShard extends Closeable {
+    
+    /**
+     * @return True if the shard holds no documents, so the index still needs its initial build
+     */
+    boolean isEmpty() throws IOException;
+    
+    /**
+     * Adds or replaces a document
+     * @param doc Document to index
+     * @param content Extracted body text, or null to index the metadata only
+     */
+    void index(Document doc, Reader content) throws IOException;
+    
+    /**
+     * Adds documents that are not in the shard yet, in one call
+     * @param docs Documents to add
+     */
+    void add(List<Document> docs) throws IOException;
+    
+    /**
+     * Replaces the metadata of documents already in the shard, in one call, keeping the
+     * content each was indexed with
+     * @param docs Documents with their updated metadata
+     */
+    void update(List<Document> docs) throws IOException;
+    
+    /**
+     * @param id ID of the document to remove
+     */
+    void delete(String id) throws IOException;
+    
+    /**
+     * Makes every change so far visible to searches now, instead of at the next periodic refresh
+     */
+    void refresh() throws IOException;
+    
+    /**
+     * Makes every change so far durable now
+     */
+    void commit() throws IOException;
+    
+    /**
+     * @param queryText Search query, or null to match every document
+     * @return Statistics of the query's terms and fields in this shard
+     */
+    ShardStatistics statistics(String queryText) throws IOException;
+    
+    /**
+     * @param queryText Search query, or null to match every document
+     * @param options Filters, sort order and cursor
+     * @param numHits Maximum number of hits to return
+     * @param global Statistics summed over all shards, or null to score with this shard's own
+     * @return Best hits in sort order, with the total and facet counts of all hits
+     */
+    ShardHits search(String queryText, DocumentSearchEngine.SearchOptions options, int numHits,
+                     ShardStatistics global) throws IOException;
+    
+    /**
+     * @param queryText Query to highlight
+     * @param ids IDs of hits returned by search()
+     * @param snippetCount Maximum number of content snippets per result
+     * @param snippetLength Target length of each snippet in characters
+     * @return One result per ID without its score, or null where the document has since been deleted
+     */
+    List<DocumentSearchEngine.SearchResult> fetch(String queryText, List<String> ids,
+                                                  int snippetCount, int snippetLength) throws IOException;
+    
+    /**
+     * Registers a callback run after each refresh that changed what searches see
+     * @return False if the shard can't report refreshes
+     */
+    default boolean addRefreshListener(Runnable listener) {
+        return false;
+    }
+    
+    /**
+     * Term and field statistics that BM25 scoring reads, summable across shards
+     */
+    class ShardStatistics {
+        private List<TermStat> terms = new ArrayList<>();
+        private List<FieldStat> fields = new ArrayList<>();
+        
+        /**
+         * @return Statistics of all shards together, as one index holding every document would report them
+         */
+        public static ShardStatistics sum(Collection<ShardStatistics> shards) {
+            Map<String, TermStat> terms = new LinkedHashMap<>();
+            Map<String, FieldStat> fields = new LinkedHashMap<>();
+            for (ShardStatistics shard : shards) {
+                for (TermStat term : shard.terms) {
+                    TermStat total = terms.computeIfAbsent(term.field + '\u0000' + term.term,
+                        k -> new TermStat(term.field, term.term, 0, 0));
+                    total.docFreq += term.docFreq;
+                    total.totalTermFreq += term.totalTermFreq;
+                }
+                for (FieldStat field : shard.fields) {
+                    FieldStat total = fields.computeIfAbsent(field.field, k -> new FieldStat(field.field, 0, 0, 0, 0));
+                    total.maxDoc += field.maxDoc;
+                    total.docCount += field.docCount;
+                    total.sumTotalTermFreq += field.sumTotalTermFreq;
+                    total.sumDocFreq += field.sumDocFreq;
+                }
+            }
+            ShardStatistics sum = new ShardStatistics();
+            sum.terms.addAll(terms.values());
+            sum.fields.addAll(fields.values());
+            return sum;
+        }
+        
+        // Getters and setters
+        public List<TermStat> getTerms() { return terms; }
+        public void setTerms(List<TermStat> terms) { this.terms = terms; }
+        public List<FieldStat> getFields() { return fields; }
+        public void setFields(List<FieldStat> fields) { this.fields = fields; }
+    }
+    
+    class TermStat {
+        private String field;
+        private String term;
+        private long docFreq;
+        private long totalTermFreq;
+        
+        public TermStat() {}
+        
+        public TermStat(String field, String term, long docFreq, long totalTermFreq) {
+            this.field = field;
+            this.term = term;
+            this.docFreq = docFreq;
+            this.totalTermFreq = totalTermFreq;
+        }
+        
+        // Getters and setters
+        public String getField() { return field; }
+        public void setField(String field) { this.field = field; }
+        public String getTerm() { return term; }
+        public void setTerm(String term) { this.term = term; }
+        public long getDocFreq() { return docFreq; }
+        public void setDocFreq(long docFreq) { this.docFreq = docFreq; }
+        public long getTotalTermFreq() { return totalTermFreq; }
+        public void setTotalTermFreq(long totalTermFreq) { this.totalTermFreq = totalTermFreq; }
+    }
+    
+    class FieldStat {
+        private String field;
+        private long maxDoc;
+        private long docCount;
+        private long sumTotalTermFreq;
+        private long sumDocFreq;
+        
+        public FieldStat() {}
+        
+        public FieldStat(String field, long maxDoc, long docCount, long sumTotalTermFreq, long sumDocFreq) {
+            this.field = field;
+            this.maxDoc = maxDoc;
+            this.docCount = docCount;
+            this.sumTotalTermFreq = sumTotalTermFreq;
+            this.sumDocFreq = sumDocFreq;
+        }
+        
+        // Getters and setters
+        public String getField() { return field; }
+        public void setField(String field) { this.field = field; }
+        public long getMaxDoc() { return maxDoc; }
+        public void setMaxDoc(long maxDoc) { this.maxDoc = maxDoc; }
+        public long getDocCount() { return docCount; }
+        public void setDocCount(long docCount) { this.docCount = docCount; }
+        public long getSumTotalTermFreq() { return sumTotalTermFreq; }
+        public void setSumTotalTermFreq(long sumTotalTermFreq) { this.sumTotalTermFreq = sumTotalTermFreq; }
+        public long getSumDocFreq() { return sumDocFreq; }
+        public void setSumDocFreq(long sumDocFreq) { this.sumDocFreq = sumDocFreq; }
+    }
+    
+    /**
+     * One shard's best hits for a query
+     */
+    class ShardHits {
+        private long totalHits;
+        private Map<String, Map<String, Long>> facets = new LinkedHashMap<>();   // Field -> value -> hits
+        private List<Hit> hits = new ArrayList<>();
+        
+        // Getters and setters
+        public long getTotalHits() { return totalHits; }
+        public void setTotalHits(long totalHits) { this.totalHits = totalHits; }
+        public Map<String, Map<String, Long>> getFacets() { return facets; }
+        public void setFacets(Map<String, Map<String, Long>> facets) { this.facets = facets; }
+        public List<Hit> getHits() { return hits; }
+        public void setHits(List<Hit> hits) { this.hits = hits; }
+    }
+    
+    class Hit {
+        private String id;
+        private float score;
+        private long sortValue;     // Upload date or size, or the score's float bits when sorted by relevance
+        
+        // Getters and setters
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+        public float getScore() { return score; }
+        public void setScore(float score) { this.score = score; }
+        public long getSortValue() { return sortValue; }
+        public void setSortValue(long sortValue) { this.sortValue = sortValue; }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,197 @@
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves one IndexShard over HTTP to DocumentSearchEngines in other JVMs,
+ * the server side of RemoteShard.
+ *
+ * Usage: java ShardServer port indexPath [bindAddress] [refreshMs] [commitMs] [searchThreads]
+ *
+ * Port 0 picks a free port. Once ready the server prints "ShardServer
+ * listening on PORT" and runs until stopped; the shard is committed on
+ * shutdown. The protocol has no authentication, so the default bind
+ * address is the loopback interface.
+ */
+public class ShardServer {
+    private static final Logger LOG = Logger.getLogger(ShardServer.class.getName());
+    private static final int REQUEST_THREADS = 16;
+    static {
+        // Responses are written as headers then body; without this, delayed ACKs stall every call by ~40 ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    
+    private final IndexShard shard;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    
+    /**
+     * @param shard Shard to serve; closed by stop()
+     * @param address Address and port to listen on
+     */
+    public ShardServer(IndexShard shard, InetSocketAddress address) throws IOException {
+        this.shard = shard;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newFixedThreadPool(REQUEST_THREADS, r -> {
+            Thread t = new Thread(r, "shard-server");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 6) {
+            System.err.println("Usage: java ShardServer port indexPath [bindAddress] [refreshMs] [commitMs] [searchThreads]");
+            System.exit(2);
+        }
+        int port = Integer.parseInt(args[0]);
+        String bindAddress = args.length > 2 ? args[2] : "127.0.0.1";
+        long refreshMs = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+        long commitMs = args.length > 4 ? Long.parseLong(args[4]) : 60000;
+        int searchThreads = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+        
+        ExecutorService searchExecutor = searchThreads > 0 ? Executors.newFixedThreadPool(searchThreads) : null;
+        Files.createDirectories(Paths.get(args[1]));
+        IndexShard shard = new IndexShard(Paths.get(args[1]), refreshMs, commitMs, searchExecutor);
+        ShardServer server = new ShardServer(shard, new InetSocketAddress(bindAddress, port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stop();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to stop shard server", e);
+            }
+            if (searchExecutor != null) {
+                searchExecutor.shutdown();
+            }
+        }));
+        server.start();
+        System.out.println("ShardServer listening on " + server.getPort());
+        System.out.flush();
+    }
+    
+    public void start() {
+        server.start();
+    }
+    
+    /**
+     * Stops accepting requests, waits briefly for those in flight and closes the shard
+     */
+    public void stop() throws IOException {
+        server.stop(1);
+        executor.shutdown();
+        shard.close();
+    }
+    
+    /**
+     * @return Port the server listens on, useful when it was created with port 0
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            Object result = dispatch(exchange.getRequestURI().getPath(), exchange.getRequestURI().getQuery(), in);
+            if (result == null) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    RemoteShard.MAPPER.writeValue(out, result);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "Shard request failed: " + exchange.getRequestURI().getPath(), e);
+            sendError(exchange, 500, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    // Result to send as JSON, or null for an empty response
+    private Object dispatch(String path, String query, InputStream in) throws IOException {
+        if (path.equals("/index")) {
+            // One JSON line with the document, then the body text if any
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            Map<String, Object> doc = RemoteShard.MAPPER.readValue(reader.readLine(),
+                new TypeReference<Map<String, Object>>() {});
+            shard.index(RemoteShard.fromMap(doc), "content=true".equals(query) ? reader : null);
+            return null;
+        }
+        
+        JsonNode request = RemoteShard.MAPPER.readTree(in);
+        switch (path) {
+            case "/empty":
+                return shard.isEmpty();
+            case "/add":
+                shard.add(documents(request));
+                return null;
+            case "/update":
+                shard.update(documents(request));
+                return null;
+            case "/delete":
+                shard.delete(request.get("id").asText());
+                return null;
+            case "/refresh":
+                shard.refresh();
+                return null;
+            case "/commit":
+                shard.commit();
+                return null;
+            case "/statistics":
+                return shard.statistics(text(request, "query"));
+            case "/search":
+                Map<String, String> options = RemoteShard.MAPPER.convertValue(request.get("options"),
+                    new TypeReference<Map<String, String>>() {});
+                return shard.search(text(request, "query"), DocumentSearchEngine.SearchOptions.parse(options::get),
+                    request.get("numHits").asInt(),
+                    RemoteShard.MAPPER.convertValue(request.get("statistics"), SearchShard.ShardStatistics.class));
+            case "/fetch":
+                List<String> ids = RemoteShard.MAPPER.convertValue(request.get("ids"),
+                    new TypeReference<List<String>>() {});
+                return shard.fetch(text(request, "query"), ids,
+                    request.get("snippetCount").asInt(), request.get("snippetLength").asInt());
+            default:
+                throw new IllegalArgumentException("Unknown shard operation: " + path);
+        }
+    }
+    
+    private static List<Document> documents(JsonNode request) {
+        List<Document> docs = new ArrayList<>();
+        for (JsonNode doc : request) {
+            docs.add(RemoteShard.fromMap(RemoteShard.MAPPER.convertValue(doc,
+                new TypeReference<Map<String, Object>>() {})));
+        }
+        return docs;
+    }
+    
+    private static String text(JsonNode request, String field) {
+        JsonNode value = request.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+    
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,237 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Offline harness that checks sharded search against a single index. It
+ * starts one ShardServer JVM per shard on localhost, indexes the same
+ * synthetic documents into a single-index engine, an engine with that many
+ * shards in this JVM and an engine over the remote shards, then pages
+ * through a set of queries on all three and compares every page: hits and
+ * their order, scores, totals, facet counts, cursors and snippets.
+ *
+ * Usage: java ShardedSearchHarness [shards] [documents] [seed]
+ *
+ * Run with the application classpath; the shard JVMs inherit it. Exits
+ * with status 1 if any page differs.
+ */
+public class ShardedSearchHarness {
+    private static final String[] CATEGORIES = {"Academic", "Business", "Technical", "Other"};
+    private static final String[] QUERIES = {"report", "quarterly revenue", "+market +analysis",
+        "\"research results\"", "title:manual^3 OR content:network", "comp*", "budget -draft", null};
+    private static final int MAX_PAGES = 5;
+    
+    private static int pages;
+    private static int mismatches;
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length > 3) {
+            System.err.println("Usage: java ShardedSearchHarness [shards] [documents] [seed]");
+            System.exit(2);
+        }
+        int shardCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+        
+        Path root = Files.createTempDirectory("sharded-search");
+        List<Process> servers = new ArrayList<>();
+        List<DocumentSearchEngine> engines = new ArrayList<>();
+        try {
+            List<SearchShard> remote = new ArrayList<>();
+            for (int i = 0; i < shardCount; i++) {
+                Process server = startServer(root.resolve("remote-" + i));
+                servers.add(server);
+                BufferedReader out = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8));
+                String ready = out.readLine();
+                if (ready == null || !ready.startsWith("ShardServer listening on ")) {
+                    throw new IllegalStateException("Shard server " + i + " did not start: " + ready);
+                }
+                remote.add(new RemoteShard("http://127.0.0.1:" + ready.substring("ShardServer listening on ".length())));
+            }
+            
+            // Nothing to build from: every engine starts empty and receives the same documents
+            DocumentManager docManager = new DocumentManager(new InMemoryBlobStore(), new InMemoryDocumentStore());
+            DocumentSearchEngine single = new DocumentSearchEngine(docManager, root.resolve("single"),
+                60000, 60000, 0, 0);
+            engines.add(single);
+            DocumentSearchEngine local = new DocumentSearchEngine(docManager, root.resolve("local"),
+                60000, 60000, 0, 0, DocumentSearchEngine.DEFAULT_SNIPPET_COUNT,
+                DocumentSearchEngine.DEFAULT_SNIPPET_LENGTH, shardCount);
+            engines.add(local);
+            DocumentSearchEngine distributed = new DocumentSearchEngine(docManager, remote, 60000, 0,
+                DocumentSearchEngine.DEFAULT_SNIPPET_COUNT, DocumentSearchEngine.DEFAULT_SNIPPET_LENGTH);
+            engines.add(distributed);
+            
+            Random random = new Random(seed);
+            List<Document> docs = new ArrayList<>();
+            List<Document> bulk = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                Document doc = generate(random, i);
+                docs.add(doc);
+                if (i % 10 == 0) {
+                    bulk.add(doc);  // Title-only, as after a bulk ingest
+                    continue;
+                }
+                String content = text(random, 5 + random.nextInt(40));
+                for (DocumentSearchEngine engine : engines) {
+                    engine.indexDocument(doc, new StringReader(content));
+                }
+            }
+            for (DocumentSearchEngine engine : engines) {
+                engine.onDocumentsStored(bulk);
+                engine.refresh();
+            }
+            System.out.printf("Indexed %d documents into 1, %d local and %d remote shards in %d ms%n",
+                count, shardCount, shardCount, (System.nanoTime() - start) / 1000000);
+            
+            List<Map<String, String>> optionSets = new ArrayList<>();
+            optionSets.add(params());
+            optionSets.add(params("limit", "25"));
+            optionSets.add(params("sort", "date", "limit", "20"));
+            optionSets.add(params("sort", "size", "order", "asc", "category", "Business,Technical"));
+            optionSets.add(params("fileType", "PDF", "minSize", "100000", "maxSize", "5000000"));
+            optionSets.add(params("from", "1650000000000", "to", "1700000000000", "limit", "50"));
+            compareAll(engines, optionSets, true);
+            
+            // Deleted documents linger in term statistics until segments merge, and merges differ
+            // between layouts, so only hits, totals and facets are compared after deletes
+            for (int i = 0; i < docs.size(); i += 7) {
+                for (DocumentSearchEngine engine : engines) {
+                    engine.onDocumentDeleted(docs.get(i));
+                }
+            }
+            for (DocumentSearchEngine engine : engines) {
+                engine.refresh();
+            }
+            List<Map<String, String>> afterDeletes = new ArrayList<>();
+            afterDeletes.add(params("sort", "date", "limit", "30"));
+            afterDeletes.add(params("sort", "size", "category", "Academic"));
+            compareAll(engines, afterDeletes, false);
+            
+            System.out.printf("Compared %d pages: %d mismatches%n", pages, mismatches);
+        } finally {
+            for (DocumentSearchEngine engine : engines) {
+                engine.close();
+            }
+            for (Process server : servers) {
+                server.destroy();
+            }
+        }
+        System.exit(mismatches == 0 ? 0 : 1);
+    }
+    
+    private static Process startServer(Path indexPath) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            "ShardServer", "0", indexPath.toString(), "127.0.0.1", "60000");
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+    
+    // Pages through every query with every option set, comparing each sharded engine with the single index
+    private static void compareAll(List<DocumentSearchEngine> engines, List<Map<String, String>> optionSets,
+                                   boolean compareScores) throws Exception {
+        long[] nanos = new long[engines.size()];
+        for (String query : QUERIES) {
+            for (Map<String, String> params : optionSets) {
+                String cursor = null;
+                for (int page = 0; page < MAX_PAGES; page++) {
+                    Map<String, String> pageParams = new HashMap<>(params);
+                    if (cursor != null) {
+                        pageParams.put("cursor", cursor);
+                    }
+                    DocumentSearchEngine.SearchOptions options = DocumentSearchEngine.SearchOptions.parse(pageParams::get);
+                    List<DocumentSearchEngine.SearchResults> results = new ArrayList<>();
+                    for (int e = 0; e < engines.size(); e++) {
+                        long start = System.nanoTime();
+                        results.add(engines.get(e).search(query, options));
+                        nanos[e] += System.nanoTime() - start;
+                    }
+                    for (int e = 1; e < results.size(); e++) {
+                        String difference = difference(results.get(0), results.get(e), compareScores);
+                        if (difference != null) {
+                            mismatches++;
+                            System.out.printf("MISMATCH engine %d, q=%s %s page %d: %s%n", e, query, params, page, difference);
+                        }
+                    }
+                    pages++;
+                    cursor = results.get(0).getNextCursor();
+                    if (cursor == null) {
+                        break;
+                    }
+                }
+            }
+        }
+        System.out.printf("Search time: single %d ms, local shards %d ms, remote shards %d ms%n",
+            nanos[0] / 1000000, nanos[1] / 1000000, nanos[2] / 1000000);
+    }
+    
+    private static String difference(DocumentSearchEngine.SearchResults expected,
+                                     DocumentSearchEngine.SearchResults actual, boolean compareScores) {
+        if (expected.getTotalHits() != actual.getTotalHits()) {
+            return "totalHits " + expected.getTotalHits() + " vs " + actual.getTotalHits();
+        }
+        if (!expected.getFacets().equals(actual.getFacets())) {
+            return "facets " + expected.getFacets() + " vs " + actual.getFacets();
+        }
+        if (expected.getResults().size() != actual.getResults().size()) {
+            return "page size " + expected.getResults().size() + " vs " + actual.getResults().size();
+        }
+        for (int i = 0; i < expected.getResults().size(); i++) {
+            DocumentSearchEngine.SearchResult a = expected.getResults().get(i);
+            DocumentSearchEngine.SearchResult b = actual.getResults().get(i);
+            if (!a.getDocumentId().equals(b.getDocumentId())) {
+                return "hit " + i + " " + a.getDocumentId() + " vs " + b.getDocumentId();
+            }
+            if (compareScores && a.getScore() != b.getScore()) {
+                return "score of " + a.getDocumentId() + " " + a.getScore() + " vs " + b.getScore();
+            }
+            if (!a.getHighlightedTitle().equals(b.getHighlightedTitle()) || !a.getSnippets().equals(b.getSnippets())) {
+                return "highlights of " + a.getDocumentId();
+            }
+        }
+        if (compareScores && !Objects.equals(expected.getNextCursor(), actual.getNextCursor())) {
+            return "cursor " + expected.getNextCursor() + " vs " + actual.getNextCursor();
+        }
+        return null;
+    }
+    
+    private static Map<String, String> params(String... pairs) {
+        Map<String, String> params = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            params.put(pairs[i], pairs[i + 1]);
+        }
+        return params;
+    }
+    
+    private static final String[] WORDS = {"report", "quarterly", "revenue", "market", "analysis", "research",
+        "results", "manual", "network", "computer", "compiler", "component", "budget", "draft", "review",
+        "summary", "customer", "growth", "model", "data", "system", "design", "security", "cloud", "storage",
+        "protocol", "latency", "throughput", "forecast", "strategy", "policy", "study", "experiment", "theory",
+        "invoice", "contract", "meeting", "notes", "proposal", "release", "the", "of", "and", "for", "with"};
+    
+    private static Document generate(Random random, int i) {
+        String id = "doc-" + new UUID(random.nextLong(), random.nextLong());
+        return new Document(id, text(random, 1).replace(".", ""), id, random.nextInt(10000000),
+            i % 3 == 0 ? Document.FileType.PDF : Document.FileType.DOCX,
+            CATEGORIES[random.nextInt(CATEGORIES.length)],
+            1600000000000L + random.nextInt(1000) * 100000000L, null, null);
+    }
+    
+    private static String text(Random random, int sentences) {
+        StringBuilder text = new StringBuilder();
+        for (int s = 0; s < sentences; s++) {
+            int words = 3 + random.nextInt(12);
+            for (int w = 0; w < words; w++) {
+                String word = WORDS[random.nextInt(WORDS.length)];
+                text.append(w == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+                text.append(w == words - 1 ? ". " : " ");
+            }
+        }
+        return text.toString().trim();
+    }
+}
\ No newline at end of file
@@ -1,46 +1,344 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * Collects and reports statistics about the document collection
+ * Collects and reports statistics about the document collection.
+ * Aggregates are updated as documents are stored, reclassified and deleted,
+ * so reading them never touches the datastore. They are checkpointed to
+ * disk periodically and restored on startup instead of rescanning.
  */
-public class StatisticsCollector {
+public class StatisticsCollector implements DocumentListener, Closeable {
+    private static final Logger LOG = Logger.getLogger(StatisticsCollector.class.getName());
+    private static final int RATE_WINDOW_MINUTES = 60;
+    
     private DocumentManager docManager;
+    private Path checkpointPath;                // Null disables checkpointing
+    private volatile Aggregates aggregates;     // Replaced wholesale by reconcile()
+    private final UploadRate uploadRate = new UploadRate();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private ScheduledExecutorService scheduler;
     
     public StatisticsCollector(DocumentManager docManager) {
         this.docManager = docManager;
+        this.aggregates = scan();
+    }
+    
+    /**
+     * Restores aggregates from a checkpoint, or rescans when there is none,
+     * and checkpoints on a schedule from then on
+     * @param docManager Source of documents for a rescan
+     * @param checkpointPath File holding the last checkpoint
+     * @param checkpointIntervalMs How often to write a checkpoint
+     */
+    public StatisticsCollector(DocumentManager docManager, Path checkpointPath, long checkpointIntervalMs) {
+        this.docManager = docManager;
+        this.checkpointPath = checkpointPath;
+        this.aggregates = restoreCheckpoint();
+        if (aggregates == null) {
+            this.aggregates = scan();
+            checkpoint();
+        }
+        
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "statistics-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkpoint, checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
     }
     
     /**
-     * Generates statistics about the document collection
+     * Reports statistics from the running aggregates without reading any documents
      * @return Map of statistics
      */
     public Map<String, Object> generateStatistics() {
-        List<Document> allDocs = docManager.getAllDocuments();
-        Map<String, Object> stats = new HashMap<>();
+        Map<String, Object> stats = aggregates.toMap();
+        stats.put("uploadsLastHour", uploadRate.total());
+        stats.put("uploadsPerMinute", uploadRate.perMinute());
+        return stats;
+    }
+    
+    /**
+     * Computes statistics with a full scan of the collection, for verifying
+     * the incremental aggregates. Leaves the aggregates untouched.
+     * @return Map of statistics
+     */
+    public Map<String, Object> rescanStatistics() {
+        return scan().toMap();
+    }
+    
+    /**
+     * Computes statistics over a columnar snapshot, reading its primitive
+     * columns without materializing any documents
+     * @param snapshot Documents to summarize
+     * @return Map of statistics, in the same form as generateStatistics() minus the upload rate
+     */
+    public static Map<String, Object> snapshotStatistics(DocumentSnapshot snapshot) {
+        Aggregates aggregates = new Aggregates();
+        aggregates.addAll(snapshot);
+        return aggregates.toMap();
+    }
+    
+    /**
+     * Replaces the aggregates with a full scan of the collection. Changes made
+     * while the scan runs may be missed, so run it when uploads are quiet.
+     * @return Map of statistics after reconciliation
+     */
+    public Map<String, Object> reconcile() {
+        aggregates = scan();
+        checkpoint();
+        return generateStatistics();
+    }
+    
+    @Override
+    public void onDocumentStored(Document doc) {
+        aggregates.add(doc);
+        uploadRate.record(System.currentTimeMillis());
+    }
+    
+    @Override
+    public void onCategoryChanged(Document doc, String oldCategory) {
+        aggregates.moveCategory(oldCategory, doc.getCategory());
+    }
+    
+    @Override
+    public void onDocumentDeleted(Document doc) {
+        aggregates.remove(doc);
+    }
+    
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            checkpoint();
+        }
+    }
+    
+    // Single streamed pass over every document
+    private Aggregates scan() {
+        Aggregates scanned = new Aggregates();
+        Iterator<Document> docs = docManager.iterateDocuments(DocumentManager.DEFAULT_BATCH_SIZE);
+        while (docs.hasNext()) {
+            scanned.add(docs.next());
+        }
+        return scanned;
+    }
+    
+    private void checkpoint() {
+        if (checkpointPath == null) {
+            return;
+        }
+        try {
+            // Write then rename, so a crash never leaves a half-written checkpoint
+            Path tmp = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+            mapper.writeValue(tmp.toFile(), aggregates.toCheckpoint());
+            Files.move(tmp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to checkpoint statistics", e);
+        }
+    }
+    
+    private Aggregates restoreCheckpoint() {
+        if (!Files.exists(checkpointPath)) {
+            return null;
+        }
+        try {
+            Checkpoint checkpoint = mapper.readValue(checkpointPath.toFile(), Checkpoint.class);
+            return Aggregates.fromCheckpoint(checkpoint);
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.log(Level.WARNING, "Ignoring unreadable statistics checkpoint", e);
+            return null;
+        }
+    }
+    
+    // Running counters; every update is a handful of lock-free increments
+    private static class Aggregates {
+        final LongAdder totalDocuments = new LongAdder();
+        final LongAdder totalSize = new LongAdder();
+        final ConcurrentHashMap<String, LongAdder> fileTypes = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, LongAdder> categories = new ConcurrentHashMap<>();
+        final LogHistogram sizes = new LogHistogram();
         
-        // Basic counts
-        stats.put("totalDocuments", allDocs.size());
-        stats.put("pdfCount", countByType(allDocs, "PDF"));
-        stats.put("docxCount", countByType(allDocs, "DOCX"));
+        void add(Document doc) {
+            totalDocuments.increment();
+            totalSize.add(doc.getSize());
+            counter(fileTypes, doc.getFileType().name()).increment();
+            counter(categories, doc.getCategory()).increment();
+            sizes.record(doc.getSize());
+        }
         
-        // Size statistics
-        stats.put("totalSizeKB", allDocs.stream().mapToLong(Document::getSize).sum() / 1024);
-        stats.put("averageSizeKB", allDocs.stream().mapToLong(Document::getSize).average().orElse(0) / 1024);
+        void remove(Document doc) {
+            totalDocuments.decrement();
+            totalSize.add(-doc.getSize());
+            counter(fileTypes, doc.getFileType().name()).decrement();
+            counter(categories, doc.getCategory()).decrement();
+            sizes.remove(doc.getSize());
+        }
         
-        // Category distribution
-        stats.put("categoryDistribution", getCategoryDistribution(allDocs));
+        // Counts into primitive arrays by file type ordinal and category code, then adds each total once
+        void addAll(DocumentSnapshot snapshot) {
+            Document.FileType[] types = Document.FileType.values();
+            long[] byFileType = new long[types.length];
+            long[] byCategory = new long[CategoryDictionary.size() + 1];    // Index 0 counts missing categories
+            long size = 0;
+            for (int row = 0; row < snapshot.size(); row++) {
+                long fileSize = snapshot.fileSize(row);
+                size += fileSize;
+                sizes.record(fileSize);
+                byFileType[snapshot.fileType(row).ordinal()]++;
+                int category = snapshot.categoryCode(row) + 1;
+                if (category >= byCategory.length) {
+                    byCategory = Arrays.copyOf(byCategory, CategoryDictionary.size() + 1);  // Assigned meanwhile
+                }
+                byCategory[category]++;
+            }
+            
+            totalDocuments.add(snapshot.size());
+            totalSize.add(size);
+            for (int i = 0; i < types.length; i++) {
+                if (byFileType[i] != 0) {
+                    counter(fileTypes, types[i].name()).add(byFileType[i]);
+                }
+            }
+            for (int code = -1; code < byCategory.length - 1; code++) {
+                if (byCategory[code + 1] != 0) {
+                    counter(categories, CategoryDictionary.name(code)).add(byCategory[code + 1]);
+                }
+            }
+        }
         
-        return stats;
+        void moveCategory(String from, String to) {
+            counter(categories, from).decrement();
+            counter(categories, to).increment();
+        }
+        
+        private static LongAdder counter(ConcurrentHashMap<String, LongAdder> counters, String key) {
+            return counters.computeIfAbsent(key == null ? "UNKNOWN" : key, k -> new LongAdder());
+        }
+        
+        Map<String, Object> toMap() {
+            long count = totalDocuments.sum();
+            long size = totalSize.sum();
+            Map<String, Object> stats = new HashMap<>();
+            
+            // Basic counts
+            stats.put("totalDocuments", count);
+            stats.put("pdfCount", sum(fileTypes, "PDF"));
+            stats.put("docxCount", sum(fileTypes, "DOCX"));
+            stats.put("fileTypeDistribution", sums(fileTypes));
+            
+            // Size statistics
+            stats.put("totalSizeKB", size / 1024);
+            stats.put("averageSizeKB", count == 0 ? 0.0 : (double) size / count / 1024);
+            Map<String, Long> percentiles = new LinkedHashMap<>();
+            percentiles.put("p50", sizes.percentile(50) / 1024);
+            percentiles.put("p95", sizes.percentile(95) / 1024);
+            percentiles.put("p99", sizes.percentile(99) / 1024);
+            stats.put("sizePercentilesKB", percentiles);
+            
+            // Category distribution
+            stats.put("categoryDistribution", sums(categories));
+            return stats;
+        }
+        
+        private static long sum(Map<String, LongAdder> counters, String key) {
+            LongAdder counter = counters.get(key);
+            return counter == null ? 0 : counter.sum();
+        }
+        
+        private static Map<String, Long> sums(Map<String, LongAdder> counters) {
+            Map<String, Long> sums = new TreeMap<>();
+            counters.forEach((key, counter) -> {
+                long value = counter.sum();
+                if (value != 0) {
+                    sums.put(key, value);
+                }
+            });
+            return sums;
+        }
+        
+        Checkpoint toCheckpoint() {
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.totalDocuments = totalDocuments.sum();
+            checkpoint.totalSize = totalSize.sum();
+            checkpoint.fileTypes = sums(fileTypes);
+            checkpoint.categories = sums(categories);
+            checkpoint.sizeBuckets = sizes.snapshot();
+            return checkpoint;
+        }
+        
+        static Aggregates fromCheckpoint(Checkpoint checkpoint) {
+            Aggregates restored = new Aggregates();
+            restored.totalDocuments.add(checkpoint.totalDocuments);
+            restored.totalSize.add(checkpoint.totalSize);
+            checkpoint.fileTypes.forEach((key, value) -> counter(restored.fileTypes, key).add(value));
+            checkpoint.categories.forEach((key, value) -> counter(restored.categories, key).add(value));
+            restored.sizes.restore(checkpoint.sizeBuckets);
+            return restored;
+        }
     }
     
-    // Helper methods
-    private long countByType(List<Document> docs, String type) {
-        return docs.stream().filter(d -> d.getFileType().equals(type)).count();
+    /**
+     * On-disk form of the aggregates
+     */
+    public static class Checkpoint {
+        public long totalDocuments;
+        public long totalSize;
+        public Map<String, Long> fileTypes = new HashMap<>();
+        public Map<String, Long> categories = new HashMap<>();
+        public long[] sizeBuckets = new long[0];
     }
     
-    private Map<String, Long> getCategoryDistribution(List<Document> docs) {
-        return docs.stream()
-            .collect(Collectors.groupingBy(Document::getCategory, Collectors.counting()));
+    // Uploads per minute over the last hour, in a ring of per-minute slots
+    private static class UploadRate {
+        // Minute each slot holds in the high 32 bits and its count in the low 32, updated together
+        private final AtomicLongArray slots = new AtomicLongArray(RATE_WINDOW_MINUTES);
+        
+        void record(long nowMs) {
+            long minute = nowMs / 60000;
+            int slot = (int) (minute % RATE_WINDOW_MINUTES);
+            while (true) {
+                long seen = slots.get(slot);
+                // First upload in a new minute recycles the slot from an hour ago
+                long updated = (seen >>> 32) == minute ? seen + 1 : (minute << 32) | 1;
+                if (slots.compareAndSet(slot, seen, updated)) {
+                    return;
+                }
+            }
+        }
+        
+        long total() {
+            long sum = 0;
+            for (long count : perMinute()) {
+                sum += count;
+            }
+            return sum;
+        }
+        
+        // Oldest minute first
+        long[] perMinute() {
+            long now = System.currentTimeMillis() / 60000;
+            long[] series = new long[RATE_WINDOW_MINUTES];
+            for (int i = 0; i < RATE_WINDOW_MINUTES; i++) {
+                long minute = now - (RATE_WINDOW_MINUTES - 1) + i;
+                int slot = (int) (minute % RATE_WINDOW_MINUTES);
+                long packed = slots.get(slot);
+                series[i] = (packed >>> 32) == minute ? packed & 0xFFFFFFFFL : 0;
+            }
+            return series;
+        }
     }
-}b 
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,342 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.fst.WFSTCompletionLookup;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Type-ahead suggestions of document titles by case-insensitive prefix,
+ * most recently uploaded first.
+ *
+ * Titles live in a weighted FST built in the background from the document
+ * store, holding at most maxEntries of the newest titles. Changes between
+ * builds go to a small sorted map of pending titles and a set of removed
+ * ones, which lookups merge with the FST, so uploads can be suggested at
+ * once. The FST is rebuilt when anything has changed, on an interval or
+ * sooner once maxPending titles are waiting.
+ */
+public class TitleSuggester implements DocumentListener, Closeable {
+    private static final Logger LOG = Logger.getLogger(TitleSuggester.class.getName());
+    
+    /** Titles kept in the FST unless configured otherwise */
+    public static final int DEFAULT_MAX_ENTRIES = 250000;
+    /** Titles waiting for the next build unless configured otherwise */
+    public static final int DEFAULT_MAX_PENDING = 5000;
+    /** Most suggestions one lookup returns */
+    public static final int MAX_LIMIT = 50;
+    
+    private static final char SEPARATOR = '\u001F';     // Between the lowercase key and the title as shown
+    private static final long PENDING_ENTRY_BYTES = 96;  // Map node, key string and boxed weight, besides the chars
+    
+    private final DocumentManager docManager;
+    private final int maxEntries;
+    private final int maxPending;
+    private final ScheduledExecutorService scheduler;
+    private volatile Built built = new Built(null, 0, 0);
+    private final ConcurrentSkipListMap<String, Long> pending = new ConcurrentSkipListMap<>();  // Key -> weight
+    private final Set<String> removed = ConcurrentHashMap.newKeySet();                        // Keys to hide
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+    private final AtomicBoolean rebuildQueued = new AtomicBoolean();
+    
+    private final LongAdder lookups = new LongAdder();
+    private final LogHistogram lookupMicros = new LogHistogram();
+    
+    /**
+     * Builds the FST in the background and rebuilds it on a schedule from then on;
+     * until the first build only titles stored since are suggested
+     * @param docManager Source of documents for each build
+     * @param rebuildIntervalMs How often to rebuild if anything has changed
+     * @param maxEntries Maximum number of titles in the FST; older titles are left out
+     * @param maxPending Maximum number of titles waiting for the next build
+     */
+    public TitleSuggester(DocumentManager docManager, long rebuildIntervalMs, int maxEntries, int maxPending) {
+        this.docManager = docManager;
+        this.maxEntries = maxEntries;
+        this.maxPending = maxPending;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "title-suggester");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.execute(this::rebuildIfDirty);
+        scheduler.scheduleWithFixedDelay(this::rebuildIfDirty, rebuildIntervalMs, rebuildIntervalMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * @param prefix Beginning of a title, in any case
+     * @param limit Maximum number of suggestions
+     * @return Matching titles, most recently uploaded first
+     */
+    public List<String> suggest(String prefix, int limit) {
+        long start = System.nanoTime();
+        String key = normalize(prefix, false);
+        limit = Math.min(limit, MAX_LIMIT);
+        if (key.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        
+        List<Lookup.LookupResult> candidates = new ArrayList<>();
+        Built current = built;
+        if (current.lookup != null) {
+            // Ask for enough extra to still fill the page once removed titles are dropped
+            int num = limit + Math.min(removed.size(), MAX_LIMIT);
+            try {
+                candidates.addAll(current.lookup.lookup(key, false, num));
+            } catch (IOException e) {
+                throw new RuntimeException("Title lookup failed", e);
+            }
+        }
+        for (Map.Entry<String, Long> entry : pending.subMap(key, key + Character.MAX_VALUE).entrySet()) {
+            candidates.add(new Lookup.LookupResult(entry.getKey(), entry.getValue()));
+        }
+        candidates.sort((a, b) -> Long.compare(b.value, a.value));
+        
+        Set<String> seen = new HashSet<>();
+        List<String> titles = new ArrayList<>(limit);
+        for (Lookup.LookupResult candidate : candidates) {
+            String entry = candidate.key.toString();
+            if (removed.contains(entry) || !seen.add(entry)) {
+                continue;
+            }
+            titles.add(entry.substring(entry.indexOf(SEPARATOR) + 1));
+            if (titles.size() == limit) {
+                break;
+            }
+        }
+        lookups.increment();
+        lookupMicros.record((System.nanoTime() - start) / 1000);
+        return titles;
+    }
+    
+    @Override
+    public void onDocumentStored(Document doc) {
+        add(doc.getTitle(), doc.getUploadDate());
+    }
+    
+    @Override
+    public void onTitleChanged(Document doc, String oldTitle) {
+        remove(oldTitle);
+        add(doc.getTitle(), doc.getUploadDate());
+    }
+    
+    @Override
+    public void onDocumentDeleted(Document doc) {
+        remove(doc.getTitle());
+    }
+    
+    public Stats getStats() {
+        Built current = built;
+        long pendingBytes = 0;
+        for (String key : pending.keySet()) {
+            pendingBytes += PENDING_ENTRY_BYTES + 2L * key.length();
+        }
+        return new Stats(current.entries, pending.size(), removed.size(),
+            (current.lookup == null ? 0 : current.lookup.ramBytesUsed()) + pendingBytes,
+            current.buildMillis, lookups.sum(), lookupMicros.percentile(50), lookupMicros.percentile(99));
+    }
+    
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+    
+    private void add(String title, long uploadDate) {
+        String entry = entry(title);
+        if (entry == null) {
+            return;
+        }
+        removed.remove(entry);
+        dirty.set(true);
+        if (pending.size() >= maxPending) {
+            // Left for the build, which reads it from the store
+            requestRebuild();
+            return;
+        }
+        pending.merge(entry, weight(uploadDate), Math::max);
+    }
+    
+    // Hides every document with this title until the next build, which brings back any that remain
+    private void remove(String title) {
+        String entry = entry(title);
+        if (entry == null) {
+            return;
+        }
+        pending.remove(entry);
+        removed.add(entry);
+        dirty.set(true);
+    }
+    
+    private void requestRebuild() {
+        if (rebuildQueued.compareAndSet(false, true)) {
+            scheduler.execute(this::rebuildIfDirty);
+        }
+    }
+    
+    private void rebuildIfDirty() {
+        rebuildQueued.set(false);
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            rebuild();
+        } catch (Exception e) {
+            dirty.set(true);
+            LOG.log(Level.WARNING, "Failed to build title suggestions", e);
+        }
+    }
+    
+    // Changes made before the scan starts are in the store, so they can leave the delta once the FST is swapped in
+    private void rebuild() throws IOException {
+        long start = System.nanoTime();
+        Set<String> coveredPending = new HashSet<>(pending.keySet());
+        Set<String> coveredRemoved = new HashSet<>(removed);
+        
+        // Newest maxEntries titles, oldest on top so it is the one replaced
+        PriorityQueue<Lookup.LookupResult> newest = new PriorityQueue<>(Comparator.comparingLong(r -> r.value));
+        Iterator<Document> docs = docManager.iterateDocuments(DocumentManager.DEFAULT_BATCH_SIZE);
+        while (docs.hasNext()) {
+            Document doc = docs.next();
+            long weight = weight(doc.getUploadDate());
+            if (newest.size() == maxEntries && newest.peek().value >= weight) {
+                continue;
+            }
+            String entry = entry(doc.getTitle());
+            if (entry == null) {
+                continue;
+            }
+            newest.add(new Lookup.LookupResult(entry, weight));
+            if (newest.size() > maxEntries) {
+                newest.poll();
+            }
+        }
+        
+        WFSTCompletionLookup lookup = new WFSTCompletionLookup(new ByteBuffersDirectory(), "suggest");
+        lookup.build(new ResultIterator(newest.iterator()));
+        built = new Built(lookup, lookup.getCount(), (System.nanoTime() - start) / 1000000);
+        pending.keySet().removeAll(coveredPending);
+        removed.removeAll(coveredRemoved);
+    }
+    
+    // Lowercase key, separator, then the title as shown; null for a title with nothing to suggest
+    private static String entry(String title) {
+        if (title == null) {
+            return null;
+        }
+        String shown = normalize(title, true);
+        return shown.isEmpty() ? null : shown.toLowerCase(Locale.ROOT) + SEPARATOR + shown;
+    }
+    
+    // Collapses whitespace and drops control characters, which include the separator;
+    // a prefix keeps its trailing space so "annual " doesn't match "annually"
+    private static String normalize(String text, boolean trim) {
+        StringBuilder out = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+            } else if (!Character.isISOControl(c)) {
+                if (space) {
+                    out.append(' ');
+                    space = false;
+                }
+                out.append(c);
+            }
+        }
+        if (space && !trim) {
+            out.append(' ');
+        }
+        return trim ? out.toString() : out.toString().toLowerCase(Locale.ROOT);
+    }
+    
+    // Minutes since the epoch fit the FST's int weights for thousands of years
+    private static long weight(long uploadDate) {
+        return Math.max(0, uploadDate / 60000);
+    }
+    
+    private static class Built {
+        final WFSTCompletionLookup lookup;   // Null until the first build
+        final long entries;
+        final long buildMillis;
+        
+        Built(WFSTCompletionLookup lookup, long entries, long buildMillis) {
+            this.lookup = lookup;
+            this.entries = entries;
+            this.buildMillis = buildMillis;
+        }
+    }
+    
+    private static class ResultIterator implements InputIterator {
+        private final Iterator<Lookup.LookupResult> results;
+        private long weight;
+        
+        ResultIterator(Iterator<Lookup.LookupResult> results) {
+            this.results = results;
+        }
+        
+        @Override
+        public BytesRef next() {
+            if (!results.hasNext()) {
+                return null;
+            }
+            Lookup.LookupResult result = results.next();
+            weight = result.value;
+            return new BytesRef(result.key);
+        }
+        
+        @Override
+        public long weight() { return weight; }
+        @Override
+        public BytesRef payload() { return null; }
+        @Override
+        public boolean hasPayloads() { return false; }
+        @Override
+        public Set<BytesRef> contexts() { return null; }
+        @Override
+        public boolean hasContexts() { return false; }
+    }
+    
+    public static class Stats {
+        private final long entries;
+        private final int pending;
+        private final int removed;
+        private final long ramBytesUsed;
+        private final long buildMillis;
+        private final long lookups;
+        private final long lookupP50Micros;
+        private final long lookupP99Micros;
+        
+        Stats(long entries, int pending, int removed, long ramBytesUsed, long buildMillis,
+              long lookups, long lookupP50Micros, long lookupP99Micros) {
+            this.entries = entries;
+            this.pending = pending;
+            this.removed = removed;
+            this.ramBytesUsed = ramBytesUsed;
+            this.buildMillis = buildMillis;
+            this.lookups = lookups;
+            this.lookupP50Micros = lookupP50Micros;
+            this.lookupP99Micros = lookupP99Micros;
+        }
+        
+        public long getEntries() { return entries; }
+        public int getPending() { return pending; }
+        public int getRemoved() { return removed; }
+        public long getRamBytesUsed() { return ramBytesUsed; }
+        public long getBuildMillis() { return buildMillis; }
+        public long getLookups() { return lookups; }
+        public long getLookupP50Micros() { return lookupP50Micros; }
+        public long getLookupP99Micros() { return lookupP99Micros; }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,147 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Route limits, queueing, priority between interactive and batch requests,
+ * and the adaptive batch limit
+ */
+class AdmissionControllerTest {
+    private static final long TIMEOUT_MS = 10000;
+
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Test
+    void requestsPastTheLimitWaitAndPastTheQueueAreTurnedAway() throws Exception {
+        AdmissionController admission = new AdmissionController("search=1", "search=1", 16, TIMEOUT_MS, 1000);
+        AdmissionController.Permit first = admission.tryAcquire(Metrics.Route.SEARCH);
+        assertNotNull(first);
+
+        Future<AdmissionController.Permit> queued = clients.submit(() -> admission.tryAcquire(Metrics.Route.SEARCH));
+        await(() -> admission.getStats().getWaiting() == 1);
+        assertNull(admission.tryAcquire(Metrics.Route.SEARCH));     // Queue full
+
+        admission.release(first);
+        assertNotNull(queued.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        AdmissionController.Stats stats = admission.getStats();
+        assertEquals(2, stats.getAdmitted());
+        assertEquals(1, stats.getRejected());
+        assertEquals(1, stats.getRunning());
+        assertEquals(0, stats.getWaiting());
+    }
+
+    @Test
+    void routesHaveTheirOwnLimits() throws Exception {
+        AdmissionController admission = new AdmissionController("search=1", "search=0", 16, TIMEOUT_MS, 1000);
+
+        assertNotNull(admission.tryAcquire(Metrics.Route.SEARCH));
+        assertNull(admission.tryAcquire(Metrics.Route.SEARCH));
+        assertNotNull(admission.tryAcquire(Metrics.Route.DOCUMENT));
+        assertNotNull(admission.tryAcquire(Metrics.Route.SUGGEST));
+    }
+
+    @Test
+    void requestsWaitingTooLongAreTurnedAway() throws Exception {
+        AdmissionController admission = new AdmissionController("search=1", "search=4", 16, 50, 1000);
+        admission.tryAcquire(Metrics.Route.SEARCH);
+
+        long start = System.nanoTime();
+        assertNull(admission.tryAcquire(Metrics.Route.SEARCH));
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, admission.getStats().getRejected());
+        assertEquals(0, admission.getStats().getWaiting());
+    }
+
+    @Test
+    void waitingInteractiveRequestsGoBeforeBatchRequests() throws Exception {
+        AdmissionController admission = new AdmissionController("search=1", "", 1, TIMEOUT_MS, 1000);
+        AdmissionController.Permit listing = admission.tryAcquire(Metrics.Route.LIST);
+        AdmissionController.Permit search = admission.tryAcquire(Metrics.Route.SEARCH);
+        Future<AdmissionController.Permit> batch = clients.submit(() -> admission.tryAcquire(Metrics.Route.SORTED));
+        await(() -> admission.getStats().getWaiting() == 1);
+        Future<AdmissionController.Permit> interactive = clients.submit(() -> admission.tryAcquire(Metrics.Route.SEARCH));
+        await(() -> admission.getStats().getWaiting() == 2);
+
+        // A batch slot frees up, but the batch request stays behind the waiting search
+        admission.release(listing);
+        Thread.sleep(100);
+        assertFalse(batch.isDone());
+
+        admission.release(search);
+        assertNotNull(interactive.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertNotNull(batch.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(1, admission.getStats().getBatchRunning());
+    }
+
+    @Test
+    void batchLimitHalvesPastTheLatencyTargetAndGrowsBackBelowIt() throws Exception {
+        AdmissionController admission = new AdmissionController("", "", 8, TIMEOUT_MS, 0);
+        assertEquals(8, admission.getStats().getBatchLimit());
+
+        slowInteractiveRequests(admission);
+        assertEquals(4, admission.getStats().getBatchLimit());
+        assertTrue(admission.getStats().getInteractiveP99Micros() > 0);
+        slowInteractiveRequests(admission);
+        assertEquals(2, admission.getStats().getBatchLimit());
+
+        // Too few interactive requests in an interval to be held back by batch work
+        Thread.sleep(1050);
+        admission.release(admission.tryAcquire(Metrics.Route.SEARCH));
+        assertEquals(3, admission.getStats().getBatchLimit());
+    }
+
+    @Test
+    void batchLimitStaysAtItsMaximumWithinTheLatencyTarget() throws Exception {
+        AdmissionController admission = new AdmissionController("", "", 2, TIMEOUT_MS, 60000);
+
+        slowInteractiveRequests(admission);
+
+        assertEquals(2, admission.getStats().getBatchLimit());
+    }
+
+    @Test
+    void batchRoutesBackOffLongerThanInteractiveOnes() {
+        AdmissionController admission = new AdmissionController("", "", 16, TIMEOUT_MS, 1000);
+
+        assertEquals(5, admission.retryAfterSeconds(Metrics.Route.BULK));
+        assertEquals(1, admission.retryAfterSeconds(Metrics.Route.SEARCH));
+    }
+
+    @Test
+    void malformedLimitsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController("search", "", 16, 1000, 1000));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController("nowhere=3", "", 16, 1000, 1000));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController("", "search=many", 16, 1000, 1000));
+    }
+
+    // Enough interactive requests of a few milliseconds each to judge one interval, then the next interval starts
+    private static void slowInteractiveRequests(AdmissionController admission) throws InterruptedException {
+        for (int i = 0; i < 20; i++) {
+            AdmissionController.Permit permit = admission.tryAcquire(Metrics.Route.SEARCH);
+            Thread.sleep(2);
+            admission.release(permit);
+        }
+        Thread.sleep(1050);
+        admission.release(admission.tryAcquire(Metrics.Route.SEARCH));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition not reached in time");
+            Thread.sleep(5);
+        }
+    }
+}
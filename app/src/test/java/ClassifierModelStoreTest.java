@@ -0,0 +1,124 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Versioned model files, and classifiers saving, loading and swapping models
+ */
+class ClassifierModelStoreTest {
+    @TempDir
+    Path modelDir;
+
+    @Test
+    void loadedModelMakesTheSamePredictions() throws Exception {
+        ClassifierModelStore store = new ClassifierModelStore(modelDir);
+        DocumentClassifier trained = DocumentClassifierTest.trained();
+        long version = trained.save(store);
+
+        DocumentClassifier loaded = new DocumentClassifier();
+        assertTrue(loaded.reload(store));
+
+        assertTrue(loaded.isTrained());
+        assertEquals(version, store.latestVersion(DocumentClassifier.FEATURE_VERSION));
+        List<Document> docs = samples();
+        assertEquals(trained.classifyBatch(docs), loaded.classifyBatch(docs));
+    }
+
+    @Test
+    void reloadSwapsInOnlyANewerModel() throws Exception {
+        ClassifierModelStore store = new ClassifierModelStore(modelDir);
+        DocumentClassifier serving = new DocumentClassifier();
+        assertFalse(serving.reload(store));     // Nothing stored yet
+
+        DocumentClassifierTest.trained().save(store);
+        assertTrue(serving.reload(store));
+        assertFalse(serving.reload(store));
+
+        // Another instance retrains on different labels and stores a newer version
+        DocumentClassifier retrained = new DocumentClassifier();
+        retrained.train(relabelled(DocumentClassifierTest.trainingSet()));
+        retrained.save(store);
+        assertTrue(serving.reload(store));
+
+        assertEquals("Business", serving.classify(DocumentClassifierTest.doc("a", "Physics thesis", null)));
+        assertEquals(retrained.classifyBatch(samples()), serving.classifyBatch(samples()));
+    }
+
+    @Test
+    void savingItsOwnModelDoesNotMakeAReloadNecessary() throws Exception {
+        ClassifierModelStore store = new ClassifierModelStore(modelDir);
+        DocumentClassifier classifier = DocumentClassifierTest.trained();
+        classifier.classify(DocumentClassifierTest.doc("a", "Annual revenue", null));
+
+        classifier.save(store);
+
+        assertFalse(classifier.reload(store));
+        assertEquals(1, classifier.memoizedPredictions());
+    }
+
+    @Test
+    void modelsForOtherFeatureVersionsAreIgnored() throws Exception {
+        ClassifierModelStore store = new ClassifierModelStore(modelDir);
+        store.save(DocumentClassifier.FEATURE_VERSION - 1, "trained on old features");
+
+        assertEquals(-1, store.latestVersion(DocumentClassifier.FEATURE_VERSION));
+        assertFalse(new DocumentClassifier().reload(store));
+    }
+
+    @Test
+    void storedObjectThatIsNotAModelIsRejected() throws Exception {
+        ClassifierModelStore store = new ClassifierModelStore(modelDir);
+        store.save(DocumentClassifier.FEATURE_VERSION, "not a model");
+
+        DocumentClassifier classifier = new DocumentClassifier();
+        assertThrows(IOException.class, () -> classifier.reload(store));
+        assertFalse(classifier.isTrained());
+    }
+
+    @Test
+    void versionsIncreaseAndOnlyTheNewestFewAreKept() throws Exception {
+        ClassifierModelStore store = new ClassifierModelStore(modelDir);
+        List<Long> versions = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            versions.add(store.save(DocumentClassifier.FEATURE_VERSION, "model " + i));
+        }
+
+        for (int i = 1; i < versions.size(); i++) {
+            assertTrue(versions.get(i) > versions.get(i - 1));
+        }
+        assertEquals(versions.get(7), store.latestVersion(DocumentClassifier.FEATURE_VERSION));
+        assertEquals("model 7", store.load(DocumentClassifier.FEATURE_VERSION, versions.get(7)));
+        try (Stream<Path> files = Files.list(modelDir)) {
+            assertEquals(5, files.count());
+        }
+        assertThrows(IOException.class, () -> store.load(DocumentClassifier.FEATURE_VERSION, versions.get(0)));
+    }
+
+    private static List<Document> samples() {
+        return Arrays.asList(
+            DocumentClassifierTest.doc("s1", "Thesis on kernel physics", null),
+            DocumentClassifierTest.doc("s2", "Revenue summary", null),
+            DocumentClassifierTest.doc("s3", "Server tuning", null),
+            DocumentClassifierTest.doc("s4", "Holiday list", null),
+            DocumentClassifierTest.doc("s5", "Nothing in the vocabulary", null));
+    }
+
+    // Academic and Business swapped, so the retrained model predicts differently
+    private static List<Document> relabelled(List<Document> docs) {
+        List<Document> relabelled = new ArrayList<>();
+        for (Document doc : docs) {
+            String category = doc.getCategory();
+            category = category.equals("Academic") ? "Business" : category.equals("Business") ? "Academic" : category;
+            relabelled.add(doc.withCategory(category));
+        }
+        return relabelled;
+    }
+}
@@ -0,0 +1,211 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Uploads followed through the extraction pipeline to their final stage,
+ * over in-memory storage and a local index
+ */
+class ContentExtractionServiceTest {
+    private static final long TIMEOUT_MS = 10000;
+
+    @TempDir
+    Path indexPath;
+
+    private GatedBlobStore blobs;
+    private DocumentManager manager;
+    private DocumentSearchEngine searchEngine;
+    private ContentExtractionService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        blobs = new GatedBlobStore();
+        manager = new DocumentManager(blobs, new InMemoryDocumentStore());
+        searchEngine = new DocumentSearchEngine(manager, indexPath, 60000, 60000, 0, 0);
+        manager.addListener(searchEngine);
+        service = new ContentExtractionService(manager, searchEngine, new DocumentClassifier(), 1, 8, new Metrics(0));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        blobs.open.countDown();
+        service.close();
+        searchEngine.close();
+    }
+
+    @Test
+    void uploadIsExtractedAndIndexedWithItsContent() throws Exception {
+        Document doc = upload(docx("Annual Review", "Jane Doe", "The giraffe population grew steadily."), "upload.docx");
+
+        assertEquals(ContentExtractionService.Stage.COMPLETE, awaitFinalStage(doc.getId()));
+
+        Document updated = manager.getDocument(doc.getId());
+        assertEquals("Annual Review", updated.getTitle());
+        assertEquals("Jane Doe", updated.getAuthor());
+        searchEngine.refresh();
+        DocumentSearchEngine.SearchResults results = searchEngine.search("giraffe");
+        assertEquals(1, results.getTotalHits());
+        assertEquals(doc.getId(), results.getResults().get(0).getDocumentId());
+        assertFalse(results.getResults().get(0).getSnippets().isEmpty());
+    }
+
+    @Test
+    void unreadableContentFailsButKeepsTheTitleEntry() throws Exception {
+        Document doc = upload(zip("word/document.xml", "<w:document"), "Broken Minutes.docx");
+
+        assertEquals(ContentExtractionService.Stage.FAILED, awaitFinalStage(doc.getId()));
+
+        assertEquals("Broken Minutes", manager.getDocument(doc.getId()).getTitle());
+        searchEngine.refresh();
+        assertEquals(1, searchEngine.search("minutes").getTotalHits());
+    }
+
+    @Test
+    void documentDeletedWhileQueuedIsNotProcessed() throws Exception {
+        blobs.hold();
+        Document first = upload(docx("First", null, "alpha"), "first.docx");
+        Document second = upload(docx("Second", null, "zebra crossing"), "second.docx");
+        assertTrue(blobs.opening.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));    // First is being extracted
+
+        manager.deleteDocument(second.getId());
+        blobs.open.countDown();
+
+        assertEquals(ContentExtractionService.Stage.COMPLETE, awaitFinalStage(first.getId()));
+        assertEquals(ContentExtractionService.Stage.DELETED, awaitFinalStage(second.getId()));
+        assertNull(manager.getDocument(second.getId()));
+        searchEngine.refresh();
+        assertEquals(0, searchEngine.search("zebra").getTotalHits());
+        assertEquals(0, searchEngine.search("second").getTotalHits());
+    }
+
+    @Test
+    void everyReservedSlotIsReturnedWhenTasksFinishBackToBack() throws Exception {
+        // Deleted documents finish at once, so workers free slots as fast as they can be taken again
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Document doc = manager.uploadDocument(new ByteArrayInputStream(docx(null, null, "n" + i)), i + ".docx");
+            manager.deleteDocument(doc.getId());
+            docs.add(doc);
+        }
+
+        for (Document doc : docs) {
+            assertTrue(service.tryReserve(TIMEOUT_MS));
+            service.submit(doc);
+        }
+
+        for (Document doc : docs) {
+            assertEquals(ContentExtractionService.Stage.DELETED, awaitFinalStage(doc.getId()));
+        }
+        for (int i = 0; i < 9; i++) {   // One worker plus a queue of eight
+            assertTrue(service.tryReserve(TIMEOUT_MS));
+        }
+    }
+
+    @Test
+    void submissionAfterCloseFailsWithoutLosingTheSlot() throws Exception {
+        Document doc = manager.uploadDocument(new ByteArrayInputStream(docx("Late", null, "late")), "late.docx");
+        service.close();
+
+        assertTrue(service.tryReserve(TIMEOUT_MS));
+        service.submit(doc);
+
+        assertEquals(ContentExtractionService.Stage.FAILED, service.getStage(doc.getId()));
+        for (int i = 0; i < 9; i++) {
+            assertTrue(service.tryReserve(0));
+        }
+    }
+
+    @Test
+    void stageIsUnknownForDocumentsNeverSubmitted() {
+        assertNull(service.getStage("doc-unknown"));
+    }
+
+    private Document upload(byte[] content, String fileName) throws InterruptedException {
+        Document doc = manager.uploadDocument(new ByteArrayInputStream(content), fileName);
+        assertTrue(service.tryReserve(TIMEOUT_MS));
+        service.submit(doc);
+        return doc;
+    }
+
+    private ContentExtractionService.Stage awaitFinalStage(String id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            ContentExtractionService.Stage stage = service.getStage(id);
+            if (stage == ContentExtractionService.Stage.COMPLETE || stage == ContentExtractionService.Stage.FAILED
+                    || stage == ContentExtractionService.Stage.DELETED) {
+                return stage;
+            }
+            Thread.sleep(10);
+        }
+        return fail("Processing of " + id + " did not finish, last stage " + service.getStage(id));
+    }
+
+    // Smallest DOCX the extractor reads: the body part and, if there is a title, the core properties
+    static byte[] docx(String title, String author, String body) throws IOException {
+        String document = "<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\">"
+            + "<w:body><w:p><w:r><w:t>" + body + "</w:t></w:r></w:p></w:body></w:document>";
+        if (title == null) {
+            return zip("word/document.xml", document);
+        }
+        String core = "<cp:coreProperties"
+            + " xmlns:cp=\"http://schemas.openxmlformats.org/package/2006/metadata/core-properties\""
+            + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+            + "<dc:title>" + title + "</dc:title>"
+            + (author != null ? "<dc:creator>" + author + "</dc:creator>" : "")
+            + "</cp:coreProperties>";
+        return zip("word/document.xml", document, "docProps/core.xml", core);
+    }
+
+    private static byte[] zip(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+                zip.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    // Once held, the first file opened waits until the test lets it through
+    static final class GatedBlobStore extends InMemoryBlobStore {
+        final CountDownLatch opening = new CountDownLatch(1);
+        final CountDownLatch open = new CountDownLatch(1);
+        private volatile boolean held;
+
+        void hold() {
+            held = true;
+        }
+
+        @Override
+        public InputStream open(String name) throws IOException {
+            if (held) {
+                held = false;
+                opening.countDown();
+                try {
+                    open.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                }
+            }
+            return super.open(name);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.FullEntity;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.KeyFactory;
+import com.google.cloud.datastore.Transaction;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.Test;
+
+/**
+ * DatastoreDocumentStore against a map-backed Datastore, and its agreement
+ * with InMemoryDocumentStore on content hash lookups
+ */
+class DatastoreDocumentStoreTest {
+    private final FakeDatastore fake = new FakeDatastore();
+    private final DatastoreDocumentStore store = new DatastoreDocumentStore(fake.datastore);
+
+    @Test
+    void documentsRoundTripWithTheirHashLookup() {
+        Document doc = new Document("doc-1", "Minutes", "doc-1", 1234, Document.FileType.DOCX, "Business",
+            1700000000123L, "A. Author", "abc123");
+
+        store.put(doc);
+
+        Document read = store.get("doc-1");
+        assertEquals(doc.getTitle(), read.getTitle());
+        assertEquals(doc.getSize(), read.getSize());
+        assertEquals(doc.getFileType(), read.getFileType());
+        assertEquals(doc.getCategory(), read.getCategory());
+        assertEquals(doc.getUploadDate(), read.getUploadDate());
+        assertEquals(doc.getAuthor(), read.getAuthor());
+        assertEquals("doc-1", store.findIdByContentHash("abc123"));
+    }
+
+    @Test
+    void bulkPutsStayWithinTheCommitLimitCountingHashEntities() {
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            docs.add(doc("doc-" + i, "hash-" + i));
+        }
+        docs.add(doc("no-hash", null));
+
+        store.putAll(docs);
+
+        assertEquals(1201, fake.putSizes.stream().mapToInt(Integer::intValue).sum());
+        for (int size : fake.putSizes) {
+            assertTrue(size <= 500, "Put of " + size + " entities");
+        }
+        assertEquals("doc-599", store.findIdByContentHash("hash-599"));
+        assertNotNull(store.get("no-hash"));
+    }
+
+    @Test
+    void deleteRemovesTheHashLookupItOwns() {
+        store.put(doc("doc-1", "shared"));
+
+        store.delete("doc-1");
+
+        assertNull(store.get("doc-1"));
+        assertNull(store.findIdByContentHash("shared"));
+    }
+
+    @Test
+    void deleteKeepsAHashLookupClaimedByAnotherDocument() {
+        assertKeepsClaimedHash(store);
+        assertKeepsClaimedHash(new InMemoryDocumentStore());
+    }
+
+    private static void assertKeepsClaimedHash(DocumentStore store) {
+        store.put(doc("old", "shared"));
+        store.put(doc("new", "shared"));
+
+        store.delete("old");
+
+        assertEquals("new", store.findIdByContentHash("shared"));
+    }
+
+    private static Document doc(String id, String hash) {
+        return new Document(id, "Title " + id, id, 10, Document.FileType.PDF, DocumentClassifier.UNCLASSIFIED,
+            1700000000000L, null, hash);
+    }
+
+    // Entities in a map behind the Datastore and Transaction interfaces, for the calls the store makes
+    static final class FakeDatastore {
+        final Map<Key, Entity> entities = new ConcurrentHashMap<>();
+        final List<Integer> putSizes = new ArrayList<>();
+        final Datastore datastore = proxy(Datastore.class, this::datastoreCall);
+        private final Transaction transaction = proxy(Transaction.class, this::transactionCall);
+
+        private Object datastoreCall(Method method, Object[] args) throws Exception {
+            switch (method.getName()) {
+                case "newKeyFactory":
+                    return new KeyFactory("test-project");
+                case "runInTransaction":
+                    return ((Datastore.TransactionCallable<?>) args[0]).run(transaction);
+                default:
+                    return transactionCall(method, args);
+            }
+        }
+
+        private Object transactionCall(Method method, Object[] args) {
+            switch (method.getName() + "/" + method.getParameterCount()) {
+                case "put/1":
+                    if (args[0] instanceof FullEntity[]) {
+                        FullEntity<?>[] batch = (FullEntity<?>[]) args[0];
+                        putSizes.add(batch.length);
+                        List<Entity> stored = new ArrayList<>();
+                        for (FullEntity<?> entity : batch) {
+                            stored.add(put(entity));
+                        }
+                        return stored;
+                    }
+                    putSizes.add(1);
+                    return put((FullEntity<?>) args[0]);
+                case "get/1":
+                    return entities.get((Key) args[0]);
+                case "delete/1":
+                    for (Key key : (Key[]) args[0]) {
+                        entities.remove(key);
+                    }
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.toString());
+            }
+        }
+
+        private Entity put(FullEntity<?> entity) {
+            Entity stored = (Entity) entity;
+            entities.put(stored.getKey(), stored);
+            return stored;
+        }
+
+        private static <T> T proxy(Class<T> type, Call call) {
+            InvocationHandler handler = (proxy, method, args) -> call.invoke(method, args);
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+        }
+
+        interface Call {
+            Object invoke(Method method, Object[] args) throws Exception;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.MultipartConfigElement;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The servlet over HTTP in embedded Tomcat, with storage in memory
+ */
+class DocumentAnalyticsServletTest {
+    private static final long TIMEOUT_MS = 10000;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    private Tomcat tomcat;
+    private String baseUrl;
+
+    @AfterEach
+    void tearDown() throws LifecycleException {
+        if (tomcat != null) {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+    }
+
+    @Test
+    void uploadIsAcceptedAndProcessedInTheBackground() throws Exception {
+        start(new LinkedHashMap<>());
+        byte[] content = ContentExtractionServiceTest.docx("Field Notes", "A. Writer", "Migrating cranes sighted.");
+
+        HttpURLConnection upload = upload("notes.docx", content);
+        assertEquals(202, upload.getResponseCode());
+        JsonNode doc = json(upload);
+        String id = doc.get("id").asText();
+        String location = upload.getHeaderField("Location");
+        assertEquals("/api/" + id + "/status", location);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        String stage;
+        do {
+            Thread.sleep(20);
+            stage = json(get(location)).get("stage").asText();
+        } while (!stage.equals("COMPLETE") && !stage.equals("FAILED") && System.currentTimeMillis() < deadline);
+        assertEquals("COMPLETE", stage);
+        assertEquals("Field Notes", json(get("/api/" + id)).get("title").asText());
+
+        // The same bytes again are the same document, already processed
+        HttpURLConnection again = upload("copy.docx", content);
+        assertEquals(200, again.getResponseCode());
+        assertEquals(id, json(again).get("id").asText());
+    }
+
+    @Test
+    void saturatedRoutesAreTurnedAwayWithRetryAfter() throws Exception {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("admissionLimits", "search=0,sorted=0");
+        params.put("admissionQueues", "search=0,sorted=0");
+        start(params);
+
+        HttpURLConnection search = get("/api/search?q=cranes");
+        assertEquals(429, search.getResponseCode());
+        assertEquals("1", search.getHeaderField("Retry-After"));
+        HttpURLConnection sorted = get("/api/sorted?sort=size");
+        assertEquals(429, sorted.getResponseCode());
+        assertEquals("5", sorted.getHeaderField("Retry-After"));
+
+        HttpURLConnection listing = get("/api/?limit=5");
+        assertEquals(200, listing.getResponseCode());
+        JsonNode stats = json(get("/api/stats?mode=admission"));
+        assertEquals(2, stats.get("rejected").asLong());
+    }
+
+    @Test
+    void statusOfAnUnknownDocumentIsNotFound() throws Exception {
+        start(new LinkedHashMap<>());
+
+        assertEquals(404, get("/api/doc-unknown/status").getResponseCode());
+    }
+
+    @Test
+    void unknownFieldNamesAreABadRequest() throws Exception {
+        start(new LinkedHashMap<>());
+
+        assertEquals(400, get("/api/?fields=id,colour").getResponseCode());
+        assertEquals(400, get("/api/sorted?fields=colour").getResponseCode());
+        assertEquals(200, get("/api/?fields=id,title").getResponseCode());
+    }
+
+    // The servlet as deployed, with storage in memory and files under the test's directory
+    private void start(Map<String, String> params) throws LifecycleException {
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(tempDir.toString());
+        tomcat.setPort(0);
+        Context context = tomcat.addContext("", tempDir.toString());
+        Wrapper servlet = Tomcat.addServlet(context, "api", new DocumentAnalyticsServlet());
+        servlet.setAsyncSupported(true);
+        servlet.setMultipartConfigElement(new MultipartConfigElement(tempDir.toString(), -1, -1, 1024 * 1024));
+        servlet.addInitParameter("storage", "memory");
+        servlet.addInitParameter("indexPath", tempDir.resolve("index").toString());
+        servlet.addInitParameter("statsCheckpointPath", tempDir.resolve("stats.json").toString());
+        servlet.addInitParameter("modelDir", tempDir.resolve("models").toString());
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            servlet.addInitParameter(param.getKey(), param.getValue());
+        }
+        servlet.setLoadOnStartup(1);
+        context.addServletMappingDecoded("/api/*", "api");
+        tomcat.start();
+        baseUrl = "http://localhost:" + tomcat.getConnector().getLocalPort();
+    }
+
+    private HttpURLConnection get(String path) throws IOException {
+        return (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    }
+
+    private HttpURLConnection upload(String fileName, byte[] content) throws IOException {
+        String boundary = "test-boundary";
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/api/upload").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + fileName
+                + "\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.write(content);
+            out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return connection;
+    }
+
+    private static JsonNode json(HttpURLConnection connection) throws IOException {
+        assertEquals(2, connection.getResponseCode() / 100, connection.getURL().toString());
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return MAPPER.readTree(body.toByteArray());
+        }
+    }
+}
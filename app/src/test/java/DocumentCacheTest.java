@@ -0,0 +1,178 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Read-through caching, expiry and eviction, and loads that race a delete
+ */
+class DocumentCacheTest {
+    private static final long TIMEOUT_MS = 10000;
+
+    private final CountingStore store = new CountingStore();
+    private final ExecutorService readers = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        store.gate.countDown();
+        readers.shutdownNow();
+    }
+
+    @Test
+    void repeatedReadsAreAnsweredFromTheCache() {
+        store.put(doc("a"));
+        DocumentCache cache = new DocumentCache(store, 10, 60000);
+
+        Document first = cache.get("a");
+        Document second = cache.get("a");
+
+        assertSame(first, second);
+        assertEquals(1, store.reads.get());
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(1, cache.getStats().getMisses());
+        assertNull(cache.get("missing"));
+    }
+
+    @Test
+    void expiredEntriesAreReadAgain() throws InterruptedException {
+        store.put(doc("a"));
+        DocumentCache cache = new DocumentCache(store, 10, 20);
+
+        cache.get("a");
+        Thread.sleep(40);
+        cache.get("a");
+
+        assertEquals(2, store.reads.get());
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvictedBeyondTheLimit() {
+        for (String id : Arrays.asList("a", "b", "c")) {
+            store.put(doc(id));
+        }
+        DocumentCache cache = new DocumentCache(store, 2, 60000);
+
+        cache.get("a");
+        cache.get("b");
+        cache.get("a");     // b is now the least recently used
+        cache.get("c");
+        int reads = store.reads.get();
+        cache.get("a");
+        cache.get("c");
+
+        assertEquals(reads, store.reads.get());
+        assertEquals(2, cache.getStats().getSize());
+        cache.get("b");
+        assertEquals(reads + 1, store.reads.get());
+    }
+
+    @Test
+    void concurrentMissesShareOneRead() throws Exception {
+        store.put(doc("a"));
+        DocumentCache cache = new DocumentCache(store, 10, 60000);
+        store.holdReads();
+
+        Future<Document> first = readers.submit(() -> cache.get("a"));
+        assertTrue(store.reading.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Future<Document> second = readers.submit(() -> cache.get("a"));
+        Thread.sleep(50);
+        store.gate.countDown();
+
+        assertSame(first.get(TIMEOUT_MS, TimeUnit.MILLISECONDS), second.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(1, store.reads.get());
+    }
+
+    @Test
+    void batchLookupKeepsTheRequestedOrderAndSkipsUnknownIds() {
+        store.put(doc("a"));
+        store.put(doc("b"));
+        DocumentCache cache = new DocumentCache(store, 10, 60000);
+        cache.get("b");
+
+        List<Document> docs = cache.getAll(Arrays.asList("b", "missing", "a"));
+
+        assertEquals(Arrays.asList("b", "a"), Arrays.asList(docs.get(0).getId(), docs.get(1).getId()));
+        store.reads.set(0);
+        cache.get("a");
+        assertEquals(0, store.reads.get());
+    }
+
+    @Test
+    void loadOverlappingADeleteIsNotCached() throws Exception {
+        store.put(doc("a"));
+        DocumentCache cache = new DocumentCache(store, 10, 60000);
+        store.holdReads();
+
+        Future<Document> load = readers.submit(() -> cache.get("a"));
+        assertTrue(store.reading.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        store.delete("a");
+        cache.remove("a");
+        store.gate.countDown();
+
+        assertNotNull(load.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));    // Read before the delete
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    @Test
+    void batchLoadOverlappingADeleteIsNotCached() throws Exception {
+        store.put(doc("a"));
+        DocumentCache cache = new DocumentCache(store, 10, 60000);
+        store.holdReads();
+
+        Future<List<Document>> load = readers.submit(() -> cache.getAll(Collections.singletonList("a")));
+        assertTrue(store.reading.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        store.delete("a");
+        cache.remove("a");
+        store.gate.countDown();
+
+        assertEquals(1, load.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).size());
+        assertNull(cache.get("a"));
+    }
+
+    private static Document doc(String id) {
+        return new Document(id, "Title " + id, id, 1, Document.FileType.PDF, DocumentClassifier.UNCLASSIFIED,
+            0, null, null);
+    }
+
+    // Counts reads, and once held makes them wait for the gate
+    static final class CountingStore extends InMemoryDocumentStore {
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        private volatile boolean held;
+
+        void holdReads() {
+            held = true;
+        }
+
+        @Override
+        public Document get(String id) {
+            Document doc = super.get(id);
+            read();
+            return doc;
+        }
+
+        // After the store was read, as a slow response would arrive; batch reads come through get() too
+        private void read() {
+            reads.incrementAndGet();
+            if (held) {
+                reading.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
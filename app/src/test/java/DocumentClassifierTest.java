@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Classification before and after training, memoized predictions and
+ * concurrent classify calls against one model
+ */
+class DocumentClassifierTest {
+    private static final long TIMEOUT_MS = 10000;
+
+    private final ExecutorService callers = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    void untrainedClassifierReportsUnclassified() throws Exception {
+        DocumentClassifier classifier = new DocumentClassifier();
+
+        assertFalse(classifier.isTrained());
+        assertEquals(DocumentClassifier.UNCLASSIFIED, classifier.classify(doc("a", "Quantum thesis", null)));
+        assertEquals(Arrays.asList(DocumentClassifier.UNCLASSIFIED, DocumentClassifier.UNCLASSIFIED),
+            classifier.classifyBatch(Arrays.asList(doc("a", "Revenue", null), doc("b", "Kernel", null))));
+    }
+
+    @Test
+    void trainedClassifierLearnsTheTrainingSet() throws Exception {
+        DocumentClassifier classifier = trained();
+
+        assertTrue(classifier.isTrained());
+        for (Document doc : trainingSet()) {
+            assertEquals(doc.getCategory(), classifier.classify(doc), doc.getTitle());
+        }
+    }
+
+    @Test
+    void trainingRejectsUnknownCategories() {
+        List<Document> docs = new ArrayList<>(trainingSet());
+        docs.add(doc("x", "Recipe collection", "Cooking"));
+
+        assertThrows(IllegalArgumentException.class, () -> new DocumentClassifier().train(docs));
+    }
+
+    @Test
+    void identicalFeaturesReuseTheMemoizedPrediction() throws Exception {
+        DocumentClassifier classifier = trained();
+        assertEquals(0, classifier.memoizedPredictions());
+
+        String first = classifier.classify(doc("new-1", "Quarterly revenue forecast", null));
+        String again = classifier.classify(doc("new-1", "Quarterly revenue forecast", null));
+        // Another document with the same title, type and size bucket has the same features
+        String twin = classifier.classify(doc("new-2", "quarterly REVENUE forecast", null));
+
+        assertEquals(first, again);
+        assertEquals(first, twin);
+        assertEquals(1, classifier.memoizedPredictions());
+
+        classifier.classify(doc("new-3", "Server configuration manual", null));
+        assertEquals(2, classifier.memoizedPredictions());
+    }
+
+    @Test
+    void memoIsBoundedAndStartsEmptyForANewModel() throws Exception {
+        DocumentClassifier classifier = new DocumentClassifier(3, 100);
+        classifier.train(trainingSet());
+
+        for (Document doc : trainingSet()) {
+            classifier.classify(doc);
+        }
+        assertEquals(3, classifier.memoizedPredictions());
+
+        classifier.train(trainingSet());
+        assertEquals(0, classifier.memoizedPredictions());
+    }
+
+    @Test
+    void batchAndConcurrentCallsAgreeWithSingleCalls() throws Exception {
+        DocumentClassifier classifier = trained();
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Document sample = trainingSet().get(i % trainingSet().size());
+            docs.add(doc("c" + i, sample.getTitle() + " part " + (i % 7), null));
+        }
+        List<String> expected = new ArrayList<>();
+        for (Document doc : docs) {
+            expected.add(classifier.classify(doc));
+        }
+
+        assertEquals(expected, classifier.classifyBatch(docs));
+        List<Future<List<String>>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            results.add(callers.submit(() -> {
+                List<String> categories = new ArrayList<>();
+                for (Document doc : docs) {
+                    categories.add(classifier.classify(doc));
+                }
+                return categories;
+            }));
+        }
+        for (Future<List<String>> result : results) {
+            assertEquals(expected, result.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    static DocumentClassifier trained() throws Exception {
+        DocumentClassifier classifier = new DocumentClassifier();
+        classifier.train(trainingSet());
+        return classifier;
+    }
+
+    // Every title in a category shares one word that sets it apart
+    static List<Document> trainingSet() {
+        String[][] samples = {
+            {"Academic", "Quantum physics thesis"}, {"Academic", "Thesis on quantum entanglement"},
+            {"Academic", "Physics thesis notes"}, {"Academic", "Research thesis draft"},
+            {"Business", "Quarterly revenue report"}, {"Business", "Revenue forecast for sales"},
+            {"Business", "Annual revenue report"}, {"Business", "Board meeting revenue summary"},
+            {"Technical", "Server configuration manual"}, {"Technical", "Kernel server configuration"},
+            {"Technical", "API server reference"}, {"Technical", "Database server tuning manual"},
+            {"Other", "Holiday photos"}, {"Other", "Holiday party invitation"},
+            {"Other", "Holiday packing list"}, {"Other", "Party playlist for the holiday"},
+        };
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < samples.length; i++) {
+            docs.add(doc("t" + i, samples[i][1], samples[i][0]));
+        }
+        return docs;
+    }
+
+    static Document doc(String id, String title, String category) {
+        return new Document(id, title, id, 2048, Document.FileType.PDF, category, 1700000000000L, null, null);
+    }
+}
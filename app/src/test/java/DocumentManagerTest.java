@@ -0,0 +1,475 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * DocumentManager over the in-memory stand-ins for Cloud Storage and Datastore
+ */
+class DocumentManagerTest {
+    private TrackingBlobStore blobs;
+    private CountingDocumentStore store;
+    private DocumentManager manager;
+    private RecordingListener listener;
+
+    @BeforeEach
+    void setUp() {
+        blobs = new TrackingBlobStore();
+        store = new CountingDocumentStore();
+        manager = new DocumentManager(blobs, store);
+        listener = new RecordingListener();
+        manager.addListener(listener);
+    }
+
+    @Test
+    void uploadStoresFileAndMetadata() throws IOException {
+        byte[] content = bytes("quarterly figures");
+        Document doc = manager.uploadDocument(new ByteArrayInputStream(content), "Report 2024.pdf");
+
+        assertEquals("Report 2024", doc.getTitle());
+        assertEquals(Document.FileType.PDF, doc.getFileType());
+        assertEquals(content.length, doc.getSize());
+        assertEquals(DocumentClassifier.UNCLASSIFIED, doc.getCategory());
+        assertEquals(ContentHash.of(new ByteArrayInputStream(content)), doc.getContentHash());
+        assertEquals(doc.getTitle(), store.get(doc.getId()).getTitle());
+        assertSame(doc, manager.getDocument(doc.getId()));
+        assertArrayEquals(content, read(manager.openContent(doc)));
+        assertEquals(Collections.singletonList(doc.getId()), listener.stored);
+    }
+
+    @Test
+    void duplicateContentReturnsTheExistingDocument() {
+        DocumentManager.Upload first = manager.upload(stream("same bytes"), "a.pdf", null);
+        DocumentManager.Upload second = manager.upload(stream("same bytes"), "b.docx", null);
+
+        assertFalse(first.isDuplicate());
+        assertTrue(second.isDuplicate());
+        assertEquals(first.getDocument().getId(), second.getDocument().getId());
+        assertEquals(1, store.fetchPage(10, null).getDocuments().size());
+        assertEquals(Collections.singleton(first.getDocument().getFilePath()), blobs.names());
+        assertEquals(1, listener.stored.size());
+    }
+
+    @Test
+    void knownHashSkipsReadingADuplicate() throws IOException {
+        Document existing = manager.uploadDocument(stream("contract text"), "contract.pdf");
+        InputStream unreadable = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("Duplicate content was read");
+            }
+        };
+
+        DocumentManager.Upload upload = manager.upload(unreadable, "copy.pdf", existing.getContentHash());
+
+        assertTrue(upload.isDuplicate());
+        assertEquals(existing.getId(), upload.getDocument().getId());
+    }
+
+    @Test
+    void contentNotMatchingItsHashIsRejected() throws IOException {
+        String wrongHash = ContentHash.of(stream("something else"));
+
+        assertThrows(RuntimeException.class, () -> manager.upload(stream("actual content"), "a.pdf", wrongHash));
+        assertTrue(blobs.names().isEmpty());
+        assertTrue(store.fetchPage(10, null).getDocuments().isEmpty());
+    }
+
+    @Test
+    void failedWriteLeavesNoPartialFile() {
+        blobs.truncateNextWrite();
+
+        assertThrows(RuntimeException.class, () -> manager.upload(stream("cut short"), "partial.pdf", null));
+
+        assertTrue(blobs.names().isEmpty());
+        assertTrue(store.fetchPage(10, null).getDocuments().isEmpty());
+        assertTrue(listener.stored.isEmpty());
+    }
+
+    @Test
+    void failedMetadataWriteRemovesTheFile() {
+        store.failPuts = true;
+
+        assertThrows(RuntimeException.class, () -> manager.upload(stream("orphan"), "orphan.pdf", null));
+
+        assertTrue(blobs.names().isEmpty());
+        assertTrue(listener.stored.isEmpty());
+
+        // The content isn't known as stored, so it uploads as new once the store recovers
+        store.failPuts = false;
+        assertFalse(manager.upload(stream("orphan"), "orphan.pdf", null).isDuplicate());
+    }
+
+    @Test
+    void bulkFileFailingEveryAttemptLeavesNoFile() {
+        blobs.truncateNextWrite();
+        blobs.failNextWrites(2);       // The third and last attempt writes part of the file
+
+        BulkReport report = manager.uploadBatch(source(Collections.singletonMap("doomed.pdf", "content")),
+            1, 10, docs -> {});
+
+        assertEquals(1, report.getFailed());
+        assertTrue(blobs.names().isEmpty());
+    }
+
+    @Test
+    void pagesWalkEveryDocumentOnceWithCursors() {
+        Set<String> uploaded = new HashSet<>();
+        for (int i = 0; i < 25; i++) {
+            uploaded.add(manager.uploadDocument(stream("file " + i), "file" + i + ".pdf").getId());
+        }
+
+        List<Integer> sizes = new ArrayList<>();
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            DocumentPage page = manager.fetchPage(10, cursor);
+            sizes.add(page.getDocuments().size());
+            for (Document doc : page.getDocuments()) {
+                seen.add(doc.getId());
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(Arrays.asList(10, 10, 5), sizes);
+        assertEquals(uploaded.size(), seen.size());
+        assertEquals(uploaded, new HashSet<>(seen));
+    }
+
+    @Test
+    void pageLimitIsAtLeastOne() {
+        manager.uploadDocument(stream("one"), "one.pdf");
+        manager.uploadDocument(stream("two"), "two.pdf");
+        store.limits.clear();
+
+        DocumentPage page = manager.fetchPage(0, null);
+        manager.fetchPage(-5, null);
+
+        assertEquals(1, page.getDocuments().size());
+        assertTrue(page.hasMore());
+        assertEquals(Arrays.asList(1, 1), store.limits);
+    }
+
+    @Test
+    void iterationFetchesOneBatchAtATime() {
+        Set<String> uploaded = new HashSet<>();
+        for (int i = 0; i < 7; i++) {
+            uploaded.add(manager.uploadDocument(stream("doc " + i), "doc" + i + ".pdf").getId());
+        }
+        store.limits.clear();
+
+        Iterator<Document> it = manager.iterateDocuments(3);
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            seen.add(it.next().getId());
+        }
+        assertEquals(1, store.limits.size());      // Nothing past the first batch yet
+        seen.add(it.next().getId());
+        assertEquals(2, store.limits.size());
+        while (it.hasNext()) {
+            seen.add(it.next().getId());
+        }
+
+        assertEquals(uploaded, seen);
+        assertEquals(Arrays.asList(3, 3, 3), store.limits);
+        assertThrows(NoSuchElementException.class, it::next);
+    }
+
+    @Test
+    void streamStopsFetchingOnceItHasEnough() {
+        for (int i = 0; i < DocumentManager.DEFAULT_BATCH_SIZE + 1; i++) {
+            manager.uploadDocument(stream("entry " + i), "entry" + i + ".pdf");
+        }
+        store.limits.clear();
+
+        assertEquals(10, manager.streamDocuments().limit(10).count());
+        assertEquals(Collections.singletonList(DocumentManager.DEFAULT_BATCH_SIZE), store.limits);
+
+        store.limits.clear();
+        assertEquals(DocumentManager.DEFAULT_BATCH_SIZE + 1, manager.getAllDocuments().size());
+        assertEquals(2, store.limits.size());
+    }
+
+    @Test
+    void iteratingAnEmptyStoreFindsNothing() {
+        assertFalse(manager.iterateDocuments(10).hasNext());
+        assertEquals(0, manager.streamDocuments().count());
+        assertNull(manager.fetchPage(10, null).getNextCursor());
+    }
+
+    @Test
+    void deleteRemovesFileMetadataAndDuplicateLookup() {
+        Document doc = manager.uploadDocument(stream("to be deleted"), "old.pdf");
+
+        assertEquals(doc.getId(), manager.deleteDocument(doc.getId()).getId());
+
+        assertNull(manager.getDocument(doc.getId()));
+        assertNull(store.get(doc.getId()));
+        assertThrows(FileNotFoundException.class, () -> manager.openContent(doc));
+        assertEquals(Collections.singletonList(doc.getId()), listener.deleted);
+        assertNull(manager.deleteDocument(doc.getId()));
+
+        // The same content is a new document now
+        DocumentManager.Upload again = manager.upload(stream("to be deleted"), "old.pdf", null);
+        assertFalse(again.isDuplicate());
+        assertNotEquals(doc.getId(), again.getDocument().getId());
+    }
+
+    @Test
+    void updatesDoNotReviveADeletedDocument() {
+        Document doc = manager.uploadDocument(stream("short lived"), "brief.docx");
+        manager.deleteDocument(doc.getId());
+
+        assertTrue(manager.isDeleted(doc.getId()));
+        assertNull(manager.updateExtractedMetadata(doc, "Extracted title", "An Author"));
+        assertNull(manager.updateCategory(doc, "Legal"));
+        assertTrue(manager.updateCategories(Collections.singletonList(doc),
+            Collections.singletonList("Legal")).isEmpty());
+        assertNull(store.get(doc.getId()));
+        assertNull(manager.getDocument(doc.getId()));
+        assertTrue(listener.categoryChanges.isEmpty());
+    }
+
+    @Test
+    void categoryUpdatesArePersistedAndReportedOncePerBatch() {
+        Document a = manager.uploadDocument(stream("a"), "a.pdf");
+        Document b = manager.uploadDocument(stream("b"), "b.pdf");
+
+        List<Document> updated = manager.updateCategories(Arrays.asList(a, b),
+            Arrays.asList("Finance", DocumentClassifier.UNCLASSIFIED));
+
+        assertEquals("Finance", updated.get(0).getCategory());
+        assertSame(b, updated.get(1));      // Unchanged
+        assertEquals("Finance", store.get(a.getId()).getCategory());
+        assertEquals("Finance", manager.getDocument(a.getId()).getCategory());
+        assertEquals(Collections.singletonList(Collections.singletonList(a.getId())), listener.categoryChanges);
+    }
+
+    @Test
+    void bulkIngestStoresBatchesAndLinksDuplicates() {
+        Document existing = manager.uploadDocument(stream("already stored"), "existing.pdf");
+        Map<String, String> files = new LinkedHashMap<>();
+        for (int i = 0; i < 5; i++) {
+            files.put("new" + i + ".pdf", "new content " + i);
+        }
+        files.put("repeat.pdf", "new content 0");
+        files.put("copy.pdf", "already stored");
+        List<List<Document>> batches = new CopyOnWriteArrayList<>();
+
+        BulkReport report = manager.uploadBatch(source(files), 2, 3, batches::add);
+
+        assertEquals(5, report.getStored());
+        assertEquals(2, report.getDuplicates());
+        assertEquals(0, report.getFailed());
+        assertEquals(3, report.getBatches().size());
+        assertEquals(Arrays.asList(3, 2), sizes(batches));
+        Map<String, String> duplicates = new LinkedHashMap<>();
+        for (BulkReport.Batch batch : report.getBatches()) {
+            for (BulkReport.Duplicate duplicate : batch.getDuplicates()) {
+                duplicates.put(duplicate.getFileName(), duplicate.getDocumentId());
+            }
+        }
+        assertEquals(batches.get(0).get(0).getId(), duplicates.get("repeat.pdf"));
+        assertEquals(existing.getId(), duplicates.get("copy.pdf"));
+        assertEquals(6, store.fetchPage(100, null).getDocuments().size());
+        assertEquals(6, blobs.names().size());
+        assertEquals(6, listener.stored.size());
+    }
+
+    @Test
+    void bulkIngestReportsUnreadableFilesAndKeepsTheRest() {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put("good1.pdf", "first");
+        files.put("broken.pdf", null);      // Fails while being read
+        files.put("good2.pdf", "second");
+
+        BulkReport report = manager.uploadBatch(source(files), 2, 10, docs -> {});
+
+        assertEquals(2, report.getStored());
+        assertEquals(1, report.getFailed());
+        assertEquals("broken.pdf", report.getBatches().get(0).getFailures().get(0).getFileName());
+        assertEquals(2, store.fetchPage(10, null).getDocuments().size());
+    }
+
+    @Test
+    void bulkIngestRetriesFailedFileWrites() {
+        blobs.failNextWrites(1);
+
+        BulkReport report = manager.uploadBatch(source(Collections.singletonMap("flaky.pdf", "content")),
+            1, 10, docs -> {});
+
+        assertEquals(1, report.getStored());
+        assertEquals(1, report.getBatches().get(0).getRetries());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static InputStream stream(String s) {
+        return new ByteArrayInputStream(bytes(s));
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static List<Integer> sizes(List<List<Document>> batches) {
+        List<Integer> sizes = new ArrayList<>();
+        for (List<Document> batch : batches) {
+            sizes.add(batch.size());
+        }
+        return sizes;
+    }
+
+    // Files by name; a null content fails when it is read
+    private static BulkSource source(Map<String, String> files) {
+        List<Map.Entry<String, String>> entries = new ArrayList<>(files.entrySet());
+        return new BulkSource() {
+            private int next;
+
+            @Override
+            public boolean next() {
+                return ++next <= entries.size();
+            }
+
+            @Override
+            public String fileName() {
+                return entries.get(next - 1).getKey();
+            }
+
+            @Override
+            public InputStream content() {
+                String content = entries.get(next - 1).getValue();
+                if (content == null) {
+                    return new InputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            throw new IOException("Unreadable file");
+                        }
+                    };
+                }
+                return stream(content);
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    // Records the limit of every page fetched, and can fail writes on request
+    static final class CountingDocumentStore extends InMemoryDocumentStore {
+        final List<Integer> limits = new CopyOnWriteArrayList<>();
+        volatile boolean failPuts;
+
+        @Override
+        public void put(Document doc) {
+            if (failPuts) {
+                throw new IllegalStateException("Simulated metadata write failure");
+            }
+            super.put(doc);
+        }
+
+        @Override
+        public DocumentPage fetchPage(int limit, String cursor) {
+            limits.add(limit);
+            return super.fetchPage(limit, cursor);
+        }
+    }
+
+    // Knows which blobs exist, and can fail writes on request
+    static final class TrackingBlobStore extends InMemoryBlobStore {
+        private final Set<String> names = ConcurrentHashMap.newKeySet();
+        private int failingWrites;
+        private boolean truncating;
+
+        synchronized void failNextWrites(int count) {
+            failingWrites = count;
+        }
+
+        // The next write stores part of the file before failing, as a finalized partial upload would
+        synchronized void truncateNextWrite() {
+            truncating = true;
+        }
+
+        Set<String> names() {
+            return new HashSet<>(names);
+        }
+
+        @Override
+        public long write(String name, InputStream content) throws IOException {
+            synchronized (this) {
+                if (failingWrites > 0) {
+                    failingWrites--;
+                    throw new IOException("Simulated write failure");
+                }
+                if (truncating) {
+                    truncating = false;
+                    super.write(name, new ByteArrayInputStream(new byte[] {(byte) content.read()}));
+                    names.add(name);
+                    throw new IOException("Simulated failure partway through the write");
+                }
+            }
+            long size = super.write(name, content);
+            names.add(name);
+            return size;
+        }
+
+        @Override
+        public boolean delete(String name) {
+            names.remove(name);
+            return super.delete(name);
+        }
+    }
+
+    static final class RecordingListener implements DocumentListener {
+        final List<String> stored = new CopyOnWriteArrayList<>();
+        final List<String> deleted = new CopyOnWriteArrayList<>();
+        final List<List<String>> categoryChanges = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onDocumentStored(Document doc) {
+            stored.add(doc.getId());
+        }
+
+        @Override
+        public void onCategoriesChanged(List<Document> docs, List<String> oldCategories) {
+            List<String> ids = new ArrayList<>();
+            for (Document doc : docs) {
+                ids.add(doc.getId());
+            }
+            categoryChanges.add(ids);
+        }
+
+        @Override
+        public void onDocumentDeleted(Document doc) {
+            deleted.add(doc.getId());
+        }
+    }
+}
@@ -0,0 +1,327 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Searches over local and remote shards, checked against a single unsharded index
+ */
+class DocumentSearchEngineTest {
+    private static final long TIMEOUT_MS = 10000;
+    private static final String[] CONTENTS = {
+        "Solar energy output rose as panel efficiency improved.",
+        "Wind energy storage remains expensive; storage costs dominate.",
+        "Quarterly revenue grew while energy costs fell.",
+        "The committee reviewed the energy policy and its storage targets.",
+        "Revenue recognition rules for software contracts.",
+        "Battery storage, battery chemistry and battery recycling.",
+        "Hiring plans for the engineering team next quarter.",
+        "Energy energy energy: a glossary of power terms.",
+        "Grid storage pilots in three regions.",
+        "Annual report: revenue, costs and outlook.",
+        "Offshore wind farms and their maintenance schedules.",
+        "Solar subsidies and the policy debate around them.",
+    };
+    private static final String[] QUERIES = {"energy", "storage", "revenue costs", "solar OR wind", "policy"};
+
+    @TempDir
+    Path tempDir;
+
+    private DocumentManager manager;
+    private final List<Document> docs = new ArrayList<>();
+    private final List<DocumentSearchEngine> engines = new ArrayList<>();
+    private final List<ShardServer> servers = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        manager = new DocumentManager(new InMemoryBlobStore(), new InMemoryDocumentStore());
+        for (int i = 0; i < CONTENTS.length; i++) {
+            String name = "report " + i + (i % 3 == 0 ? ".docx" : ".pdf");
+            docs.add(manager.uploadDocument(new ByteArrayInputStream(CONTENTS[i].getBytes(StandardCharsets.UTF_8)), name));
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (DocumentSearchEngine engine : engines) {
+            engine.close();
+        }
+        for (ShardServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    void shardedIndexScoresAsASingleIndexWould() throws Exception {
+        DocumentSearchEngine single = indexed(local("single", 1));
+        DocumentSearchEngine sharded = indexed(local("sharded", 3));
+
+        for (String query : QUERIES) {
+            assertSameResults(single.search(query), sharded.search(query), query);
+        }
+    }
+
+    @Test
+    void pagesOfAShardedIndexFollowEachOtherWithoutGapsOrRepeats() throws Exception {
+        DocumentSearchEngine single = indexed(local("single", 1));
+        DocumentSearchEngine sharded = indexed(local("sharded", 3));
+        Map<String, String> params = new HashMap<>();
+        params.put("limit", "2");
+
+        List<String> paged = new ArrayList<>();
+        DocumentSearchEngine.SearchResults page;
+        do {
+            page = sharded.search("energy OR storage", DocumentSearchEngine.SearchOptions.parse(params::get));
+            for (DocumentSearchEngine.SearchResult result : page.getResults()) {
+                paged.add(result.getDocumentId());
+            }
+            params.put("cursor", page.getNextCursor());
+        } while (page.getNextCursor() != null);
+
+        params.remove("cursor");
+        params.put("limit", "100");
+        DocumentSearchEngine.SearchResults all = single.search("energy OR storage",
+            DocumentSearchEngine.SearchOptions.parse(params::get));
+        assertEquals(all.getTotalHits(), paged.size());
+        assertEquals(paged.size(), new HashSet<>(paged).size());
+        assertEquals(ids(all), new HashSet<>(paged));
+    }
+
+    @Test
+    void facetsAndFiltersCountEveryShard() throws Exception {
+        DocumentSearchEngine single = indexed(local("single", 1));
+        DocumentSearchEngine sharded = indexed(local("sharded", 3));
+        Map<String, String> params = new HashMap<>();
+        params.put("fileType", "DOCX");
+
+        DocumentSearchEngine.SearchResults results = sharded.search(null,
+            DocumentSearchEngine.SearchOptions.parse(params::get));
+
+        assertEquals(single.search(null).getFacets(), sharded.search(null).getFacets());
+        assertEquals(Long.valueOf(4), sharded.search(null).getFacets().get("fileType").get("DOCX"));
+        assertEquals(4, results.getTotalHits());
+    }
+
+    @Test
+    void remoteShardsAnswerAsLocalOnesDo() throws Exception {
+        DocumentSearchEngine single = indexed(local("single", 1));
+        List<SearchShard> remote = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Path path = Files.createDirectories(tempDir.resolve("remote-" + i));
+            ShardServer server = new ShardServer(new IndexShard(path, 60000, 60000, null),
+                new InetSocketAddress("127.0.0.1", 0));
+            server.start();
+            servers.add(server);
+            remote.add(new RemoteShard("http://127.0.0.1:" + server.getPort()));
+        }
+        DocumentSearchEngine engine = new DocumentSearchEngine(manager, remote, 60000, 0,
+            DocumentSearchEngine.DEFAULT_SNIPPET_COUNT, DocumentSearchEngine.DEFAULT_SNIPPET_LENGTH);
+        engines.add(engine);
+        indexed(engine);
+
+        for (String query : QUERIES) {
+            assertSameResults(single.search(query), engine.search(query), query);
+        }
+        DocumentSearchEngine.SearchResult top = engine.search("chemistry").getResults().get(0);
+        assertEquals(docs.get(5).getId(), top.getDocumentId());
+        assertTrue(top.getSnippets().get(0).contains("<b>chemistry</b>"), top.getSnippets().toString());
+
+        engine.onDocumentDeleted(docs.get(5));
+        engine.refresh();
+        assertEquals(0, engine.search("chemistry").getTotalHits());
+    }
+
+    @Test
+    void categoryChangeKeepsTheIndexedContent() throws Exception {
+        DocumentSearchEngine engine = indexed(local("sharded", 3));
+        manager.addListener(engine);
+
+        manager.updateCategories(Arrays.asList(docs.get(5), docs.get(9)), Arrays.asList("Technical", "Finance"));
+        engine.refresh();
+
+        assertEquals(Collections.singleton(docs.get(5).getId()), ids(engine.search("chemistry")));
+        Map<String, String> params = new HashMap<>();
+        params.put("category", "Finance");
+        assertEquals(Collections.singleton(docs.get(9).getId()),
+            ids(engine.search("outlook", DocumentSearchEngine.SearchOptions.parse(params::get))));
+        assertEquals(Long.valueOf(1), engine.search(null).getFacets().get("category").get("Technical"));
+    }
+
+    @Test
+    void deletedDocumentsDisappearFromEveryShard() throws Exception {
+        DocumentSearchEngine engine = indexed(local("sharded", 3));
+        manager.addListener(engine);
+
+        for (Document doc : docs) {
+            manager.deleteDocument(doc.getId());
+        }
+        engine.refresh();
+
+        assertEquals(0, engine.search(null).getTotalHits());
+        assertTrue(engine.search("energy").getResults().isEmpty());
+    }
+
+    @Test
+    void cachedResultsLastUntilTheNextRefresh() throws Exception {
+        DocumentSearchEngine engine = new DocumentSearchEngine(manager, tempDir.resolve("cached"), 60000, 60000,
+            0, 10, DocumentSearchEngine.DEFAULT_SNIPPET_COUNT, DocumentSearchEngine.DEFAULT_SNIPPET_LENGTH, 2);
+        engines.add(engine);
+        indexed(engine);
+
+        DocumentSearchEngine.SearchResults before = engine.search("zebra");
+        assertEquals(0, before.getTotalHits());
+        // Parsed queries are the key, so equivalent inputs share an entry
+        assertSame(before, engine.search("ZEBRA"));
+
+        engine.indexDocument(docs.get(0), new StringReader("A zebra crossing."));
+        assertSame(before, engine.search("zebra"));
+        engine.refresh();
+
+        assertEquals(Collections.singleton(docs.get(0).getId()), ids(engine.search("zebra")));
+    }
+
+    @Test
+    void concurrentSearchesOverSharedSearchersAgreeWithASingleThread() throws Exception {
+        DocumentSearchEngine expected = indexed(local("single", 1));
+        DocumentSearchEngine shared = new DocumentSearchEngine(manager, tempDir.resolve("shared"), 60000, 60000,
+            2, 0, DocumentSearchEngine.DEFAULT_SNIPPET_COUNT, DocumentSearchEngine.DEFAULT_SNIPPET_LENGTH, 1);
+        engines.add(shared);
+        // One segment per refresh, so segments are searched in parallel
+        for (int i = 0; i < docs.size(); i++) {
+            shared.indexDocument(docs.get(i), new StringReader(CONTENTS[i]));
+            shared.refresh();
+        }
+
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<DocumentSearchEngine.SearchResults>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String query = QUERIES[i % QUERIES.length];
+                futures.add(clients.submit(() -> shared.search(query)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                String query = QUERIES[i % QUERIES.length];
+                assertSameResults(expected.search(query), futures.get(i).get(TIMEOUT_MS, TimeUnit.MILLISECONDS), query);
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    void hitsAreHighlightedWhereTheQueryMatches() throws Exception {
+        DocumentSearchEngine engine = indexed(local("highlighted", 1));
+
+        DocumentSearchEngine.SearchResult battery = result(engine.search("battery"), docs.get(5));
+        assertEquals(Collections.singletonList(
+            "<b>Battery</b> storage, <b>battery</b> chemistry and <b>battery</b> recycling."), battery.getSnippets());
+        assertEquals(docs.get(5).getTitle(), battery.getHighlightedTitle());
+
+        DocumentSearchEngine.SearchResult titled = result(engine.search("outlook OR report"), docs.get(9));
+        assertTrue(titled.getHighlightedTitle().contains("<b>" + docs.get(9).getTitle().split(" ")[0] + "</b>"),
+            titled.getHighlightedTitle());
+    }
+
+    @Test
+    void phraseQueriesHighlightOnlyThePhrase() throws Exception {
+        DocumentSearchEngine engine = local("phrase", 1);
+        Document doc = docs.get(0);
+        engine.indexDocument(doc, new StringReader("Energy policy is set yearly. Unrelated energy figures follow."));
+        engine.refresh();
+
+        String snippet = String.join(" ", result(engine.search("\"energy policy\""), doc).getSnippets());
+
+        assertTrue(snippet.matches(".*<b>Energy(</b> <b>| )policy</b> is set yearly\\..*"), snippet);
+        assertFalse(snippet.contains("<b>energy</b> figures"), snippet);
+    }
+
+    @Test
+    void snippetsAreEscapedAndLimitedToTheConfiguredCount() throws Exception {
+        DocumentSearchEngine engine = new DocumentSearchEngine(manager, tempDir.resolve("snippets"), 60000, 60000,
+            0, 0, 2, 40, 1);
+        engines.add(engine);
+        Document doc = docs.get(1);
+        engine.indexDocument(doc, new StringReader("Storage <script>alert(1)</script> & more. Filler sentence here. "
+            + "Cold storage is cheap. More filler text follows. Storage tiers differ. The end of storage."));
+        engine.refresh();
+
+        List<String> snippets = result(engine.search("storage"), doc).getSnippets();
+
+        assertEquals(2, snippets.size());
+        assertTrue(snippets.contains("<b>Storage</b> &lt;script&gt;alert(1)&lt;&#x2F;script&gt; &amp; more."),
+            snippets.toString());
+        for (String snippet : snippets) {
+            assertTrue(snippet.contains("<b>"), snippet);
+            assertFalse(snippet.contains("<script>"), snippet);
+        }
+    }
+
+    private DocumentSearchEngine local(String dir, int shardCount) throws IOException {
+        DocumentSearchEngine engine = new DocumentSearchEngine(manager, tempDir.resolve(dir), 60000, 60000, 0, 0,
+            DocumentSearchEngine.DEFAULT_SNIPPET_COUNT, DocumentSearchEngine.DEFAULT_SNIPPET_LENGTH, shardCount);
+        engines.add(engine);
+        return engine;
+    }
+
+    // Replaces the title-only entries of the initial build with the documents' text
+    private DocumentSearchEngine indexed(DocumentSearchEngine engine) throws Exception {
+        for (int i = 0; i < docs.size(); i++) {
+            engine.indexDocument(docs.get(i), new StringReader(CONTENTS[i]));
+        }
+        engine.refresh();
+        return engine;
+    }
+
+    private static void assertSameResults(DocumentSearchEngine.SearchResults expected,
+                                          DocumentSearchEngine.SearchResults actual, String query) {
+        assertEquals(expected.getTotalHits(), actual.getTotalHits(), query);
+        assertEquals(scores(expected), scores(actual), query);
+    }
+
+    // Scores by document ID, rounded so that float summation order doesn't matter
+    private static Map<String, Long> scores(DocumentSearchEngine.SearchResults results) {
+        Map<String, Long> scores = new HashMap<>();
+        for (DocumentSearchEngine.SearchResult result : results.getResults()) {
+            scores.put(result.getDocumentId(), Math.round(result.getScore() * 1000.0));
+        }
+        return scores;
+    }
+
+    private static DocumentSearchEngine.SearchResult result(DocumentSearchEngine.SearchResults results, Document doc) {
+        for (DocumentSearchEngine.SearchResult result : results.getResults()) {
+            if (result.getDocumentId().equals(doc.getId())) {
+                return result;
+            }
+        }
+        throw new AssertionError(doc.getId() + " not found");
+    }
+
+    private static Set<String> ids(DocumentSearchEngine.SearchResults results) {
+        Set<String> ids = new HashSet<>();
+        for (DocumentSearchEngine.SearchResult result : results.getResults()) {
+            ids.add(result.getDocumentId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Documents copied into columns and read back, and statistics over the
+ * columns against a scan of the same documents
+ */
+class DocumentSnapshotTest {
+    private static final String HASH = "00ff0123456789abcdef0123456789abcdef0123456789abcdef0123456789ab";
+
+    @Test
+    void everyFieldSurvivesTheColumns() {
+        List<Document> docs = new ArrayList<>();
+        docs.add(new Document("a", "Report", "a", 10, Document.FileType.PDF, "Finance", 1700000000000L, "Ann", HASH));
+        docs.add(new Document("b", "Report", "files/b.docx", 20, Document.FileType.DOCX, "Legal", 1L, "Ann", null));
+        docs.add(new Document("c", null, "c", 0, Document.FileType.UNKNOWN, null, 0, null, HASH.toUpperCase()));
+        docs.add(new Document("d", "Notes", "d", 5, Document.FileType.DOCX, "Finance", 2L, null, "not-a-sha"));
+        docs.add(new Document("e", "Zero", "e", 5, Document.FileType.DOCX, "Finance", 3L, null,
+            "0000000000000000000000000000000000000000000000000000000000000000"));
+
+        DocumentSnapshot snapshot = DocumentSnapshot.of(docs.iterator());
+
+        assertEquals(docs.size(), snapshot.size());
+        for (int row = 0; row < docs.size(); row++) {
+            assertEquals(describe(docs.get(row)), describe(snapshot.document(row)), "Row " + row);
+            assertEquals(docs.get(row).categoryCode(), snapshot.categoryCode(row));
+        }
+        // Each distinct title is pooled once
+        assertEquals(snapshot.titleCode(0), snapshot.titleCode(1));
+        assertEquals(-1, snapshot.titleCode(2));
+        assertEquals(3, snapshot.titlePool().length);
+    }
+
+    @Test
+    void builderCanBeReusedAfterReset() {
+        DocumentSnapshot.Builder builder = new DocumentSnapshot.Builder();
+        for (int i = 0; i < 40; i++) {
+            builder.add(doc(new Random(i), i));
+        }
+        long full = builder.estimatedBytes();
+        DocumentSnapshot first = builder.build();
+
+        builder.reset();
+        assertEquals(0, builder.size());
+        Document only = new Document("x", "Only", "x", 1, Document.FileType.PDF, "Legal", 1L, null, null);
+        DocumentSnapshot second = builder.add(only).build();
+
+        assertEquals(40, first.size());
+        assertEquals("d39", first.id(39));
+        assertEquals(1, second.size());
+        assertEquals(describe(only), describe(second.document(0)));
+        assertTrue(builder.estimatedBytes() < full);
+        assertTrue(first.estimatedBytes() > second.estimatedBytes());
+    }
+
+    @Test
+    void snapshotStatisticsMatchAScanOfTheSameDocuments() {
+        InMemoryDocumentStore store = new InMemoryDocumentStore();
+        DocumentManager manager = new DocumentManager(new InMemoryBlobStore(), store);
+        Random random = new Random(11);
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Document doc = doc(random, i);
+            store.put(doc);
+            docs.add(doc);
+        }
+        StatisticsCollector collector = new StatisticsCollector(manager);
+        try {
+            assertEquals(collector.rescanStatistics(),
+                StatisticsCollector.snapshotStatistics(DocumentSnapshot.of(docs.iterator())));
+        } finally {
+            collector.close();
+        }
+    }
+
+    private static Document doc(Random random, int i) {
+        String[] categories = {"Finance", "Legal", "Business", null};
+        Document.FileType[] types = Document.FileType.values();
+        return new Document("d" + i, "Title " + random.nextInt(20), "d" + i, random.nextInt(100000),
+            types[random.nextInt(types.length)], categories[random.nextInt(categories.length)],
+            1700000000000L + random.nextInt(1000000000), random.nextBoolean() ? "Author " + random.nextInt(5) : null,
+            null);
+    }
+
+    private static String describe(Document doc) {
+        return String.join("|", doc.getId(), String.valueOf(doc.getTitle()), doc.getFilePath(),
+            String.valueOf(doc.getSize()), doc.getFileType().name(), String.valueOf(doc.getCategory()),
+            String.valueOf(doc.getUploadDate()), String.valueOf(doc.getAuthor()), String.valueOf(doc.getContentHash()));
+    }
+}
@@ -0,0 +1,174 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * External sorting with spilled runs, merging and top-N, checked against the
+ * in-memory sort of the same documents
+ */
+class DocumentSorterTest {
+    private static final String[] TITLES = {"Budget", "budget", "Ärger", "Zebra", "émigré", "Émigré",
+        "Annual Report", "annual report", "日本語", "", "Q3 Review"};
+    private static final String[] CATEGORIES = {"Finance", "Business", "Legal", DocumentClassifier.UNCLASSIFIED};
+
+    @Test
+    void spilledSortMatchesTheInMemorySort() throws IOException {
+        List<Document> docs = documents(3000);
+        // A few KB per run, so the documents spill to many runs
+        DocumentSorter sorter = new DocumentSorter(8 * 1024);
+
+        for (String[] spec : new String[][] {{"title", null}, {"category,size", "asc,desc"},
+                                             {"filetype,uploaddate,title", "desc,asc,desc"}, {"size", "desc"}}) {
+            DocumentSorter.SortSpec sortSpec = DocumentSorter.SortSpec.parse(spec[0], spec[1]);
+            List<Document> expected = sorter.sort(docs, sortSpec);
+
+            int runsBefore = spillRuns();
+            List<Document> actual = new ArrayList<>();
+            try (DocumentSorter.SortedDocuments sorted = sorter.sort(docs.iterator(), sortSpec)) {
+                assertTrue(spillRuns() - runsBefore > 2, "Expected the sort to spill several runs");
+                sorted.forEachRemaining(actual::add);
+            }
+            assertEquals(runsBefore, spillRuns(), "Spill files left behind");
+
+            assertEquals(describe(expected), describe(actual), String.join(" ", spec[0], String.valueOf(spec[1])));
+        }
+    }
+
+    @Test
+    void sortThatFitsInMemoryUsesNoSpillFiles() throws IOException {
+        List<Document> docs = documents(200);
+        DocumentSorter.SortSpec spec = DocumentSorter.SortSpec.parse("size,title", "asc,asc");
+
+        int runsBefore = spillRuns();
+        List<Document> actual = new ArrayList<>();
+        try (DocumentSorter.SortedDocuments sorted = new DocumentSorter().sort(docs.iterator(), spec)) {
+            assertEquals(runsBefore, spillRuns());
+            sorted.forEachRemaining(actual::add);
+        }
+
+        assertEquals(describe(new DocumentSorter().sort(docs, spec)), describe(actual));
+    }
+
+    @Test
+    void closingPartwayThroughDeletesTheRuns() throws IOException {
+        int runsBefore = spillRuns();
+
+        try (DocumentSorter.SortedDocuments sorted = new DocumentSorter(8 * 1024).sort(documents(2000).iterator(),
+                DocumentSorter.SortSpec.parse("title", null))) {
+            sorted.next();
+        }
+
+        assertEquals(runsBefore, spillRuns());
+    }
+
+    @Test
+    void multiKeyOrderAppliesEachKeyInTurnAndBreaksTiesById() {
+        List<Document> docs = Arrays.asList(
+            doc("d", "Memo", 10, "Legal"), doc("a", "memo", 10, "Finance"),
+            doc("c", "Memo", 20, "Finance"), doc("b", "Agenda", 10, "Finance"));
+
+        List<Document> sorted = new DocumentSorter().sort(docs,
+            DocumentSorter.SortSpec.parse("category,size,title", "asc,desc"));
+
+        assertEquals(Arrays.asList("c", "b", "a", "d"), ids(sorted));
+    }
+
+    @Test
+    void parallelSortOfALargeListMatchesASequentialComparison() {
+        List<Document> docs = documents(20000);
+        DocumentSorter.SortSpec spec = DocumentSorter.SortSpec.parse("size,uploaddate", "desc,asc");
+
+        List<Document> expected = new ArrayList<>(docs);
+        expected.sort((a, b) -> {
+            int result = Long.compare(b.getSize(), a.getSize());
+            if (result == 0) {
+                result = Long.compare(a.getUploadDate(), b.getUploadDate());
+            }
+            return result != 0 ? result : a.getId().compareTo(b.getId());
+        });
+
+        assertEquals(ids(expected), ids(new DocumentSorter().sort(docs, spec)));
+    }
+
+    @Test
+    void topNIsTheStartOfTheFullSort() {
+        List<Document> docs = documents(1500);
+        DocumentSorter sorter = new DocumentSorter();
+
+        for (String sort : new String[] {"title", "category,size", "uploaddate"}) {
+            DocumentSorter.SortSpec spec = DocumentSorter.SortSpec.parse(sort, "desc");
+            List<Document> full = sorter.sort(docs, spec);
+
+            assertEquals(ids(full.subList(0, 25)), ids(sorter.topN(docs.iterator(), spec, 25)), sort);
+            assertEquals(ids(full), ids(sorter.topN(docs.iterator(), spec, docs.size() + 10)), sort);
+        }
+        assertTrue(sorter.topN(docs.iterator(), DocumentSorter.SortSpec.parse(null, null), 0).isEmpty());
+    }
+
+    @Test
+    void unknownKeysAndOrdersAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> DocumentSorter.SortSpec.parse("colour", null));
+        assertThrows(IllegalArgumentException.class, () -> DocumentSorter.SortSpec.parse("size", "sideways"));
+    }
+
+    // Repeated sizes, dates and titles so that later keys and the ID tie-break decide many pairs
+    private static List<Document> documents(int count) {
+        Random random = new Random(42);
+        Document.FileType[] types = Document.FileType.values();
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String title = random.nextInt(20) == 0 ? null : TITLES[random.nextInt(TITLES.length)];
+            docs.add(new Document("doc-" + random.nextInt(count * 4) + "-" + i, title, "files/" + i,
+                random.nextInt(50), types[random.nextInt(types.length)], CATEGORIES[random.nextInt(CATEGORIES.length)],
+                1700000000000L + random.nextInt(100) * 1000L, random.nextBoolean() ? null : "Autor Ünal",
+                random.nextBoolean() ? null : Integer.toHexString(random.nextInt())));
+        }
+        Collections.shuffle(docs, random);
+        return docs;
+    }
+
+    private static Document doc(String id, String title, long size, String category) {
+        return new Document(id, title, id, size, Document.FileType.PDF, category, 1700000000000L, null, null);
+    }
+
+    private static List<String> ids(List<Document> docs) {
+        List<String> ids = new ArrayList<>();
+        for (Document doc : docs) {
+            ids.add(doc.getId());
+        }
+        return ids;
+    }
+
+    // Every field, so documents read back from a run must match the originals exactly
+    private static List<String> describe(List<Document> docs) {
+        List<String> described = new ArrayList<>();
+        for (Document doc : docs) {
+            described.add(String.join("|", doc.getId(), String.valueOf(doc.getTitle()), doc.getFilePath(),
+                String.valueOf(doc.getSize()), doc.getFileType().name(), doc.getCategory(),
+                String.valueOf(doc.getUploadDate()), String.valueOf(doc.getAuthor()),
+                String.valueOf(doc.getContentHash())));
+        }
+        return described;
+    }
+
+    private static int spillRuns() throws IOException {
+        int runs = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(System.getProperty("java.io.tmpdir")),
+                "document-sort-*.run")) {
+            for (Path ignored : files) {
+                runs++;
+            }
+        }
+        return runs;
+    }
+}
@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Hashed unigram and bigram TF-IDF features over title and body, with the
+ * file type and size bucket appended
+ */
+class FeatureExtractorTest {
+    private static final int METADATA_FEATURES = 2;
+
+    @Test
+    void vocabularyKeepsTheTermsFoundInTheMostDocuments() throws IOException {
+        List<Document> docs = Arrays.asList(doc("Budget"), doc("Budget plan"), doc("budget review"), doc("Roadmap"));
+
+        FeatureExtractor capped = FeatureExtractor.fit(docs, d -> null, 1);
+
+        assertEquals(1, termIndices(capped, doc("Budget"), null).length);
+        assertEquals(0, termIndices(capped, doc("Roadmap"), null).length);
+        // budget, plan, review, roadmap and two bigrams, against budget alone
+        assertEquals(5, FeatureExtractor.fit(docs, d -> null, 100).numFeatures() - capped.numFeatures());
+    }
+
+    @Test
+    void vectorsAreSortedAndTheTermWeightsNormalized() throws IOException {
+        FeatureExtractor features = fitted();
+
+        FeatureExtractor.SparseVector vector = features.extract(doc("Annual budget review budget"),
+            new StringReader("The budget for the annual roadmap."));
+
+        int[] indices = vector.getIndices();
+        for (int i = 1; i < indices.length; i++) {
+            assertTrue(indices[i] > indices[i - 1]);
+        }
+        double norm = 0;
+        for (int i = 0; i < indices.length - METADATA_FEATURES; i++) {
+            norm += vector.getValues()[i] * vector.getValues()[i];
+        }
+        assertEquals(1.0, norm, 1e-9);
+        assertTrue(indices[indices.length - 1] < features.numFeatures());
+    }
+
+    @Test
+    void caseAndPunctuationDoNotChangeTheFeatures() throws IOException {
+        FeatureExtractor features = fitted();
+
+        assertEquals(features.extract(doc("Annual budget"), null).hash(),
+            features.extract(doc("ANNUAL -- budget!"), null).hash());
+        // Single characters carry no signal, so they are not terms
+        assertEquals(0, termIndices(features, doc("a b c"), null).length);
+    }
+
+    @Test
+    void titleTermsAreKeptApartFromBodyTerms() throws IOException {
+        FeatureExtractor features = fitted();
+
+        int[] inTitle = termIndices(features, doc("roadmap"), null);
+        int[] inBody = termIndices(features, doc(""), new StringReader("roadmap"));
+
+        assertEquals(1, inTitle.length);
+        assertEquals(1, inBody.length);
+        assertNotEquals(inTitle[0], inBody[0]);
+    }
+
+    @Test
+    void bigramsCaptureWordOrder() throws IOException {
+        FeatureExtractor features = fitted();
+
+        int[] forwards = termIndices(features, doc("annual budget"), null);
+        int[] backwards = termIndices(features, doc("budget annual"), null);
+
+        assertEquals(3, forwards.length);
+        assertFalse(Arrays.equals(forwards, backwards));
+    }
+
+    @Test
+    void repeatedTermsWeighMoreButSublinearly() throws IOException {
+        FeatureExtractor features = fitted();
+
+        Map<Integer, Double> once = weights(features.extract(doc("budget roadmap"), null));
+        Map<Integer, Double> thrice = weights(features.extract(doc("budget roadmap budget roadmap budget"), null));
+
+        int budget = termIndices(features, doc("budget"), null)[0];
+        int roadmap = termIndices(features, doc("roadmap"), null)[0];
+        // Three budgets and two roadmaps: 1 + log(count) each, on top of the IDF ratio seen with one of each
+        double idfRatio = once.get(budget) / once.get(roadmap);
+        assertEquals((1 + Math.log(3)) / (1 + Math.log(2)) * idfRatio, thrice.get(budget) / thrice.get(roadmap), 1e-9);
+    }
+
+    @Test
+    void fileTypeAndSizeBucketAreOneHot() throws IOException {
+        FeatureExtractor features = fitted();
+
+        int[] smallPdf = metadataIndices(features.extract(doc("", Document.FileType.PDF, 1024), null));
+        int[] largePdf = metadataIndices(features.extract(doc("", Document.FileType.PDF, 50L << 20), null));
+        int[] smallDocx = metadataIndices(features.extract(doc("", Document.FileType.DOCX, 1024), null));
+
+        assertEquals(smallPdf[0], largePdf[0]);
+        assertNotEquals(smallPdf[1], largePdf[1]);
+        assertNotEquals(smallPdf[0], smallDocx[0]);
+        assertEquals(smallPdf[1], smallDocx[1]);
+        assertTrue(largePdf[1] < features.numFeatures());
+    }
+
+    private static FeatureExtractor fitted() throws IOException {
+        List<Document> docs = Arrays.asList(doc("Annual budget"), doc("Budget review"), doc("Budget annual"),
+            doc("Roadmap"), doc("Roadmap annual"));
+        Map<String, String> bodies = new HashMap<>();
+        bodies.put(docs.get(3).getId(), "The roadmap for next year.");
+        return FeatureExtractor.fit(docs, d -> bodies.get(d.getId()), 100);
+    }
+
+    private static int[] termIndices(FeatureExtractor features, Document doc, StringReader content) throws IOException {
+        int[] indices = features.extract(doc, content).getIndices();
+        return Arrays.copyOf(indices, indices.length - METADATA_FEATURES);
+    }
+
+    private static int[] metadataIndices(FeatureExtractor.SparseVector vector) {
+        int[] indices = vector.getIndices();
+        return Arrays.copyOfRange(indices, indices.length - METADATA_FEATURES, indices.length);
+    }
+
+    private static Map<Integer, Double> weights(FeatureExtractor.SparseVector vector) {
+        Map<Integer, Double> weights = new HashMap<>();
+        for (int i = 0; i < vector.getIndices().length; i++) {
+            weights.put(vector.getIndices()[i], vector.getValues()[i]);
+        }
+        return weights;
+    }
+
+    private static Document doc(String title) {
+        return doc(title, Document.FileType.PDF, 2048);
+    }
+
+    private static Document doc(String title, Document.FileType fileType, long size) {
+        return new Document(title.isEmpty() ? "empty" : title, title, "path", size, fileType, null, 0, null, null);
+    }
+}
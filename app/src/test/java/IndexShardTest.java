@@ -0,0 +1,135 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * One shard's index: in-place updates, deletes, background refresh and reopening
+ */
+class IndexShardTest {
+    @TempDir
+    Path indexPath;
+
+    private IndexShard shard;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        shard = new IndexShard(indexPath, 60000, 60000, null);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (shard != null) {
+            shard.close();
+        }
+    }
+
+    @Test
+    void updateKeepsTheContentAndAppliesTheNewCategory() throws IOException {
+        shard.index(doc("a", "Ledger", "Business"), new StringReader("Depreciation schedules for the fleet."));
+        shard.refresh();
+
+        shard.update(Collections.singletonList(doc("a", "Ledger", "Finance")));
+        shard.refresh();
+
+        assertEquals(1, hits("depreciation", null));
+        assertEquals(1, hits("depreciation", "Finance"));
+        assertEquals(0, hits(null, "Business"));
+    }
+
+    @Test
+    void updateOfContentNotYetRefreshedKeepsIt() throws IOException {
+        shard.index(doc("a", "Ledger", "Business"), new StringReader("Depreciation schedules for the fleet."));
+
+        shard.update(Collections.singletonList(doc("a", "Ledger", "Finance")));
+        shard.refresh();
+
+        assertEquals(1, hits("depreciation", "Finance"));
+    }
+
+    @Test
+    void updateOfADeletedDocumentDoesNotReviveIt() throws IOException {
+        shard.index(doc("a", "Ledger", "Business"), new StringReader("Depreciation schedules."));
+        shard.index(doc("b", "Roster", "Business"), null);
+        shard.refresh();
+        shard.delete("a");
+        shard.delete("b");
+        shard.refresh();
+
+        shard.update(Arrays.asList(doc("a", "Ledger", "Finance"), doc("b", "Roster", "Finance")));
+        shard.refresh();
+
+        assertEquals(0, hits(null, null));
+    }
+
+    @Test
+    void updateOfADocumentDeletedBeforeARefreshDoesNotReviveIt() throws IOException {
+        shard.index(doc("a", "Ledger", "Business"), new StringReader("Depreciation schedules."));
+        shard.refresh();
+        shard.delete("a");
+
+        shard.update(Collections.singletonList(doc("a", "Ledger", "Finance")));
+        shard.refresh();
+
+        assertEquals(0, hits(null, null));
+    }
+
+    @Test
+    void updateOfAnUnknownDocumentAddsNothing() throws IOException {
+        shard.update(Collections.singletonList(doc("never-indexed", "Ghost", "Finance")));
+        shard.refresh();
+
+        assertTrue(shard.isEmpty());
+    }
+
+    @Test
+    void backgroundRefreshMakesChangesVisible() throws Exception {
+        shard.close();
+        shard = new IndexShard(indexPath, 20, 60000, null);
+
+        shard.add(Collections.singletonList(doc("a", "Ledger", "Business")));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (hits("ledger", null) == 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "Not refreshed in time");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void committedIndexSurvivesReopening() throws IOException {
+        shard.index(doc("a", "Ledger", "Business"), new StringReader("Depreciation schedules."));
+        shard.commit();
+        shard.close();
+
+        shard = new IndexShard(indexPath, 60000, 60000, null);
+
+        assertFalse(shard.isEmpty());
+        assertEquals(1, hits("depreciation", null));
+        List<DocumentSearchEngine.SearchResult> fetched = shard.fetch("depreciation",
+            Collections.singletonList("a"), 1, 80);
+        assertEquals("Ledger", fetched.get(0).getTitle());
+    }
+
+    private long hits(String query, String category) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        if (category != null) {
+            params.put("category", category);
+        }
+        return shard.search(query, DocumentSearchEngine.SearchOptions.parse(params::get), 10, null).getTotalHits();
+    }
+
+    private static Document doc(String id, String title, String category) {
+        return new Document(id, title, id, 100, Document.FileType.PDF, category, 1700000000000L, null, null);
+    }
+}
@@ -0,0 +1,214 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Content negotiation, field projection and streamed listings, written to an
+ * in-memory response
+ */
+class JsonResponseWriterTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void gzipIsAcceptedUnlessRefusedWithQZero() {
+        assertTrue(JsonResponseWriter.acceptsGzip("gzip"));
+        assertTrue(JsonResponseWriter.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(JsonResponseWriter.acceptsGzip("x-gzip"));
+        assertTrue(JsonResponseWriter.acceptsGzip("*"));
+        assertTrue(JsonResponseWriter.acceptsGzip("gzip;q=0, *;q=1"));
+
+        assertFalse(JsonResponseWriter.acceptsGzip(null));
+        assertFalse(JsonResponseWriter.acceptsGzip("identity, deflate"));
+        assertFalse(JsonResponseWriter.acceptsGzip("gzip;q=0"));
+        assertFalse(JsonResponseWriter.acceptsGzip("gzip; q=0.000"));
+        assertFalse(JsonResponseWriter.acceptsGzip("gzip;q=none"));
+        assertFalse(JsonResponseWriter.acceptsGzip("gzipped"));
+    }
+
+    @Test
+    void unknownFieldNamesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> JsonResponseWriter.Fields.parse("id,colour"));
+        assertThrows(IllegalArgumentException.class, () -> JsonResponseWriter.Fields.parse("ID"));
+        assertSame(JsonResponseWriter.Fields.ALL, JsonResponseWriter.Fields.parse(" "));
+    }
+
+    @Test
+    void documentsHaveTheSameFieldsAsBeanSerialization() throws IOException {
+        Document doc = doc("a");
+        FakeResponse resp = new FakeResponse();
+
+        new JsonResponseWriter(false).sendDocument(request(null), resp.proxy, doc, JsonResponseWriter.Fields.ALL);
+
+        JsonNode json = resp.json();
+        assertEquals(Arrays.asList("id", "title", "filePath", "size", "fileType", "category", "uploadDate",
+            "author", "contentHash"), fieldNames(json));
+        assertEquals("Title a", json.get("title").asText());
+        assertEquals(1234, json.get("size").asLong());
+        assertEquals("DOCX", json.get("fileType").asText());
+        assertTrue(json.get("author").isNull());
+        assertEquals("application/json", resp.headers.get("Content-Type"));
+    }
+
+    @Test
+    void onlyTheRequestedFieldsAreWritten() throws IOException {
+        FakeResponse resp = new FakeResponse();
+
+        new JsonResponseWriter(false).sendDocuments(request(null), resp.proxy,
+            Arrays.asList(doc("a"), doc("b")).iterator(), JsonResponseWriter.Fields.parse("title, id"));
+
+        JsonNode json = resp.json();
+        assertEquals(2, json.size());
+        assertEquals(Arrays.asList("id", "title"), fieldNames(json.get(0)));
+        assertEquals("b", json.get(1).get("id").asText());
+    }
+
+    @Test
+    void pagesCarryTheirCursorAndNestedDocumentsUseTheSameFields() throws IOException {
+        FakeResponse page = new FakeResponse();
+        FakeResponse nested = new FakeResponse();
+        JsonResponseWriter writer = new JsonResponseWriter(false);
+
+        writer.sendPage(request(null), page.proxy, new DocumentPage(Collections.singletonList(doc("a")), "next-1"),
+            JsonResponseWriter.Fields.parse("id"));
+        writer.send(request(null), nested.proxy, Collections.singletonMap("doc", doc("a")));
+
+        assertEquals("next-1", page.json().get("nextCursor").asText());
+        assertEquals(Collections.singletonList("id"), fieldNames(page.json().get("documents").get(0)));
+        assertEquals(9, nested.json().get("doc").size());
+    }
+
+    @Test
+    void responsesAreGzippedOnlyWhenEnabledAndAccepted() throws IOException {
+        FakeResponse gzipped = new FakeResponse();
+        FakeResponse refused = new FakeResponse();
+        FakeResponse disabled = new FakeResponse();
+
+        new JsonResponseWriter(true).sendDocument(request("gzip"), gzipped.proxy, doc("a"), JsonResponseWriter.Fields.ALL);
+        new JsonResponseWriter(true).sendDocument(request("gzip;q=0"), refused.proxy, doc("a"), JsonResponseWriter.Fields.ALL);
+        new JsonResponseWriter(false).sendDocument(request("gzip"), disabled.proxy, doc("a"), JsonResponseWriter.Fields.ALL);
+
+        assertEquals("gzip", gzipped.headers.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", gzipped.headers.get("Vary"));
+        assertEquals("a", gzipped.json().get("id").asText());
+        assertNull(refused.headers.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", refused.headers.get("Vary"));
+        assertEquals("a", refused.json().get("id").asText());
+        assertFalse(disabled.headers.containsKey("Vary"));
+        assertEquals("a", disabled.json().get("id").asText());
+    }
+
+    @Test
+    void listingThatFailsPartwayIsNotValidJson() {
+        for (String acceptEncoding : new String[] {null, "gzip"}) {
+            FakeResponse resp = new FakeResponse();
+            Iterator<Document> failing = new Iterator<Document>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return true;
+                }
+
+                @Override
+                public Document next() {
+                    if (next == 2) {
+                        throw new IllegalStateException("Datastore unavailable");
+                    }
+                    return doc("d" + next++);
+                }
+            };
+
+            assertThrows(IllegalStateException.class, () -> new JsonResponseWriter(true).sendDocuments(
+                request(acceptEncoding), resp.proxy, failing, JsonResponseWriter.Fields.ALL));
+
+            assertThrows(JsonProcessingException.class, resp::json, "Accept-Encoding: " + acceptEncoding);
+        }
+    }
+
+    private static Document doc(String id) {
+        return new Document(id, "Title " + id, "files/" + id, 1234, Document.FileType.DOCX, "Business",
+            1700000000000L, null, "hash-" + id);
+    }
+
+    private static List<String> fieldNames(JsonNode json) {
+        List<String> names = new ArrayList<>();
+        json.fieldNames().forEachRemaining(names::add);
+        return names;
+    }
+
+    private static HttpServletRequest request(String acceptEncoding) {
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+            new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+                if (method.getName().equals("getHeader") && "Accept-Encoding".equals(args[0])) {
+                    return acceptEncoding;
+                }
+                throw new UnsupportedOperationException(method.toString());
+            });
+    }
+
+    // Headers in a map and the body in memory, for the calls the writer makes
+    static final class FakeResponse {
+        final Map<String, String> headers = new HashMap<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final HttpServletResponse proxy = (HttpServletResponse) Proxy.newProxyInstance(
+            HttpServletResponse.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class},
+            (p, method, args) -> {
+                switch (method.getName()) {
+                    case "setContentType":
+                        headers.put("Content-Type", (String) args[0]);
+                        return null;
+                    case "setCharacterEncoding":
+                        return null;
+                    case "setHeader":
+                    case "addHeader":
+                        headers.put((String) args[0], (String) args[1]);
+                        return null;
+                    case "getOutputStream":
+                        return new ServletOutputStream() {
+                            @Override
+                            public void write(int b) {
+                                body.write(b);
+                            }
+
+                            @Override
+                            public boolean isReady() {
+                                return true;
+                            }
+
+                            @Override
+                            public void setWriteListener(WriteListener listener) {}
+                        };
+                    default:
+                        throw new UnsupportedOperationException(method.toString());
+                }
+            });
+
+        JsonNode json() throws IOException {
+            InputStream in = new ByteArrayInputStream(body.toByteArray());
+            if ("gzip".equals(headers.get("Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            return MAPPER.readTree(in);
+        }
+    }
+}
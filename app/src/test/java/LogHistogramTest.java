@@ -0,0 +1,118 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Bucket boundaries, percentile accuracy, and removing and restoring counts
+ */
+class LogHistogramTest {
+    // Estimates are bucket midpoints, and a bucket is at most 1/8 as wide as its lower bound
+    private static final double MAX_RELATIVE_ERROR = 1.0 / 16;
+
+    @Test
+    void everyValueFallsInsideItsBucket() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            int index = LogHistogram.bucketIndex(value);
+            assertTrue(LogHistogram.lowerBound(index) <= value, "Value " + value);
+            if (LogHistogram.lowerBound(index + 1) > LogHistogram.lowerBound(index)) {
+                assertTrue(value < LogHistogram.lowerBound(index + 1), "Value " + value);
+            }
+        }
+        assertEquals(0, LogHistogram.bucketIndex(-5));
+        assertTrue(LogHistogram.bucketIndex(Long.MAX_VALUE) > LogHistogram.bucketIndex(Long.MAX_VALUE / 2));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LogHistogram histogram = new LogHistogram();
+        for (long value = 0; value < 8; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(0, histogram.percentile(0));
+        assertEquals(3, histogram.percentile(50));
+        assertEquals(7, histogram.percentile(100));
+    }
+
+    @Test
+    void percentilesAreWithinTheBucketResolution() {
+        for (long[] values : new long[][] {uniform(100000, 1000000), exponential(100000, 5000)}) {
+            LogHistogram histogram = new LogHistogram();
+            for (long value : values) {
+                histogram.record(value);
+            }
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+
+            for (double percentile : new double[] {1, 25, 50, 90, 99, 99.9}) {
+                long exact = sorted[(int) Math.ceil(percentile / 100 * sorted.length) - 1];
+                long estimate = histogram.percentile(percentile);
+                assertEquals(exact, estimate, Math.max(1, exact * MAX_RELATIVE_ERROR), "p" + percentile);
+            }
+            assertEquals(values.length, histogram.count());
+        }
+    }
+
+    @Test
+    void emptyHistogramReportsZero() {
+        assertEquals(0, new LogHistogram().percentile(99));
+        assertEquals(0, new LogHistogram().count());
+    }
+
+    @Test
+    void removingValuesUndoesRecordingThem() {
+        LogHistogram histogram = new LogHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        long[] before = histogram.snapshot();
+
+        histogram.record(1L << 40);
+        histogram.record(1L << 40);
+        histogram.remove(1L << 40);
+        histogram.remove(1L << 40);
+
+        assertArrayEquals(before, histogram.snapshot());
+        assertTrue(histogram.percentile(100) < 1100);
+    }
+
+    @Test
+    void snapshotRestoresIntoAnotherHistogram() {
+        LogHistogram histogram = new LogHistogram();
+        for (long value : exponential(1000, 200)) {
+            histogram.record(value);
+        }
+
+        LogHistogram restored = new LogHistogram();
+        restored.restore(histogram.snapshot());
+
+        for (double percentile : new double[] {50, 95, 99}) {
+            assertEquals(histogram.percentile(percentile), restored.percentile(percentile));
+        }
+        assertThrows(IllegalArgumentException.class, () -> restored.restore(new long[3]));
+        restored.reset();
+        assertEquals(0, restored.count());
+    }
+
+    private static long[] uniform(int count, int max) {
+        Random random = new Random(2);
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = random.nextInt(max);
+        }
+        return values;
+    }
+
+    private static long[] exponential(int count, double mean) {
+        Random random = new Random(3);
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = (long) (-mean * Math.log(1 - random.nextDouble()));
+        }
+        return values;
+    }
+}
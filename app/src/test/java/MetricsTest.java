@@ -0,0 +1,234 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Request and stage timing, the slow request log and the Prometheus text format
+ */
+class MetricsTest {
+    private static final long TIMEOUT_MS = 10000;
+    private static final String PREFIX = "document_analytics_";
+    private static final Pattern SAMPLE = Pattern.compile("([a-z_]+)(\\{[^}]*\\})? (-?[0-9.E-]+)");
+
+    private final Logger log = Logger.getLogger(Metrics.class.getName());
+    private final List<String> logged = new ArrayList<>();
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            synchronized (logged) {
+                logged.add(record.getMessage());
+            }
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    };
+    private final ExecutorService workers = Executors.newSingleThreadExecutor();
+
+    @BeforeEach
+    void setUp() {
+        log.addHandler(handler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        log.removeHandler(handler);
+        workers.shutdownNow();
+    }
+
+    @Test
+    void requestsAreCountedByRouteAndStatusClass() throws IOException {
+        Metrics metrics = new Metrics(0);
+
+        for (int status : new int[] {200, 202, 404}) {
+            metrics.begin(Metrics.Route.SEARCH);
+            metrics.end(status);
+        }
+        metrics.begin(Metrics.Route.UPLOAD);
+        metrics.end(503);
+        metrics.end(200);       // Nothing being timed any more
+
+        Map<String, Double> samples = samples(metrics);
+        assertEquals(2, value(samples, PREFIX + "responses_total{route=\"search\",status=\"2xx\"}"));
+        assertEquals(1, value(samples, PREFIX + "responses_total{route=\"search\",status=\"4xx\"}"));
+        assertEquals(1, value(samples, PREFIX + "responses_total{route=\"upload\",status=\"5xx\"}"));
+        assertEquals(3, value(samples, PREFIX + "request_duration_seconds_count{route=\"search\"}"));
+        assertEquals(0, value(samples, PREFIX + "request_duration_seconds_count{route=\"list\"}"));
+        assertNull(samples.get(PREFIX + "responses_total{route=\"list\",status=\"2xx\"}"));
+    }
+
+    @Test
+    void latencyQuantilesAreReportedInSeconds() throws Exception {
+        Metrics metrics = new Metrics(0);
+
+        metrics.begin(Metrics.Route.SORTED);
+        Thread.sleep(20);
+        metrics.end(200);
+
+        Map<String, Double> samples = samples(metrics);
+        double p50 = value(samples, PREFIX + "request_duration_seconds{route=\"sorted\",quantile=\"0.5\"}");
+        double sum = value(samples, PREFIX + "request_duration_seconds_sum{route=\"sorted\"}");
+        assertTrue(p50 >= 0.018 && p50 < 1, "p50 " + p50);
+        assertTrue(sum >= 0.02 && sum < 1, "sum " + sum);
+        assertEquals(p50, value(samples, PREFIX + "request_duration_seconds{route=\"sorted\",quantile=\"0.99\"}"));
+    }
+
+    @Test
+    void stagesAreRecordedWithOrWithoutARequest() throws Exception {
+        Metrics metrics = new Metrics(0);
+        BlobStore blobs = metrics.timed(new InMemoryBlobStore());
+        DocumentStore store = metrics.timed(new InMemoryDocumentStore());
+
+        blobs.write("a", new ByteArrayInputStream(new byte[10]));
+        store.put(doc("a", 10));
+        store.putAll(Arrays.asList(doc("b", 20), doc("c", 30)));
+        metrics.record(Metrics.Stage.CLASSIFY, System.nanoTime());
+        metrics.onDocumentStored(doc("a", 10));
+        metrics.onDocumentStored(doc("b", 20));
+
+        Map<String, Double> samples = samples(metrics);
+        assertEquals(1, value(samples, PREFIX + "stage_duration_seconds_count{stage=\"storage_write\"}"));
+        assertEquals(2, value(samples, PREFIX + "stage_duration_seconds_count{stage=\"datastore_put\"}"));
+        assertEquals(1, value(samples, PREFIX + "stage_duration_seconds_count{stage=\"classify\"}"));
+        assertEquals(0, value(samples, PREFIX + "stage_duration_seconds_count{stage=\"extract\"}"));
+        assertEquals(2, value(samples, PREFIX + "uploaded_documents_total"));
+        assertEquals(30, value(samples, PREFIX + "uploaded_bytes_total"));
+        assertNotNull(store.get("c"));
+    }
+
+    @Test
+    void slowRequestsAreLoggedWithTheirOwnStageBreakdown() throws Exception {
+        Metrics metrics = new Metrics(5);
+        metrics.record(Metrics.Stage.EXTRACT, System.nanoTime() - 50000000);  // Before the request
+
+        metrics.begin(Metrics.Route.UPLOAD);
+        long start = System.nanoTime();
+        Thread.sleep(10);
+        metrics.record(Metrics.Stage.STORAGE_WRITE, start);
+        metrics.end(202);
+
+        // A second slow request within the second is counted but not logged
+        metrics.begin(Metrics.Route.UPLOAD);
+        Thread.sleep(10);
+        metrics.end(202);
+        // A fast one is neither
+        metrics.begin(Metrics.Route.STATUS);
+        metrics.end(200);
+
+        assertEquals(1, logged.size(), logged.toString());
+        String message = logged.get(0);
+        assertTrue(message.startsWith("Slow request: upload took "), message);
+        assertTrue(message.contains("status 202; storage_write "), message);
+        assertTrue(message.contains(", other "), message);
+        assertFalse(message.contains("extract"), message);
+        assertEquals(2, value(samples(metrics), PREFIX + "slow_requests_total"));
+    }
+
+    @Test
+    void requestFinishedOnAnotherThreadKeepsItsStartTime() throws Exception {
+        Metrics metrics = new Metrics(0);
+
+        long start = metrics.begin(Metrics.Route.UPLOAD);
+        assertEquals(start, metrics.detach());
+        metrics.end(500);       // Detached, so this thread no longer records it
+        Thread.sleep(20);
+        workers.submit(() -> {
+            metrics.resume(Metrics.Route.UPLOAD, start);
+            metrics.end(202);
+        }).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        Map<String, Double> samples = samples(metrics);
+        assertEquals(1, value(samples, PREFIX + "responses_total{route=\"upload\",status=\"2xx\"}"));
+        assertNull(samples.get(PREFIX + "responses_total{route=\"upload\",status=\"5xx\"}"));
+        assertTrue(value(samples, PREFIX + "request_duration_seconds_sum{route=\"upload\"}") >= 0.02);
+    }
+
+    @Test
+    void outputIsValidPrometheusText() throws IOException {
+        Metrics metrics = new Metrics(0);
+        long[] hits = {0};
+        metrics.counter("cache_hits_total", "Cache hits", () -> hits[0]);
+        metrics.gauge("queue_depth", "Queued tasks", () -> 7);
+        hits[0] = 42;
+        metrics.begin(Metrics.Route.DOCUMENT);
+        metrics.end(200);
+
+        String text = write(metrics);
+
+        assertTrue(text.endsWith("\n"));
+        Set<String> declared = new HashSet<>();
+        for (String line : text.split("\n")) {
+            if (line.startsWith("# HELP ")) {
+                assertEquals(4, line.split(" ", 4).length, line);
+            } else if (line.startsWith("# TYPE ")) {
+                String[] parts = line.split(" ");
+                assertEquals(4, parts.length, line);
+                assertTrue(parts[3].matches("counter|gauge|summary"), line);
+                assertTrue(declared.add(parts[2]), "Declared twice: " + line);
+            } else {
+                Matcher sample = SAMPLE.matcher(line);
+                assertTrue(sample.matches(), line);
+                String family = sample.group(1).replaceAll("_(sum|count)$", "");
+                assertTrue(declared.contains(family) || declared.contains(sample.group(1)),
+                    "Sample before its TYPE: " + line);
+            }
+        }
+        Map<String, Double> samples = samples(metrics);
+        assertEquals(42, value(samples, PREFIX + "cache_hits_total"));
+        assertEquals(7, value(samples, PREFIX + "queue_depth"));
+        assertTrue(text.contains("# TYPE " + PREFIX + "cache_hits_total counter\n"));
+        assertTrue(text.contains("# TYPE " + PREFIX + "queue_depth gauge\n"));
+    }
+
+    private static String write(Metrics metrics) throws IOException {
+        StringWriter out = new StringWriter();
+        metrics.write(out);
+        return out.toString();
+    }
+
+    // Sample name with labels -> value
+    private static Map<String, Double> samples(Metrics metrics) throws IOException {
+        Map<String, Double> samples = new LinkedHashMap<>();
+        for (String line : write(metrics).split("\n")) {
+            Matcher sample = SAMPLE.matcher(line);
+            if (!line.startsWith("#") && sample.matches()) {
+                samples.put(sample.group(1) + (sample.group(2) == null ? "" : sample.group(2)),
+                    Double.parseDouble(sample.group(3)));
+            }
+        }
+        return samples;
+    }
+
+    private static double value(Map<String, Double> samples, String name) {
+        Double value = samples.get(name);
+        assertNotNull(value, "No sample " + name);
+        return value;
+    }
+
+    private static Document doc(String id, long size) {
+        return new Document(id, id, id, size, Document.FileType.PDF, DocumentClassifier.UNCLASSIFIED, 0, null, null);
+    }
+}
@@ -0,0 +1,49 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Least recently used eviction, and results from before an invalidation
+ * being kept out of the cache
+ */
+class QueryResultCacheTest {
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        QueryResultCache<String> cache = new QueryResultCache<>(2);
+        cache.put("a", "A", cache.generation());
+        cache.put("b", "B", cache.generation());
+        cache.get("a");
+
+        cache.put("c", "C", cache.generation());
+
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+        assertEquals(3, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void resultsComputedBeforeAnInvalidationAreNotCached() {
+        QueryResultCache<String> cache = new QueryResultCache<>(10);
+        cache.put("a", "A", cache.generation());
+        long generation = cache.generation();
+
+        cache.invalidate();
+        cache.put("b", "stale", generation);
+
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        cache.put("b", "fresh", cache.generation());
+        assertEquals("fresh", cache.get("b"));
+    }
+
+    @Test
+    void zeroSizeDisablesCaching() {
+        QueryResultCache<String> cache = new QueryResultCache<>(0);
+
+        cache.put("a", "A", cache.generation());
+
+        assertNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,139 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Incremental aggregates against a full rescan as the collection changes,
+ * and checkpoints surviving a restart
+ */
+class StatisticsCollectorTest {
+    @TempDir
+    Path tempDir;
+
+    private final DocumentManager manager = new DocumentManager(new InMemoryBlobStore(), new InMemoryDocumentStore());
+    private StatisticsCollector collector;
+
+    @AfterEach
+    void tearDown() {
+        if (collector != null) {
+            collector.close();
+        }
+    }
+
+    @Test
+    void incrementalStatisticsMatchARescanAfterEveryKindOfChange() {
+        collector = new StatisticsCollector(manager);
+        manager.addListener(collector);
+        Random random = new Random(7);
+
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            docs.add(upload(random, i));
+        }
+        assertMatchesRescan();
+        assertEquals(60L, collector.generateStatistics().get("totalDocuments"));
+
+        Document recategorized = manager.updateCategory(docs.get(0), "Finance");
+        docs.set(0, recategorized);
+        List<Document> batch = manager.updateCategories(docs.subList(1, 11),
+            Arrays.asList("Legal", "Legal", "Finance", "Business", "Legal", "Finance", "Legal", "Business", "Legal", "Legal"));
+        for (int i = 0; i < batch.size(); i++) {
+            docs.set(i + 1, batch.get(i));
+        }
+        assertMatchesRescan();
+
+        manager.updateExtractedMetadata(docs.get(12), "Extracted Title", "A. Author");
+        assertMatchesRescan();
+
+        for (int i = 0; i < 20; i++) {
+            manager.deleteDocument(docs.get(i * 3).getId());
+        }
+        assertMatchesRescan();
+        assertEquals(40L, collector.generateStatistics().get("totalDocuments"));
+
+        // A category left with no documents drops out of the distribution, as it would in a rescan
+        for (Document doc : docs) {
+            if ("Legal".equals(doc.getCategory())) {
+                manager.deleteDocument(doc.getId());
+            }
+        }
+        assertMatchesRescan();
+        @SuppressWarnings("unchecked")
+        Map<String, Long> categories = (Map<String, Long>) collector.generateStatistics().get("categoryDistribution");
+        assertFalse(categories.containsKey("Legal"));
+    }
+
+    @Test
+    void checkpointIsRestoredInsteadOfRescanning() throws IOException {
+        Path checkpoint = tempDir.resolve("stats.json");
+        collector = new StatisticsCollector(manager, checkpoint, 60000);
+        manager.addListener(collector);
+        Random random = new Random(11);
+        for (int i = 0; i < 25; i++) {
+            upload(random, i);
+        }
+        Map<String, Object> before = withoutUploadRate(collector.generateStatistics());
+        collector.close();
+        assertTrue(Files.exists(checkpoint));
+
+        // An empty collection: anything reported must have come from the checkpoint
+        DocumentManager restarted = new DocumentManager(new InMemoryBlobStore(), new InMemoryDocumentStore());
+        collector = new StatisticsCollector(restarted, checkpoint, 60000);
+
+        assertEquals(before, withoutUploadRate(collector.generateStatistics()));
+    }
+
+    @Test
+    void unreadableCheckpointFallsBackToARescan() throws IOException {
+        Path checkpoint = tempDir.resolve("stats.json");
+        Files.write(checkpoint, "{not json".getBytes(StandardCharsets.UTF_8));
+        upload(new Random(3), 0);
+
+        collector = new StatisticsCollector(manager, checkpoint, 60000);
+
+        assertEquals(1L, collector.generateStatistics().get("totalDocuments"));
+        assertEquals(withoutUploadRate(collector.rescanStatistics()), withoutUploadRate(collector.generateStatistics()));
+    }
+
+    @Test
+    void reconcileReplacesDriftedAggregatesWithARescan() {
+        collector = new StatisticsCollector(manager);
+        // Stored while the collector was not listening, so the aggregates miss it
+        upload(new Random(5), 0);
+        assertEquals(0L, collector.generateStatistics().get("totalDocuments"));
+
+        collector.reconcile();
+
+        assertEquals(1L, collector.generateStatistics().get("totalDocuments"));
+        assertMatchesRescan();
+    }
+
+    private void assertMatchesRescan() {
+        assertEquals(collector.rescanStatistics(), withoutUploadRate(collector.generateStatistics()));
+    }
+
+    private Document upload(Random random, int i) {
+        byte[] content = new byte[random.nextInt(200 * 1024) + 1];
+        random.nextBytes(content);
+        String name = "file-" + i + (i % 3 == 0 ? ".docx" : ".pdf");
+        return manager.uploadDocument(new ByteArrayInputStream(content), name);
+    }
+
+    private static Map<String, Object> withoutUploadRate(Map<String, Object> stats) {
+        stats.remove("uploadsLastHour");
+        stats.remove("uploadsPerMinute");
+        return stats;
+    }
+}
@@ -0,0 +1,202 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Suggestions merged from the built FST and the titles changed since, and
+ * rebuilds that clear only the changes they covered
+ */
+class TitleSuggesterTest {
+    private static final long TIMEOUT_MS = 10000;
+    private static final long MINUTE = 60000;
+
+    private final GatedStore store = new GatedStore();
+    private final DocumentManager manager = new DocumentManager(new InMemoryBlobStore(), store);
+    private TitleSuggester suggester;
+
+    @AfterEach
+    void tearDown() {
+        store.gate.countDown();
+        if (suggester != null) {
+            suggester.close();
+        }
+    }
+
+    @Test
+    void pendingTitlesAreMergedWithBuiltOnesNewestFirst() throws Exception {
+        put(doc("a", "Annual report 2022", 1));
+        put(doc("b", "Annual budget", 3));
+        suggester = new TitleSuggester(manager, 20, 1000, 1000);
+        awaitBuilt(2);
+
+        store(doc("c", "Annual report 2023", 2));
+        store(doc("d", "Annual review", 4));
+
+        assertEquals(Arrays.asList("Annual review", "Annual budget", "Annual report 2023", "Annual report 2022"),
+            suggester.suggest("ann", 10));
+        assertEquals(Arrays.asList("Annual report 2023", "Annual report 2022"), suggester.suggest("ANNUAL REP", 10));
+        assertEquals(Collections.singletonList("Annual review"), suggester.suggest("annual", 1));
+
+        // The next build takes them over from the pending titles
+        awaitBuilt(4);
+        await(() -> suggester.getStats().getPending() == 0);
+        assertEquals(4, suggester.suggest("annual", 10).size());
+    }
+
+    @Test
+    void removedTitlesAreHiddenBeforeAndAfterTheNextBuild() throws Exception {
+        Document built = doc("a", "Quarterly figures", 1);
+        put(built);
+        suggester = new TitleSuggester(manager, 20, 1000, 1000);
+        awaitBuilt(1);
+        Document pending = doc("b", "Quarterly forecast", 2);
+        store(pending);
+
+        delete(built);
+        delete(pending);
+
+        assertEquals(Collections.emptyList(), suggester.suggest("quarterly", 10));
+        awaitBuilt(0);
+        await(() -> suggester.getStats().getRemoved() == 0);
+        assertEquals(Collections.emptyList(), suggester.suggest("quarterly", 10));
+    }
+
+    @Test
+    void renamedTitleReplacesTheOldOne() throws Exception {
+        Document doc = doc("a", "scan0001", 1);
+        put(doc);
+        suggester = new TitleSuggester(manager, MINUTE, 1000, 1000);
+        awaitBuilt(1);
+
+        Document renamed = doc.withExtractedMetadata("Scanned invoice", null);
+        put(renamed);
+        suggester.onTitleChanged(renamed, doc.getTitle());
+
+        assertEquals(Collections.emptyList(), suggester.suggest("scan0", 10));
+        assertEquals(Collections.singletonList("Scanned invoice"), suggester.suggest("scan", 10));
+    }
+
+    @Test
+    void buildClearsOnlyTheChangesMadeBeforeItStarted() throws Exception {
+        Document doomed = doc("b", "Draft B", 2);
+        put(doc("a", "Draft A", 1));
+        put(doomed);
+        store.holdReads();
+        // Long interval: only the initial build runs during the test
+        suggester = new TitleSuggester(manager, MINUTE, 1000, 1000);
+        assertTrue(store.reading.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // Changed while the build is under way, so they stay in the delta after it
+        store(doc("c", "Draft C", 3));
+        delete(doomed);
+        store.gate.countDown();
+        awaitBuilt(2);
+
+        assertEquals(1, suggester.getStats().getPending());
+        assertEquals(1, suggester.getStats().getRemoved());
+        assertEquals(Arrays.asList("Draft C", "Draft A"), suggester.suggest("draft", 10));
+    }
+
+    @Test
+    void prefixesAreNormalizedLikeTitles() throws Exception {
+        suggester = new TitleSuggester(manager, MINUTE, 1000, 1000);
+        store(doc("a", "  Annual \t Report\u0007 2024 ", 1));
+        store(doc("b", "Annually", 2));
+
+        assertEquals(Collections.singletonList("Annual Report 2024"), suggester.suggest("annual   rep", 10));
+        assertEquals(Collections.singletonList("Annual Report 2024"), suggester.suggest("  Annual ", 10));
+        assertEquals(Arrays.asList("Annually", "Annual Report 2024"), suggester.suggest("annual", 10));
+        assertEquals(Collections.emptyList(), suggester.suggest("   ", 10));
+        assertEquals(Collections.emptyList(), suggester.suggest("annual", 0));
+    }
+
+    @Test
+    void tooManyPendingTitlesBringTheBuildForward() throws Exception {
+        put(doc("d0", "Minutes 0", 0));
+        suggester = new TitleSuggester(manager, MINUTE, 1000, 2);
+        awaitBuilt(1);
+
+        for (int i = 1; i <= 3; i++) {
+            store(doc("d" + i, "Minutes " + i, i));
+        }
+
+        awaitBuilt(4);
+        assertEquals(4, suggester.suggest("minutes", 10).size());
+    }
+
+    @Test
+    void onlyTheNewestTitlesAreBuilt() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            put(doc("d" + i, "Memo " + i, i));
+        }
+
+        suggester = new TitleSuggester(manager, MINUTE, 3, 1000);
+        awaitBuilt(3);
+
+        assertEquals(Arrays.asList("Memo 9", "Memo 8", "Memo 7"), suggester.suggest("memo", 10));
+    }
+
+    // Stored as an upload would be, and reported to the suggester
+    private void store(Document doc) {
+        put(doc);
+        if (suggester != null) {
+            suggester.onDocumentStored(doc);
+        }
+    }
+
+    private void put(Document doc) {
+        store.put(doc);
+    }
+
+    private void delete(Document doc) {
+        store.delete(doc.getId());
+        suggester.onDocumentDeleted(doc);
+    }
+
+    private void awaitBuilt(long entries) throws InterruptedException {
+        await(() -> suggester.getStats().getEntries() == entries);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition not reached in time");
+            Thread.sleep(5);
+        }
+    }
+
+    private static Document doc(String id, String title, int minutes) {
+        return new Document(id, title, id, 100, Document.FileType.PDF, DocumentClassifier.UNCLASSIFIED,
+            1700000000000L + minutes * MINUTE, null, null);
+    }
+
+    // Once held, makes the first page read wait for the gate
+    static final class GatedStore extends InMemoryDocumentStore {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        private volatile boolean held;
+
+        void holdReads() {
+            held = true;
+        }
+
+        @Override
+        public DocumentPage fetchPage(int limit, String cursor) {
+            if (held) {
+                reading.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.fetchPage(limit, cursor);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.servlet.MultipartConfigElement;
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+
+/**
+ * Load test of admission control. Runs DocumentAnalyticsServlet in embedded
+ * Tomcat over in-memory storage, seeds it through uploads, then measures
+ * search latency on its own and again while clients flood it with uploads,
+ * full listings and sorted exports. Both phases run once with admission
+ * control off and once with it on, and the search latencies are compared.
+ *
+ * Usage: java -cp benchmarks.jar AdmissionLoadTest [seconds per phase]
+ */
+public final class AdmissionLoadTest {
+    private static final int CONTAINER_THREADS = 32;
+    private static final int SEED_DOCUMENTS = 2000;
+    private static final int SEARCH_CLIENTS = 4;
+    private static final int UPLOAD_CLIENTS = 24;
+    private static final int LISTING_CLIENTS = 4;
+    private static final int SORTING_CLIENTS = 2;
+    private static final int UPLOAD_BYTES = 256 * 1024;
+    
+    private final String baseUrl;
+    private final List<String> queries = new ArrayList<>();
+    private volatile boolean running;
+    
+    private AdmissionLoadTest(int port) {
+        this.baseUrl = "http://localhost:" + port + "/api";
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        List<String> report = new ArrayList<>();
+        for (boolean admission : new boolean[] {false, true}) {
+            Path dir = Files.createTempDirectory("admission-load-test");
+            Tomcat tomcat = start(dir, admission);
+            try {
+                AdmissionLoadTest test = new AdmissionLoadTest(tomcat.getConnector().getLocalPort());
+                test.seed();
+                String mode = admission ? "admission on " : "admission off";
+                report.add(mode + "  idle    " + test.run(seconds, false));
+                report.add(mode + "  flooded " + test.run(seconds, true));
+                if (admission) {
+                    HttpURLConnection stats = (HttpURLConnection) new URL(test.baseUrl + "/stats?mode=admission")
+                        .openConnection();
+                    report.add("admission stats after the flood: "
+                        + new String(finish(stats), StandardCharsets.UTF_8));
+                }
+            } finally {
+                tomcat.stop();
+                tomcat.destroy();
+            }
+        }
+        System.out.println();
+        for (String line : report) {
+            System.out.println(line);
+        }
+        System.exit(0);     // The servlet's scheduler threads don't stop with the container
+    }
+    
+    // The servlet as deployed, with storage in memory and the container's thread pool capped
+    private static Tomcat start(Path dir, boolean admission) throws Exception {
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(dir.toString());
+        tomcat.setPort(0);
+        tomcat.getConnector().setProperty("maxThreads", String.valueOf(CONTAINER_THREADS));
+        Context context = tomcat.addContext("", dir.toString());
+        Wrapper servlet = Tomcat.addServlet(context, "api", new DocumentAnalyticsServlet());
+        servlet.setAsyncSupported(true);
+        servlet.setMultipartConfigElement(new MultipartConfigElement(dir.toString(), -1, -1, 1024 * 1024));
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("storage", "memory");
+        params.put("indexPath", dir.resolve("index").toString());
+        params.put("statsCheckpointPath", dir.resolve("stats.json").toString());
+        params.put("modelDir", dir.resolve("models").toString());
+        params.put("indexRefreshMs", "200");
+        params.put("searchCacheSize", "0");     // Every search is searched
+        params.put("admissionControl", String.valueOf(admission));
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            servlet.addInitParameter(param.getKey(), param.getValue());
+        }
+        context.addServletMappingDecoded("/api/*", "api");
+        tomcat.start();
+        return tomcat;
+    }
+    
+    // Uploads documents titled like the synthetic corpus and remembers title words to search for
+    private void seed() throws Exception {
+        SyntheticCorpus corpus = new SyntheticCorpus(42);
+        List<Document> docs = corpus.documents(SEED_DOCUMENTS);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        Random random = new Random(42);
+        for (Document doc : docs) {
+            String title = doc.getTitle();
+            queries.add(title.split(" ")[0]);
+            byte[] content = corpus.content(20).getBytes(StandardCharsets.UTF_8);
+            pool.execute(() -> {
+                try {
+                    // Retried while the extraction queue is full or the upload is turned away
+                    while (upload(title.replace('/', ' ') + ".txt", content).getResponseCode() / 100 != 2) {
+                        Thread.sleep(50 + random.nextInt(50));
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException("Seeding failed", e);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.MINUTES);
+        Thread.sleep(1000);     // Past the next index refresh
+    }
+    
+    // Searches for the given time, optionally under the flood, and summarizes what the clients saw
+    private String run(int seconds, boolean flood) throws Exception {
+        LogHistogram searchMicros = new LogHistogram();
+        AtomicLong searchMaxMicros = new AtomicLong();
+        AtomicLongArray searchStatus = new AtomicLongArray(600);  // By status code
+        AtomicLongArray batchStatus = new AtomicLongArray(600);
+        AtomicLong uploadedBytes = new AtomicLong();
+        
+        running = true;
+        int clients = SEARCH_CLIENTS + (flood ? UPLOAD_CLIENTS + LISTING_CLIENTS + SORTING_CLIENTS : 0);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        for (int i = 0; i < SEARCH_CLIENTS; i++) {
+            Random random = new Random(i);
+            pool.execute(loop(() -> {
+                String query = queries.get(random.nextInt(queries.size()));
+                long start = System.nanoTime();
+                HttpURLConnection response = get("/search?q=" + URLEncoder.encode(query, "UTF-8"));
+                long micros = (System.nanoTime() - start) / 1000;
+                searchMicros.record(micros);
+                searchMaxMicros.accumulateAndGet(micros, Math::max);
+                searchStatus.incrementAndGet(response.getResponseCode());
+                return response;
+            }));
+        }
+        if (flood) {
+            for (int i = 0; i < UPLOAD_CLIENTS; i++) {
+                Random random = new Random(1000 + i);
+                byte[] content = new byte[UPLOAD_BYTES];
+                random.nextBytes(content);
+                pool.execute(loop(() -> {
+                    // A unique first block makes every upload new content without generating it all again
+                    for (int b = 0; b < 8; b++) {
+                        content[b] = (byte) random.nextInt();
+                    }
+                    HttpURLConnection response = upload("flood-" + random.nextInt() + ".txt", content);
+                    batchStatus.incrementAndGet(response.getResponseCode());
+                    if (response.getResponseCode() / 100 == 2) {
+                        uploadedBytes.addAndGet(content.length);
+                    }
+                    return response;
+                }));
+            }
+            for (int i = 0; i < LISTING_CLIENTS; i++) {
+                pool.execute(loop(() -> count(batchStatus, get("/"))));
+            }
+            for (int i = 0; i < SORTING_CLIENTS; i++) {
+                pool.execute(loop(() -> count(batchStatus, get("/sorted?sort=title"))));
+            }
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        running = false;
+        pool.shutdown();
+        pool.awaitTermination(2, TimeUnit.MINUTES);
+        
+        return String.format("search p50 %7.1f ms  p99 %7.1f ms  max %7.1f ms  ok %6d  429 %5d  |  "
+                + "batch ok %5d  429 %5d  503 %5d  uploaded %6.1f MB",
+            searchMicros.percentile(50) / 1000.0, searchMicros.percentile(99) / 1000.0,
+            searchMaxMicros.get() / 1000.0, successes(searchStatus), searchStatus.get(429),
+            successes(batchStatus), batchStatus.get(429), batchStatus.get(503),
+            uploadedBytes.get() / (1024.0 * 1024.0));
+    }
+    
+    private static HttpURLConnection count(AtomicLongArray statuses, HttpURLConnection response) throws IOException {
+        statuses.incrementAndGet(response.getResponseCode());
+        return response;
+    }
+    
+    private static long successes(AtomicLongArray statuses) {
+        long count = 0;
+        for (int status = 200; status < 300; status++) {
+            count += statuses.get(status);
+        }
+        return count;
+    }
+    
+    private interface Request {
+        HttpURLConnection send() throws Exception;
+    }
+    
+    // Repeats a request until the phase ends, waiting as long as Retry-After asks when turned away
+    private Runnable loop(Request request) {
+        return () -> {
+            while (running) {
+                long backOffMs;
+                try {
+                    String retryAfter = request.send().getHeaderField("Retry-After");
+                    backOffMs = retryAfter != null ? TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter)) : 0;
+                } catch (Exception e) {
+                    backOffMs = 100;
+                }
+                try {
+                    Thread.sleep(backOffMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        };
+    }
+    
+    private HttpURLConnection get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        finish(connection);
+        return connection;
+    }
+    
+    private HttpURLConnection upload(String fileName, byte[] content) throws IOException {
+        String boundary = "load-test-boundary";
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/upload").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(content.length + 512);
+        body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + fileName
+            + "\"\r\nContent-Type: text/plain\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(content);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        connection.setFixedLengthStreamingMode(body.size());
+        try (OutputStream out = connection.getOutputStream()) {
+            body.writeTo(out);
+        }
+        finish(connection);
+        return connection;
+    }
+    
+    // Reads the whole response so the connection can be reused
+    private static byte[] finish(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+            }
+        }
+        return body.toByteArray();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,34 @@
+import benchmarks.ClassifyBenchmark;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Classification for ClassifyBenchmark, with a J48 model trained on synthetic documents
+ */
+public class ClassifyWorkload implements ClassifyBenchmark.Workload {
+    private static final int TRAINING_SIZE = 1000;       // J48 training time grows steeply; 1000 documents take ~30 s
+    private static final int CONTENT_TEXTS = 1000;
+    
+    private DocumentClassifier classifier;
+    private List<Document> docs;
+    private List<String> contents;
+    
+    @Override
+    public void setUp(int memoSize) throws Exception {
+        SyntheticCorpus corpus = new SyntheticCorpus(42);
+        List<Document> trainingSet = corpus.documents(TRAINING_SIZE);
+        trainingSet.removeIf(doc -> DocumentClassifier.UNCLASSIFIED.equals(doc.getCategory()));
+        contents = corpus.contents(CONTENT_TEXTS, 5, 60);
+        classifier = new DocumentClassifier(memoSize, 2000);
+        classifier.train(trainingSet, doc -> contents.get(Math.floorMod(doc.getId().hashCode(), CONTENT_TEXTS)));
+        docs = corpus.documents(100000);
+    }
+    
+    @Override
+    public Object classify(int n, boolean withContent) throws Exception {
+        Document doc = docs.get(n % docs.size());
+        return withContent
+            ? classifier.classify(doc, new StringReader(contents.get(n % CONTENT_TEXTS)))
+            : classifier.classify(doc);
+    }
+}
\ No newline at end of file
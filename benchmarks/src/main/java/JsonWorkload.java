@@ -0,0 +1,48 @@
+import benchmarks.JsonBenchmark;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Responses for JsonBenchmark, written through JsonResponseWriter to a counting sink
+ */
+public class JsonWorkload implements JsonBenchmark.Workload {
+    private JsonResponseWriter writer;
+    private HttpServletRequest request;
+    private List<Document> docs;
+    private DocumentPage page;
+    private Map<String, Object> statistics;
+    
+    @Override
+    public void setUp(int documents, boolean gzip) {
+        writer = new JsonResponseWriter(true);
+        request = ServletStubs.request(gzip ? "gzip, deflate" : null);
+        docs = new SyntheticCorpus(42).documents(documents);
+        page = new DocumentPage(docs, docs.get(docs.size() - 1).getId());
+        statistics = StatisticsCollector.snapshotStatistics(DocumentSnapshot.of(docs.iterator()));
+    }
+    
+    // Parses the fields each time, as the servlet does per request
+    @Override
+    public long sendDocuments(String fields) throws IOException {
+        ServletStubs.CountingOutputStream body = new ServletStubs.CountingOutputStream();
+        writer.sendDocuments(request, ServletStubs.response(body), docs.iterator(),
+            JsonResponseWriter.Fields.parse(fields));
+        return body.count();
+    }
+    
+    @Override
+    public long sendPage() throws IOException {
+        ServletStubs.CountingOutputStream body = new ServletStubs.CountingOutputStream();
+        writer.sendPage(request, ServletStubs.response(body), page, JsonResponseWriter.Fields.ALL);
+        return body.count();
+    }
+    
+    @Override
+    public long sendStatistics() throws IOException {
+        ServletStubs.CountingOutputStream body = new ServletStubs.CountingOutputStream();
+        writer.send(request, ServletStubs.response(body), statistics);
+        return body.count();
+    }
+}
\ No newline at end of file
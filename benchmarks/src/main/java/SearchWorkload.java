@@ -0,0 +1,91 @@
+import benchmarks.SearchBenchmark;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Indexing and queries for SearchBenchmark, on an engine over a temporary directory
+ */
+public class SearchWorkload implements SearchBenchmark.Workload {
+    private static final int INDEXING_CORPUS_SIZE = 100000;
+    private static final int CONTENT_TEXTS = 1000;     // Body texts shared round-robin by the documents
+    private static final long NEVER_MS = TimeUnit.DAYS.toMillis(1);
+    private static final String[] QUERIES = {"report", "quarterly revenue", "\"annual report\"", "+market +analysis",
+        "comp*", "title:manual^3 OR content:network", "budget -draft", "security cloud storage protocol"};
+    
+    private List<Document> docs;
+    private List<String> contents;
+    private Path dir;
+    private DocumentSearchEngine engine;
+    private int next;
+    private DocumentSearchEngine.SearchOptions plain;
+    private DocumentSearchEngine.SearchOptions filtered;
+    
+    @Override
+    public void open() throws IOException {
+        generate(INDEXING_CORPUS_SIZE);
+        openEngine();
+    }
+    
+    @Override
+    public void index(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int n = next++ % docs.size();
+            engine.indexDocument(docs.get(n), new StringReader(contents.get(n % CONTENT_TEXTS)));
+        }
+    }
+    
+    @Override
+    public void build(int size) throws Exception {
+        generate(size);
+        openEngine();
+        index(size);
+        engine.refresh();
+        
+        plain = DocumentSearchEngine.SearchOptions.parse(name -> null);
+        Map<String, String> params = new HashMap<>();
+        params.put("category", "Business,Technical");
+        params.put("fileType", "PDF");
+        params.put("sort", "date");
+        filtered = DocumentSearchEngine.SearchOptions.parse(params::get);
+    }
+    
+    @Override
+    public Object search(int n, boolean filtered) throws Exception {
+        return engine.search(QUERIES[n % QUERIES.length], filtered ? this.filtered : plain);
+    }
+    
+    @Override
+    public Object filter() throws Exception {
+        return engine.search(null, filtered);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        engine.close();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Collections.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+    
+    private void generate(int size) {
+        SyntheticCorpus corpus = new SyntheticCorpus(42);
+        docs = corpus.documents(size);
+        contents = corpus.contents(CONTENT_TEXTS, 5, 60);
+    }
+    
+    // Empty store, so the engine has nothing to build from
+    private void openEngine() throws IOException {
+        dir = Files.createTempDirectory("search-benchmark");
+        engine = new DocumentSearchEngine(SyntheticCorpus.manager(Collections.emptyList()), dir,
+            NEVER_MS, NEVER_MS, 0, 0);
+        next = 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+import java.lang.reflect.Proxy;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Minimal servlet request and response for driving JsonResponseWriter
+ * outside a container. Only the calls the writer makes do anything; the
+ * response body goes to a counting sink that keeps nothing.
+ */
+final class ServletStubs {
+    
+    private ServletStubs() {}
+    
+    /**
+     * @param acceptEncoding Value of the Accept-Encoding header, or null for none
+     */
+    static HttpServletRequest request(String acceptEncoding) {
+        return (HttpServletRequest) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+            new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+                if (method.getName().equals("getHeader")) {
+                    return "Accept-Encoding".equalsIgnoreCase((String) args[0]) ? acceptEncoding : null;
+                }
+                return defaultValue(method.getReturnType());
+            });
+    }
+    
+    /**
+     * @param body Sink for the response body
+     */
+    static HttpServletResponse response(CountingOutputStream body) {
+        return (HttpServletResponse) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+            new Class<?>[] {HttpServletResponse.class}, (proxy, method, args) -> {
+                if (method.getName().equals("getOutputStream")) {
+                    return body;
+                }
+                return defaultValue(method.getReturnType());
+            });
+    }
+    
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+    
+    /**
+     * Response body that only counts the bytes written to it
+     */
+    static final class CountingOutputStream extends ServletOutputStream {
+        private long count;
+        
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+        
+        long count() {
+            return count;
+        }
+        
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+        
+        @Override
+        public void setWriteListener(WriteListener listener) {}
+    }
+}
\ No newline at end of file
@@ -0,0 +1,59 @@
+import benchmarks.SortBenchmark;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorts for SortBenchmark: DocumentSorter and the JDK sorts over one synthetic corpus
+ */
+public class SortWorkload implements SortBenchmark.Workload {
+    private static final Comparator<Document> BY_TITLE =
+        Comparator.comparing(Document::getTitle, String.CASE_INSENSITIVE_ORDER);
+    
+    private List<Document> docs;
+    private Document[] array;
+    private DocumentSnapshot snapshot;
+    private DocumentSorter sorter;
+    private DocumentSorter.SortSpec categoryThenSize;
+    
+    @Override
+    public void setUp(int size) {
+        docs = new SyntheticCorpus(42).documents(size);
+        array = docs.toArray(new Document[0]);
+        snapshot = DocumentSnapshot.of(docs.iterator());
+        sorter = new DocumentSorter();
+        categoryThenSize = DocumentSorter.SortSpec.parse("category,size", "asc,desc");
+    }
+    
+    @Override
+    public Object sortByTitle() {
+        return sorter.sortByTitle(docs);
+    }
+    
+    @Override
+    public Object arraysSort() {
+        Document[] copy = array.clone();
+        Arrays.sort(copy, BY_TITLE);
+        return copy;
+    }
+    
+    @Override
+    public Object arraysParallelSort() {
+        Document[] copy = array.clone();
+        Arrays.parallelSort(copy, BY_TITLE);
+        return copy;
+    }
+    
+    @Override
+    public Object listSort() {
+        List<Document> copy = new ArrayList<>(docs);
+        copy.sort(BY_TITLE);
+        return copy;
+    }
+    
+    @Override
+    public Object sortSnapshotByCategoryAndSize() {
+        return sorter.sort(snapshot, categoryThenSize);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,40 @@
+import benchmarks.StatsBenchmark;
+import java.util.List;
+
+/**
+ * Statistics for StatsBenchmark, over a StatisticsCollector reading an in-memory store
+ */
+public class StatsWorkload implements StatsBenchmark.Workload {
+    private StatisticsCollector collector;
+    private DocumentSnapshot snapshot;
+    private List<Document> uploads;
+    
+    @Override
+    public void setUp(int size) {
+        SyntheticCorpus corpus = new SyntheticCorpus(42);
+        List<Document> docs = corpus.documents(size);
+        collector = new StatisticsCollector(SyntheticCorpus.manager(docs));
+        snapshot = DocumentSnapshot.of(docs.iterator());
+        uploads = corpus.documents(10000);
+    }
+    
+    @Override
+    public Object generateStatistics() {
+        return collector.generateStatistics();
+    }
+    
+    @Override
+    public Object rescanStatistics() {
+        return collector.rescanStatistics();
+    }
+    
+    @Override
+    public Object snapshotStatistics() {
+        return StatisticsCollector.snapshotStatistics(snapshot);
+    }
+    
+    @Override
+    public void onDocumentStored(int n) {
+        collector.onDocumentStored(uploads.get(n % uploads.size()));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates reproducible documents for the benchmarks, from 10k to 10M of
+ * them. Title words are drawn from a Zipf distribution over a vocabulary
+ * of common words and invented terms, so a few words are very frequent and
+ * most are rare, as in real titles; some titles repeat with a version
+ * suffix. File sizes are log-normal around 200 KB, upload dates favour the
+ * last few months, and categories and file types are skewed like a typical
+ * collection.
+ */
+public final class SyntheticCorpus {
+    private static final String[] COMMON_WORDS = {"report", "quarterly", "annual", "revenue", "market", "analysis",
+        "research", "results", "manual", "network", "computer", "budget", "draft", "review", "summary", "customer",
+        "growth", "model", "data", "system", "design", "security", "cloud", "storage", "protocol", "forecast",
+        "strategy", "policy", "study", "experiment", "theory", "invoice", "contract", "meeting", "notes",
+        "proposal", "release", "project", "plan", "overview", "guide", "specification", "requirements",
+        "architecture", "performance", "evaluation", "survey", "paper", "thesis", "chapter", "lecture",
+        "minutes", "agenda", "presentation", "financial", "statement", "audit", "compliance", "training",
+        "onboarding", "handbook", "roadmap", "proceedings", "journal", "article", "final", "internal"};
+    private static final String[] FILLER_WORDS = {"the", "of", "and", "for", "with", "on", "in", "to"};
+    private static final String[] SYLLABLES = {"ka", "lo", "mi", "ra", "ten", "vor", "sel", "dra", "qu", "ix",
+        "po", "lan", "ter", "ne", "sto", "gri", "ba", "fen", "ul", "zo"};
+    private static final String[] CATEGORIES = {"Business", "Technical", "Academic", "Other", "Unclassified"};
+    private static final double[] CATEGORY_SHARES = {0.35, 0.30, 0.20, 0.10, 0.05};
+    
+    private static final int VOCABULARY_SIZE = 20000;
+    private static final double ZIPF_EXPONENT = 1.1;
+    private static final double MEDIAN_SIZE = 200 * 1024;
+    private static final double SIZE_SIGMA = 1.4;         // Log-normal spread: most files 20 KB - 2 MB, a few far larger
+    private static final long MAX_SIZE = 500L * 1024 * 1024;
+    private static final long NEWEST_UPLOAD = 1700000000000L;
+    private static final long UPLOAD_SPAN_MS = 3 * 365 * 24 * 3600 * 1000L;
+    
+    private final Random random;
+    private final String[] vocabulary;
+    private final double[] cumulative;     // Zipf CDF over the vocabulary
+    
+    /**
+     * @param seed Seed for every random choice; the same seed gives the same corpus
+     */
+    public SyntheticCorpus(long seed) {
+        this.random = new Random(seed);
+        this.vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            vocabulary[i] = i < COMMON_WORDS.length ? COMMON_WORDS[i] : inventWord(i);
+        }
+        this.cumulative = new double[VOCABULARY_SIZE];
+        double total = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            total += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            cumulative[i] /= total;
+        }
+    }
+    
+    /**
+     * @param count Number of documents
+     * @return Documents with unique IDs, in no particular order
+     */
+    public List<Document> documents(int count) {
+        List<Document> docs = new ArrayList<>(count);
+        String previousTitle = null;
+        for (int i = 0; i < count; i++) {
+            String title = previousTitle != null && random.nextInt(20) == 0
+                ? previousTitle + " v" + (2 + random.nextInt(5))     // Revised versions of the same document
+                : title();
+            previousTitle = title;
+            Document.FileType fileType = random.nextInt(10) < 6 ? Document.FileType.PDF : Document.FileType.DOCX;
+            String id = new UUID(random.nextLong(), random.nextLong()).toString();
+            docs.add(new Document(id, title, id, size(), fileType, category(), uploadDate(),
+                random.nextInt(3) == 0 ? "Author " + random.nextInt(500) : null, null));
+        }
+        return docs;
+    }
+    
+    /**
+     * @param sentences Number of sentences
+     * @return Body text drawn from the same vocabulary as the titles
+     */
+    public String content(int sentences) {
+        StringBuilder text = new StringBuilder();
+        for (int s = 0; s < sentences; s++) {
+            int words = 5 + random.nextInt(15);
+            for (int w = 0; w < words; w++) {
+                String word = random.nextInt(3) == 0 ? FILLER_WORDS[random.nextInt(FILLER_WORDS.length)] : word();
+                text.append(w == 0 ? capitalize(word) : word).append(w == words - 1 ? ". " : " ");
+            }
+        }
+        return text.toString().trim();
+    }
+    
+    /**
+     * @param count Number of texts
+     * @param minSentences Fewest sentences per text
+     * @param maxSentences Most sentences per text
+     * @return Body texts of varying length, to be reused across documents
+     */
+    public List<String> contents(int count, int minSentences, int maxSentences) {
+        List<String> texts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            texts.add(content(minSentences + random.nextInt(maxSentences - minSentences + 1)));
+        }
+        return texts;
+    }
+    
+    /**
+     * @param docs Documents to hold
+     * @return In-memory store holding the documents, standing in for Datastore
+     */
+    public static InMemoryDocumentStore store(List<Document> docs) {
+        InMemoryDocumentStore store = new InMemoryDocumentStore();
+        for (Document doc : docs) {
+            store.put(doc);
+        }
+        return store;
+    }
+    
+    /**
+     * @param docs Documents already stored
+     * @return Manager over in-memory stand-ins for Cloud Storage and Datastore
+     */
+    public static DocumentManager manager(List<Document> docs) {
+        return new DocumentManager(new InMemoryBlobStore(), store(docs));
+    }
+    
+    private String title() {
+        int words = 2 + (int) Math.min(10, Math.abs(random.nextGaussian() * 3));
+        StringBuilder title = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            String word = w > 0 && random.nextInt(6) == 0 ? FILLER_WORDS[random.nextInt(FILLER_WORDS.length)] : word();
+            if (w > 0) {
+                title.append(' ');
+            }
+            title.append(w == 0 || random.nextInt(3) == 0 ? capitalize(word) : word);
+        }
+        if (random.nextInt(4) == 0) {
+            title.append(' ').append(2015 + random.nextInt(10));
+        }
+        return title.toString();
+    }
+    
+    private String word() {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return vocabulary[Math.min(VOCABULARY_SIZE - 1, index < 0 ? -index - 1 : index)];
+    }
+    
+    private long size() {
+        double size = MEDIAN_SIZE * Math.exp(random.nextGaussian() * SIZE_SIGMA);
+        return Math.max(1024, Math.min(MAX_SIZE, (long) size));
+    }
+    
+    private String category() {
+        double r = random.nextDouble();
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            r -= CATEGORY_SHARES[i];
+            if (r < 0) {
+                return CATEGORIES[i];
+            }
+        }
+        return CATEGORIES[CATEGORIES.length - 1];
+    }
+    
+    // Skewed towards recent uploads: the age is the span times a squared uniform value
+    private long uploadDate() {
+        double u = random.nextDouble();
+        return NEWEST_UPLOAD - (long) (u * u * UPLOAD_SPAN_MS);
+    }
+    
+    private String inventWord(int i) {
+        StringBuilder word = new StringBuilder();
+        int n = i;
+        do {
+            word.append(SYLLABLES[n % SYLLABLES.length]);
+            n /= SYLLABLES.length;
+        } while (n > 0);
+        return word.toString();
+    }
+    
+    private static String capitalize(String word) {
+        return word.substring(0, 1).toUpperCase(Locale.ROOT) + word.substring(1);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,25 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+/**
+ * Entry point of benchmarks.jar. Takes the usual JMH command line and adds
+ * the GC profiler when no profiler is named, so every standard run reports
+ * allocation per operation (gc.alloc.rate.norm) and GC counts next to the
+ * timings. Naming profilers replaces it, e.g. -prof gc -prof stack.
+ */
+public class BenchmarkRunner {
+    
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (new CommandLineOptions(args).getProfilers().isEmpty()) {
+            arguments.add("-prof");
+            arguments.add("gc");
+        }
+        Main.main(arguments.toArray(new String[0]));
+    }
+}
\ No newline at end of file
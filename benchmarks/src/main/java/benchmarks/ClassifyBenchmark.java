@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Latency of classifying one document with a model trained on synthetic
+ * documents, by title alone and with body text. With memoSize 0 every call
+ * scores the tree; otherwise repeated feature vectors hit the memo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ClassifyBenchmark {
+    
+    /** Implemented by ClassifyWorkload */
+    public interface Workload {
+        /** Trains a model remembering up to memoSize predictions */
+        void setUp(int memoSize) throws Exception;
+        /** Classifies the n-th of 100k unseen documents */
+        Object classify(int n, boolean withContent) throws Exception;
+    }
+    
+    @Param({"0", "10000"})
+    public int memoSize;
+    
+    private Workload workload;
+    
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workloads.create(Workload.class);
+        workload.setUp(memoSize);
+    }
+    
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+    
+    @Benchmark
+    public Object classifyTitle(Cursor cursor) throws Exception {
+        return workload.classify(cursor.next++, false);
+    }
+    
+    @Benchmark
+    public Object classifyWithContent(Cursor cursor) throws Exception {
+        return workload.classify(cursor.next++, true);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JSON responses through JsonResponseWriter, the path every servlet
+ * response takes: document listings with every field and with only id and
+ * title, one page with a cursor, and a statistics map. Results are the
+ * bytes written, after gzip when the client accepts it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class JsonBenchmark {
+    
+    /** Implemented by JsonWorkload */
+    public interface Workload {
+        void setUp(int documents, boolean gzip);
+        long sendDocuments(String fields) throws Exception;
+        long sendPage() throws Exception;
+        long sendStatistics() throws Exception;
+    }
+    
+    @Param({"100", "10000"})
+    public int documents;
+    
+    @Param({"identity", "gzip"})
+    public String encoding;
+    
+    private Workload workload;
+    
+    @Setup
+    public void setUp() {
+        workload = Workloads.create(Workload.class);
+        workload.setUp(documents, encoding.equals("gzip"));
+    }
+    
+    @Benchmark
+    public long sendDocuments() throws Exception {
+        return workload.sendDocuments(null);
+    }
+    
+    @Benchmark
+    public long sendDocumentsIdAndTitle() throws Exception {
+        return workload.sendDocuments("id,title");
+    }
+    
+    @Benchmark
+    public long sendPage() throws Exception {
+        return workload.sendPage();
+    }
+    
+    @Benchmark
+    public long sendStatistics() throws Exception {
+        return workload.sendStatistics();
+    }
+}
\ No newline at end of file
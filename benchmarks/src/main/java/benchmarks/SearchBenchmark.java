@@ -0,0 +1,95 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Indexing and query throughput of DocumentSearchEngine over an on-disk
+ * index in a temporary directory. The result cache is off, so every query
+ * is searched; searches see new documents only when the workload refreshes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class SearchBenchmark {
+    private static final int BATCH_SIZE = 1000;
+    
+    /** Implemented by SearchWorkload */
+    public interface Workload {
+        /** Opens an empty index */
+        void open() throws Exception;
+        /** Indexes the next documents of a 100k corpus, with body text */
+        void index(int count) throws Exception;
+        /** Opens an index holding a corpus of this size, with body text */
+        void build(int size) throws Exception;
+        /** Runs the n-th query of a fixed mix, on its own or filtered by category and type and sorted by date */
+        Object search(int n, boolean filtered) throws Exception;
+        /** Lists the documents matching the filters, without a query */
+        Object filter() throws Exception;
+        /** Closes and deletes the index */
+        void close() throws Exception;
+    }
+    
+    @State(Scope.Benchmark)
+    public static class Indexing {
+        Workload workload;
+        
+        @Setup(Level.Iteration)
+        public void open() throws Exception {
+            workload = Workloads.create(Workload.class);
+            workload.open();
+        }
+        
+        @TearDown(Level.Iteration)
+        public void close() throws Exception {
+            workload.close();
+        }
+    }
+    
+    @State(Scope.Benchmark)
+    public static class Querying {
+        @Param({"10000", "100000"})
+        public int size;
+        
+        Workload workload;
+        
+        @Setup(Level.Trial)
+        public void build() throws Exception {
+            workload = Workloads.create(Workload.class);
+            workload.build(size);
+        }
+        
+        @TearDown(Level.Trial)
+        public void close() throws Exception {
+            workload.close();
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class QueryCursor {
+        int next;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void indexDocuments(Indexing state) throws Exception {
+        state.workload.index(BATCH_SIZE);
+    }
+    
+    @Benchmark
+    public Object search(Querying state, QueryCursor cursor) throws Exception {
+        return state.workload.search(cursor.next++, false);
+    }
+    
+    @Benchmark
+    public Object searchFilteredByDate(Querying state, QueryCursor cursor) throws Exception {
+        return state.workload.search(cursor.next++, true);
+    }
+    
+    @Benchmark
+    public Object filterOnly(Querying state) throws Exception {
+        return state.workload.filter();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * DocumentSorter against the JDK sorts on the same documents. The JDK
+ * baselines order titles with String.CASE_INSENSITIVE_ORDER, which is
+ * cheaper than the sorter's collation but the closest plain comparator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SortBenchmark {
+    
+    /** Implemented by SortWorkload */
+    public interface Workload {
+        void setUp(int size);
+        Object sortByTitle();
+        Object arraysSort();
+        Object arraysParallelSort();
+        Object listSort();
+        Object sortSnapshotByCategoryAndSize();
+    }
+    
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+    
+    private Workload workload;
+    
+    @Setup
+    public void setUp() {
+        workload = Workloads.create(Workload.class);
+        workload.setUp(size);
+    }
+    
+    @Benchmark
+    public Object sortByTitle() {
+        return workload.sortByTitle();
+    }
+    
+    @Benchmark
+    public Object arraysSort() {
+        return workload.arraysSort();
+    }
+    
+    @Benchmark
+    public Object arraysParallelSort() {
+        return workload.arraysParallelSort();
+    }
+    
+    @Benchmark
+    public Object listSort() {
+        return workload.listSort();
+    }
+    
+    @Benchmark
+    public Object sortSnapshotByCategoryAndSize() {
+        return workload.sortSnapshotByCategoryAndSize();
+    }
+}
\ No newline at end of file
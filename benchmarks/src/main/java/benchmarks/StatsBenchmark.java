@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Statistics generation: reading the incremental aggregates, rescanning
+ * the store, summarizing a columnar snapshot, and the cost an upload adds
+ * through the listener.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class StatsBenchmark {
+    
+    /** Implemented by StatsWorkload */
+    public interface Workload {
+        void setUp(int size);
+        Object generateStatistics();
+        Object rescanStatistics();
+        Object snapshotStatistics();
+        void onDocumentStored(int n);
+    }
+    
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+    
+    private Workload workload;
+    private int next;
+    
+    @Setup
+    public void setUp() {
+        workload = Workloads.create(Workload.class);
+        workload.setUp(size);
+    }
+    
+    @Benchmark
+    public Object generateStatistics() {
+        return workload.generateStatistics();
+    }
+    
+    @Benchmark
+    public Object rescanStatistics() {
+        return workload.rescanStatistics();
+    }
+    
+    @Benchmark
+    public Object snapshotStatistics() {
+        return workload.snapshotStatistics();
+    }
+    
+    // The aggregates keep growing, so the size param barely matters here
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void onDocumentStored() {
+        workload.onDocumentStored(next++);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,23 @@
+package benchmarks;
+
+/**
+ * Loads the workloads the benchmarks run. The application classes live in
+ * the default package, which code in a named package can't refer to, while
+ * JMH requires benchmarks to be in one. So each benchmark declares what it
+ * measures as a Workload interface, and a default-package class of the same
+ * name without the "Benchmark" suffix, e.g. SortWorkload for
+ * SortBenchmark.Workload, implements it against the application.
+ */
+final class Workloads {
+    
+    private Workloads() {}
+    
+    static <T> T create(Class<T> type) {
+        String name = type.getEnclosingClass().getSimpleName().replace("Benchmark", "Workload");
+        try {
+            return type.cast(Class.forName(name).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Failed to create workload " + name, e);
+        }
+    }
+}
\ No newline at end of file